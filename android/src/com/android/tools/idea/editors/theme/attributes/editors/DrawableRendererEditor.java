@@ -65,6 +65,7 @@ public class DrawableRendererEditor extends GraphicalResourceRendererEditor {
     final RenderService service = RenderService.get(facet);
     RenderTask task = service.createTask(null, configuration, DRAWABLE_RENDER_LOGGER, null);
     assert task != null;
+    task.setPriority(RenderService.Priority.THUMBNAIL);
     return task;
   }
 
@@ -20,13 +20,17 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.intellij.analysis.AnalysisScope;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
+import com.intellij.psi.util.PsiModificationTracker;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
 
 public class CodeAnalysisMain {
 
@@ -36,6 +40,16 @@ public class CodeAnalysisMain {
 
   private PsiCFGScene mScene;
 
+  /**
+   * The PSI modification count and the files of the last analysis.
+   * The CFGs and the call graph in mScene are reused as long as
+   * neither of them changes. The files are kept as VirtualFiles, so
+   * that the PSI of the last analysis is not held on to.
+   */
+  private long mLastModificationCount = -1;
+
+  private Set<VirtualFile> mLastFiles;
+
   private CodeAnalysisMain(Project project) {
     mProject = project;
   }
@@ -55,11 +69,6 @@ public class CodeAnalysisMain {
   public void analyze(@NotNull AnalysisScope scope) {
 
 //    PsiDocumentManager.getInstance(mProject).commitAllDocuments();
-    //Create a mScene for this project.
-    //Each project has its own mScene.
-    mScene = PsiCFGScene.createFreshInstance(mProject);
-    PsiCFGAnalysisUtil AnalysisUtil = mScene.analysisUtil;
-
     //Get list of java files available in this project
     int fileCount = scope.getFileCount();
     //LOG.info("File count in scope " + fileCount);
@@ -67,6 +76,25 @@ public class CodeAnalysisMain {
     //LOG.info("File count in visitor " + allFilesInScope.length);
     //outputFileNames(allFilesInScope);
 
+    //Reuse the results of the last analysis if no PSI changed since
+    //and the same files are analyzed
+    long modificationCount = PsiModificationTracker.SERVICE.getInstance(mProject).getModificationCount();
+    Set<VirtualFile> files = Sets.newHashSet();
+    for (PsiFile file : allFilesInScope) {
+      files.add(file.getVirtualFile());
+    }
+    if (mScene != null && mScene == PsiCFGScene.getInstance(mProject)
+        && modificationCount == mLastModificationCount && files.equals(mLastFiles)) {
+      return;
+    }
+    mLastModificationCount = -1;
+    mLastFiles = null;
+
+    //Create a mScene for this project.
+    //Each project has its own mScene.
+    mScene = PsiCFGScene.createFreshInstance(mProject);
+    PsiCFGAnalysisUtil AnalysisUtil = mScene.analysisUtil;
+
     //Extract all java classes from java files.
     //Consider these classes are application classes.
     //As they are written by developer
@@ -82,6 +110,9 @@ public class CodeAnalysisMain {
     //AnalysisUtil.summarizeStage();
     AnalysisUtil.performStage5();
     AnalysisUtil.performStage6();
+
+    mLastModificationCount = modificationCount;
+    mLastFiles = files;
   }
 
   private void outputFileNames(PsiFile[] filesArray) {
@@ -18,6 +18,7 @@ package com.android.tools.idea.experimental;
 import com.android.tools.idea.experimental.actions.PermissionUsageQuickFix;
 import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
 import com.android.tools.idea.experimental.codeanalysis.callgraph.Callgraph;
+import com.android.tools.idea.experimental.codeanalysis.callgraph.CompactCallgraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGClass;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGPartialMethodSignature;
@@ -28,7 +29,6 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.stmt.Stmt;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.value.Value;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.intellij.analysis.AnalysisScope;
 import com.intellij.codeInsight.daemon.GroupNames;
 import com.intellij.codeInspection.*;
@@ -51,6 +51,10 @@ public class PermissionUsageInspection extends GlobalInspectionTool {
 
   private static final String PROBLEM_DESC = "Permission not checked for statement :";
 
+  //Call chains are not searched further than this many methods
+  private static final int MAX_CALL_CHAIN_LENGTH = 6;
+  private static final int NO_CALL_SITE = -1;
+
   private PsiCFGClass LocationManagerCFGClass;
   private PsiCFGClass GoogleMapsAPIClass;
 
@@ -58,10 +62,16 @@ public class PermissionUsageInspection extends GlobalInspectionTool {
   private Project mProject;
   private PsiCFGScene mScene;
   private Callgraph mCG;
+  private CompactCallgraph mCompactCG;
 
   private List<PsiCFGMethod> longestMethodStack;
   private List<GraphNode> longestNodeStack;
 
+  //The call chain searched by dfsFindCallChain, as method and invocation site ids
+  private int[] methodIdStack;
+  private int[] callSiteIdStack;
+  private boolean[] methodOnStack;
+
   private List<Pair<PsiCFGMethod, PsiElement>> invocationSiteCollection;
 
   private Map<PsiMethod, PsiElement> taggedMethodsWithElement;
@@ -103,6 +113,7 @@ public class PermissionUsageInspection extends GlobalInspectionTool {
     analysisMain.analyze(scope);
     mScene = PsiCFGScene.getInstance(mProject);
     mCG = mScene.getCallGraph();
+    mCompactCG = mCG.getCompactGraph();
 
     targetMethodList = Lists.newArrayList();
     LocationManagerCFGClass = null;
@@ -179,21 +190,20 @@ public class PermissionUsageInspection extends GlobalInspectionTool {
   }
 
   private void resolveInitialCaller(PsiCFGMethod method) {
-    Set<PsiCFGMethod> calledMethods = Sets.newHashSet();
-    //Stack<PsiCFGMethod> callStack = new Stack<>();
-    Stack<GraphNode> nodeStack = new Stack<>();
-    Stack<PsiCFGMethod> methodStack = new Stack<>();
     longestMethodStack = Lists.newArrayList();
     longestNodeStack = Lists.newArrayList();
 
-    if ((!mCG.calleeMethodToCallerMethodReturnMap.containsKey(method)) &&
-        (!mCG.callerMethodToCalleeMethodMap.containsKey(method))) {
+    int methodId = mCompactCG.getMethodId(method);
+    if (methodId == CompactCallgraph.NO_METHOD ||
+        (mCompactCG.getCallerCount(methodId) == 0 && mCompactCG.getCalleeCount(methodId) == 0)) {
       return;
     }
-    dfsFindCallChain(nodeStack,
-                     methodStack,
-                     null,
-                     method);
+    methodIdStack = new int[MAX_CALL_CHAIN_LENGTH];
+    callSiteIdStack = new int[MAX_CALL_CHAIN_LENGTH];
+    if (methodOnStack == null || methodOnStack.length != mCompactCG.getMethodCount()) {
+      methodOnStack = new boolean[mCompactCG.getMethodCount()];
+    }
+    dfsFindCallChain(0, NO_CALL_SITE, methodId);
 
 
 
@@ -216,37 +226,49 @@ public class PermissionUsageInspection extends GlobalInspectionTool {
     return null;
   }
 
-  private void dfsFindCallChain(
-    Stack<GraphNode> nodeStack,
-    Stack<PsiCFGMethod> methodStack,
-    GraphNode node,
-    PsiCFGMethod target) {
-
-
-    if ((methodStack.size() > 5) || methodStack.contains(target)) {
-      if (longestMethodStack.size() < methodStack.size()) {
-        longestNodeStack = Lists.newArrayList(nodeStack);
-        longestMethodStack = Lists.newArrayList(methodStack);
-      }
+  /**
+   * Search the longest chain of callers of the target method,
+   * over the compact call graph.
+   *
+   * @param depth      The number of methods already on the stack
+   * @param callSiteId The invocation site of the callee that is in target,
+   *                   or NO_CALL_SITE for the first method
+   * @param target     The id of the method to push
+   */
+  private void dfsFindCallChain(int depth, int callSiteId, int target) {
+    if ((depth == MAX_CALL_CHAIN_LENGTH) || methodOnStack[target]) {
+      recordLongestCallChain(depth);
       return;
     }
 
-    methodStack.push(target);
-    nodeStack.push(node);
-
-    if (mCG.calleeMethodToCallerGraphNodeMap.containsKey(target)) {
-      Collection<GraphNode> invocationSites = mCG.calleeMethodToCallerGraphNodeMap.get(target);
-      for (GraphNode nextTarget: invocationSites) {
-        PsiCFGMethod targetMethod = mCG.getNodesParentMethod(nextTarget);
-        if (targetMethod != null) {
-          dfsFindCallChain(nodeStack, methodStack, nextTarget, targetMethod);
+    methodIdStack[depth] = target;
+    callSiteIdStack[depth] = callSiteId;
+    methodOnStack[target] = true;
+
+    int callerSiteCount = mCompactCG.getCallerSiteCount(target);
+    if (callerSiteCount > 0) {
+      for (int i = 0; i < callerSiteCount; i++) {
+        int nextCallSite = mCompactCG.getCallerSite(target, i);
+        int targetMethod = mCompactCG.getCallSiteMethodId(nextCallSite);
+        if (targetMethod != CompactCallgraph.NO_METHOD) {
+          dfsFindCallChain(depth + 1, nextCallSite, targetMethod);
         }
       }
     } else {
       //Top
-      if (longestMethodStack.size() < methodStack.size()) {
-        longestNodeStack = Lists.newArrayList(nodeStack);
-        longestMethodStack = Lists.newArrayList(methodStack);
+      recordLongestCallChain(depth + 1);
+    }
+    methodOnStack[target] = false;
+  }
+
+  private void recordLongestCallChain(int depth) {
+    if (longestMethodStack.size() < depth) {
+      longestNodeStack = Lists.newArrayListWithCapacity(depth);
+      longestMethodStack = Lists.newArrayListWithCapacity(depth);
+      for (int i = 0; i < depth; i++) {
+        int callSiteId = callSiteIdStack[i];
+        longestNodeStack.add(callSiteId == NO_CALL_SITE ? null : mCompactCG.getCallSite(callSiteId));
+        longestMethodStack.add(mCompactCG.getMethod(methodIdStack[i]));
       }
     }
   }
@@ -25,18 +25,24 @@ import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil
 import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGDebugUtil;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Queues;
 import com.google.common.collect.Sets;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
 
 /**
  * A class that saves all information of the interprocedural control
- * flow analysis
+ * flow analysis.
+ *
+ * The CFGs of the classes of different files are built concurrently,
+ * so the methods that look up or create classes and record invocation
+ * nodes are synchronized. The invocation nodes and nested classes found
+ * by each task are recorded separately and added to the scene in task
+ * order, so that their order does not depend on the thread scheduling.
  */
 public class PsiCFGScene {
   private static ConcurrentMap<Project, PsiCFGScene> instanceMap = Maps.newConcurrentMap();
@@ -59,6 +65,13 @@ public class PsiCFGScene {
 
   public Deque<PsiCFGClass> workingList;
 
+  /**
+   * The lists that record the invocation nodes and nested classes
+   * found on the current thread, while it runs a CFG construction task.
+   */
+  private final ThreadLocal<List<GraphNode>> mRecordedInvocationNodes = new ThreadLocal<>();
+
+  private final ThreadLocal<List<PsiCFGClass>> mRecordedNestedClasses = new ThreadLocal<>();
 
   //private Map<PsiClass, PsiCFGClassBase> mPsiClassPsiMap;
 
@@ -78,9 +91,9 @@ public class PsiCFGScene {
     analysisUtil = new PsiCFGAnalysisUtil(this);
     mAppPsiClassPsiCFGClassMap = Maps.newHashMap();
     mLibraryPsiClassPsiCFGClassMap = Maps.newHashMap();
-    mLambdaPsiCFGClassMap = Maps.newHashMap();
+    mLambdaPsiCFGClassMap = Maps.newConcurrentMap();
     mInvocationNodes = Lists.newArrayList();
-    workingList = Queues.newArrayDeque();
+    workingList = new ConcurrentLinkedDeque<>();
   }
 
   public void setCallGraph(Callgraph callGraph) {
@@ -92,10 +105,41 @@ public class PsiCFGScene {
   }
 
   public void addInvocationNode(GraphNode node) {
-    mInvocationNodes.add(node);
+    List<GraphNode> recordedNodes = mRecordedInvocationNodes.get();
+    if (recordedNodes != null) {
+      recordedNodes.add(node);
+      return;
+    }
+    synchronized (this) {
+      mInvocationNodes.add(node);
+    }
+  }
+
+  /**
+   * Record the invocation nodes and the nested classes found on the
+   * current thread in the given lists, instead of adding them to the
+   * scene, until {@link #stopRecording()} is called.
+   */
+  public void startRecording(@NotNull List<GraphNode> invocationNodes, @NotNull List<PsiCFGClass> nestedClasses) {
+    mRecordedInvocationNodes.set(invocationNodes);
+    mRecordedNestedClasses.set(nestedClasses);
+  }
+
+  public void stopRecording() {
+    mRecordedInvocationNodes.remove();
+    mRecordedNestedClasses.remove();
+  }
+
+  /**
+   * Add the invocation nodes and the nested classes recorded by a task
+   * to the scene.
+   */
+  public synchronized void addRecorded(@NotNull List<GraphNode> invocationNodes, @NotNull List<PsiCFGClass> nestedClasses) {
+    mInvocationNodes.addAll(invocationNodes);
+    workingList.addAll(nestedClasses);
   }
 
-  public GraphNode[] getAllInvocationNode() {
+  public synchronized GraphNode[] getAllInvocationNode() {
     return mInvocationNodes.toArray(GraphNode.EMPTY_ARRAY);
   }
 
@@ -211,7 +255,7 @@ public class PsiCFGScene {
    * @param name The qualified name of the class
    * @return The PsiCFGClass instance.
    */
-  public PsiCFGClass getPsiCFGClass(String name) {
+  public synchronized PsiCFGClass getPsiCFGClass(String name) {
     if (mAppClassNamePsiMap.containsKey(name)) {
       return mAppClassNamePsiMap.get(name);
     }
@@ -230,7 +274,7 @@ public class PsiCFGScene {
    * @param name The PsiClass
    * @return The PsiCFGClass instance.
    */
-  public PsiCFGClass getPsiCFGClass(PsiClass psiClazz) {
+  public synchronized PsiCFGClass getPsiCFGClass(PsiClass psiClazz) {
     if (mAppPsiClassPsiCFGClassMap.containsKey(psiClazz)) {
       return mAppPsiClassPsiCFGClassMap.get(psiClazz);
     }
@@ -243,7 +287,7 @@ public class PsiCFGScene {
     }
   }
 
-  public PsiCFGClass getOrCreateCFGClass(PsiClass psiClazz) {
+  public synchronized PsiCFGClass getOrCreateCFGClass(PsiClass psiClazz) {
     PsiCFGClass retClass = getPsiCFGClass(psiClazz);
     if (retClass == null) {
       retClass = createAndParsePsiCFGClassOnTheFly(psiClazz);
@@ -251,9 +295,9 @@ public class PsiCFGScene {
     return retClass;
   }
 
-  public PsiCFGClass createPsiCFGClass(PsiClass psiClass,
-                                       PsiFile declaringFile,
-                                       boolean bAppClass) {
+  public synchronized PsiCFGClass createPsiCFGClass(PsiClass psiClass,
+                                                    PsiFile declaringFile,
+                                                    boolean bAppClass) {
     String fullClassName = psiClass.getQualifiedName();
     if (fullClassName == null) {
       //TODO: Local or anonymous class
@@ -304,7 +348,7 @@ public class PsiCFGScene {
    * @param psiClass
    * @return
    */
-  public PsiCFGClass createAndParsePsiCFGClassOnTheFly(PsiClass psiClass) {
+  public synchronized PsiCFGClass createAndParsePsiCFGClassOnTheFly(PsiClass psiClass) {
     //Sanity check. Make sure the psiClass param is really not in side the App classes.
     if (mAppPsiClassPsiCFGClassMap.containsKey(psiClass)) {
       //Not expected. Print a log
@@ -329,7 +373,7 @@ public class PsiCFGScene {
    * @param clazz
    * @return
    */
-  public PsiCFGClass createLibraryCFGClassesWInnerClasses(PsiClass clazz) {
+  public synchronized PsiCFGClass createLibraryCFGClassesWInnerClasses(PsiClass clazz) {
     ArrayList<PsiClass> classList = Lists.newArrayList();
     retriveClassAndInnerClass(classList, clazz);
     classList.remove(clazz);
@@ -358,10 +402,10 @@ public class PsiCFGScene {
   }
 
 
-  public PsiCFGClass getOrCreateNestedClass(PsiClass nestedClass,
-                                            PsiCFGClass parentCFGClass,
-                                            PsiCFGMethod declaringMethod,
-                                            BlockGraph declaringBlock) {
+  public synchronized PsiCFGClass getOrCreateNestedClass(PsiClass nestedClass,
+                                                         PsiCFGClass parentCFGClass,
+                                                         PsiCFGMethod declaringMethod,
+                                                         BlockGraph declaringBlock) {
     PsiCFGClass currentNestedCFGClass =
       new PsiCFGClass(nestedClass, parentCFGClass.getDeclearingFile());
 
@@ -380,7 +424,13 @@ public class PsiCFGScene {
 
     parentCFGClass.addNestedInnerClass(currentNestedCFGClass, className);
 
-    workingList.addLast(currentNestedCFGClass);
+    List<PsiCFGClass> recordedClasses = mRecordedNestedClasses.get();
+    if (recordedClasses != null) {
+      recordedClasses.add(currentNestedCFGClass);
+    }
+    else {
+      workingList.addLast(currentNestedCFGClass);
+    }
 
     this.mAppPsiClassPsiCFGClassMap.put(nestedClass, currentNestedCFGClass);
     this.mAppClassNamePsiMap
@@ -102,6 +102,21 @@ public class Callgraph {
 
   public Set<PsiCFGMethod> allMethodsInGraph;
 
+  private CompactCallgraph mCompactGraph;
+
+  /**
+   * Get the int indexed copy of this call graph, for traversals.
+   * It is created on first use, so it must not be called before
+   * the call graph is completely built. It is kept in addition to
+   * the multimaps, so only request it for traversals that need it.
+   */
+  public synchronized CompactCallgraph getCompactGraph() {
+    if (mCompactGraph == null) {
+      mCompactGraph = new CompactCallgraph(this);
+    }
+    return mCompactGraph;
+  }
+
   protected Callgraph() {
     this.callerNodeToMethodsMap = Multimaps.newSetMultimap(
       Maps.newHashMap(), new Supplier<Set<PsiCFGMethod>>() {
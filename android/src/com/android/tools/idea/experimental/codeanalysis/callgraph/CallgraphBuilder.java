@@ -36,7 +36,10 @@ import com.intellij.psi.PsiClassType;
 import com.intellij.psi.PsiType;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -55,12 +58,19 @@ public class CallgraphBuilder {
 
   protected Map<Pair<PsiCFGClass, PsiCFGPartialMethodSignature>, Set<PsiCFGMethod>> mMethodOrderTreeMap;
 
+  /**
+   * The class itself and all its transitive sub classes and
+   * implementations, computed once per class.
+   */
+  protected Map<PsiCFGClass, List<PsiCFGClass>> mSubClassConeMap;
+
   public PsiCFGClass JAVA_LANG_OBJECT;
 
   public CallgraphBuilder(@NotNull PsiCFGScene scene, @NotNull PsiCFGAnalysisUtil analysisUtil) {
     this.mScene = scene;
     this.mAnalysisUtil = analysisUtil;
     this.mMethodOrderTreeMap = Maps.newHashMap();
+    this.mSubClassConeMap = Maps.newHashMap();
     JAVA_LANG_OBJECT = mScene.getPsiCFGClass("java.lang.Object");
   }
 
@@ -204,14 +214,20 @@ public class CallgraphBuilder {
       methodList.addAll(mMethodOrderTreeMap.get(keyPair));
     }
     else {
-      recursivelyQueryConcreteMethodFromChildrenWithOutCache(methodList, receiverClass, signature);
-      mMethodOrderTreeMap.put(keyPair, Sets.newHashSet(methodList));
+      Set<PsiCFGMethod> concreteMethods = Sets.newLinkedHashSet();
+      for (PsiCFGClass subClass : getSubClassCone(receiverClass)) {
+        PsiCFGMethod method = subClass.getMethod(signature);
+        if (method != null && (!method.isAbstract())) {
+          concreteMethods.add(method);
+        }
+      }
+      mMethodOrderTreeMap.put(keyPair, concreteMethods);
+      methodList.addAll(concreteMethods);
     }
   }
 
   public void recursivelyQueryConcreteMethodFromChildrenWithOutCache(
     ArrayList<PsiCFGMethod> methodList, PsiCFGClass receiverClass, PsiCFGPartialMethodSignature signature) {
-    Pair<PsiCFGClass, PsiCFGPartialMethodSignature> keyPair = new Pair<>(receiverClass, signature);
     PsiCFGMethod method = receiverClass.getMethod(signature);
     if (method != null && (!method.isAbstract())) {
       methodList.add(method);
@@ -219,13 +235,40 @@ public class CallgraphBuilder {
 
     //Go through sub classes and interfaces
     for (PsiCFGClass subClass : receiverClass.getSubClassSet()) {
-      if (mMethodOrderTreeMap.containsKey(keyPair)) {
-        methodList.addAll(mMethodOrderTreeMap.get(keyPair));
+      recursivelyQueryConcreteMethodFromChildrenWithOutCache(methodList, subClass, signature);
+    }
+  }
+
+  /**
+   * Get the class and all its transitive sub classes and implementations,
+   * each of them once, in depth first order.
+   * The cone of a class is computed once and shared by all the
+   * signatures queried on it.
+   */
+  @NotNull
+  public List<PsiCFGClass> getSubClassCone(@NotNull PsiCFGClass clazz) {
+    List<PsiCFGClass> cone = mSubClassConeMap.get(clazz);
+    if (cone != null) {
+      return cone;
+    }
+
+    Set<PsiCFGClass> visited = Sets.newLinkedHashSet();
+    Deque<PsiCFGClass> stack = new ArrayDeque<>();
+    stack.push(clazz);
+    while (!stack.isEmpty()) {
+      PsiCFGClass currentClass = stack.pop();
+      if (!visited.add(currentClass)) {
+        continue;
       }
-      else {
-        recursivelyQueryConcreteMethodFromChildrenWithOutCache(methodList, subClass, signature);
+      for (PsiCFGClass subClass : currentClass.getSubClassSet()) {
+        if (!visited.contains(subClass)) {
+          stack.push(subClass);
+        }
       }
     }
+    cone = Lists.newArrayList(visited);
+    mSubClassConeMap.put(clazz, cone);
+    return cone;
   }
 
   public void addInvokeExprWithThisRef(GraphNode node, PsiType thisBaseType, PsiCFGMethod method) {
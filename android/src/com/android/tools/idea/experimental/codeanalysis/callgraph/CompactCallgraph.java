@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.callgraph;
+
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable, int indexed copy of a {@link Callgraph}.
+ * Methods and invocation sites are numbered, and the edges are
+ * stored in compressed sparse row form: the edges of method i
+ * are the entries [offsets[i], offsets[i + 1]) of the edge array.
+ * Traversals over it only touch primitive arrays, instead of
+ * hashing PsiCFGMethods and GraphNodes for every edge.
+ * <p>
+ * It is kept next to the multimaps of the call graph, which the
+ * builder and the dot output still use, so it adds to the memory
+ * used by the call graph rather than replacing it. The edges of
+ * the control flow graphs of the methods are not copied.
+ */
+public class CompactCallgraph {
+
+  public static final int NO_METHOD = -1;
+
+  private final PsiCFGMethod[] mMethods;
+  private final TObjectIntHashMap<PsiCFGMethod> mMethodIds;
+
+  private final GraphNode[] mCallSites;
+
+  //The id of the method that contains each invocation site, or NO_METHOD
+  private final int[] mCallSiteMethods;
+
+  //Invocation sites that call each method
+  private final int[] mCallerSiteOffsets;
+  private final int[] mCallerSites;
+
+  //Methods called by each method
+  private final int[] mCalleeOffsets;
+  private final int[] mCallees;
+
+  //Methods that call each method
+  private final int[] mCallerOffsets;
+  private final int[] mCallers;
+
+  CompactCallgraph(@NotNull Callgraph cg) {
+    TObjectIntHashMap<PsiCFGMethod> methodIds = new TObjectIntHashMap<>();
+    List<PsiCFGMethod> methods = Lists.newArrayList();
+    for (PsiCFGMethod method : cg.allMethodsInGraph) {
+      addMethod(methodIds, methods, method);
+    }
+    for (PsiCFGMethod method : cg.calleeMethodToCallerGraphNodeMap.keySet()) {
+      addMethod(methodIds, methods, method);
+    }
+    mMethods = methods.toArray(PsiCFGMethod.EMPTY_ARRAY);
+    mMethodIds = methodIds;
+
+    TObjectIntHashMap<GraphNode> callSiteIds = new TObjectIntHashMap<>();
+    List<GraphNode> callSites = Lists.newArrayList();
+    for (GraphNode node : cg.calleeMethodToCallerGraphNodeMap.values()) {
+      if (!callSiteIds.containsKey(node)) {
+        callSiteIds.put(node, callSites.size());
+        callSites.add(node);
+      }
+    }
+    mCallSites = callSites.toArray(GraphNode.EMPTY_ARRAY);
+    mCallSiteMethods = new int[mCallSites.length];
+    for (int i = 0; i < mCallSites.length; i++) {
+      PsiCFGMethod parentMethod = cg.getNodesParentMethod(mCallSites[i]);
+      mCallSiteMethods[i] = parentMethod == null ? NO_METHOD : getMethodId(parentMethod);
+    }
+
+    mCallerSiteOffsets = new int[mMethods.length + 1];
+    mCallerSites = new int[cg.calleeMethodToCallerGraphNodeMap.size()];
+    fillRows(cg.calleeMethodToCallerGraphNodeMap, callSiteIds, mCallerSiteOffsets, mCallerSites);
+
+    mCalleeOffsets = new int[mMethods.length + 1];
+    mCallees = new int[cg.callerMethodToCalleeMethodMap.size()];
+    fillRows(cg.callerMethodToCalleeMethodMap, mMethodIds, mCalleeOffsets, mCallees);
+
+    mCallerOffsets = new int[mMethods.length + 1];
+    mCallers = new int[cg.calleeMethodToCallerMethodReturnMap.size()];
+    fillRows(cg.calleeMethodToCallerMethodReturnMap, mMethodIds, mCallerOffsets, mCallers);
+  }
+
+  private static void addMethod(@NotNull TObjectIntHashMap<PsiCFGMethod> methodIds, @NotNull List<PsiCFGMethod> methods,
+                                @NotNull PsiCFGMethod method) {
+    if (!methodIds.containsKey(method)) {
+      methodIds.put(method, methods.size());
+      methods.add(method);
+    }
+  }
+
+  /**
+   * Fill the CSR rows of all methods, in method id order,
+   * from a multimap keyed by method.
+   */
+  private <T> void fillRows(@NotNull Multimap<PsiCFGMethod, T> map, @NotNull TObjectIntHashMap<T> targetIds,
+                            @NotNull int[] offsets, @NotNull int[] edges) {
+    int edgeCount = 0;
+    for (int i = 0; i < mMethods.length; i++) {
+      offsets[i] = edgeCount;
+      Collection<T> targets = map.get(mMethods[i]);
+      for (T target : targets) {
+        edges[edgeCount++] = targetIds.get(target);
+      }
+    }
+    offsets[mMethods.length] = edgeCount;
+  }
+
+  public int getMethodCount() {
+    return mMethods.length;
+  }
+
+  @NotNull
+  public PsiCFGMethod getMethod(int methodId) {
+    return mMethods[methodId];
+  }
+
+  /**
+   * Get the id of the method, or NO_METHOD if the method is
+   * not part of the call graph.
+   */
+  public int getMethodId(@NotNull PsiCFGMethod method) {
+    return mMethodIds.containsKey(method) ? mMethodIds.get(method) : NO_METHOD;
+  }
+
+  public int getCallSiteCount() {
+    return mCallSites.length;
+  }
+
+  @NotNull
+  public GraphNode getCallSite(int callSiteId) {
+    return mCallSites[callSiteId];
+  }
+
+  /**
+   * Get the id of the method that contains the invocation site,
+   * or NO_METHOD if it is not in a method.
+   */
+  public int getCallSiteMethodId(int callSiteId) {
+    return mCallSiteMethods[callSiteId];
+  }
+
+  public int getCallerSiteCount(int methodId) {
+    return mCallerSiteOffsets[methodId + 1] - mCallerSiteOffsets[methodId];
+  }
+
+  /**
+   * Get the id of the index-th invocation site that calls the method
+   */
+  public int getCallerSite(int methodId, int index) {
+    return mCallerSites[mCallerSiteOffsets[methodId] + index];
+  }
+
+  public int getCalleeCount(int methodId) {
+    return mCalleeOffsets[methodId + 1] - mCalleeOffsets[methodId];
+  }
+
+  /**
+   * Get the id of the index-th method called by the method
+   */
+  public int getCallee(int methodId, int index) {
+    return mCallees[mCalleeOffsets[methodId] + index];
+  }
+
+  public int getCallerCount(int methodId) {
+    return mCallerOffsets[methodId + 1] - mCallerOffsets[methodId];
+  }
+
+  /**
+   * Get the id of the index-th method that calls the method
+   */
+  public int getCaller(int methodId, int index) {
+    return mCallers[mCallerOffsets[methodId] + index];
+  }
+
+  @Nullable
+  public PsiCFGMethod getCallSiteMethod(int callSiteId) {
+    int methodId = mCallSiteMethods[callSiteId];
+    return methodId == NO_METHOD ? null : mMethods[methodId];
+  }
+}
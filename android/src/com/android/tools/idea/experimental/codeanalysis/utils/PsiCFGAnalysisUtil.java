@@ -23,14 +23,30 @@ import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGField;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.MethodGraph;
 import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.SystemProperties;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class PsiCFGAnalysisUtil {
+  /**
+   * Whether the CFGs of the classes of different files are built concurrently.
+   * Turn it off to build them one file at a time, e.g. when debugging.
+   */
+  private static boolean parallelCFGConstruction =
+    SystemProperties.getBooleanProperty("android.code.analysis.parallel.cfg", true);
+
   private PsiCFGScene mScene;
   private PsiClass mLangOjectClass;
 
@@ -87,31 +103,115 @@ public class PsiCFGAnalysisUtil {
     mScene.workingList.addAll(Arrays.asList(appClasses));
 
     while (!mScene.workingList.isEmpty()) {
-      //While the working list is not empty
-      //Process the working list
-      PsiCFGClass currentClass = mScene.workingList.removeFirst();
-      PsiCFGMethod[] allMethods = currentClass.getAllMethods();
-
-      for (PsiCFGMethod currentMethod : allMethods) {
-        //Abstract method does not have a body
-        //Lambda methods' CFG is created by the time it is decleared
-        if (currentMethod.isAbstract() || currentMethod.isLambda()) {
-          continue;
+      //Process the working list, one task per file.
+      //The nested classes found while building the CFGs are
+      //added to the working list and processed in the next round
+      List<CFGConstructionTask> tasks = Lists.newArrayList();
+      for (List<PsiCFGClass> classes : drainWorkingListByFile()) {
+        tasks.add(new CFGConstructionTask(classes));
+      }
+      if (!parallelCFGConstruction) {
+        tasks.forEach(this::runTask);
+      }
+      else {
+        boolean completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+          tasks, ProgressManager.getInstance().getProgressIndicator(), true, false, task -> {
+            runTask(task);
+            return true;
+          });
+        if (!completed) {
+          throw new ProcessCanceledException();
         }
+      }
+
+      //Merge the results in task order, so that the order of the
+      //invocation nodes and of the next round is the same on every run
+      for (CFGConstructionTask task : tasks) {
+        mScene.addRecorded(task.mInvocationNodes, task.mNestedClasses);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  public static void setParallelCFGConstruction(boolean parallel) {
+    parallelCFGConstruction = parallel;
+  }
+
+  private void runTask(@NotNull CFGConstructionTask task) {
+    mScene.startRecording(task.mInvocationNodes, task.mNestedClasses);
+    try {
+      task.mClasses.forEach(this::constructMethodGraphs);
+    }
+    finally {
+      mScene.stopRecording();
+    }
+  }
+
+  /**
+   * The classes of one file whose CFGs are built by one task, and the
+   * invocation nodes and nested classes found while building them
+   */
+  private static class CFGConstructionTask {
+    private final List<PsiCFGClass> mClasses;
+    private final List<GraphNode> mInvocationNodes = Lists.newArrayList();
+    private final List<PsiCFGClass> mNestedClasses = Lists.newArrayList();
 
-        PsiMethod methodRef = currentMethod.getMethodRef();
-        if (methodRef != null) {
-          PsiCodeBlock codeBlock = methodRef.getBody();
+    private CFGConstructionTask(@NotNull List<PsiCFGClass> classes) {
+      mClasses = classes;
+    }
+  }
 
-          if (codeBlock == null) {
-            PsiCFGDebugUtil.LOG.info("In " + currentClass.getQualifiedClassName() + "."
-                                     + currentMethod.getName() + "Code block is null");
-            continue;
-          }
+  /**
+   * Remove all classes from the working list, grouped by the file
+   * that declares them. Classes of the same file are built by the
+   * same task, as they share their nested and anonymous classes.
+   */
+  private List<List<PsiCFGClass>> drainWorkingListByFile() {
+    Map<PsiFile, List<PsiCFGClass>> classesByFile = Maps.newLinkedHashMap();
+    List<List<PsiCFGClass>> retList = Lists.newArrayList();
+    PsiCFGClass currentClass;
+    while ((currentClass = mScene.workingList.pollFirst()) != null) {
+      PsiFile file = currentClass.getDeclearingFile();
+      if (file == null) {
+        retList.add(Lists.newArrayList(currentClass));
+        continue;
+      }
+      List<PsiCFGClass> classes = classesByFile.get(file);
+      if (classes == null) {
+        classes = Lists.newArrayList();
+        classesByFile.put(file, classes);
+        retList.add(classes);
+      }
+      classes.add(currentClass);
+    }
+    return retList;
+  }
 
-          MethodGraph cfg = CFGUtil.constructMethodGraph(mScene, codeBlock, currentMethod);
-          currentMethod.setControlFlowGraph(cfg);
+  /**
+   * Create the intraprocedural CFGs of the methods of the given class
+   */
+  private void constructMethodGraphs(@NotNull PsiCFGClass currentClass) {
+    PsiCFGMethod[] allMethods = currentClass.getAllMethods();
+
+    for (PsiCFGMethod currentMethod : allMethods) {
+      //Abstract method does not have a body
+      //Lambda methods' CFG is created by the time it is decleared
+      if (currentMethod.isAbstract() || currentMethod.isLambda()) {
+        continue;
+      }
+
+      PsiMethod methodRef = currentMethod.getMethodRef();
+      if (methodRef != null) {
+        PsiCodeBlock codeBlock = methodRef.getBody();
+
+        if (codeBlock == null) {
+          PsiCFGDebugUtil.LOG.info("In " + currentClass.getQualifiedClassName() + "."
+                                   + currentMethod.getName() + "Code block is null");
+          continue;
         }
+
+        MethodGraph cfg = CFGUtil.constructMethodGraph(mScene, codeBlock, currentMethod);
+        currentMethod.setControlFlowGraph(cfg);
       }
     }
   }
@@ -40,12 +40,18 @@ import com.android.tools.idea.rendering.RenderTask;
 import com.android.tools.idea.res.*;
 import com.android.utils.HtmlBuilder;
 import com.android.utils.SdkUtils;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
@@ -72,6 +78,15 @@ import java.net.URL;
 import java.util.*;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.android.SdkConstants.DOT_PNG;
 import static com.android.SdkConstants.DOT_WEBP;
@@ -81,6 +96,17 @@ import static com.android.tools.idea.gradle.project.model.AndroidModuleModel.EXP
 import static com.android.utils.SdkUtils.hasImageExtension;
 
 public class AndroidJavaDocRenderer {
+  /** Rendered documentation, per configuration it was rendered for (or per module when rendered without one) */
+  private static final Cache<Object, DocCache> ourDocCaches = CacheBuilder.newBuilder().weakKeys().maximumSize(100).build();
+
+  /** Drawable previews rendered with layoutlib, per configuration they were rendered for */
+  private static final Cache<Configuration, PreviewCache> ourPreviewCaches = CacheBuilder.newBuilder().weakKeys().maximumSize(20).build();
+
+  /** Incremented whenever a drawable preview finished rendering in the background, so documentation showing its placeholder is rendered again */
+  private static final AtomicLong ourPreviewGeneration = new AtomicLong();
+
+  /** Time to wait for a drawable preview before showing a placeholder in its place */
+  private static final long PREVIEW_TIMEOUT_MS = 1000;
 
   /** Renders the Javadoc for a resource of given type and name. */
   @Nullable
@@ -103,6 +129,20 @@ public class AndroidJavaDocRenderer {
   /** Renders the Javadoc for a resource of given type and name. If configuration is not null, it will be used to resolve the resource. */
   @Nullable
   public static String render(@NotNull Module module, @Nullable Configuration configuration, @NotNull ResourceUrl url) {
+    DocCache cache = getDocCache(module, configuration);
+    String key = url.toString();
+    String doc = cache.myDocs.get(key);
+    if (doc == null) {
+      doc = doRender(module, configuration, url);
+      if (doc != null) {
+        cache.myDocs.put(key, doc);
+      }
+    }
+    return doc;
+  }
+
+  @Nullable
+  private static String doRender(@NotNull Module module, @Nullable Configuration configuration, @NotNull ResourceUrl url) {
     ResourceValueRenderer renderer = ResourceValueRenderer.create(url.type, module, configuration);
     boolean framework = url.framework;
     if (renderer == null || framework && renderer.getFrameworkResources() == null || !framework && renderer.getAppResources() == null) {
@@ -120,6 +160,28 @@ public class AndroidJavaDocRenderer {
     return valueDoc;
   }
 
+  /**
+   * Returns the documentation cache of the given configuration, or of the module if the configuration is null, discarding it if
+   * the resources, the project roots or the configuration changed, or previews finished rendering since it was created
+   */
+  @NotNull
+  private static DocCache getDocCache(@NotNull Module module, @Nullable Configuration configuration) {
+    Object owner = configuration != null ? configuration : module;
+    AppResourceRepository appResources = AppResourceRepository.getAppResources(module, false);
+    long resourceStamp = appResources != null ? appResources.getModificationCount() : -1;
+    long rootsStamp = ProjectRootManager.getInstance(module.getProject()).getModificationCount();
+    long configurationStamp = configuration != null ? configuration.getModificationCount() : -1;
+    long previewGeneration = ourPreviewGeneration.get();
+
+    DocCache cache = ourDocCaches.getIfPresent(owner);
+    if (cache == null || cache.myResourceStamp != resourceStamp || cache.myRootsStamp != rootsStamp ||
+        cache.myConfigurationStamp != configurationStamp || cache.myPreviewGeneration != previewGeneration) {
+      cache = new DocCache(resourceStamp, rootsStamp, configurationStamp, previewGeneration);
+      ourDocCaches.put(owner, cache);
+    }
+    return cache;
+  }
+
   @NotNull
   private static String renderAttributeDoc(@NotNull Module module, @Nullable Configuration configuration, @NotNull String name) {
     AttributeDefinition def = ResolutionUtils.getAttributeDefinition(module, configuration, name);
@@ -1084,8 +1146,6 @@ public class AndroidJavaDocRenderer {
       }
       else {
         if (myConfiguration != null) {
-          RenderTask renderTask = DrawableRendererEditor.configureRenderTask(myModule, myConfiguration);
-
           // Find intrinsic size
           int width = 100;
           int height = 100;
@@ -1097,34 +1157,28 @@ public class AndroidJavaDocRenderer {
             }
           }
 
-          renderTask.setOverrideRenderSize(width, height);
-          BufferedImage image = renderTask.renderDrawable(resolvedValue);
-          if (image != null) {
-            // Need to write it somewhere
-            try {
-              File tempFile = FileUtil.createTempFile("render", DOT_PNG);
-              tempFile.deleteOnExit();
-              boolean ok = ImageIO.write(image, "PNG", tempFile);
-              if (ok) {
-                URL fileUrl = null;
-                try {
-                  fileUrl = SdkUtils.fileToUrl(tempFile);
-                }
-                catch (MalformedURLException ignore) {
-                }
-                if (fileUrl != null) {
-                  builder.beginDiv("background-color:gray;padding:10px");
-                  builder.addImage(fileUrl, null);
-                  builder.endDiv();
-                }
-              }
-            }
-            catch (IOException e) {
-              renderError(builder, e.toString());
+          Future<URL> preview = getPreview(myConfiguration, file, resolvedValue, width, height);
+          try {
+            URL fileUrl = preview.get(PREVIEW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (fileUrl != null) {
+              builder.beginDiv("background-color:gray;padding:10px");
+              builder.addImage(fileUrl, null);
+              builder.endDiv();
+            } else {
+              renderError(builder, "Couldn't render " + file);
             }
-          } else {
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             renderError(builder, "Couldn't render " + file);
           }
+          catch (ExecutionException e) {
+            renderError(builder, e.getCause().toString());
+          }
+          catch (TimeoutException e) {
+            // Shown until the preview is rendered; the documentation is rendered again the next time it is requested
+            builder.addItalic("Rendering " + file.getName() + "...");
+          }
 
         } else {
           renderError(builder, path);
@@ -1132,6 +1186,49 @@ public class AndroidJavaDocRenderer {
       }
     }
 
+    /**
+     * Returns the preview of the given drawable rendered with layoutlib, rendering it in the background if it isn't rendered yet
+     */
+    @NotNull
+    private Future<URL> getPreview(@NotNull Configuration configuration, @NotNull File file, @NotNull ResourceValue resolvedValue,
+                                   int width, int height) {
+      // The drawable may reference other resources, so previews are discarded when any of them changes too
+      PreviewCache cache = ourPreviewCaches.getIfPresent(configuration);
+      long configurationStamp = configuration.getModificationCount();
+      AppResourceRepository appResources = AppResourceRepository.getAppResources(myModule, false);
+      long resourceStamp = appResources != null ? appResources.getModificationCount() : -1;
+      if (cache == null || cache.myConfigurationStamp != configurationStamp || cache.myResourceStamp != resourceStamp) {
+        cache = new PreviewCache(configurationStamp, resourceStamp);
+        ourPreviewCaches.put(configuration, cache);
+      }
+
+      String key = file.getPath() + ':' + file.lastModified() + ':' + width + 'x' + height;
+      return computePreview(cache.myPreviews, key, () -> renderPreview(configuration, resolvedValue, width, height));
+    }
+
+    @Nullable
+    private URL renderPreview(@NotNull Configuration configuration, @NotNull ResourceValue resolvedValue, int width, int height)
+      throws IOException {
+      RenderTask renderTask = ApplicationManager.getApplication().runReadAction(
+        (Computable<RenderTask>)() -> DrawableRendererEditor.configureRenderTask(myModule, configuration));
+      BufferedImage image;
+      try {
+        renderTask.setOverrideRenderSize(width, height);
+        image = renderTask.renderDrawable(resolvedValue);
+      }
+      finally {
+        renderTask.dispose();
+      }
+      if (image == null) {
+        return null;
+      }
+
+      // Need to write it somewhere
+      File tempFile = FileUtil.createTempFile("render", DOT_PNG);
+      tempFile.deleteOnExit();
+      return ImageIO.write(image, "PNG", tempFile) ? SdkUtils.fileToUrl(tempFile) : null;
+    }
+
     private static int px2dp(int px, Density density) {
       return (int)((float)px * Density.MEDIUM.getDpiValue() / density.getDpiValue());
     }
@@ -1325,6 +1422,74 @@ public class AndroidJavaDocRenderer {
     }
   }
 
+  /**
+   * Documentation rendered for one module or configuration, valid as long as the stamps it was rendered for don't change. It must not
+   * refer to its module or configuration, which would keep the weak key of the cache alive.
+   */
+  private static class DocCache {
+    final long myResourceStamp;
+    final long myRootsStamp;
+    final long myConfigurationStamp;
+    final long myPreviewGeneration;
+    final ConcurrentMap<String, String> myDocs = new ConcurrentHashMap<>();
+
+    private DocCache(long resourceStamp, long rootsStamp, long configurationStamp, long previewGeneration) {
+      myResourceStamp = resourceStamp;
+      myRootsStamp = rootsStamp;
+      myConfigurationStamp = configurationStamp;
+      myPreviewGeneration = previewGeneration;
+    }
+  }
+
+  /**
+   * Returns the preview cached for the given key, rendering it in the background if it isn't cached yet. Previews that failed to
+   * render are not kept, so they are rendered again the next time they are requested.
+   */
+  @VisibleForTesting
+  @NotNull
+  static Future<URL> computePreview(@NotNull ConcurrentMap<String, Future<URL>> previews, @NotNull String key,
+                                    @NotNull Callable<URL> renderer) {
+    return previews.computeIfAbsent(key, k -> {
+      CompletableFuture<URL> future = new CompletableFuture<>();
+      ApplicationManager.getApplication().executeOnPooledThread(() -> {
+        URL url = null;
+        Exception failure = null;
+        try {
+          url = renderer.call();
+        }
+        catch (Exception e) {
+          failure = e;
+        }
+        if (url == null) {
+          previews.remove(k, future);
+        }
+        if (failure != null) {
+          future.completeExceptionally(failure);
+        }
+        else {
+          future.complete(url);
+        }
+        ourPreviewGeneration.incrementAndGet();
+      });
+      return future;
+    });
+  }
+
+  /**
+   * Drawable previews rendered for one configuration and one version of the app resources, keyed by drawable file, its time stamp and
+   * the rendered size
+   */
+  private static class PreviewCache {
+    final long myConfigurationStamp;
+    final long myResourceStamp;
+    final ConcurrentMap<String, Future<URL>> myPreviews = new ConcurrentHashMap<>();
+
+    private PreviewCache(long configurationStamp, long resourceStamp) {
+      myConfigurationStamp = configurationStamp;
+      myResourceStamp = resourceStamp;
+    }
+  }
+
   /** Normal display style */
   private static final int MASK_NORMAL = 0;
   /** Display style for flavor folders that are selected */
@@ -20,18 +20,20 @@ import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.psi.xml.*;
-import com.intellij.util.containers.HashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.w3c.dom.*;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Converter which takes a PSI hierarchy for an XML file or document, and
@@ -44,13 +46,27 @@ import java.util.Map;
  * converter only attempts to make the DOM correct as far as Lint cares (meaning that it
  * only worries about the details Lint cares about; currently this means it only wraps elements,
  * text and comment nodes.)
+ * <p>
+ * The DOM nodes are created lazily, as lint walks the tree, and keep the children and attributes
+ * they have created, so the tree of a file is cached and shared by the lint passes over it until
+ * the file changes.
  */
 class DomPsiConverter {
+  /**
+   * The DOM tree of a file, until the file changes. Resource files are linted on every edit and in batch
+   * runs, and large ones (such as values files with thousands of strings) are expensive to wrap again each
+   * time. The tree wraps the PSI of the file, so it is kept in the file itself and is discarded with it.
+   */
+  private static final Key<CachedValue<DomDocument>> DOM_DOCUMENT_KEY = Key.create("lint.dom.document");
+
   private DomPsiConverter() {
   }
 
   /**
-   * Convert the given {@link XmlFile} to a DOM tree
+   * Convert the given {@link XmlFile} to a DOM tree.
+   * <p>
+   * The tree is cached as long as the file is not modified, so callers get the same tree for an
+   * unchanged file. The tree is read-only, and safe to walk from several threads at once.
    *
    * @param xmlFile the file to be converted
    * @return a corresponding W3C DOM tree
@@ -58,12 +74,10 @@ class DomPsiConverter {
   @Nullable
   public static Document convert(@NotNull XmlFile xmlFile) {
     try {
-      XmlDocument xmlDocument = xmlFile.getDocument();
-      if (xmlDocument == null) {
-        return null;
-      }
-
-      return convert(xmlDocument);
+      return CachedValuesManager.getManager(xmlFile.getProject()).getCachedValue(xmlFile, DOM_DOCUMENT_KEY, () -> {
+        XmlDocument xmlDocument = xmlFile.getDocument();
+        return CachedValueProvider.Result.create(xmlDocument != null ? convert(xmlDocument) : null, xmlFile);
+      }, false);
     }
     catch (ProcessCanceledException e) {
       // Ignore: common occurrence, e.g. we're running lint as part of an editor background
@@ -88,8 +102,8 @@ class DomPsiConverter {
    * @param document the document to be converted
    * @return a corresponding W3C DOM tree
    */
-  @Nullable
-  private static Document convert(@NotNull XmlDocument document)  {
+  @NotNull
+  private static DomDocument convert(@NotNull XmlDocument document)  {
     return new DomDocument(document);
   }
 
@@ -284,64 +298,69 @@ class DomPsiConverter {
     }
   }
 
+  /**
+   * Attributes of an element, in arrays rather than maps: elements have few attributes, so a scan is
+   * as fast as a hash lookup, and a lot cheaper to create for the thousands of elements of a large file
+   */
   private static class DomNamedNodeMap implements NamedNodeMap {
-    @NotNull protected final Map<String, DomNode> myMap;
-    @NotNull protected final Map<String, Map<String, DomNode>> myNsMap;
-    @NotNull protected final List<DomNode> mItems;
+    @NotNull private final DomAttr[] myItems;
+    /** The namespace of each attribute, or the empty string for attributes without a namespace */
+    @NotNull private final String[] myNamespaces;
+    /** The name of each attribute: the local name if it has a namespace, and the full name otherwise */
+    @NotNull private final String[] myNames;
 
     private DomNamedNodeMap(@NotNull DomElement element, @NotNull XmlAttribute[] attributes) {
       int count = attributes.length;
-      int namespaceCount = 0;
-      for (XmlAttribute attribute : attributes) {
-        if (!attribute.getNamespace().isEmpty()) {
-          namespaceCount++;
-        }
-      }
-      myMap = new HashMap<>(count - namespaceCount);
-      myNsMap = new HashMap<>(namespaceCount);
-      mItems = new ArrayList<>(count);
+      myItems = new DomAttr[count];
+      myNamespaces = new String[count];
+      myNames = new String[count];
 
       assert element.myOwner != null; // True for elements, not true for non-Element nodes
-      for (XmlAttribute attribute : attributes) {
-        DomAttr attr = new DomAttr(element.myOwner, element, attribute);
-        mItems.add(attr);
+      for (int i = 0; i < count; i++) {
+        XmlAttribute attribute = attributes[i];
+        myItems[i] = new DomAttr(element.myOwner, element, attribute);
         String namespace = attribute.getNamespace();
-        if (!namespace.isEmpty()) {
-          Map<String, DomNode> map = myNsMap.get(namespace);
-          if (map == null) {
-            map = new HashMap<>();
-            myNsMap.put(namespace, map);
-          }
-          map.put(attribute.getLocalName(), attr);
-        } else {
-          myMap.put(attribute.getName(), attr);
+        myNamespaces[i] = namespace;
+        myNames[i] = namespace.isEmpty() ? attribute.getName() : attribute.getLocalName();
+      }
+    }
+
+    /** Returns the index of the given attribute, or -1; like a map, the last one wins if an attribute is repeated */
+    private int indexOf(@NotNull String namespace, @NotNull String name) {
+      for (int i = myItems.length - 1; i >= 0; i--) {
+        if (name.equals(myNames[i]) && namespace.equals(myNamespaces[i])) {
+          return i;
         }
       }
+      return -1;
     }
 
     @Override
     public Node item(int i) {
-      return mItems.get(i);
+      return myItems[i];
     }
 
     @Override
     public int getLength() {
-      return mItems.size();
+      return myItems.length;
     }
 
+    @Nullable
     @Override
     public Node getNamedItem(@NotNull String s) {
-      return myMap.get(s);
+      int index = indexOf("", s);
+      return index != -1 ? myItems[index] : null;
     }
 
     @Nullable
     @Override
     public Node getNamedItemNS(@NotNull String namespace, @NotNull String name) throws DOMException {
-      Map<String, DomNode> map = myNsMap.get(namespace);
-      if (map != null) {
-        return map.get(name);
+      if (namespace.isEmpty()) {
+        // Attributes without a namespace are only found by getNamedItem
+        return null;
       }
-      return null;
+      int index = indexOf(namespace, name);
+      return index != -1 ? myItems[index] : null;
     }
 
     @NotNull
@@ -374,7 +393,8 @@ class DomPsiConverter {
     @Nullable protected final Document myOwner;
     @Nullable protected final DomNode myParent;
     @NotNull protected final XmlElement myElement;
-    @Nullable protected DomNodeList myChildren;
+    /** Created lazily; only published once complete, since the tree may be shared by several threads */
+    @Nullable protected volatile DomNodeList myChildren;
     @Nullable protected DomNode myNext;
     @Nullable protected DomNode myPrevious;
 
@@ -393,31 +413,42 @@ class DomPsiConverter {
     @NotNull
     @Override
     public DomNodeList getChildNodes() {
-      if (myChildren == null) {
-        PsiElement[] children = myElement.getChildren();
-        if (children.length > 0) {
-          DomNodeList list = new DomNodeList();
-          myChildren = list;
-          // True except for in DomDocument, which has custom getChildNodes
-          assert myOwner != null;
-
-          for (PsiElement child : children) {
-            if (child instanceof XmlTag) {
-              list.add(new DomElement(myOwner, this, (XmlTag) child));
-            } else if (child instanceof XmlText) {
-              list.add(new DomText(myOwner, this, (XmlText) child));
-            } else if (child instanceof XmlComment) {
-              list.add(new DomComment(myOwner, this, (XmlComment) child));
-            } else {
-              // Skipping other types for now; lint doesn't care about them.
-              // TODO: Consider whether we need CDATA.
-            }
+      DomNodeList children = myChildren;
+      if (children == null) {
+        synchronized (this) {
+          children = myChildren;
+          if (children == null) {
+            children = createChildNodes();
+            myChildren = children;
           }
+        }
+      }
+      return children;
+    }
+
+    @NotNull
+    protected DomNodeList createChildNodes() {
+      PsiElement[] children = myElement.getChildren();
+      if (children.length == 0) {
+        return EMPTY;
+      }
+      DomNodeList list = new DomNodeList();
+      // True except for in DomDocument, which has custom createChildNodes
+      assert myOwner != null;
+
+      for (PsiElement child : children) {
+        if (child instanceof XmlTag) {
+          list.add(new DomElement(myOwner, this, (XmlTag) child));
+        } else if (child instanceof XmlText) {
+          list.add(new DomText(myOwner, this, (XmlText) child));
+        } else if (child instanceof XmlComment) {
+          list.add(new DomComment(myOwner, this, (XmlComment) child));
         } else {
-          myChildren = EMPTY;
+          // Skipping other types for now; lint doesn't care about them.
+          // TODO: Consider whether we need CDATA.
         }
       }
-      return myChildren;
+      return list;
     }
 
     @Nullable
@@ -650,7 +681,7 @@ class DomPsiConverter {
 
   private static class DomDocument extends DomNode implements Document {
     @NotNull private final XmlDocument myPsiDocument;
-    @Nullable private DomElement myRoot;
+    @Nullable private volatile DomElement myRoot;
 
     private DomDocument(@NotNull XmlDocument document) {
       super(null, null, document);
@@ -678,17 +709,13 @@ class DomPsiConverter {
 
     @NotNull
     @Override
-    public DomNodeList getChildNodes() {
-      if (myChildren == null) {
-        DomNodeList list = new DomNodeList();
-        myChildren = list;
-        DomNode documentElement = (DomNode)getDocumentElement();
-        if (documentElement != null) {
-          list.add(documentElement);
-        }
+    protected DomNodeList createChildNodes() {
+      DomNodeList list = new DomNodeList();
+      DomNode documentElement = (DomNode)getDocumentElement();
+      if (documentElement != null) {
+        list.add(documentElement);
       }
-
-      return myChildren;
+      return list;
     }
 
     // From org.w3c.dom.Document:
@@ -708,15 +735,22 @@ class DomPsiConverter {
     @Nullable
     @Override
     public Element getDocumentElement() {
-      if (myRoot == null) {
-        XmlTag rootTag = myPsiDocument.getRootTag();
-        if (rootTag == null) {
-          return null;
+      DomElement root = myRoot;
+      if (root == null) {
+        synchronized (this) {
+          root = myRoot;
+          if (root == null) {
+            XmlTag rootTag = myPsiDocument.getRootTag();
+            if (rootTag == null) {
+              return null;
+            }
+            root = new DomElement(this, this, rootTag);
+            myRoot = root;
+          }
         }
-        myRoot = new DomElement(this, this, rootTag);
       }
 
-      return myRoot;
+      return root;
     }
 
     @NotNull
@@ -886,7 +920,7 @@ class DomPsiConverter {
 
   private static class DomElement extends DomNode implements Element {
     private final XmlTag myTag;
-    @Nullable private NamedNodeMap myAttributes;
+    @Nullable private volatile NamedNodeMap myAttributes;
 
     private DomElement(@NotNull Document owner, @NotNull DomNode parent, @NotNull XmlTag tag) {
       super(owner, parent, tag);
@@ -930,16 +964,19 @@ class DomPsiConverter {
         return application.runReadAction((Computable<NamedNodeMap>)this::getAttributes);
       }
 
-      if (myAttributes == null) {
-        XmlAttribute[] attributes = myTag.getAttributes();
-        if (attributes.length == 0) {
-         myAttributes = EMPTY_ATTRIBUTES;
-        } else {
-          myAttributes = new DomNamedNodeMap(this, attributes);
+      NamedNodeMap attributeMap = myAttributes;
+      if (attributeMap == null) {
+        synchronized (this) {
+          attributeMap = myAttributes;
+          if (attributeMap == null) {
+            XmlAttribute[] attributes = myTag.getAttributes();
+            attributeMap = attributes.length == 0 ? EMPTY_ATTRIBUTES : new DomNamedNodeMap(this, attributes);
+            myAttributes = attributeMap;
+          }
         }
       }
 
-      return myAttributes;
+      return attributeMap;
     }
 
     // From org.w3c.dom.Element:
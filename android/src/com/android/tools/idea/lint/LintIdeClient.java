@@ -497,7 +497,7 @@ public class LintIdeClient extends LintClient implements Disposable {
 
   private static List<Issue> ourReportedCustomIssues;
 
-  private static void recordCustomIssue(@NonNull Issue issue) {
+  private static synchronized void recordCustomIssue(@NonNull Issue issue) {
     if (ourReportedCustomIssues == null) {
       ourReportedCustomIssues = Lists.newArrayList();
     } else if (ourReportedCustomIssues.contains(issue)) {
@@ -507,7 +507,7 @@ public class LintIdeClient extends LintClient implements Disposable {
   }
 
   @Nullable
-  public static Issue findCustomIssue(@NonNull String errorMessage) {
+  public static synchronized Issue findCustomIssue(@NonNull String errorMessage) {
     if (ourReportedCustomIssues != null) {
       // We stash the original id into the error message such that we can
       // find it later
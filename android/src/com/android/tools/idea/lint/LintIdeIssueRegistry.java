@@ -17,6 +17,7 @@ package com.android.tools.idea.lint;
 
 import com.android.annotations.NonNull;
 import com.android.tools.lint.checks.*;
+import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.detector.api.*;
 
 import java.util.ArrayList;
@@ -53,15 +54,52 @@ public class LintIdeIssueRegistry extends BuiltinIssueRegistry {
   public static final Issue CUSTOM_ERROR = Issue.create(
     "CustomError", "Error from Custom Rule", CUSTOM_EXPLANATION, Category.CORRECTNESS, 5, Severity.ERROR, DUMMY_IMPLEMENTATION);
 
-  private static List<Issue> ourFilteredIssues;
+  private static volatile List<Issue> ourFilteredIssues;
+
+  private static final LintIdeIssueRegistry ourInstance = new LintIdeIssueRegistry();
 
   public LintIdeIssueRegistry() {
   }
 
+  /**
+   * Returns a shared registry, for callers which run lint often, such as the on-the-fly lint annotator. The issues are
+   * the same for all registries.
+   */
+  @NonNull
+  public static LintIdeIssueRegistry get() {
+    return ourInstance;
+  }
+
+  /**
+   * Computes the issue tables which {@link IssueRegistry} initializes lazily, and shares between all registries, up front.
+   * Call this before running several lint drivers concurrently, since those tables are not thread safe.
+   */
+  public void initializeCaches() {
+    getIssues();
+    getCategories();
+    getIssue(CUSTOM_WARNING.getId());
+  }
+
+  @NonNull
+  @Override
+  protected List<Issue> getIssuesForScope(@NonNull EnumSet<Scope> scope) {
+    // The per scope issue lists are cached in a static map in IssueRegistry
+    synchronized (LintIdeIssueRegistry.class) {
+      return super.getIssuesForScope(scope);
+    }
+  }
+
   @NonNull
   @Override
   public List<Issue> getIssues() {
-    if (ourFilteredIssues == null) {
+    List<Issue> issues = ourFilteredIssues;
+    if (issues != null) {
+      return issues;
+    }
+    synchronized (LintIdeIssueRegistry.class) {
+      if (ourFilteredIssues != null) {
+        return ourFilteredIssues;
+      }
       List<Issue> sIssues = super.getIssues();
       List<Issue> result = new ArrayList<Issue>(sIssues.size());
       for (Issue issue : sIssues) {
@@ -103,8 +141,7 @@ public class LintIdeIssueRegistry extends BuiltinIssueRegistry {
       }
       //noinspection AssignmentToStaticFieldFromInstanceMethod
       ourFilteredIssues = result;
+      return result;
     }
-
-    return ourFilteredIssues;
   }
 }
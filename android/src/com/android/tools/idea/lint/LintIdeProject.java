@@ -29,16 +29,25 @@ import com.android.tools.lint.detector.api.Project;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.intellij.facet.Facet;
+import com.intellij.facet.FacetManager;
+import com.intellij.facet.FacetManagerAdapter;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.roots.*;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.SimpleModificationTracker;
+import com.intellij.openapi.util.UserDataHolderEx;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.graph.Graph;
 import org.jetbrains.android.compiler.AndroidDexCompiler;
@@ -69,9 +78,16 @@ public class LintIdeProject extends Project {
    */
   public static final boolean SUPPORT_CLASS_FILES = false;
 
+  private static final Key<CachedValue<Module>> ANDROID_MODULE_KEY = Key.create("lint.android.module");
+  private static final Key<CachedValue<AndroidFacet>> ANDROID_FACET_KEY = Key.create("lint.android.facet");
+  private static final Key<SimpleModificationTracker> FACET_TRACKER_KEY = Key.create("lint.facet.tracker");
+
   protected AndroidVersion myMinSdkVersion;
   protected AndroidVersion myTargetSdkVersion;
 
+  /** Whether this project only provides the dependency graph of the project being checked, without any files to check itself */
+  private boolean myDependencyOnly;
+
   LintIdeProject(@NonNull LintClient client,
                  @NonNull File dir,
                  @NonNull File referenceDir) {
@@ -151,9 +167,79 @@ public class LintIdeProject extends Project {
     return Pair.<Project,Project>create(project,main);
   }
 
-  /** Find an Android module that depends on this module; prefer app modules over library modules */
+  /**
+   * Creates a project for checking one module of a larger batch run. Unlike {@link #createForSingleFile}, the module keeps its
+   * dependencies, and a library module gets an Android module which depends on it as its main project, the same as when all
+   * the modules are checked at once; the dependencies only provide context, and their files are neither scanned nor report
+   * issues, since they are checked on their own.
+   *
+   * @param client the lint client
+   * @param files the files of the module to check, or null to check the whole module
+   * @param module the module to create a project for
+   * @return a project for the module, as well as a project (or null) for the main Android module
+   */
+  @NonNull
+  public static Pair<Project,Project> createForModule(@NonNull LintIdeClient client,
+                                                      @Nullable List<VirtualFile> files,
+                                                      @NonNull Module module) {
+    List<Project> projects = Lists.newArrayList();
+    Map<Project,Module> projectMap = Maps.newHashMap();
+    Map<Module,Project> moduleMap = Maps.newHashMap();
+    Map<AndroidLibrary,Project> libraryMap = Maps.newHashMap();
+    // Don't pass on the files: a file filter drops the dependencies of the module
+    addProjects(client, module, null, moduleMap, libraryMap, projectMap, projects);
+
+    Project project = moduleMap.get(module);
+    Project main = null;
+    if (project != null) {
+      for (Project library : project.getAllLibraries()) {
+        // The dependencies are checked in their own request; here they only provide the project graph
+        library.setReportIssues(false);
+        if (library instanceof LintIdeProject) {
+          ((LintIdeProject)library).myDependencyOnly = true;
+        }
+      }
+      if (files != null) {
+        for (VirtualFile file : files) {
+          project.addFile(VfsUtilCore.virtualToIoFile(file));
+        }
+      }
+
+      if (!project.isAndroidProject() || project.isLibrary()) {
+        Module androidModule = findAndroidModule(module);
+        if (androidModule != null && !moduleMap.containsKey(androidModule)) {
+          LintModuleProject androidProject = createModuleProject(client, androidModule);
+          if (androidProject != null) {
+            androidProject.setReportIssues(false);
+            androidProject.setDirectLibraries(Collections.singletonList(project));
+            projectMap.put(androidProject, androidModule);
+            main = androidProject;
+          }
+        }
+      }
+    }
+    client.setModuleMap(projectMap);
+
+    //noinspection ConstantConditions
+    return Pair.create(project, main);
+  }
+
+  /**
+   * Find an Android module that depends on this module; prefer app modules over library modules. The result only depends on
+   * the module graph and facets, so it is cached until the project structure changes (for example after a Gradle sync), rather than
+   * computing the graph of all modules on every on-the-fly lint pass.
+   */
   @Nullable
   private static Module findAndroidModule(@NonNull final Module module) {
+    return CachedValuesManager.getManager(module.getProject()).getCachedValue(module, ANDROID_MODULE_KEY, () -> {
+      Module androidModule = computeAndroidModule(module);
+      com.intellij.openapi.project.Project project = module.getProject();
+      return CachedValueProvider.Result.create(androidModule, ProjectRootManager.getInstance(project), getFacetModificationTracker(project));
+    }, false);
+  }
+
+  @Nullable
+  private static Module computeAndroidModule(@NonNull final Module module) {
     // Search for dependencies of this module
     Graph<Module> graph = ApplicationManager.getApplication().runReadAction(new Computable<Graph<Module>>() {
       @Override
@@ -348,8 +434,58 @@ public class LintIdeProject extends Project {
     return findAndroidFacetInProject(project) != null;
   }
 
+  /**
+   * Returns an Android facet of the project, if any. Cached until the project structure or its facets change since it is
+   * looked up for every file annotated by lint.
+   */
   @Nullable
   private static AndroidFacet findAndroidFacetInProject(@NonNull com.intellij.openapi.project.Project project) {
+    return CachedValuesManager.getManager(project).getCachedValue(project, ANDROID_FACET_KEY, () -> {
+      AndroidFacet facet = computeAndroidFacetInProject(project);
+      return CachedValueProvider.Result.create(facet, ProjectRootManager.getInstance(project), getFacetModificationTracker(project));
+    }, false);
+  }
+
+  /**
+   * Returns a tracker that is incremented whenever a facet is added, removed or reconfigured in the given project. Facet changes
+   * do not necessarily touch the project roots, so the cached facet lookups above depend on this as well.
+   */
+  @NonNull
+  private static SimpleModificationTracker getFacetModificationTracker(@NonNull com.intellij.openapi.project.Project project) {
+    SimpleModificationTracker tracker = project.getUserData(FACET_TRACKER_KEY);
+    if (tracker != null) {
+      return tracker;
+    }
+    SimpleModificationTracker newTracker = new SimpleModificationTracker();
+    tracker = ((UserDataHolderEx)project).putUserDataIfAbsent(FACET_TRACKER_KEY, newTracker);
+    if (tracker == newTracker) {
+      project.getMessageBus().connect(project).subscribe(FacetManager.FACETS_TOPIC, new FacetManagerAdapter() {
+        @Override
+        public void facetAdded(@NonNull Facet facet) {
+          newTracker.incModificationCount();
+        }
+
+        @Override
+        public void facetRemoved(@NonNull Facet facet) {
+          newTracker.incModificationCount();
+        }
+
+        @Override
+        public void facetRenamed(@NonNull Facet facet, @NonNull String oldName) {
+          newTracker.incModificationCount();
+        }
+
+        @Override
+        public void facetConfigurationChanged(@NonNull Facet facet) {
+          newTracker.incModificationCount();
+        }
+      });
+    }
+    return tracker;
+  }
+
+  @Nullable
+  private static AndroidFacet computeAndroidFacetInProject(@NonNull com.intellij.openapi.project.Project project) {
     ModuleManager moduleManager = ModuleManager.getInstance(project);
     for (Module module : moduleManager.getModules()) {
       AndroidFacet facet = AndroidFacet.getInstance(module);
@@ -408,6 +544,13 @@ public class LintIdeProject extends Project {
     // the gradle data instead
   }
 
+  @Nullable
+  @Override
+  public List<File> getSubset() {
+    // Lint also scans the files of the libraries of a project for cross project checks; skip those of dependency-only projects
+    return myDependencyOnly ? Collections.<File>emptyList() : super.getSubset();
+  }
+
   protected static boolean depsDependsOn(@NonNull Project project, @NonNull String artifact) {
     // Checks project dependencies only; used when there is no model
     for (Project dependency : project.getDirectLibraries()) {
@@ -37,6 +37,7 @@ public class LintIdeRequest extends LintRequest {
   @Nullable private final List<VirtualFile> myFileList;
   @Nullable private com.android.tools.lint.detector.api.Project myMainProject;
   private final boolean myIncremental;
+  private boolean myModuleOnly;
 
   /**
    * Creates a new {@linkplain LintIdeRequest}.
@@ -59,6 +60,29 @@ public class LintIdeRequest extends LintRequest {
     myIncremental = incremental;
   }
 
+  /**
+   * Creates a request which only checks the files of a single module, with the same dependencies and main project as when
+   * all the modules are checked at once. Batch runs use this to check modules independently of each other, for issues that
+   * only look at one file at a time.
+   */
+  @NonNull
+  public static LintIdeRequest forModule(@NonNull LintIdeClient client, @NonNull Project project, @NonNull Module module) {
+    return forModule(client, project, module, null);
+  }
+
+  /**
+   * Like {@link #forModule(LintIdeClient, Project, Module)}, but only checks the given files of the module, if any
+   */
+  @NonNull
+  public static LintIdeRequest forModule(@NonNull LintIdeClient client,
+                                         @NonNull Project project,
+                                         @NonNull Module module,
+                                         @Nullable List<VirtualFile> files) {
+    LintIdeRequest request = new LintIdeRequest(client, project, files, Collections.singletonList(module), false);
+    request.myModuleOnly = true;
+    return request;
+  }
+
   @NonNull
   Project getProject() {
     return myProject;
@@ -91,7 +115,13 @@ public class LintIdeRequest extends LintRequest {
   @Override
   public Collection<com.android.tools.lint.detector.api.Project> getProjects() {
     if (projects == null) {
-      if (myIncremental && myFileList != null && myFileList.size() == 1 && myModules.size() == 1) {
+      if (myModuleOnly) {
+        Pair<com.android.tools.lint.detector.api.Project,com.android.tools.lint.detector.api.Project> pair =
+          LintIdeProject.createForModule(mLintClient, myFileList, myModules.get(0));
+        projects = pair.first != null ? Collections.singletonList(pair.first)
+                                      : Collections.<com.android.tools.lint.detector.api.Project>emptyList();
+        myMainProject = pair.second;
+      } else if (myIncremental && myFileList != null && myFileList.size() == 1 && myModules.size() == 1) {
         Pair<com.android.tools.lint.detector.api.Project,com.android.tools.lint.detector.api.Project> pair =
           LintIdeProject.createForSingleFile(mLintClient, myFileList.get(0), myModules.get(0));
         projects = pair.first != null ? Collections.singletonList(pair.first)
@@ -22,11 +22,13 @@ import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import com.intellij.psi.impl.source.tree.JavaElementType;
 import com.intellij.psi.tree.IElementType;
+import com.intellij.reference.SoftReference;
 import lombok.ast.*;
 
 /**
@@ -172,19 +174,40 @@ public class LombokPsiConverter {
     }
   };
 
+  /**
+   * The tree converted from a file, with the modification stamp of the file it was converted from. The same file is converted
+   * for each lint pass over it (on the fly and in batch runs), and usually does not change in between. The tree refers back to
+   * the PSI of its file, so it is stored on the file itself rather than in a map keyed by the file: it then goes away together
+   * with the file, and the soft reference lets it go earlier under memory pressure.
+   */
+  private static final Key<SoftReference<ConvertedUnit>> CONVERTED_UNIT_KEY = Key.create("lint.lombok.unit");
+
   private LombokPsiConverter() {
   }
 
   /**
-   * Convert the given {@link PsiJavaFile} to a Lombok AST {@link Node} tree
+   * Convert the given {@link PsiJavaFile} to a Lombok AST {@link Node} tree.
+   * <p>
+   * The tree is cached as long as the file is not modified, so callers get the same tree for an unchanged file and must not
+   * modify it. This is safe to call concurrently; the tree is only read by lint.
    *
    * @param javaFile the file to be converted
    * @return a corresponding Lombok AST tree
    */
   @Nullable
   public static CompilationUnit convert(@NonNull PsiJavaFile javaFile) {
+    long stamp = javaFile.getModificationStamp();
+    ConvertedUnit cached = SoftReference.dereference(javaFile.getUserData(CONVERTED_UNIT_KEY));
+    if (cached != null && cached.myStamp == stamp) {
+      return cached.myUnit;
+    }
     try {
-      return toCompilationUnit(javaFile);
+      CompilationUnit unit = toCompilationUnit(javaFile);
+      // Only cache trees of files that did not change while they were being converted
+      if (javaFile.getModificationStamp() == stamp) {
+        javaFile.putUserData(CONVERTED_UNIT_KEY, new SoftReference<>(new ConvertedUnit(stamp, unit)));
+      }
+      return unit;
     } catch (ProcessCanceledException e) {
       // Ignore: common occurrence, e.g. we're running lint as part of an editor background
       // and while lint is running the user switches files: the inspections framework will
@@ -1969,4 +1992,15 @@ public class LombokPsiConverter {
 
     return m;
   }
+
+  /** A Lombok tree and the modification stamp of the file it was converted from */
+  private static class ConvertedUnit {
+    private final long myStamp;
+    @NonNull private final CompilationUnit myUnit;
+
+    private ConvertedUnit(long stamp, @NonNull CompilationUnit unit) {
+      myStamp = stamp;
+      myUnit = unit;
+    }
+  }
 }
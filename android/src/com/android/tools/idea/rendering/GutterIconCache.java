@@ -16,24 +16,33 @@
 package com.android.tools.idea.rendering;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.concurrency.GuardedBy;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.resources.ResourceResolver;
 import com.android.ide.common.resources.ResourceUrl;
 import com.android.ide.common.vectordrawable.VdPreview;
 import com.android.utils.XmlUtils;
 import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.Gray;
 import com.intellij.util.RetinaImage;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.ui.JBUI;
 import com.intellij.util.ui.UIUtil;
-import icons.AndroidIcons;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
@@ -42,21 +51,48 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 import static com.android.SdkConstants.*;
 
+/**
+ * Cache of the small drawable thumbnails shown in the editor gutter and the property sheet.
+ * <p/>
+ * Thumbnails are keyed by file path and are only reused as long as the file has not been modified since they were created,
+ * so an edited drawable is reloaded without dropping the thumbnails of all other files. The cache is bounded by the total
+ * number of thumbnail pixels and evicts the least recently used thumbnails first.
+ * <p/>
+ * {@link #getIcon(String, ResourceResolver, Icon)} loads the thumbnail on a background thread and returns a placeholder icon
+ * which paints the thumbnail (and repaints the component it was painted on) once it is available, so painting the gutter
+ * never waits for image decoding. {@link ResourceResolver} is not thread safe, so the resource references of vector
+ * drawables are still resolved on the UI thread, between parsing and rasterizing the drawable in the background.
+ */
 public class GutterIconCache {
   private static final Logger LOG = Logger.getInstance(GutterIconCache.class);
   private static final int MAX_WIDTH = JBUI.scale(16);
   private static final int MAX_HEIGHT = JBUI.scale(16);
-  private static final Icon NONE = AndroidIcons.Android; // placeholder
+
+  /** Maximum number of thumbnail pixels kept in the cache; about 4 MB of ARGB data */
+  private static final long MAX_CACHED_PIXELS = 1 << 20;
+  /** Maximum number of threads decoding thumbnails at the same time */
+  private static final int MAX_LOADING_THREADS = 2;
 
   private static final GutterIconCache ourInstance = new GutterIconCache();
-  // TODO: Timestamps?
-  private Map<String,Icon> myThumbnailCache = Maps.newHashMap();
-  private boolean myRetina;
-  private static boolean ourRetinaEnabled = true;
+  private static volatile boolean ourRetinaEnabled = true;
+
+  private final Cache<String, Thumbnail> myThumbnailCache = CacheBuilder.newBuilder()
+    .maximumWeight(MAX_CACHED_PIXELS)
+    .weigher((String path, Thumbnail thumbnail) -> thumbnail.getPixelCount())
+    .build();
+
+  /** Thumbnails being loaded in the background, along with the placeholder icons waiting for them */
+  @GuardedBy("myPendingLoads")
+  private final Map<String, PendingLoad> myPendingLoads = Maps.newHashMap();
+  private final Executor myLoadExecutor = new BoundedTaskExecutor(PooledThreadExecutor.INSTANCE, MAX_LOADING_THREADS);
 
   public GutterIconCache() {
   }
@@ -66,25 +102,117 @@ public class GutterIconCache {
     return ourInstance;
   }
 
+  /**
+   * Returns the thumbnail of the given drawable file, loading it synchronously if it is not cached yet
+   *
+   * @return the thumbnail, or null if the file could not be rendered
+   */
   @Nullable
   public Icon getIcon(@NotNull String path, @Nullable ResourceResolver resolver) {
     boolean isRetina = UIUtil.isRetina();
-    if (myRetina != isRetina) {
-      myRetina = isRetina;
-      myThumbnailCache.clear();
+    long stamp = getModificationStamp(path);
+    Thumbnail thumbnail = getCachedThumbnail(path, stamp, isRetina);
+    if (thumbnail == null) {
+      thumbnail = new Thumbnail(createIcon(path, resolver), stamp, isRetina);
+      myThumbnailCache.put(path, thumbnail);
     }
-    Icon myIcon = myThumbnailCache.get(path);
-    if (myIcon == null) {
-      myIcon = createIcon(path, resolver);
 
-      if (myIcon == null) {
-        myIcon = NONE;
+    return thumbnail.myIcon;
+  }
+
+  /**
+   * Returns the thumbnail of the given drawable file without blocking. If the thumbnail is not cached yet it is loaded in the
+   * background, and the returned icon paints nothing until it is available.
+   *
+   * @param errorIcon the icon to paint if the file could not be rendered
+   */
+  @NotNull
+  public Icon getIcon(@NotNull String path, @Nullable ResourceResolver resolver, @NotNull Icon errorIcon) {
+    boolean isRetina = UIUtil.isRetina();
+    long stamp = getModificationStamp(path);
+    Thumbnail thumbnail = getCachedThumbnail(path, stamp, isRetina);
+    if (thumbnail != null) {
+      return thumbnail.myIcon != null ? thumbnail.myIcon : errorIcon;
+    }
+
+    LoadingIcon icon = new LoadingIcon(errorIcon);
+    synchronized (myPendingLoads) {
+      PendingLoad load = myPendingLoads.get(path);
+      if (load == null || load.myModificationStamp != stamp || load.myRetina != isRetina) {
+        load = new PendingLoad(stamp, isRetina);
+        myPendingLoads.put(path, load);
+        PendingLoad newLoad = load;
+        myLoadExecutor.execute(() -> load(path, resolver, newLoad));
       }
+      load.myIcons.add(icon);
+    }
+    return icon;
+  }
 
-      myThumbnailCache.put(path, myIcon);
+  private void load(@NotNull String path, @Nullable ResourceResolver resolver, @NotNull PendingLoad load) {
+    if (!path.endsWith(DOT_XML)) {
+      finishLoad(path, load, createBitmapIcon(path));
+      return;
+    }
+    Document document = parseVectorDocument(path);
+    if (document == null) {
+      finishLoad(path, load, null);
+      return;
+    }
+    if (resolver == null) {
+      finishLoad(path, load, createVectorIcon(path, document));
+      return;
     }
 
-    return myIcon != NONE ? myIcon : null;
+    // The resolver is shared with the UI thread, so only use it there
+    Set<String> references = Sets.newHashSet();
+    collectResourceReferences(document.getDocumentElement(), references);
+    ApplicationManager.getApplication().invokeLater(() -> {
+      Map<String, String> values = resolveResourceReferences(references, resolver);
+      myLoadExecutor.execute(() -> {
+        replaceResourceReferences(document.getDocumentElement(), values);
+        finishLoad(path, load, createVectorIcon(path, document));
+      });
+    }, ModalityState.any());
+  }
+
+  private void finishLoad(@NotNull String path, @NotNull PendingLoad load, @Nullable Icon icon) {
+    Thumbnail thumbnail = new Thumbnail(icon, load.myModificationStamp, load.myRetina);
+    Thumbnail current = myThumbnailCache.getIfPresent(path);
+    if (current == null || current.myModificationStamp <= thumbnail.myModificationStamp) {
+      myThumbnailCache.put(path, thumbnail);
+    }
+
+    List<LoadingIcon> icons;
+    synchronized (myPendingLoads) {
+      myPendingLoads.remove(path, load);
+      icons = Lists.newArrayList(load.myIcons);
+    }
+    ApplicationManager.getApplication().invokeLater(() -> {
+      for (LoadingIcon icon : icons) {
+        icon.setIcon(thumbnail.myIcon);
+      }
+    }, ModalityState.any());
+  }
+
+  @Nullable
+  private Thumbnail getCachedThumbnail(@NotNull String path, long stamp, boolean isRetina) {
+    Thumbnail thumbnail = myThumbnailCache.getIfPresent(path);
+    if (thumbnail != null && (thumbnail.myModificationStamp != stamp || thumbnail.myRetina != isRetina)) {
+      // The file was modified (or the display changed) since the thumbnail was created
+      myThumbnailCache.invalidate(path);
+      thumbnail = null;
+    }
+    return thumbnail;
+  }
+
+  /**
+   * Returns the modification stamp of the given file. This is called while painting, so it uses the VFS state of the file
+   * instead of asking the file system.
+   */
+  private static long getModificationStamp(@NotNull String path) {
+    VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
+    return file != null ? file.getModificationStamp() : -1;
   }
 
   // TODO: Make method which passes in the image here!
@@ -99,50 +227,70 @@ public class GutterIconCache {
 
   @Nullable
   private static Icon createXmlIcon(@NotNull String path, @Nullable ResourceResolver resolver) {
-    try {
-      boolean isRetina = ourRetinaEnabled && UIUtil.isRetina();
-      VdPreview.TargetSize imageTargetSize = VdPreview.TargetSize.createSizeFromWidth(isRetina ? 2 * MAX_WIDTH : MAX_WIDTH);
+    Document document = parseVectorDocument(path);
+    if (document == null) {
+      return null;
+    }
+    if (resolver != null) {
+      Set<String> references = Sets.newHashSet();
+      collectResourceReferences(document.getDocumentElement(), references);
+      replaceResourceReferences(document.getDocumentElement(), resolveResourceReferences(references, resolver));
+    }
+    return createVectorIcon(path, document);
+  }
 
+  /**
+   * Parses the given drawable file if it is a vector drawable; we can't render other drawables yet.
+   *
+   * @return the vector document, or null if the file is not a vector drawable or could not be read
+   */
+  @Nullable
+  private static Document parseVectorDocument(@NotNull String path) {
+    try {
       String xml = Files.toString(new File(path), Charsets.UTF_8);
-      // See if this drawable is a vector; we can't render other drawables yet.
       // TODO: Consider resolving selectors to render for example the default image!
       if (xml.contains("<vector")) {
         Document document = XmlUtils.parseDocumentSilently(xml, true);
-        if (document == null) {
-          return null;
+        if (document != null && document.getDocumentElement() != null) {
+          return document;
         }
-        Element root = document.getDocumentElement();
-        if (root == null) {
-          return null;
-        }
-        if (resolver != null) {
-          replaceResourceReferences(root, resolver);
-        }
-        StringBuilder builder = new StringBuilder(100);
-        BufferedImage image = VdPreview.getPreviewFromVectorDocument(imageTargetSize, document, builder);
-        if (builder.length() > 0) {
-          LOG.warn("Problems rendering " + path + ": " + builder);
-        }
-        if (image != null) {
-          if (isRetina) {
-            // The Retina image uses a scale of 2, and the RetinaImage class creates an
-            // image of size w/scale, h/scale. If the width or height is less than the scale,
-            // this rounds to width or height 0, which will cause exceptions to be thrown.
-            // Don't attempt to create a Retina image for images like that. See issue 65676.
-            final int scale = 2;
-            if (image.getWidth() >= scale && image.getHeight() >= scale) {
-              try {
-                @SuppressWarnings("ConstantConditions") Image hdpiImage = RetinaImage.createFrom(image, scale, null);
-                return new RetinaImageIcon(hdpiImage);
-              }
-              catch (Throwable t) {
-                // Can't always create Retina images (see issue 65609); fall through to non-Retina code path
-                ourRetinaEnabled = false;
-              }
+      }
+    } catch (Throwable e) {
+      LOG.warn(String.format("Could not read icon image %1$s", path), e);
+    }
+    return null;
+  }
+
+  @Nullable
+  private static Icon createVectorIcon(@NotNull String path, @NotNull Document document) {
+    try {
+      boolean isRetina = ourRetinaEnabled && UIUtil.isRetina();
+      VdPreview.TargetSize imageTargetSize = VdPreview.TargetSize.createSizeFromWidth(isRetina ? 2 * MAX_WIDTH : MAX_WIDTH);
+
+      StringBuilder builder = new StringBuilder(100);
+      BufferedImage image = VdPreview.getPreviewFromVectorDocument(imageTargetSize, document, builder);
+      if (builder.length() > 0) {
+        LOG.warn("Problems rendering " + path + ": " + builder);
+      }
+      if (image != null) {
+        if (isRetina) {
+          // The Retina image uses a scale of 2, and the RetinaImage class creates an
+          // image of size w/scale, h/scale. If the width or height is less than the scale,
+          // this rounds to width or height 0, which will cause exceptions to be thrown.
+          // Don't attempt to create a Retina image for images like that. See issue 65676.
+          final int scale = 2;
+          if (image.getWidth() >= scale && image.getHeight() >= scale) {
+            try {
+              @SuppressWarnings("ConstantConditions") Image hdpiImage = RetinaImage.createFrom(image, scale, null);
+              return new RetinaImageIcon(hdpiImage);
+            }
+            catch (Throwable t) {
+              // Can't always create Retina images (see issue 65609); fall through to non-Retina code path
+              ourRetinaEnabled = false;
             }
           }
-          return new ImageIcon(image);
         }
+        return new ImageIcon(image);
       }
     } catch (Throwable e) {
       LOG.warn(String.format("Could not read/render icon image %1$s", path), e);
@@ -151,49 +299,81 @@ public class GutterIconCache {
     return null;
   }
 
-  private static void replaceResourceReferences(@NonNull Node node, @NonNull ResourceResolver resolver) {
+  /**
+   * Collects the resource and theme references used as attribute values in the given document
+   */
+  private static void collectResourceReferences(@NonNull Node node, @NonNull Set<String> references) {
     if (node.getNodeType() == Node.ELEMENT_NODE) {
-      Element element = (Element)node;
-      NamedNodeMap attributes = element.getAttributes();
-
-      attributes:
+      NamedNodeMap attributes = node.getAttributes();
       for (int i = 0, n = attributes.getLength(); i < n; i++) {
-        Node attribute = attributes.item(i);
-        String value = attribute.getNodeValue();
+        String value = attributes.item(i).getNodeValue();
+        if (value.startsWith(PREFIX_RESOURCE_REF) || value.startsWith(PREFIX_THEME_REF)) {
+          references.add(value);
+        }
+      }
+    }
+
+    node = node.getFirstChild();
+    while (node != null) {
+      collectResourceReferences(node, references);
+      node = node.getNextSibling();
+    }
+  }
+
+  /**
+   * Resolves the given resource references to their leaf values; references which can't be resolved are left out
+   */
+  @NonNull
+  private static Map<String, String> resolveResourceReferences(@NonNull Set<String> references, @NonNull ResourceResolver resolver) {
+    Map<String, String> values = Maps.newHashMap();
+
+    references:
+    for (String reference : references) {
+      String value = reference;
+      for (int j = 0; j < 10; j++) {
+        ResourceUrl resolvedUrl = ResourceUrl.parse(value);
+        if (resolvedUrl == null) {
+          continue references;
+        }
+        ResourceValue resourceValue;
+        if (resolvedUrl.theme) {
+          resourceValue = resolver.findItemInTheme(resolvedUrl.name, resolvedUrl.framework);
+        }
+        else {
+          resourceValue = resolver.findResValue(resolvedUrl.toString(), resolvedUrl.framework);
+        }
+        if (resourceValue == null) {
+          continue references;
+        }
+        value = resourceValue.getValue();
+        if (value == null) {
+          continue references;
+        }
         if (!(value.startsWith(PREFIX_RESOURCE_REF) || value.startsWith(PREFIX_THEME_REF))) {
-          continue;
+          // Found leaf value
+          values.put(reference, value);
+          break;
         }
-        for (int j = 0; j < 10; j++) {
-          ResourceUrl resolvedUrl = ResourceUrl.parse(value);
-          if (resolvedUrl == null) {
-            continue attributes;
-          }
-          ResourceValue resourceValue;
-          if (resolvedUrl.theme) {
-            resourceValue = resolver.findItemInTheme(resolvedUrl.name, resolvedUrl.framework);
-          }
-          else {
-            resourceValue = resolver.findResValue(resolvedUrl.toString(), resolvedUrl.framework);
-          }
-          if (resourceValue == null) {
-            continue attributes;
-          }
-          value = resourceValue.getValue();
-          if (value == null) {
-            continue attributes;
-          }
-          if (!(value.startsWith(PREFIX_RESOURCE_REF) || value.startsWith(PREFIX_THEME_REF))) {
-            // Found leaf value
-            attribute.setNodeValue(value);
-            break;
-          }
+      }
+    }
+    return values;
+  }
+
+  private static void replaceResourceReferences(@NonNull Node node, @NonNull Map<String, String> values) {
+    if (node.getNodeType() == Node.ELEMENT_NODE) {
+      NamedNodeMap attributes = node.getAttributes();
+      for (int i = 0, n = attributes.getLength(); i < n; i++) {
+        Node attribute = attributes.item(i);
+        String value = values.get(attribute.getNodeValue());
+        if (value != null) {
+          attribute.setNodeValue(value);
         }
       }
     }
 
     node = node.getFirstChild();
     while (node != null) {
-      replaceResourceReferences(node, resolver);
+      replaceResourceReferences(node, values);
       node = node.getNextSibling();
     }
   }
@@ -260,6 +440,85 @@ public class GutterIconCache {
     return null;
   }
 
+  /** A cached thumbnail, along with the state of the file it was created from */
+  private static class Thumbnail {
+    @Nullable private final Icon myIcon;
+    private final long myModificationStamp;
+    private final boolean myRetina;
+
+    private Thumbnail(@Nullable Icon icon, long modificationStamp, boolean retina) {
+      myIcon = icon;
+      myModificationStamp = modificationStamp;
+      myRetina = retina;
+    }
+
+    private int getPixelCount() {
+      if (myIcon == null) {
+        return 1;
+      }
+      int pixels = myIcon.getIconWidth() * myIcon.getIconHeight();
+      return Math.max(1, myRetina ? 4 * pixels : pixels);
+    }
+  }
+
+  /** A thumbnail being loaded in the background */
+  private static class PendingLoad {
+    private final long myModificationStamp;
+    private final boolean myRetina;
+    @GuardedBy("myPendingLoads")
+    private final List<LoadingIcon> myIcons = Lists.newArrayList();
+
+    private PendingLoad(long modificationStamp, boolean retina) {
+      myModificationStamp = modificationStamp;
+      myRetina = retina;
+    }
+  }
+
+  /**
+   * Placeholder for a thumbnail which is being loaded. Once the thumbnail is available, the placeholder paints it and
+   * repaints the component it was last painted on.
+   */
+  private static class LoadingIcon implements Icon {
+    @NotNull private final Icon myErrorIcon;
+    private Icon myIcon;
+    private boolean myLoaded;
+    private WeakReference<Component> myComponent;
+
+    private LoadingIcon(@NotNull Icon errorIcon) {
+      myErrorIcon = errorIcon;
+    }
+
+    private void setIcon(@Nullable Icon icon) {
+      myIcon = icon != null ? icon : myErrorIcon;
+      myLoaded = true;
+      Component component = myComponent != null ? myComponent.get() : null;
+      if (component != null) {
+        component.repaint();
+      }
+      myComponent = null;
+    }
+
+    @Override
+    public void paintIcon(Component c, Graphics g, int x, int y) {
+      if (myLoaded) {
+        myIcon.paintIcon(c, g, x, y);
+      }
+      else if (c != null) {
+        myComponent = new WeakReference<>(c);
+      }
+    }
+
+    @Override
+    public int getIconWidth() {
+      return myLoaded ? myIcon.getIconWidth() : MAX_WIDTH;
+    }
+
+    @Override
+    public int getIconHeight() {
+      return myLoaded ? myIcon.getIconHeight() : MAX_HEIGHT;
+    }
+  }
+
   private static class RetinaImageIcon extends ImageIcon {
     private RetinaImageIcon(Image image) {
       super(image, "");
@@ -51,9 +51,10 @@ public class GutterIconRenderer extends com.intellij.openapi.editor.markup.Gutte
   public Icon getIcon() {
     if (myIcon == null) {
       if (myFile != null) {
-        myIcon = GutterIconCache.getInstance().getIcon(myFile.getPath(), myResourceResolver);
+        // Don't decode the image while painting the gutter; the cache returns a placeholder until the thumbnail is ready
+        myIcon = GutterIconCache.getInstance().getIcon(myFile.getPath(), myResourceResolver, AllIcons.General.Error);
       }
-      if (myIcon == null) {
+      else {
         myIcon = AllIcons.General.Error;
       }
     }
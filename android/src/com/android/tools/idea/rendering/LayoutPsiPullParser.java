@@ -30,6 +30,10 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.psi.xml.XmlAttribute;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
@@ -52,6 +56,11 @@ import static com.android.tools.idea.rendering.RenderTask.AttributeFilter;
  * <p/>
  * This pull parser generates {@link com.android.ide.common.rendering.api.ViewInfo}s whose keys
  * are of type {@link XmlTag}.
+ * <p/>
+ * The {@link TagSnapshot} tree of a layout file is cached with the file until its next modification, so the
+ * renders of a file in several configurations, previews and includes of the same file only walk the PSI once per edit.
+ * Each parser works on its own copy of the cached tree, since the snapshots are handed out as view cookies (which must be
+ * distinct for each include of a file) and the property sheet updates them in place.
  */
 public class LayoutPsiPullParser extends LayoutPullParser {
   /**
@@ -75,6 +84,9 @@ public class LayoutPsiPullParser extends LayoutPullParser {
                                                                                  ),
                                                                                  ImmutableList.of());
 
+  /** Key for the cached {@link LayoutSnapshot} of a layout file */
+  private static final Key<CachedValue<LayoutSnapshot>> LAYOUT_SNAPSHOT_KEY = Key.create("android.layout.snapshot");
+
   @NotNull
   private final LayoutLog myLogger;
 
@@ -144,7 +156,12 @@ public class LayoutPsiPullParser extends LayoutPullParser {
 
   /** Use one of the {@link #create} factory methods instead */
   protected LayoutPsiPullParser(@NotNull XmlFile file, @NotNull LayoutLog logger) {
-    this(AndroidPsiUtils.getRootTagSafely(file), logger);
+    myLogger = logger;
+
+    LayoutSnapshot snapshot = getLayoutSnapshot(file);
+    myRoot = snapshot.myRoot != null ? snapshot.myRoot.copy() : null;
+    myAndroidPrefix = snapshot.myAndroidPrefix;
+    myToolsPrefix = snapshot.myToolsPrefix;
   }
 
   protected LayoutPsiPullParser(@Nullable final XmlTag root, @NotNull LayoutLog logger) {
@@ -566,6 +583,36 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     myProvideViewCookies = provideViewCookies;
   }
 
+  /**
+   * Returns the cached snapshot of the root tag of the given layout file. The snapshot is shared until the file is modified,
+   * so it must not be modified by the caller; parsers pass copies of it to layoutlib.
+   */
+  @NotNull
+  public static TagSnapshot getRootSnapshot(@NotNull XmlFile file) {
+    TagSnapshot root = getLayoutSnapshot(file).myRoot;
+    return root != null ? root : EMPTY_LAYOUT;
+  }
+
+  @NotNull
+  private static LayoutSnapshot getLayoutSnapshot(@NotNull XmlFile file) {
+    return ApplicationManager.getApplication().runReadAction((Computable<LayoutSnapshot>)() -> {
+      if (!file.isValid()) {
+        return LayoutSnapshot.EMPTY;
+      }
+      return CachedValuesManager.getCachedValue(file, LAYOUT_SNAPSHOT_KEY,
+                                                () -> CachedValueProvider.Result.create(createLayoutSnapshot(file), file));
+    });
+  }
+
+  @NotNull
+  private static LayoutSnapshot createLayoutSnapshot(@NotNull XmlFile file) {
+    XmlTag root = AndroidPsiUtils.getRootTagSafely(file);
+    if (root == null || !root.isValid()) {
+      return LayoutSnapshot.EMPTY;
+    }
+    return new LayoutSnapshot(createSnapshot(root), root.getPrefixByNamespace(ANDROID_URI), root.getPrefixByNamespace(TOOLS_URI));
+  }
+
   @Nullable
   private static TagSnapshot createSnapshot(@NotNull XmlTag tag) {
     // <include> tags can't be at the root level; handle <fragment> rewriting here such that we don't
@@ -713,6 +760,21 @@ public class LayoutPsiPullParser extends LayoutPullParser {
     myUseSrcCompat = useSrcCompat;
   }
 
+  /** The snapshot of a layout file along with the namespace prefixes of its root tag */
+  private static class LayoutSnapshot {
+    private static final LayoutSnapshot EMPTY = new LayoutSnapshot(EMPTY_LAYOUT, null, null);
+
+    @Nullable private final TagSnapshot myRoot;
+    @Nullable private final String myAndroidPrefix;
+    @Nullable private final String myToolsPrefix;
+
+    private LayoutSnapshot(@Nullable TagSnapshot root, @Nullable String androidPrefix, @Nullable String toolsPrefix) {
+      myRoot = root;
+      myAndroidPrefix = androidPrefix;
+      myToolsPrefix = toolsPrefix;
+    }
+  }
+
   static class AttributeFilteredLayoutParser extends LayoutPsiPullParser {
 
     @Nullable
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.annotations.concurrency.GuardedBy;
+import com.google.common.util.concurrent.ExecutionList;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Executor for the actions that call into layoutlib.
+ * <p/>
+ * The executor runs one or more render threads. Every owner of render actions (typically a {@link RenderTask}) is pinned
+ * to a single render thread for its whole lifetime, since the layoutlib session state of an owner is bound to the thread
+ * that created it. New owners are assigned to the thread with the fewest owners, so independent owners (for example the
+ * same layout rendered in several configurations) are spread over all threads, and the requests of each thread are
+ * served in order.
+ * <p/>
+ * Note that layoutlib itself still serializes the actual inflate and render calls through its own global lock; running
+ * several threads lets the IDE side of the render actions (resource resolution, parsing, image copies) overlap.
+ * <p/>
+ * An owner can mark a request (typically a render) as superseding; it cancels the previous superseding request of the
+ * same owner if that has not started yet. Other requests of the owner, such as inflates or disposes, are never superseded.
+ * Requests can also be cancelled through their futures, which has the same effect.
+ * <p/>
+ * Each render thread serves its pending requests by {@link RenderService.Priority}, and in submission order within the same
+ * priority; a request which is already running is never interrupted. The executor keeps statistics about the requests it
+ * served, see {@link #getStatistics()}.
+ */
+class RenderExecutor {
+  @NotNull private final RenderThread[] myThreads;
+
+  /**
+   * The render thread each owner is pinned to. Owners which are garbage collected without being released drop out of this
+   * map, so the number of owners of a thread is always computed from it.
+   */
+  @GuardedBy("this")
+  private final Map<Object, RenderThread> myAssignments = new WeakHashMap<>();
+
+  /** The last superseding request submitted by each owner which may still be pending */
+  @GuardedBy("this")
+  private final Map<Object, RenderRequest<?>> myLastRequests = new WeakHashMap<>();
+
+  /** Sequence number used to keep requests of the same priority in submission order */
+  private final AtomicLong mySequence = new AtomicLong();
+
+  /** Per {@link RenderService.Priority} statistics */
+  private final AtomicLongArray mySubmitted = new AtomicLongArray(RenderService.Priority.values().length);
+  private final AtomicLongArray myCompleted = new AtomicLongArray(RenderService.Priority.values().length);
+  private final AtomicLongArray myCancelled = new AtomicLongArray(RenderService.Priority.values().length);
+  private final AtomicLongArray myWaitNanos = new AtomicLongArray(RenderService.Priority.values().length);
+  private final AtomicLongArray myRunNanos = new AtomicLongArray(RenderService.Priority.values().length);
+
+  /**
+   * Creates a new executor
+   *
+   * @param threadName    the name of the render threads; a thread index is appended if there are several threads
+   * @param threadCount   the number of render threads
+   * @param idleTimeoutMs number of ms that threads are kept alive when idle
+   */
+  RenderExecutor(@NotNull String threadName, int threadCount, long idleTimeoutMs) {
+    assert threadCount > 0 : threadCount;
+    myThreads = new RenderThread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      myThreads[i] = new RenderThread(threadCount == 1 ? threadName : threadName + " #" + (i + 1), idleTimeoutMs);
+    }
+  }
+
+  /**
+   * Returns the number of render threads of this executor
+   */
+  int getThreadCount() {
+    return myThreads.length;
+  }
+
+  /**
+   * Submits a render action.
+   *
+   * @param owner     the owner of the action, or null for actions that are not tied to a render session
+   * @param priority  the priority of the action relative to the other pending actions of the same render thread
+   * @param callable  the action to run
+   * @param supersede if true, the previous superseding request of the same owner is cancelled if it has not started yet
+   * @return a future for the result of the action
+   */
+  @NotNull
+  <T> RenderRequest<T> submit(@Nullable Object owner,
+                              @NotNull RenderService.Priority priority,
+                              @NotNull Callable<T> callable,
+                              boolean supersede) {
+    RenderRequest<T> request = new RenderRequest<>(callable, priority, mySequence.incrementAndGet());
+    mySubmitted.incrementAndGet(priority.ordinal());
+    RenderThread thread;
+    synchronized (this) {
+      thread = getThread(owner);
+      if (owner != null && supersede) {
+        RenderRequest<?> previous = myLastRequests.put(owner, request);
+        if (previous != null) {
+          previous.cancelIfNotStarted();
+        }
+      }
+    }
+    thread.myExecutor.execute(request);
+    return request;
+  }
+
+  /**
+   * Cancels the pending superseding request of the given owner, if any, and releases its render thread assignment
+   */
+  void release(@NotNull Object owner) {
+    synchronized (this) {
+      RenderRequest<?> last = myLastRequests.remove(owner);
+      if (last != null) {
+        last.cancelIfNotStarted();
+      }
+      myAssignments.remove(owner);
+    }
+  }
+
+  /**
+   * Returns the number of live owners pinned to the given render thread
+   */
+  @VisibleForTesting
+  synchronized int getOwnerCount(int threadIndex) {
+    RenderThread thread = myThreads[threadIndex];
+    int count = 0;
+    for (RenderThread assigned : myAssignments.values()) {
+      if (assigned == thread) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the thread that runs (or most recently ran) the actions of the given owner, if any
+   */
+  @Nullable
+  Thread getRenderingThread(@Nullable Object owner) {
+    synchronized (this) {
+      RenderThread thread = owner != null ? myAssignments.get(owner) : null;
+      return (thread != null ? thread : myThreads[0]).myThread.get();
+    }
+  }
+
+  /**
+   * Returns a snapshot of the statistics of this executor
+   */
+  @NotNull
+  RenderService.QueueStatistics getStatistics() {
+    int queueDepth = 0;
+    for (RenderThread thread : myThreads) {
+      queueDepth += thread.myExecutor.getQueue().size();
+    }
+    int priorities = RenderService.Priority.values().length;
+    long[] submitted = new long[priorities];
+    long[] completed = new long[priorities];
+    long[] cancelled = new long[priorities];
+    long[] waitNanos = new long[priorities];
+    long[] runNanos = new long[priorities];
+    for (int i = 0; i < priorities; i++) {
+      submitted[i] = mySubmitted.get(i);
+      completed[i] = myCompleted.get(i);
+      cancelled[i] = myCancelled.get(i);
+      waitNanos[i] = myWaitNanos.get(i);
+      runNanos[i] = myRunNanos.get(i);
+    }
+    return new RenderService.QueueStatistics(queueDepth, submitted, completed, cancelled, waitNanos, runNanos);
+  }
+
+  void shutdownNow() {
+    for (RenderThread thread : myThreads) {
+      thread.myExecutor.shutdownNow();
+      thread.myThread.set(null);
+    }
+  }
+
+  @GuardedBy("this")
+  @NotNull
+  private RenderThread getThread(@Nullable Object owner) {
+    if (owner == null || myThreads.length == 1) {
+      return myThreads[0];
+    }
+    RenderThread thread = myAssignments.get(owner);
+    if (thread == null) {
+      // Count the owners from the assignments rather than keeping counters, since owners may be collected without a release
+      Map<RenderThread, Integer> ownerCounts = new IdentityHashMap<>();
+      for (RenderThread assigned : myAssignments.values()) {
+        ownerCounts.merge(assigned, 1, Integer::sum);
+      }
+      thread = myThreads[0];
+      for (RenderThread candidate : myThreads) {
+        if (ownerCounts.getOrDefault(candidate, 0) < ownerCounts.getOrDefault(thread, 0)) {
+          thread = candidate;
+        }
+      }
+      myAssignments.put(owner, thread);
+    }
+    return thread;
+  }
+
+  private static class RenderThread {
+    @NotNull private final ThreadPoolExecutor myExecutor;
+    @NotNull private final AtomicReference<Thread> myThread = new AtomicReference<>();
+
+    private RenderThread(@NotNull String name, long idleTimeoutMs) {
+      myExecutor = new ThreadPoolExecutor(0, 1, idleTimeoutMs, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), (Runnable r) -> {
+        Thread renderingThread = new Thread(null, r, name);
+        renderingThread.setDaemon(true);
+        myThread.set(renderingThread);
+
+        return renderingThread;
+      });
+    }
+  }
+
+  /**
+   * A {@link FutureTask} which can be cancelled only as long as it has not started running, and which is ordered by priority.
+   * Listeners added to the request run once it completed, was cancelled or failed.
+   */
+  class RenderRequest<T> extends FutureTask<T> implements ListenableFuture<T>, Comparable<RenderRequest<?>> {
+    private static final int PENDING = 0;
+    private static final int STARTED = 1;
+    private static final int CANCELLED = 2;
+
+    @NotNull private final RenderService.Priority myPriority;
+    private final long mySequence;
+    private final long mySubmitNanos = System.nanoTime();
+    private final AtomicInteger myState = new AtomicInteger(PENDING);
+    private final ExecutionList myListeners = new ExecutionList();
+    private volatile long myStartNanos;
+
+    private RenderRequest(@NotNull Callable<T> callable, @NotNull RenderService.Priority priority, long sequence) {
+      super(callable);
+      myPriority = priority;
+      mySequence = sequence;
+    }
+
+    @Override
+    public void run() {
+      long start = System.nanoTime();
+      myStartNanos = start;
+      if (myState.compareAndSet(PENDING, STARTED)) {
+        int index = myPriority.ordinal();
+        myWaitNanos.addAndGet(index, start - mySubmitNanos);
+        try {
+          super.run();
+        }
+        finally {
+          myRunNanos.addAndGet(index, System.nanoTime() - start);
+          myCompleted.incrementAndGet(index);
+        }
+      }
+    }
+
+    @Override
+    public void addListener(@NotNull Runnable listener, @NotNull Executor executor) {
+      myListeners.add(listener, executor);
+    }
+
+    @Override
+    protected void done() {
+      myListeners.execute();
+    }
+
+    /**
+     * Cancels this request unless it has already started. Returns true if the request will not run.
+     */
+    private boolean cancelIfNotStarted() {
+      cancel(false);
+      return myState.get() == CANCELLED;
+    }
+
+    /**
+     * Cancels this request if it has not started yet; a running request is never interrupted, regardless of
+     * {@code mayInterruptIfRunning}, since layoutlib does not support interrupting a render.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (myState.compareAndSet(PENDING, CANCELLED)) {
+        myCancelled.incrementAndGet(myPriority.ordinal());
+        return super.cancel(false);
+      }
+      return false;
+    }
+
+    /**
+     * Waits for the result of this request. The timeout only applies once the request has started running; a request which
+     * is still waiting behind other requests is given up to {@code maxQueueTimeMs} to start, after which it is cancelled
+     * and a {@link QueueTimeoutException} is thrown.
+     */
+    T await(long timeoutMs, long maxQueueTimeMs) throws InterruptedException, ExecutionException, TimeoutException {
+      long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+      long queueDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxQueueTimeMs);
+      while (true) {
+        boolean started = myState.get() == STARTED;
+        long deadline = started ? myStartNanos + timeoutNanos : queueDeadline;
+        try {
+          return get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e) {
+          if (started) {
+            throw e;
+          }
+          if (cancelIfNotStarted()) {
+            throw new QueueTimeoutException();
+          }
+          // The request started while we were waiting for it: wait for it to run instead
+        }
+      }
+    }
+
+    @Override
+    public int compareTo(@NotNull RenderRequest<?> other) {
+      int delta = myPriority.compareTo(other.myPriority);
+      return delta != 0 ? delta : Long.compare(mySequence, other.mySequence);
+    }
+  }
+
+  /**
+   * Thrown when a request is cancelled because it waited too long behind other requests, as opposed to a request which
+   * took too long to run
+   */
+  static class QueueTimeoutException extends TimeoutException {
+    QueueTimeoutException() {
+      super("Render request was not started in time");
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.android.annotations.concurrency.GuardedBy;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Timings of the phases of the renders of a layout, shared by the {@link RenderTask}s created for it over time.
+ * <p/>
+ * Besides the totals, a moving average of the recent timings of each phase is kept. Callers can also record complete
+ * render cycles, e.g. an inflate followed by a render, to adapt to how expensive the layout currently is to update, for
+ * example to decide how long to wait for more edits before rendering again.
+ */
+public class RenderMetrics {
+  public enum Phase {
+    /** Time a render action waited for the render thread */
+    QUEUE_WAIT,
+    /** Creation of the render session, which inflates the layout */
+    INFLATE,
+    /** Measure and layout pass of an existing session */
+    LAYOUT,
+    /** Drawing of an existing session */
+    RENDER,
+    /** Copy of the rendered image out of the session */
+    IMAGE_COPY
+  }
+
+  /** Weight of the latest sample in the moving averages */
+  private static final double RECENT_WEIGHT = 0.3;
+
+  @GuardedBy("this") private final long[] myCounts = new long[Phase.values().length];
+  @GuardedBy("this") private final long[] myTotalNanos = new long[Phase.values().length];
+  @GuardedBy("this") private final long[] myLastNanos = new long[Phase.values().length];
+  @GuardedBy("this") private final double[] myRecentNanos = new double[Phase.values().length];
+  @GuardedBy("this") private long myCycleCount;
+  @GuardedBy("this") private double myRecentCycleNanos;
+
+  /**
+   * Records a sample of the given phase
+   */
+  public synchronized void record(@NotNull Phase phase, long nanos) {
+    int index = phase.ordinal();
+    myRecentNanos[index] = myCounts[index] == 0 ? nanos : RECENT_WEIGHT * nanos + (1 - RECENT_WEIGHT) * myRecentNanos[index];
+    myCounts[index]++;
+    myTotalNanos[index] += nanos;
+    myLastNanos[index] = nanos;
+  }
+
+  /** Returns the number of samples recorded for the given phase */
+  public synchronized long getCount(@NotNull Phase phase) {
+    return myCounts[phase.ordinal()];
+  }
+
+  /** Returns the average time in ms of all the samples of the given phase */
+  public synchronized double getAverageTimeMs(@NotNull Phase phase) {
+    long count = myCounts[phase.ordinal()];
+    return count == 0 ? 0 : myTotalNanos[phase.ordinal()] / (count * 1e6);
+  }
+
+  /** Returns the time in ms of the latest sample of the given phase */
+  public synchronized double getLastTimeMs(@NotNull Phase phase) {
+    return myLastNanos[phase.ordinal()] / 1e6;
+  }
+
+  /** Returns the moving average in ms of the recent samples of the given phase, favoring the latest ones */
+  public synchronized double getRecentTimeMs(@NotNull Phase phase) {
+    return myRecentNanos[phase.ordinal()] / 1e6;
+  }
+
+  /**
+   * Returns the total time spent so far in the phases that run on the render thread, i.e. all but the queue wait. The
+   * difference between two calls is the cost of the render actions that ran in between.
+   */
+  public synchronized long getRenderThreadNanos() {
+    long nanos = 0;
+    for (Phase phase : Phase.values()) {
+      if (phase != Phase.QUEUE_WAIT) {
+        nanos += myTotalNanos[phase.ordinal()];
+      }
+    }
+    return nanos;
+  }
+
+  /**
+   * Records the time spent on the render thread by one complete update of the preview, such as a render, or an inflate
+   * followed by a render
+   */
+  public synchronized void recordCycle(long nanos) {
+    myRecentCycleNanos = myCycleCount == 0 ? nanos : RECENT_WEIGHT * nanos + (1 - RECENT_WEIGHT) * myRecentCycleNanos;
+    myCycleCount++;
+  }
+
+  /** Returns the moving average in ms of the recent render cycles, favoring the latest ones */
+  public synchronized double getRecentCycleTimeMs() {
+    return myRecentCycleNanos / 1e6;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder("RenderMetrics{");
+    for (Phase phase : Phase.values()) {
+      if (phase.ordinal() > 0) {
+        sb.append(", ");
+      }
+      sb.append(String.format("%1$s: %2$d, %3$.1f ms avg, %4$.1f ms recent", phase, getCount(phase), getAverageTimeMs(phase),
+                              getRecentTimeMs(phase)));
+    }
+    return sb.append('}').toString();
+  }
+}
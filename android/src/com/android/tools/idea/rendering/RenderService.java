@@ -16,6 +16,7 @@
 package com.android.tools.idea.rendering;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.VisibleForTesting;
 import com.android.ide.common.rendering.LayoutLibrary;
 import com.android.ide.common.rendering.api.Features;
 import com.android.ide.common.rendering.api.MergeCookie;
@@ -38,6 +39,8 @@ import com.android.tools.idea.ui.designer.EditorDesignSurface;
 import com.android.tools.idea.wizard.model.ModelWizardDialog;
 import com.android.utils.HtmlBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.ui.configuration.ProjectSettingsService;
@@ -46,6 +49,7 @@ import com.intellij.openapi.util.ShutDownTracker;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.xml.XmlTag;
 import com.intellij.util.IncorrectOperationException;
+import com.intellij.util.concurrency.PooledThreadExecutor;
 import org.intellij.lang.annotations.MagicConstant;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.maven.AndroidMavenUtil;
@@ -59,7 +63,6 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 
 import static com.android.SdkConstants.TAG_PREFERENCE_SCREEN;
 import static com.intellij.lang.annotation.HighlightSeverity.ERROR;
@@ -74,29 +77,27 @@ public class RenderService {
 
   /** Number of ms that we will wait for the rendering thread to return before timing out */
   private static final long DEFAULT_RENDER_THREAD_TIMEOUT_MS = Integer.getInteger("layoutlib.thread.timeout", 6000);
+  /** Number of ms that a render action may wait behind other actions before it is abandoned, as a multiple of the render timeout */
+  private static final int MAX_RENDER_QUEUE_TIME_FACTOR = 3;
   /** Number of ms that we will keep the render thread alive when idle */
   private static final long RENDER_THREAD_IDLE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
 
-  private static final AtomicReference<Thread> ourRenderingThread = new AtomicReference<>();
-  private static final ExecutorService ourRenderingExecutor = new ThreadPoolExecutor(0, 1,
-                                                                                     RENDER_THREAD_IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS,
-                                                                                     new LinkedBlockingQueue<>(),
-                                                                                     (Runnable r) -> {
-                                                                                       Thread renderingThread =
-                                                                                         new Thread(null, r, "Layoutlib Render Thread");
-                                                                                       renderingThread.setDaemon(true);
-                                                                                       ourRenderingThread.set(renderingThread);
-
-                                                                                       return renderingThread;
-                                                                                     });
+  /**
+   * Number of render threads. By default all layoutlib calls happen on a single thread; setting this to a larger value opts in
+   * to a pool where independent {@link RenderTask}s (for example the same layout in several configurations) run on separate
+   * render threads.
+   */
+  private static final int RENDER_THREAD_COUNT = Math.max(1, Integer.getInteger("layoutlib.render.threads", 1));
+  private static final String RENDER_THREAD_NAME = "Layoutlib Render Thread";
+
+  private static volatile RenderExecutor ourRenderingExecutor =
+    new RenderExecutor(RENDER_THREAD_NAME, RENDER_THREAD_COUNT, RENDER_THREAD_IDLE_TIMEOUT_MS);
   private static final AtomicInteger ourTimeoutExceptionCounter = new AtomicInteger(0);
+  private static volatile long ourRenderThreadTimeoutMs = DEFAULT_RENDER_THREAD_TIMEOUT_MS;
 
   static {
     // Register the executor to be shutdown on close
-    ShutDownTracker.getInstance().registerShutdownTask(() -> {
-      ourRenderingExecutor.shutdownNow();
-      ourRenderingThread.set(null);
-    });
+    ShutDownTracker.getInstance().registerShutdownTask(() -> ourRenderingExecutor.shutdownNow());
   }
 
   private static final String JDK_INSTALL_URL = "https://developer.android.com/preview/setup-sdk.html#java8";
@@ -395,30 +396,166 @@ public class RenderService {
    * method.
    */
   public static <T> T runRenderAction(@NotNull Callable<T> callable) throws Exception {
+    return runRenderAction(null, Priority.FOREGROUND, false, callable);
+  }
+
+  /**
+   * Runs a action that requires the rendering lock on the render thread assigned to the given owner.
+   *
+   * @see #runRenderAction(Object, Priority, boolean, Callable)
+   */
+  static void runRenderAction(@Nullable Object owner, @NotNull Priority priority, boolean supersede, @NotNull final Runnable runnable)
+    throws Exception {
+    runRenderAction(owner, priority, supersede, Executors.callable(runnable));
+  }
+
+  /**
+   * Runs a action that requires the rendering lock on the render thread assigned to the given owner.
+   * <p/>
+   * The render timeout only starts counting once the action is running; an action which is waiting behind higher priority
+   * actions is given up to {@link #MAX_RENDER_QUEUE_TIME_FACTOR} times the render timeout to start.
+   *
+   * @param owner     the owner of the action (typically a {@link RenderTask}); all actions of an owner run on the same render thread
+   * @param priority  the priority of the action relative to the other pending actions of its render thread
+   * @param supersede if true, earlier actions of the same owner which have not started yet are cancelled; the callers waiting
+   *                  for those get a {@link CancellationException}
+   * @param callable  the action to run
+   */
+  static <T> T runRenderAction(@Nullable Object owner, @NotNull Priority priority, boolean supersede, @NotNull Callable<T> callable)
+    throws Exception {
+    RenderExecutor executor = ourRenderingExecutor;
     try {
       // If the number of timeouts exceeds a certain threshold, stop waiting so the caller doesn't block. We try to submit a task that
       // clean-up the timeout counter instead. If it goes through, it means the queue is free.
       if (ourTimeoutExceptionCounter.get() > 3) {
-        ourRenderingExecutor.submit(() -> ourTimeoutExceptionCounter.set(0)).get(50, TimeUnit.MILLISECONDS);
+        executor.submit(owner, Priority.FOREGROUND, () -> {
+          ourTimeoutExceptionCounter.set(0);
+          return null;
+        }, false).get(50, TimeUnit.MILLISECONDS);
       }
+    }
+    catch (TimeoutException e) {
+      ourTimeoutExceptionCounter.incrementAndGet();
+      throw createRenderTimeoutException(executor, owner);
+    }
+    return awaitRenderAction(executor, owner, executor.submit(owner, priority, callable, supersede));
+  }
 
-      T result = ourRenderingExecutor.submit(callable).get(DEFAULT_RENDER_THREAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  /**
+   * Waits for the given render action, applying the render timeout once it has started running
+   */
+  private static <T> T awaitRenderAction(@NotNull RenderExecutor executor,
+                                         @Nullable Object owner,
+                                         @NotNull RenderExecutor.RenderRequest<T> request) throws Exception {
+    long timeoutMs = ourRenderThreadTimeoutMs;
+    try {
+      T result = request.await(timeoutMs, MAX_RENDER_QUEUE_TIME_FACTOR * timeoutMs);
       // The executor seems to be taking tasks so reset the counter
       ourTimeoutExceptionCounter.set(0);
 
       return result;
     }
+    catch (RenderExecutor.QueueTimeoutException e) {
+      // The render thread is busy with other requests; this does not mean that this render would not finish
+      throw new TimeoutException("Preview timed out while waiting for other previews to finish rendering.");
+    }
     catch (TimeoutException e) {
       ourTimeoutExceptionCounter.incrementAndGet();
+      throw createRenderTimeoutException(executor, owner);
+    }
+  }
+
+  @NotNull
+  private static TimeoutException createRenderTimeoutException(@NotNull RenderExecutor executor, @Nullable Object owner) {
+    Thread renderingThread = executor.getRenderingThread(owner);
+    TimeoutException timeoutException = new TimeoutException("Preview timed out while rendering the layout.\n" +
+                                                             "This typically happens when there is an infinite loop or unbounded recursion in one of the custom views.");
+    if (renderingThread != null) {
+      timeoutException.setStackTrace(renderingThread.getStackTrace());
+    }
+    return timeoutException;
+  }
 
-      Thread renderingThread = ourRenderingThread.get();
-      TimeoutException timeoutException = new TimeoutException("Preview timed out while rendering the layout.\n" +
-                                                               "This typically happens when there is an infinite loop or unbounded recursion in one of the custom views.");
-      if (renderingThread != null) {
-        timeoutException.setStackTrace(renderingThread.getStackTrace());
+  /**
+   * Submits an action that requires the rendering lock to the render thread assigned to the given owner, without waiting
+   * for it to run. The same timeouts as in {@link #runRenderAction(Object, Priority, boolean, Callable)} apply: if the action
+   * does not finish in time, the returned future fails with a {@link TimeoutException}, although an action which is already
+   * running keeps running since layoutlib renders cannot be interrupted.
+   *
+   * @param owner     the owner of the action (typically a {@link RenderTask}); all actions of an owner run on the same render thread
+   * @param priority  the priority of the action relative to the other pending actions of its render thread
+   * @param supersede if true, earlier actions of the same owner which have not started yet are cancelled
+   * @param callable  the action to run
+   * @return a future for the result of the action; cancelling it before the action started prevents it from running, while
+   * an action which is already running is never interrupted
+   */
+  @NotNull
+  static <T> ListenableFuture<T> runAsyncRenderAction(@Nullable Object owner,
+                                            @NotNull Priority priority,
+                                            boolean supersede,
+                                            @NotNull Callable<T> callable) {
+    RenderExecutor executor = ourRenderingExecutor;
+    RenderExecutor.RenderRequest<T> request = executor.submit(owner, priority, callable, supersede);
+    SettableFuture<T> result = SettableFuture.create();
+    result.addListener(() -> {
+      if (result.isCancelled()) {
+        request.cancel(false);
+      }
+    }, PooledThreadExecutor.INSTANCE);
+    PooledThreadExecutor.INSTANCE.execute(() -> {
+      try {
+        result.set(awaitRenderAction(executor, owner, request));
+      }
+      catch (CancellationException e) {
+        result.cancel(false);
+      }
+      catch (ExecutionException e) {
+        result.setException(e.getCause());
       }
+      catch (Throwable e) {
+        result.setException(e);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Cancels the pending actions of the given owner and releases its render thread. Should be called once the owner will not
+   * submit any more render actions.
+   */
+  static void releaseRenderActions(@NotNull Object owner) {
+    ourRenderingExecutor.release(owner);
+  }
+
+  /**
+   * Replaces the number of ms that render actions may run before they time out, and returns the previous one. Only intended
+   * for tests.
+   */
+  @VisibleForTesting
+  static long setRenderThreadTimeout(long timeoutMs) {
+    long previous = ourRenderThreadTimeoutMs;
+    ourRenderThreadTimeoutMs = timeoutMs;
+    return previous;
+  }
+
+  /**
+   * Returns a snapshot of the statistics of the render requests served so far
+   */
+  @NotNull
+  public static QueueStatistics getQueueStatistics() {
+    return ourRenderingExecutor.getStatistics();
+  }
 
-      throw timeoutException;
+  /**
+   * Replaces the render executor with one using the given number of render threads. Only intended for tests and benchmarks;
+   * no render tasks should be alive when this is called.
+   */
+  @VisibleForTesting
+  static void setRenderThreadCount(int threadCount) {
+    RenderExecutor previous = ourRenderingExecutor;
+    if (previous.getThreadCount() != threadCount) {
+      ourRenderingExecutor = new RenderExecutor(RENDER_THREAD_NAME, threadCount, RENDER_THREAD_IDLE_TIMEOUT_MS);
+      previous.shutdownNow();
     }
   }
 
@@ -499,4 +636,86 @@ public class RenderService {
    * quite a long way compared to the current relevant screen pixel ranges.
    */
   private static final int MAX_MAGNITUDE = 1 << (MEASURE_SPEC_MODE_SHIFT - 5);
+
+  /**
+   * Priority of a render request. Pending requests of a higher priority (earlier in this enum) run before those of a lower
+   * priority; a running request is never interrupted.
+   */
+  public enum Priority {
+    /** Renders of a layout that is visible in an editor */
+    FOREGROUND,
+    /** Renders of previews that are not currently visible, such as inactive editors */
+    BACKGROUND,
+    /** Renders of thumbnails and icons, such as the palette previews */
+    THUMBNAIL
+  }
+
+  /**
+   * Snapshot of the statistics of the render requests, per {@link Priority}
+   */
+  public static class QueueStatistics {
+    private final int myQueueDepth;
+    private final long[] mySubmitted;
+    private final long[] myCompleted;
+    private final long[] myCancelled;
+    private final long[] myWaitNanos;
+    private final long[] myRunNanos;
+
+    QueueStatistics(int queueDepth,
+                    @NotNull long[] submitted,
+                    @NotNull long[] completed,
+                    @NotNull long[] cancelled,
+                    @NotNull long[] waitNanos,
+                    @NotNull long[] runNanos) {
+      myQueueDepth = queueDepth;
+      mySubmitted = submitted;
+      myCompleted = completed;
+      myCancelled = cancelled;
+      myWaitNanos = waitNanos;
+      myRunNanos = runNanos;
+    }
+
+    /** Returns the number of requests waiting to be run */
+    public int getQueueDepth() {
+      return myQueueDepth;
+    }
+
+    /** Returns the number of requests submitted with the given priority */
+    public long getSubmittedCount(@NotNull Priority priority) {
+      return mySubmitted[priority.ordinal()];
+    }
+
+    /** Returns the number of requests of the given priority that have run */
+    public long getCompletedCount(@NotNull Priority priority) {
+      return myCompleted[priority.ordinal()];
+    }
+
+    /** Returns the number of requests of the given priority that were dropped before running, because they were superseded */
+    public long getCancelledCount(@NotNull Priority priority) {
+      return myCancelled[priority.ordinal()];
+    }
+
+    /** Returns the average time in ms that requests of the given priority waited before running */
+    public double getAverageWaitTimeMs(@NotNull Priority priority) {
+      long count = myCompleted[priority.ordinal()];
+      return count == 0 ? 0 : myWaitNanos[priority.ordinal()] / (count * 1e6);
+    }
+
+    /** Returns the average time in ms that requests of the given priority took to run */
+    public double getAverageRenderTimeMs(@NotNull Priority priority) {
+      long count = myCompleted[priority.ordinal()];
+      return count == 0 ? 0 : myRunNanos[priority.ordinal()] / (count * 1e6);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("queue depth: ").append(myQueueDepth);
+      for (Priority priority : Priority.values()) {
+        sb.append(String.format(", %1$s: %2$d completed, %3$d cancelled, %4$.1f ms wait, %5$.1f ms render", priority,
+                                getCompletedCount(priority), getCancelledCount(priority), getAverageWaitTimeMs(priority),
+                                getAverageRenderTimeMs(priority)));
+      }
+      return sb.toString();
+    }
+  }
 }
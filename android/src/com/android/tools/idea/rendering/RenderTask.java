@@ -45,6 +45,10 @@ import com.android.tools.idea.res.ResourceHelper;
 import com.android.tools.idea.ui.designer.EditorDesignSurface;
 import com.android.tools.swing.layoutlib.FakeImageFactory;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
@@ -55,6 +59,7 @@ import com.intellij.psi.PsiFile;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
 import com.intellij.reference.SoftReference;
+import com.intellij.util.concurrency.PooledThreadExecutor;
 import org.intellij.lang.annotations.MagicConstant;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.sdk.AndroidPlatform;
@@ -70,6 +75,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.SdkConstants.APPCOMPAT_LIB_ARTIFACT;
@@ -83,6 +89,9 @@ import static com.intellij.lang.annotation.HighlightSeverity.ERROR;
 public class RenderTask implements IImageFactory {
   private static final Logger LOG = Logger.getInstance(RenderTask.class);
 
+  /** Held while a session is inflated with the {@link RenderSecurityManager} active */
+  private static final Object SECURITY_MANAGER_LOCK = new Object();
+
   private final ImagePool myImagePool = new ImagePool();
 
   @NotNull
@@ -126,6 +135,9 @@ public class RenderTask implements IImageFactory {
 
   private long myTimeout;
 
+  @NotNull
+  private volatile RenderService.Priority myPriority = RenderService.Priority.FOREGROUND;
+
   @Nullable
   private Set<XmlTag> myExpandNodes;
 
@@ -148,6 +160,7 @@ public class RenderTask implements IImageFactory {
 
   private boolean isSecurityManagerEnabled = true;
   private CrashReporter myCrashReporter;
+  @Nullable private RenderMetrics myMetrics;
 
   /**
    * Don't create this task directly; obtain via {@link com.android.tools.idea.rendering.RenderService}
@@ -262,12 +275,13 @@ public class RenderTask implements IImageFactory {
              !ApplicationManager.getApplication().isReadAccessAllowed() : "Do not hold read lock during dispose!";
 
       try {
-        RenderService.runRenderAction(myRenderSession::dispose);
+        RenderService.runRenderAction(this, myPriority, false, myRenderSession::dispose);
         myRenderSession = null;
       }
       catch (Exception ignored) {
       }
     }
+    RenderService.releaseRenderActions(this);
     myImageFactoryDelegate = null;
   }
 
@@ -328,6 +342,74 @@ public class RenderTask implements IImageFactory {
     return this;
   }
 
+  /**
+   * Sets the priority of the render actions of this task relative to the pending actions of other tasks. The default is
+   * {@link RenderService.Priority#FOREGROUND}. The priority can be changed at any time and applies to actions submitted
+   * afterwards.
+   *
+   * @param priority the priority of this task
+   * @return this (such that chains of setters can be stringed together)
+   */
+  @NotNull
+  public RenderTask setPriority(@NotNull RenderService.Priority priority) {
+    myPriority = priority;
+    return this;
+  }
+
+  /** Returns the {@link RenderService.Priority} of the render actions of this task */
+  @NotNull
+  public RenderService.Priority getPriority() {
+    return myPriority;
+  }
+
+  /**
+   * Sets where the timings of the render actions of this task are recorded. Several tasks can share the same metrics, for
+   * example the successive tasks created for the same layout.
+   *
+   * @param metrics the metrics to record the timings in, or null to not record them
+   * @return this (such that chains of setters can be stringed together)
+   */
+  @NotNull
+  public RenderTask setMetrics(@Nullable RenderMetrics metrics) {
+    myMetrics = metrics;
+    return this;
+  }
+
+  @Nullable
+  public RenderMetrics getMetrics() {
+    return myMetrics;
+  }
+
+  private void recordTime(@NotNull RenderMetrics.Phase phase, long startNanos) {
+    RenderMetrics metrics = myMetrics;
+    if (metrics != null) {
+      metrics.record(phase, System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Wraps a render action such that the time it waits for the render thread is recorded
+   */
+  @NotNull
+  private <T> Callable<T> measureQueueWait(@NotNull Callable<T> callable) {
+    long submitNanos = System.nanoTime();
+    return () -> {
+      recordTime(RenderMetrics.Phase.QUEUE_WAIT, submitNanos);
+      return callable.call();
+    };
+  }
+
+  /**
+   * Copies the image of a render session out of the session
+   */
+  @NotNull
+  private ImagePool.Image copyImage(@NotNull RenderSession session) {
+    long start = System.nanoTime();
+    ImagePool.Image image = myImagePool.copyOf(session.getImage());
+    recordTime(RenderMetrics.Phase.IMAGE_COPY, start);
+    return image;
+  }
+
   /**
    * Sets the overriding background color to be used, if any. The color should be a
    * bitmask of AARRGGBB. The default is null.
@@ -546,7 +628,7 @@ public class RenderTask implements IImageFactory {
       myLayoutlibCallback.setLogger(myLogger);
       myLayoutlibCallback.setResourceResolver(resolver);
 
-      RenderResult result = ApplicationManager.getApplication().runReadAction(new Computable<RenderResult>() {
+      Computable<RenderResult> inflate = new Computable<RenderResult>() {
         @NotNull
         @Override
         public RenderResult compute() {
@@ -558,6 +640,7 @@ public class RenderTask implements IImageFactory {
           }
 
           try {
+            long inflateStart = System.nanoTime();
             int retries = 0;
             RenderSession session = null;
             while (retries < 10) {
@@ -577,6 +660,8 @@ public class RenderTask implements IImageFactory {
               retries++;
             }
 
+            recordTime(RenderMetrics.Phase.INFLATE, inflateStart);
+
             if (session.getResult().isSuccess()) {
               // Advance the frame time to display the material progress bars
               // TODO: Expose this through the RenderTask API to allow callers to customize this value
@@ -585,8 +670,11 @@ public class RenderTask implements IImageFactory {
               session.setSystemTimeNanos(now);
               session.setElapsedFrameTimeNanos(TimeUnit.MILLISECONDS.toNanos(500));
             }
-            RenderResult result =
-              RenderResult.create(RenderTask.this, session, myPsiFile, myLogger, myImagePool.copyOf(session.getImage()));
+            RenderResult result = RenderResult.create(RenderTask.this, session, myPsiFile, myLogger, copyImage(session));
+            if (myRenderSession != null) {
+              // The task is being inflated again; the previous session is replaced
+              myRenderSession.dispose();
+            }
             myRenderSession = session;
             return result;
           }
@@ -596,7 +684,18 @@ public class RenderTask implements IImageFactory {
             }
           }
         }
-      });
+      };
+      RenderResult result;
+      if (isSecurityManagerEnabled) {
+        // The render security manager is installed process wide and activated with a shared credential, so sessions
+        // running on different render threads must not create their sessions at the same time
+        synchronized (SECURITY_MANAGER_LOCK) {
+          result = ApplicationManager.getApplication().runReadAction(inflate);
+        }
+      }
+      else {
+        result = ApplicationManager.getApplication().runReadAction(inflate);
+      }
       addDiagnostics(result.getRenderResult());
       return result;
     }
@@ -664,7 +763,9 @@ public class RenderTask implements IImageFactory {
   }
 
   /**
-   * Inflates the layout but does not render it.
+   * Inflates the layout but does not render it. The task can be inflated again after the layout file was edited, which is
+   * cheaper than creating a new task as long as the configuration and the resources did not change; the previous render
+   * session is then disposed.
    * @return A {@link RenderResult} with the result of inflating the inflate call. The result might not contain a result bitmap.
    */
   @Nullable
@@ -677,22 +778,36 @@ public class RenderTask implements IImageFactory {
     }
 
     try {
-      return RenderService.runRenderAction(() -> createRenderSession((width, height) -> {
-        if (myImageFactoryDelegate != null) {
-          return myImageFactoryDelegate.getImage(width, height);
-        }
-
-        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-      }));
+      return RenderService.runRenderAction(this, myPriority, false, measureQueueWait(this::inflateInner));
     }
     catch (final Exception e) {
-      String message = e.getMessage();
-      if (message == null) {
-        message = e.toString();
+      return createInitializationError(e);
+    }
+  }
+
+  /**
+   * Creates the render session; must be called from the render thread of this task
+   */
+  @Nullable
+  private RenderResult inflateInner() {
+    return createRenderSession((width, height) -> {
+      if (myImageFactoryDelegate != null) {
+        return myImageFactoryDelegate.getImage(width, height);
       }
-      myLogger.addMessage(RenderProblem.createPlain(ERROR, message, myRenderService.getProject(), myLogger.getLinkManager(), e));
-      return RenderResult.createSessionInitializationError(this, myPsiFile, myLogger);
+
+      return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    });
+  }
+
+  @NotNull
+  private RenderResult createInitializationError(@NotNull Exception e) {
+    String message = e.getMessage();
+    if (message == null) {
+      message = e.toString();
     }
+    myLogger.addMessage(RenderProblem.createPlain(ERROR, message, myRenderService.getProject(), myLogger.getLinkManager(), e));
+    assert myPsiFile != null;
+    return RenderResult.createSessionInitializationError(this, myPsiFile, myLogger);
   }
 
   /**
@@ -704,10 +819,12 @@ public class RenderTask implements IImageFactory {
       return null;
     }
     try {
-      return RenderService.runRenderAction(() -> {
+      return RenderService.runRenderAction(this, myPriority, false, measureQueueWait(() -> {
+        long start = System.nanoTime();
         myRenderSession.measure();
+        recordTime(RenderMetrics.Phase.LAYOUT, start);
         return RenderResult.create(this, myRenderSession, myPsiFile, myLogger, ImagePool.NULL_POOLED_IMAGE);
-      });
+      }));
     }
     catch (final Exception e) {
       // nothing
@@ -748,25 +865,103 @@ public class RenderTask implements IImageFactory {
     assert myPsiFile != null;
 
     try {
-      return RenderService.runRenderAction(() -> {
-        myRenderSession.render();
-        RenderResult result =
-          RenderResult.create(this, myRenderSession, myPsiFile, myLogger, myImagePool.copyOf(myRenderSession.getImage()));
-        if (result.getRenderResult().getException() != null) {
-          reportException(result.getRenderResult().getException());
-        }
-        return result;
-      });
+      // A newer render of this task makes any pending one obsolete
+      return RenderService.runRenderAction(this, myPriority, true, measureQueueWait(this::renderSession));
+    }
+    catch (CancellationException e) {
+      // Superseded by a newer render request for this task
+      return null;
     }
     catch (final Exception e) {
       reportException(e);
-      String message = e.getMessage();
-      if (message == null) {
-        message = e.toString();
-      }
-      myLogger.addMessage(RenderProblem.createPlain(ERROR, message, myRenderService.getProject(), myLogger.getLinkManager(), e));
-      return RenderResult.createSessionInitializationError(this, myPsiFile, myLogger);
+      return createInitializationError(e);
+    }
+  }
+
+  /**
+   * Renders the current render session; must be called from the render thread of this task
+   */
+  @NotNull
+  private RenderResult renderSession() {
+    assert myPsiFile != null;
+    long start = System.nanoTime();
+    myRenderSession.render();
+    recordTime(RenderMetrics.Phase.RENDER, start);
+    RenderResult result = RenderResult.create(this, myRenderSession, myPsiFile, myLogger, copyImage(myRenderSession));
+    if (result.getRenderResult().getException() != null) {
+      reportException(result.getRenderResult().getException());
+    }
+    return result;
+  }
+
+  /**
+   * Renders the layout asynchronously, inflating it first if needed, using the default IImageFactory implementation provided
+   * by RenderTask.
+   * <p/>
+   * A newer render of this task cancels this one if it has not started yet, as does cancelling the returned future. A render
+   * which has started always runs to completion. A cancelled render completes the future with a {@link CancellationException}.
+   * A render which times out is reported like in {@link #render()}, and completes the future with an error result.
+   *
+   * @return a future for the result of the render, which is null if the layout could not be inflated
+   */
+  @NotNull
+  public ListenableFuture<RenderResult> renderAsync() {
+    if (myPsiFile == null) {
+      throw new IllegalStateException("renderAsync shouldn't be called on RenderTask without PsiFile");
     }
+    myImageFactoryDelegate = this;
+
+    ListenableFuture<RenderResult> render = RenderService.runAsyncRenderAction(this, myPriority, true, measureQueueWait(() -> {
+      try {
+        if (myRenderSession == null) {
+          RenderResult renderResult = inflateInner();
+          Result result = renderResult != null ? renderResult.getRenderResult() : null;
+          if (result == null || !result.isSuccess()) {
+            if (result != null) {
+              if (result.getException() != null) {
+                reportException(result.getException());
+              }
+              myLogger.error(null, result.getErrorMessage(), result.getException(), null);
+            }
+            return renderResult;
+          }
+        }
+        return renderSession();
+      }
+      catch (Exception e) {
+        reportException(e);
+        return createInitializationError(e);
+      }
+    }));
+
+    SettableFuture<RenderResult> rendered = SettableFuture.create();
+    rendered.addListener(() -> {
+      if (rendered.isCancelled()) {
+        render.cancel(false);
+      }
+    }, PooledThreadExecutor.INSTANCE);
+    Futures.addCallback(render, new FutureCallback<RenderResult>() {
+      @Override
+      public void onSuccess(@Nullable RenderResult result) {
+        rendered.set(result);
+      }
+
+      @Override
+      public void onFailure(@NotNull Throwable t) {
+        if (t instanceof CancellationException) {
+          rendered.cancel(false);
+        }
+        else if (t instanceof Exception) {
+          // Typically a render timeout
+          reportException(t);
+          rendered.set(createInitializationError((Exception)t));
+        }
+        else {
+          rendered.setException(t);
+        }
+      }
+    }, PooledThreadExecutor.INSTANCE);
+    return rendered;
   }
 
   /**
@@ -852,7 +1047,7 @@ public class RenderTask implements IImageFactory {
     params.setAssetRepository(myAssetRepository);
 
     try {
-      Result result = RenderService.runRenderAction(new Callable<Result>() {
+      Result result = RenderService.runRenderAction(this, myPriority, false, new Callable<Result>() {
         @Override
         public Result call() throws Exception {
           return myLayoutLib.renderDrawable(params);
@@ -901,7 +1096,7 @@ public class RenderTask implements IImageFactory {
     }
 
     try {
-      Result result = RenderService.runRenderAction(new Callable<Result>() {
+      Result result = RenderService.runRenderAction(this, myPriority, false, new Callable<Result>() {
         @Override
         public Result call() throws Exception {
           return myLayoutLib.renderDrawable(params);
@@ -1033,7 +1228,7 @@ public class RenderTask implements IImageFactory {
     Map<XmlTag, ViewInfo> map = Maps.newHashMap();
     RenderSession session = null;
     try {
-      session = RenderService.runRenderAction(() -> measure(modelParser));
+      session = RenderService.runRenderAction(this, myPriority, false, () -> measure(modelParser));
     }
     catch (Exception ignored) {
     }
@@ -1056,7 +1251,7 @@ public class RenderTask implements IImageFactory {
         return map;
       } finally {
         try {
-          RenderService.runRenderAction(session::dispose);
+          RenderService.runRenderAction(this, myPriority, false, session::dispose);
         }
         catch (Exception ignored) {
         }
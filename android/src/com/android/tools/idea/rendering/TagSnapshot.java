@@ -96,6 +96,31 @@ public class TagSnapshot {
     return new TagSnapshot(tag, tag.getName(), tag.getNamespacePrefix(), tag.getNamespace(), attributes, children);
   }
 
+  /**
+   * Returns a copy of this snapshot and its descendants, referring to the same tags. The copy can be modified through
+   * {@link #setAttribute} without affecting this snapshot, and its snapshots are distinct objects, e.g. when used as view cookies.
+   */
+  @NotNull
+  public TagSnapshot copy() {
+    List<AttributeSnapshot> attributes = this.attributes.isEmpty() ? Collections.emptyList() : Lists.newArrayList(this.attributes);
+    List<TagSnapshot> children;
+    if (!this.children.isEmpty()) {
+      TagSnapshot last = null;
+      children = Lists.newArrayListWithCapacity(this.children.size());
+      for (TagSnapshot child : this.children) {
+        TagSnapshot copy = child.copy();
+        children.add(copy);
+        if (last != null) {
+          last.myNext = copy;
+        }
+        last = copy;
+      }
+    } else {
+      children = Collections.emptyList();
+    }
+    return new TagSnapshot(tag, tagName, prefix, namespace, attributes, children);
+  }
+
   @Nullable
   public String getAttribute(@NotNull String name) {
     return getAttribute(name, null);
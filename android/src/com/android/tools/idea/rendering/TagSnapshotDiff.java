@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The difference between two {@link TagSnapshot} trees of the same layout, used to find out how much of a layout needs
+ * to be reprocessed after an edit.
+ */
+public class TagSnapshotDiff {
+  public enum Kind {
+    /** The trees have the same tags and attributes */
+    NONE,
+    /** The trees have the same tags in the same order, but some attribute values differ */
+    ATTRIBUTES,
+    /** Tags were added, removed, reordered or renamed */
+    STRUCTURE
+  }
+
+  private static final TagSnapshotDiff NO_CHANGES =
+    new TagSnapshotDiff(Kind.NONE, Collections.emptyList(), Collections.emptyList());
+  private static final TagSnapshotDiff STRUCTURE_CHANGED =
+    new TagSnapshotDiff(Kind.STRUCTURE, Collections.emptyList(), Collections.emptyList());
+
+  @NotNull private final Kind myKind;
+  @NotNull private final List<TagSnapshot> myChangedTags;
+  @NotNull private final List<AttributeSnapshot> myChangedAttributes;
+
+  private TagSnapshotDiff(@NotNull Kind kind, @NotNull List<TagSnapshot> changedTags, @NotNull List<AttributeSnapshot> changedAttributes) {
+    myKind = kind;
+    myChangedTags = changedTags;
+    myChangedAttributes = changedAttributes;
+  }
+
+  /**
+   * Compares two snapshot trees. A missing tree is always a structural change.
+   */
+  @NotNull
+  public static TagSnapshotDiff compare(@Nullable TagSnapshot before, @Nullable TagSnapshot after) {
+    if (before == null || after == null) {
+      return STRUCTURE_CHANGED;
+    }
+    List<TagSnapshot> changedTags = Lists.newArrayList();
+    List<AttributeSnapshot> changedAttributes = Lists.newArrayList();
+    if (!compare(before, after, changedTags, changedAttributes)) {
+      return STRUCTURE_CHANGED;
+    }
+    return changedTags.isEmpty() ? NO_CHANGES : new TagSnapshotDiff(Kind.ATTRIBUTES, changedTags, changedAttributes);
+  }
+
+  /**
+   * Compares two snapshots and their children, adding the tags (from the {@code after} tree) whose attributes differ to
+   * {@code changedTags}, and their new or modified attributes to {@code changedAttributes}. Returns false if the structure of
+   * the trees differs.
+   */
+  private static boolean compare(@NotNull TagSnapshot before,
+                                 @NotNull TagSnapshot after,
+                                 @NotNull List<TagSnapshot> changedTags,
+                                 @NotNull List<AttributeSnapshot> changedAttributes) {
+    if (!before.tagName.equals(after.tagName) || !Objects.equal(before.namespace, after.namespace)) {
+      return false;
+    }
+    List<TagSnapshot> beforeChildren = before.children;
+    List<TagSnapshot> afterChildren = after.children;
+    if (beforeChildren.size() != afterChildren.size()) {
+      return false;
+    }
+    if (addChangedAttributes(before, after, changedAttributes)) {
+      changedTags.add(after);
+    }
+    for (int i = 0, n = beforeChildren.size(); i < n; i++) {
+      if (!compare(beforeChildren.get(i), afterChildren.get(i), changedTags, changedAttributes)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds the attributes of {@code after} which are missing or have a different value in {@code before} to
+   * {@code changedAttributes}, and returns true if the attributes of the two tags differ in any way
+   */
+  private static boolean addChangedAttributes(@NotNull TagSnapshot before,
+                                              @NotNull TagSnapshot after,
+                                              @NotNull List<AttributeSnapshot> changedAttributes) {
+    boolean changed = before.attributes.size() != after.attributes.size();
+    for (AttributeSnapshot attribute : after.attributes) {
+      String previous = before.getAttribute(attribute.name, attribute.namespace);
+      if (previous == null || !previous.equals(attribute.value)) {
+        changedAttributes.add(attribute);
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  @NotNull
+  public Kind getKind() {
+    return myKind;
+  }
+
+  /**
+   * Returns the tags of the new tree whose attributes changed; only meaningful for {@link Kind#ATTRIBUTES} diffs
+   */
+  @NotNull
+  public List<TagSnapshot> getChangedTags() {
+    return myChangedTags;
+  }
+
+  /**
+   * Returns true if any new or modified attribute value starts with the given prefix, for example a new id declaration
+   */
+  public boolean hasChangedValueWithPrefix(@NotNull String prefix) {
+    for (AttributeSnapshot attribute : myChangedAttributes) {
+      if (attribute.value != null && attribute.value.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "TagSnapshotDiff{" + myKind + ", " + myChangedTags.size() + " changed tags}";
+  }
+}
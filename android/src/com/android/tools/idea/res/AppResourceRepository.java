@@ -42,6 +42,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.android.SdkConstants.DOT_AAR;
 import static com.android.SdkConstants.FD_RES;
@@ -375,8 +376,8 @@ public class AppResourceRepository extends MultiResourceRepository {
     }
     setChildren(resources);
 
-    // Clear the fake R class cache and the ModuleClassLoader cache.
-    resetDynamicIds(true);
+    // Clear the ModuleClassLoader cache. The dynamic ids are deliberately kept such that ids already handed out stay
+    // stable; the fake R classes are regenerated on demand, and only the ones whose contents changed produce new bytecode.
     ModuleClassLoader.clearCache(myFacet.getModule());
   }
 
@@ -506,6 +507,8 @@ public class AppResourceRepository extends MultiResourceRepository {
   private final TObjectIntHashMap<TypedResourceName> myName2DynamicIdMap = new TObjectIntHashMap<TypedResourceName>();
   private final TIntObjectHashMap<TypedResourceName> myDynamicId2ResourceMap = new TIntObjectHashMap<TypedResourceName>();
   private int myDynamicSeed = DYNAMIC_ID_SEED_START;
+  /** Incremented whenever previously handed out ids may have changed (compiled resources set, or dynamic ids reset) */
+  private final AtomicLong myIdGeneration = new AtomicLong();
   private final IntArrayWrapper myWrapper = new IntArrayWrapper(null);
 
 
@@ -589,6 +592,15 @@ public class AppResourceRepository extends MultiResourceRepository {
     myResourceValueMap = res2id;
     myResIdValueToNameMap = id2res;
     myStyleableValueToNameMap = styleableId2name;
+    myIdGeneration.incrementAndGet();
+  }
+
+  /**
+   * Returns a counter which changes whenever ids returned by {@link #getResourceId(ResourceType, String)} may have
+   * changed for resources that already had an id. Adding new resources does not change this generation.
+   */
+  public long getIdGeneration() {
+    return myIdGeneration.get();
   }
 
   public void resetDynamicIds(boolean clearResourceRegistry) {
@@ -601,6 +613,7 @@ public class AppResourceRepository extends MultiResourceRepository {
       myDynamicSeed = DYNAMIC_ID_SEED_START;
       myName2DynamicIdMap.clear();
       myDynamicId2ResourceMap.clear();
+      myIdGeneration.incrementAndGet();
     }
   }
 
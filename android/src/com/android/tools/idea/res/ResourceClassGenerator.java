@@ -20,7 +20,11 @@ import com.android.ide.common.rendering.api.DeclareStyleableResourceValue;
 import com.android.ide.common.rendering.api.ResourceValue;
 import com.android.ide.common.res2.ResourceItem;
 import com.android.resources.ResourceType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.intellij.openapi.diagnostic.Logger;
 import gnu.trove.TObjectIntHashMap;
 import gnu.trove.TObjectIntProcedure;
@@ -33,11 +37,13 @@ import org.jetbrains.org.objectweb.asm.Type;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 import static com.android.tools.idea.LogAnonymizerUtil.anonymizeClassName;
 import static com.android.tools.idea.LogAnonymizerUtil.isPublicClass;
+import static com.google.common.base.Charsets.UTF_8;
 import static org.jetbrains.org.objectweb.asm.Opcodes.*;
 
 /**
@@ -67,9 +73,21 @@ import static org.jetbrains.org.objectweb.asm.Opcodes.*;
 public class ResourceClassGenerator {
   private static final Logger LOG = Logger.getInstance(ResourceClassGenerator.class);
 
-  private Map<ResourceType, TObjectIntHashMap<String>> myCache;
-  /** For int[] in styleables. The ints in styleables are stored in {@link #myCache}. */
-  private Map<String, List<Integer>> myStyleableCache;
+  /** Upper bound (in bytes) for the size of {@link #ourClassCache} */
+  private static final long MAX_CACHED_CLASS_BYTES = 8 * 1024 * 1024;
+
+  /**
+   * Generated class bytes, keyed by the class name and a hash of the field values it declares. This is shared by all
+   * generators, such that an unchanged R class does not have to be regenerated when the generator for a repository is
+   * recreated, or when a new render session is started.
+   */
+  private static final Cache<String, byte[]> ourClassCache = CacheBuilder.newBuilder()
+    .maximumWeight(MAX_CACHED_CLASS_BYTES)
+    .weigher((String key, byte[] bytes) -> bytes.length)
+    .build();
+
+  /** The classes generated by this generator so far, keyed by the (internal) class name */
+  private final Map<String, GeneratedClass> myGeneratedClasses = Maps.newHashMap();
   @NotNull private final AppResourceRepository myAppResources;
 
   private ResourceClassGenerator(@NotNull AppResourceRepository appResources) {
@@ -88,18 +106,30 @@ public class ResourceClassGenerator {
   }
 
   /**
+   * Returns the bytecode for the given R class or inner R class.
+   * <p>
+   * Classes are only regenerated if the resources or the resource ids have changed since the class was last requested,
+   * and then only if the set of fields (and their values) in that particular class is different; ids already handed out
+   * by {@link AppResourceRepository} stay stable, so unaffected inner classes produce identical bytes.
+   *
    * @param fqcn Fully qualified class name (as accepted by ClassLoader, or as returned by Class.getName())
    */
   @Nullable
-  public byte[] generate(String fqcn) {
+  public synchronized byte[] generate(String fqcn) {
     String className = fqcn.replace('.', '/');
 
     if (LOG.isDebugEnabled()) {
       LOG.debug(String.format("generate(%s)", anonymizeClassName(className)));
     }
-    ClassWriter cw = new ClassWriter(0);  // Don't compute MAXS and FRAMES.
-    cw.visit(V1_6, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, className, null, Type.getInternalName(Object.class), null);
 
+    long resourceGeneration = myAppResources.getModificationCount();
+    long idGeneration = myAppResources.getIdGeneration();
+    GeneratedClass generated = myGeneratedClasses.get(className);
+    if (generated != null && generated.isUpToDate(resourceGeneration, idGeneration)) {
+      return generated.myBytes;
+    }
+
+    byte[] bytes;
     int index = className.lastIndexOf('$');
     if (index != -1) {
       String typeName = className.substring(index + 1);
@@ -110,77 +140,97 @@ public class ResourceClassGenerator {
         }
         return null;
       }
+      bytes = generateInnerClass(className, index, type);
+    } else {
+      bytes = generateOuterClass(className);
+    }
 
-      cw.visitInnerClass(className, className.substring(0, index), typeName, ACC_PUBLIC + ACC_FINAL + ACC_STATIC);
-      if (myCache == null) {
-        myCache = Maps.newHashMap();
+    myGeneratedClasses.put(className, new GeneratedClass(resourceGeneration, idGeneration, bytes));
+    return bytes;
+  }
+
+  @NotNull
+  private byte[] generateOuterClass(@NotNull String className) {
+    ClassWriter cw = new ClassWriter(0);  // Don't compute MAXS and FRAMES.
+    cw.visit(V1_6, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, className, null, Type.getInternalName(Object.class), null);
+
+    // Default R class.
+    boolean styleableAdded = false;
+    for (ResourceType t : myAppResources.getAvailableResourceTypes()) {
+      // getAvailableResourceTypes() sometimes returns both styleable and declare styleable. Make sure that we only create one subclass.
+      if (t == ResourceType.DECLARE_STYLEABLE) {
+        t = ResourceType.STYLEABLE;
       }
-      if (type == ResourceType.STYLEABLE) {
-        if (myStyleableCache == null) {
-          TObjectIntHashMap<String> styleableIntCache = new TObjectIntHashMap<String>();
-          myCache.put(type, styleableIntCache);
-          myStyleableCache = Maps.newHashMap();
-          generateStyleable(cw, styleableIntCache, className);
-        }
-        else {
-          TObjectIntHashMap<String> styleableIntCache = myCache.get(type);
-          assert styleableIntCache != null;
-          generateFields(cw, styleableIntCache);
-          generateIntArrayFromCache(cw, className, myStyleableCache);
-        }
-      } else {
-        TObjectIntHashMap<String> typeCache = myCache.get(type);
-        if (typeCache == null) {
-          typeCache = new TObjectIntHashMap<String>();
-          myCache.put(type, typeCache);
-          generateValuesForType(cw, type, typeCache);
-        }
-        else {
-          generateFields(cw, typeCache);
+      if (t == ResourceType.STYLEABLE) {
+        if (styleableAdded) {
+          continue;
+        } else {
+          styleableAdded = true;
         }
       }
+      cw.visitInnerClass(className + "$" + t.getName(), className, t.getName(), ACC_PUBLIC + ACC_FINAL + ACC_STATIC);
+    }
+
+    generateConstructor(cw);
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  @NotNull
+  private byte[] generateInnerClass(@NotNull String className, int index, @NotNull ResourceType type) {
+    // Compute the field values first; only emit bytecode if we haven't generated a class with these exact values before
+    TObjectIntHashMap<String> fields = new TObjectIntHashMap<String>();
+    // For int[] in styleables. The ints in styleables are stored in fields.
+    Map<String, List<Integer>> styleables = null;
+    if (type == ResourceType.STYLEABLE) {
+      styleables = Maps.newHashMap();
+      computeStyleable(fields, styleables, className);
     } else {
-      // Default R class.
-      boolean styleableAdded = false;
-      for (ResourceType t : myAppResources.getAvailableResourceTypes()) {
-        // getAvailableResourceTypes() sometimes returns both styleable and declare styleable. Make sure that we only create one subclass.
-        if (t == ResourceType.DECLARE_STYLEABLE) {
-          t = ResourceType.STYLEABLE;
-        }
-        if (t == ResourceType.STYLEABLE) {
-          if (styleableAdded) {
-            continue;
-          } else {
-            styleableAdded = true;
-          }
-        }
-        cw.visitInnerClass(className + "$" + t.getName(), className, t.getName(), ACC_PUBLIC + ACC_FINAL + ACC_STATIC);
+      computeValuesForType(type, fields);
+    }
+
+    String key = computeCacheKey(className, fields, styleables);
+    byte[] bytes = ourClassCache.getIfPresent(key);
+    if (bytes != null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(String.format("  reusing cached class for %s", anonymizeClassName(className)));
       }
+      return bytes;
     }
 
+    ClassWriter cw = new ClassWriter(0);  // Don't compute MAXS and FRAMES.
+    cw.visit(V1_6, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, className, null, Type.getInternalName(Object.class), null);
+    cw.visitInnerClass(className, className.substring(0, index), type.getName(), ACC_PUBLIC + ACC_FINAL + ACC_STATIC);
+    generateFields(cw, fields);
+    if (styleables != null) {
+      generateIntArrayFromCache(cw, className, styleables);
+    }
     generateConstructor(cw);
     cw.visitEnd();
-    return cw.toByteArray();
+    bytes = cw.toByteArray();
+    ourClassCache.put(key, bytes);
+    return bytes;
   }
 
-  private void generateValuesForType(@NotNull ClassWriter cw, @NotNull ResourceType resType, @NotNull TObjectIntHashMap<String> cache) {
+  private void computeValuesForType(@NotNull ResourceType resType, @NotNull TObjectIntHashMap<String> cache) {
     Collection<String> keys = myAppResources.getItemsOfType(resType);
     for (String key : keys) {
       int initialValue = myAppResources.getResourceId(resType, key);
       key = AndroidResourceUtil.getFieldNameByResourceName(key);
-      generateField(cw, key, initialValue);
       cache.put(key, initialValue);
     }
   }
 
-  private void generateStyleable(@NotNull ClassWriter cw, @NotNull TObjectIntHashMap<String> styleableIntCache, String className) {
+  private void computeStyleable(@NotNull TObjectIntHashMap<String> styleableIntCache,
+                                @NotNull Map<String, List<Integer>> styleableCache,
+                                String className) {
     if (LOG.isDebugEnabled()) {
-      LOG.debug(String.format("generateStyleable(%s)", anonymizeClassName(className)));
+      LOG.debug(String.format("computeStyleable(%s)", anonymizeClassName(className)));
     }
 
     boolean debug = LOG.isDebugEnabled() && isPublicClass(className);
     Collection<String> declaredStyleables = myAppResources.getItemsOfType(ResourceType.DECLARE_STYLEABLE);
-    // Generate all declarations - both int[] and int for the indices into the array.
+    // Compute all declarations - both int[] and int for the indices into the array.
     for (String styleableName : declaredStyleables) {
       List<ResourceItem> items = myAppResources.getResourceItem(ResourceType.DECLARE_STYLEABLE, styleableName);
       if (items == null || items.isEmpty()) {
@@ -190,7 +240,6 @@ public class ResourceClassGenerator {
         continue;
       }
       String fieldName = AndroidResourceUtil.getFieldNameByResourceName(styleableName);
-      cw.visitField(ACC_PUBLIC + ACC_FINAL + ACC_STATIC, fieldName, "[I", null, null);
       if (debug) {
         LOG.debug("  Defined styleable " + fieldName);
       }
@@ -200,49 +249,80 @@ public class ResourceClassGenerator {
       List<AttrResourceValue> attributes = dv.getAllAttributes();
       int idx = 0;
       for (AttrResourceValue value : attributes) {
-        Integer initialValue = idx++;
         String styleableEntryName = getResourceName(fieldName, value);
-        cw.visitField(ACC_PUBLIC + ACC_FINAL + ACC_STATIC, styleableEntryName, "I", null, initialValue);
-        styleableIntCache.put(styleableEntryName, initialValue);
+        styleableIntCache.put(styleableEntryName, idx++);
         if (debug) {
           LOG.debug("  Defined styleable " + styleableEntryName);
         }
       }
-    }
 
-    // Generate class initializer block to initialize the arrays declared above.
-    MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
-    mv.visitCode();
-    for (String styleableName : declaredStyleables) {
-      List<ResourceItem> items = myAppResources.getResourceItem(ResourceType.DECLARE_STYLEABLE, styleableName);
-      if (items == null || items.isEmpty()) {
-        continue;
-      }
-      ResourceValue resourceValue = items.get(0).getResourceValue(false);
-      assert resourceValue instanceof DeclareStyleableResourceValue;
-      DeclareStyleableResourceValue dv = (DeclareStyleableResourceValue)resourceValue;
-      List<AttrResourceValue> attributes = dv.getAllAttributes();
       if (attributes.isEmpty()) {
+        // The int[] field is still declared, but left uninitialized
+        styleableCache.put(fieldName, Collections.<Integer>emptyList());
         continue;
       }
       Integer[] valuesArray = myAppResources.getDeclaredArrayValues(attributes, styleableName);
       if (valuesArray == null) {
         valuesArray = new Integer[attributes.size()];
       }
-      List<Integer> values = Arrays.asList(valuesArray);
-      String fieldName = AndroidResourceUtil.getFieldNameByResourceName(styleableName);
-      myStyleableCache.put(fieldName, values);
-      int idx = -1;
+      idx = -1;
       for (AttrResourceValue value : attributes) {
         if (valuesArray[++idx] == null || !value.isFramework()) {
           valuesArray[idx] = myAppResources.getResourceId(ResourceType.ATTR, value.getName());
         }
       }
-      generateArrayInitialization(mv, className, fieldName, values);
+      styleableCache.put(fieldName, Arrays.asList(valuesArray));
+    }
+  }
+
+  /**
+   * Computes the key under which a class with the given name and field values is stored in {@link #ourClassCache}
+   */
+  @NotNull
+  private static String computeCacheKey(@NotNull String className,
+                                        @NotNull TObjectIntHashMap<String> fields,
+                                        @Nullable Map<String, List<Integer>> arrays) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    String[] names = fields.keys(new String[fields.size()]);
+    Arrays.sort(names);
+    for (String name : names) {
+      hasher.putString(name, UTF_8);
+      hasher.putInt(fields.get(name));
+    }
+    if (arrays != null) {
+      String[] arrayNames = arrays.keySet().toArray(new String[arrays.size()]);
+      Arrays.sort(arrayNames);
+      for (String name : arrayNames) {
+        List<Integer> values = arrays.get(name);
+        hasher.putString(name, UTF_8);
+        hasher.putInt(values.size());
+        for (Integer value : values) {
+          hasher.putInt(value);
+        }
+      }
+    }
+    return className + '@' + hasher.hash();
+  }
+
+  /** Drops all generated classes shared between generators */
+  static void clearSharedCache() {
+    ourClassCache.invalidateAll();
+  }
+
+  private static class GeneratedClass {
+    private final long myResourceGeneration;
+    private final long myIdGeneration;
+    @NotNull private final byte[] myBytes;
+
+    private GeneratedClass(long resourceGeneration, long idGeneration, @NotNull byte[] bytes) {
+      myResourceGeneration = resourceGeneration;
+      myIdGeneration = idGeneration;
+      myBytes = bytes;
+    }
+
+    private boolean isUpToDate(long resourceGeneration, long idGeneration) {
+      return myResourceGeneration == resourceGeneration && myIdGeneration == idGeneration;
     }
-    mv.visitInsn(RETURN);
-    mv.visitMaxs(4, 0);
-    mv.visitEnd();
   }
 
   private static void generateFields(@NotNull final ClassWriter cw, @NotNull TObjectIntHashMap<String> values) {
@@ -113,6 +113,7 @@ public class ResourceClassRegistry implements ProjectComponent {
    */
   public void clearCache() {
     myGeneratorMap.clear();
+    ResourceClassGenerator.clearSharedCache();
     for (Module module : ModuleManager.getInstance(myProject).getModules()) {
       AppResourceRepository appResources = AppResourceRepository.getAppResources(module, false);
       if (appResources != null) {
@@ -17,14 +17,17 @@ package com.android.tools.idea.res;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.annotations.concurrency.GuardedBy;
 import com.android.ide.common.resources.ResourceUrl;
 import com.android.resources.ResourceFolderType;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.configurations.ConfigurationListener;
 import com.android.tools.idea.databinding.DataBindingUtil;
 import com.android.tools.idea.project.AndroidProjectBuildNotifications;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ProjectComponent;
 import com.intellij.openapi.module.Module;
@@ -36,6 +39,7 @@ import com.intellij.openapi.vfs.newvfs.BulkFileListener;
 import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
 import com.intellij.psi.*;
 import com.intellij.psi.xml.*;
+import com.intellij.util.Alarm;
 import com.intellij.util.messages.MessageBusConnection;
 import org.intellij.images.fileTypes.ImageFileTypeManager;
 import org.jetbrains.android.facet.AndroidFacet;
@@ -43,6 +47,7 @@ import org.jetbrains.android.facet.ResourceFolderManager;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.android.SdkConstants.ANDROID_PREFIX;
 import static com.android.SdkConstants.PREFIX_RESOURCE_REF;
@@ -71,9 +76,28 @@ import static com.android.SdkConstants.PREFIX_RESOURCE_REF;
  * <li>All events are delivered on the event dispatch (UI) thread</li>
  * <li>Add listener or remove listener can be done from any thread</li>
  * </ul>
+ * <p/>
+ * Events are delivered in two lanes. Edits of observed files and configuration changes are
+ * {@link Lane#FOREGROUND} events and are delivered as soon as the event queue drains. Everything
+ * else (edits in other resource files, builds, syncs) is a {@link Lane#BACKGROUND} event: these are
+ * debounced for {@link #BACKGROUND_DELAY_MS} while more events keep arriving, for at most
+ * {@link #BACKGROUND_MAX_DELAY_FACTOR} times as long. Either way, all events pending at delivery time are merged into a
+ * single {@link ChangeSet} which describes which resource folder types and files were touched, such that
+ * listeners can skip work that does not concern them.
  */
 @SuppressWarnings({"SynchronizeOnThis", "UseOfSystemOutOrSystemErr"})
 public class ResourceNotificationManager {
+  /**
+   * How long to wait for additional background events before notifying listeners
+   */
+  private static final int BACKGROUND_DELAY_MS = Integer.getInteger("android.resource.notification.delay", 150);
+
+  /**
+   * Upper bound for how long background events can be held back while more events keep arriving, as a multiple
+   * of the background delay
+   */
+  private static final int BACKGROUND_MAX_DELAY_FACTOR = 4;
+
   private final Project myProject;
 
   /**
@@ -110,7 +134,33 @@ public class ResourceNotificationManager {
   /**
    * Set of events we've observed since the last notification
    */
-  private EnumSet<Reason> myEvents = EnumSet.noneOf(Reason.class);
+  @GuardedBy("CHANGE_PENDING_LOCK")
+  private ChangeSet myPendingChanges = new ChangeSet();
+
+  /**
+   * Time stamp of the oldest background event which has not yet been delivered, or 0
+   */
+  @GuardedBy("CHANGE_PENDING_LOCK")
+  private long myBackgroundPendingSince;
+
+  /**
+   * Alarm used to debounce {@link Lane#BACKGROUND} events
+   */
+  private final Alarm myBackgroundAlarm;
+
+  /**
+   * How long to wait for additional background events, or 0 to deliver them like foreground events
+   */
+  private volatile int myBackgroundDelay;
+
+  /**
+   * Number of events observed, number of merged notification batches delivered, number of individual
+   * listener notifications, and number of module notifications skipped because nothing relevant changed.
+   */
+  private final AtomicLong myEventCount = new AtomicLong();
+  private final AtomicLong myBatchCount = new AtomicLong();
+  private final AtomicLong myListenerNotificationCount = new AtomicLong();
+  private final AtomicLong mySkippedNotificationCount = new AtomicLong();
 
   /**
    * Do not instantiate directly; this is a {@link ProjectComponent} and its lifecycle is managed by the IDE;
@@ -118,6 +168,9 @@ public class ResourceNotificationManager {
    */
   public ResourceNotificationManager(Project project) {
     myProject = project;
+    myBackgroundAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, project);
+    // Tests expect events to be delivered once the event queue has been drained, unless they set a delay
+    myBackgroundDelay = ApplicationManager.getApplication().isUnitTestMode() ? 0 : BACKGROUND_DELAY_MS;
   }
 
   /**
@@ -255,13 +308,79 @@ public class ResourceNotificationManager {
     }
   }
 
+  /**
+   * Returns the number of events this manager has observed (and not immediately discarded) since it was created
+   */
+  public long getEventCount() {
+    return myEventCount.get();
+  }
+
+  /**
+   * Returns the number of merged notification batches which have been delivered since this manager was created
+   */
+  public long getBatchCount() {
+    return myBatchCount.get();
+  }
+
+  /**
+   * Returns the number of times a {@link ResourceChangeListener} has been notified since this manager was created
+   */
+  public long getListenerNotificationCount() {
+    return myListenerNotificationCount.get();
+  }
+
+  /**
+   * Returns the number of module notifications which were skipped since the batch did not change the module resources
+   */
+  public long getSkippedNotificationCount() {
+    return mySkippedNotificationCount.get();
+  }
+
   private final Object CHANGE_PENDING_LOCK = new Object();
 
+  private void notice(@NotNull Reason reason) {
+    notice(reason, (VirtualFile)null);
+  }
+
+  private void notice(@NotNull Reason reason, @Nullable PsiFile file) {
+    notice(reason, file != null ? file.getVirtualFile() : null);
+  }
+
   /**
    * Something happened. Either schedule a notification or if one is already pending, do nothing.
    */
-  private void notice(Reason reason) {
-    myEvents.add(reason);
+  private void notice(@NotNull Reason reason, @Nullable VirtualFile file) {
+    myEventCount.incrementAndGet();
+    synchronized (CHANGE_PENDING_LOCK) {
+      myPendingChanges.add(reason, file);
+      int delay = myBackgroundDelay;
+      if (reason.getLane() == Lane.BACKGROUND && delay > 0) {
+        long now = System.currentTimeMillis();
+        if (myBackgroundPendingSince == 0) {
+          myBackgroundPendingSince = now;
+        }
+        else if (now - myBackgroundPendingSince >= BACKGROUND_MAX_DELAY_FACTOR * delay) {
+          // We've been postponing these long enough; let the already scheduled request fire
+          return;
+        }
+        myBackgroundAlarm.cancelAllRequests();
+        myBackgroundAlarm.addRequest(this::scheduleNotification, delay);
+        return;
+      }
+    }
+    scheduleNotification();
+  }
+
+  /**
+   * Sets how long to wait for additional background events before notifying listeners; 0 delivers them as soon as the
+   * event queue drains
+   */
+  @VisibleForTesting
+  void setBackgroundDelay(int delayMs) {
+    myBackgroundDelay = delayMs;
+  }
+
+  private void scheduleNotification() {
     synchronized (CHANGE_PENDING_LOCK) {
       if (myPendingNotify) {
         return;
@@ -288,22 +407,34 @@ public class ResourceNotificationManager {
         ApplicationManager.getApplication().invokeLater(new Runnable() {
           @Override
           public void run() {
-            EnumSet<Reason> reason = myEvents;
-            myEvents = EnumSet.noneOf(Reason.class);
-            notifyListeners(reason);
-            myEvents.clear();
+            ChangeSet changes;
+            synchronized (CHANGE_PENDING_LOCK) {
+              changes = myPendingChanges;
+              myPendingChanges = new ChangeSet();
+              myBackgroundPendingSince = 0;
+            }
+            // Any pending background events have been merged into this batch
+            myBackgroundAlarm.cancelAllRequests();
+            if (!changes.isEmpty()) {
+              myBatchCount.incrementAndGet();
+              notifyListeners(changes);
+            }
           }
         });
       }
     });
   }
 
-  private void notifyListeners(@NonNull EnumSet<Reason> reason) {
+  private void notifyListeners(@NonNull ChangeSet changes) {
     ApplicationManager.getApplication().assertIsDispatchThread();
 
-    for (ModuleEventObserver moduleEventObserver : myModuleToObserverMap.values()) {
+    List<ModuleEventObserver> observers;
+    synchronized (this) {
+      observers = Lists.newArrayList(myModuleToObserverMap.values());
+    }
+    for (ModuleEventObserver moduleEventObserver : observers) {
       // Not every module may have pending changes; each one will check
-      moduleEventObserver.notifyListeners(reason);
+      moduleEventObserver.notifyListeners(changes);
     }
   }
 
@@ -358,12 +489,13 @@ public class ResourceNotificationManager {
       }
     }
 
-    private void notifyListeners(@NonNull EnumSet<Reason> reason) {
+    private void notifyListeners(@NonNull ChangeSet changes) {
       long generation = myFacet.getAppResources(true).getModificationCount();
-      if (reason.size() == 1 && reason.contains(Reason.RESOURCE_EDIT) && generation == myGeneration) {
+      if (changes.isOnly(Reason.RESOURCE_EDIT) && generation == myGeneration) {
         // Notified of an edit in some file that could potentially affect the resources, but
         // it didn't cause the modification stamp to increase: ignore. (If there are other reasons,
         // such as a variant change, then notify regardless
+        mySkippedNotificationCount.incrementAndGet();
         return;
       }
 
@@ -374,7 +506,8 @@ public class ResourceNotificationManager {
         listeners = Lists.newArrayList(myListeners);
       }
       for (ResourceChangeListener listener : listeners) {
-        listener.resourcesChanged(reason);
+        myListenerNotificationCount.incrementAndGet();
+        listener.resourcesChanged(changes);
       }
     }
 
@@ -501,10 +634,10 @@ public class ResourceNotificationManager {
             }
           }
         }
-        notice(Reason.EDIT);
+        notice(Reason.EDIT, event.getFile());
       }
       else {
-        notice(Reason.RESOURCE_EDIT);
+        notice(Reason.RESOURCE_EDIT, event.getFile());
       }
     }
 
@@ -528,9 +661,9 @@ public class ResourceNotificationManager {
           }
         }
 
-        notice(Reason.EDIT);
+        notice(Reason.EDIT, event.getFile());
       } else {
-        notice(Reason.RESOURCE_EDIT);
+        notice(Reason.RESOURCE_EDIT, event.getFile());
       }
     }
 
@@ -571,10 +704,10 @@ public class ResourceNotificationManager {
             }
           }
         }
-        notice(Reason.EDIT);
+        notice(Reason.EDIT, event.getFile());
       }
       else {
-        notice(Reason.RESOURCE_EDIT);
+        notice(Reason.RESOURCE_EDIT, event.getFile());
       }
     }
 
@@ -644,12 +777,12 @@ public class ResourceNotificationManager {
       if (isRelevantFile(event)) {
         final PsiFile file = event.getFile();
         if (file != null) {
-          notice(Reason.EDIT);
+          notice(Reason.EDIT, file);
           return;
         }
       }
 
-      notice(Reason.RESOURCE_EDIT);
+      notice(Reason.RESOURCE_EDIT, event.getFile());
     }
   }
 
@@ -704,8 +837,7 @@ public class ResourceNotificationManager {
           return ResourceFolderType.DRAWABLE == resType ||
                  ResourceFolderType.MIPMAP == resType;
         })
-        .findAny()
-        .ifPresent((e) -> notice(Reason.IMAGE_RESOURCE_CHANGED));
+        .forEach(e -> notice(Reason.IMAGE_RESOURCE_CHANGED, e.getFile()));
     }
 
     private boolean hasListeners() {
@@ -810,6 +942,110 @@ public class ResourceNotificationManager {
      * @param reason the set of reasons that the resources have changed since the last notification
      */
     void resourcesChanged(@NotNull Set<Reason> reason);
+
+    /**
+     * One or more resources have changed. Listeners which can skip work based on which files or resource
+     * folder types changed should override this method; the default implementation simply forwards the
+     * reasons to {@link #resourcesChanged(Set)}.
+     *
+     * @param changes the merged set of changes since the last notification
+     */
+    default void resourcesChanged(@NotNull ChangeSet changes) {
+      resourcesChanged(changes.getReasons());
+    }
+  }
+
+  /**
+   * A merged description of all the events observed since the last notification: the reasons, as well as
+   * the files and resource folder types that were touched (when known).
+   */
+  public static class ChangeSet {
+    private final EnumSet<Reason> myReasons = EnumSet.noneOf(Reason.class);
+    private final EnumSet<ResourceFolderType> myFolderTypes = EnumSet.noneOf(ResourceFolderType.class);
+    private final Set<VirtualFile> myFiles = Sets.newHashSet();
+    private boolean myHasUnknownFiles;
+
+    @VisibleForTesting
+    ChangeSet() {
+    }
+
+    @VisibleForTesting
+    void add(@NotNull Reason reason, @Nullable VirtualFile file) {
+      myReasons.add(reason);
+      if (file != null) {
+        myFiles.add(file);
+        ResourceFolderType folderType = ResourceHelper.getFolderType(file);
+        if (folderType != null) {
+          myFolderTypes.add(folderType);
+        }
+      }
+      else if (reason == Reason.EDIT || reason == Reason.RESOURCE_EDIT || reason == Reason.IMAGE_RESOURCE_CHANGED) {
+        myHasUnknownFiles = true;
+      }
+    }
+
+    public boolean isEmpty() {
+      return myReasons.isEmpty();
+    }
+
+    /**
+     * Returns true if the given reason is the only reason in this change set
+     */
+    public boolean isOnly(@NotNull Reason reason) {
+      return myReasons.size() == 1 && myReasons.contains(reason);
+    }
+
+    @NotNull
+    public Set<Reason> getReasons() {
+      return myReasons;
+    }
+
+    /**
+     * Returns the resource folder types of the edited files. Only meaningful if {@link #isFileSetComplete()} is true.
+     */
+    @NotNull
+    public Set<ResourceFolderType> getFolderTypes() {
+      return myFolderTypes;
+    }
+
+    /**
+     * Returns the edited files. Only meaningful if {@link #isFileSetComplete()} is true.
+     */
+    @NotNull
+    public Set<VirtualFile> getFiles() {
+      return myFiles;
+    }
+
+    /**
+     * Returns true if all the file edits in this change set could be attributed to a specific file
+     */
+    public boolean isFileSetComplete() {
+      return !myHasUnknownFiles;
+    }
+
+    @Override
+    public String toString() {
+      return "ChangeSet{" +
+             "reasons=" + myReasons +
+             ", folderTypes=" + myFolderTypes +
+             ", files=" + (myHasUnknownFiles ? "?" : myFiles.size()) +
+             '}';
+    }
+  }
+
+  /**
+   * The delivery lane for a {@link Reason}
+   */
+  public enum Lane {
+    /**
+     * Events which directly affect what the user is looking at; delivered as soon as possible
+     */
+    FOREGROUND,
+
+    /**
+     * Events which may or may not affect the observers; debounced and merged
+     */
+    BACKGROUND
   }
 
   /**
@@ -881,43 +1117,54 @@ public class ResourceNotificationManager {
      * An edit which affects the resource repository was performed (e.g. changing the value of a string
      * is a resource edit, but editing the layout parameters of a widget in a layout file is not)
      */
-    RESOURCE_EDIT,
+    RESOURCE_EDIT(Lane.BACKGROUND),
 
     /**
      * Edit of a file that is being observed (if you're for example watching a menu file, this will include
      * edits in whitespace etc
      */
-    EDIT,
+    EDIT(Lane.FOREGROUND),
 
     /**
      * The configuration changed (for example, the locale may have changed)
      */
-    CONFIGURATION_CHANGED,
+    CONFIGURATION_CHANGED(Lane.FOREGROUND),
 
     /**
      * The module SDK changed
      */
-    SDK_CHANGED,
+    SDK_CHANGED(Lane.BACKGROUND),
 
     /**
      * The active variant changed, which affects available resource sets and values
      */
-    VARIANT_CHANGED,
+    VARIANT_CHANGED(Lane.BACKGROUND),
 
     /**
      * A sync happened. This can change dynamically generated resources for example.
      */
-    GRADLE_SYNC,
+    GRADLE_SYNC(Lane.BACKGROUND),
 
     /**
      * Project build. Not a direct resource edit, but for example when a custom view
      * is compiled it can affect how a resource like layouts should be rendered
      */
-    PROJECT_BUILD,
+    PROJECT_BUILD(Lane.BACKGROUND),
 
     /**
      * Image changed. This might be needed to invalidate layoutlib drawable caches.
      */
-    IMAGE_RESOURCE_CHANGED
+    IMAGE_RESOURCE_CHANGED(Lane.FOREGROUND);
+
+    private final Lane myLane;
+
+    Reason(@NotNull Lane lane) {
+      myLane = lane;
+    }
+
+    @NotNull
+    public Lane getLane() {
+      return myLane;
+    }
   }
 }
@@ -37,6 +37,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.intellij.analysis.AnalysisScope;
 import com.intellij.codeInsight.AnnotationUtil;
+import com.intellij.codeInsight.ExternalAnnotationsListener;
+import com.intellij.codeInsight.ExternalAnnotationsManager;
 import com.intellij.codeInsight.FileModificationService;
 import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
 import com.intellij.codeInsight.daemon.HighlightDisplayKey;
@@ -52,7 +54,9 @@ import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.SimpleModificationTracker;
 import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.UserDataHolderEx;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.ReadonlyStatusHandler;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -84,6 +88,8 @@ import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.android.SdkConstants.*;
 import static com.android.tools.lint.checks.ApiDetector.REQUIRES_API_ANNOTATION;
@@ -283,15 +289,18 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
 
     private final Status myStatus;
     private final PsiExpression myErrorNode;
+    private final PermissionFinder.Result myPermissionResult;
 
     private InspectionResult(@NotNull Status status) {
       myStatus = status;
       myErrorNode = null;
+      myPermissionResult = null;
     }
 
-    private InspectionResult(@NotNull PsiExpression element) {
+    private InspectionResult(@NotNull PsiExpression element, @Nullable PermissionFinder.Result permissionResult) {
       myStatus = Status.INVALID;
       myErrorNode = element;
+      myPermissionResult = permissionResult;
     }
 
     /**
@@ -299,7 +308,15 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
      */
     @NotNull
     public static InspectionResult invalid(@NotNull PsiExpression node) {
-      return new InspectionResult(node);
+      return new InspectionResult(node, null);
+    }
+
+    /**
+     * Returns an invalid result for an expression which requires a permission that isn't granted.
+     */
+    @NotNull
+    public static InspectionResult missingPermission(@NotNull PsiExpression node, @NotNull PermissionFinder.Result permissionResult) {
+      return new InspectionResult(node, permissionResult);
     }
 
     /**
@@ -350,7 +367,7 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
     @NotNull
     public InspectionResult useErrorNode(@NotNull PsiExpression errorNode) {
       if (myStatus == Status.INVALID && errorNode != myErrorNode) {
-        return invalid(errorNode);
+        return new InspectionResult(errorNode, myPermissionResult);
       }
 
       return this;
@@ -369,6 +386,14 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
       return myErrorNode;
     }
 
+    /**
+     * Returns the permission requirement which isn't satisfied, if this result is invalid because of one.
+     */
+    @Nullable
+    public PermissionFinder.Result getPermissionResult() {
+      return myPermissionResult;
+    }
+
     @Override
     public String toString() {
       return myStatus.toString();
@@ -407,13 +432,13 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
       // to specify that an argument must be one of a set of constants, OR, a number in a range.
       InspectionResult result = isAllowed(scope, expression, constraints, manager, null);
       if (result.isInvalid() && isAllowed(scope, expression, constraints.next, manager, null).isInvalid()) {
-        registerProblem(result.getErrorNode(), constraints, holder);
+        registerProblem(result, constraints, holder);
       }
     }
     else {
       InspectionResult result = isAllowed(scope, expression, constraints, manager, null);
       if (result.isInvalid()) {
-        registerProblem(result.getErrorNode(), constraints, holder);
+        registerProblem(result, constraints, holder);
       }
     }
   }
@@ -424,18 +449,19 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
 
     PsiParameter[] parameters = method.getParameterList().getParameters();
     if (parameters.length > 0) {
+      Constraints[] parameterConstraints = getParameterConstraints(method);
       PsiExpressionList argumentList = methodCall.getArgumentList();
       if (argumentList == null) return;
       PsiExpression[] arguments = argumentList.getExpressions();
       int parametersIdx = 0;
       for (int i = 0; i < arguments.length && parametersIdx < parameters.length; i++) {
         PsiParameter parameter = parameters[parametersIdx];
+        Constraints values = parameterConstraints[parametersIdx];
         // If it's not an ellipsis type, we keep walking through the parameters list. If it's an ellipsis, that the last parameter we have
         // to look into
         if (!(parameter.getType() instanceof PsiEllipsisType)) {
           parametersIdx++;
         }
-        Constraints values = getAllowedValues(parameter, parameter.getType(), null);
         if (values == null) continue;
         if (i >= arguments.length) break;
         PsiExpression argument = arguments[i];
@@ -1540,7 +1566,6 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
 
   static class IndirectPermission extends Constraints {
     public final String signature;
-    @Nullable public PermissionFinder.Result result;
 
     public IndirectPermission(String signature) {
       this.signature = signature;
@@ -1554,14 +1579,9 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
     PsiAnnotationMemberValue[] allowedValues;
     final boolean canBeOred;
 
-    // Extract the actual type of the declaration. For examples, for int[], extract the int
-    if (type instanceof PsiEllipsisType) {
-      type = ((PsiEllipsisType)type).getComponentType();
-    } else if (type instanceof PsiArrayType) {
-      type = ((PsiArrayType)type).getComponentType();
-    }
-    boolean isInt = TypeConversionUtil.getTypeRank(type) <= TypeConversionUtil.LONG_RANK;
-    boolean isString = !isInt && type.equals(PsiType.getJavaLangString(manager, GlobalSearchScope.allScope(manager.getProject())));
+    TypedefKind kind = getTypedefKind(type, manager);
+    boolean isInt = kind == TypedefKind.INT;
+    boolean isString = kind == TypedefKind.STRING;
     if (isInt || isString) {
       PsiAnnotationMemberValue intValues = magic.findAttributeValue(TYPE_DEF_VALUE_ATTRIBUTE);
       allowedValues = intValues instanceof PsiArrayInitializerMemberValue ? ((PsiArrayInitializerMemberValue)intValues).getInitializers() : PsiAnnotationMemberValue.EMPTY_ARRAY;
@@ -1583,6 +1603,34 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
     return null;
   }
 
+  /**
+   * The kinds of declaration types {@link #getAllowedValuesFromTypedef} tells apart; the constraints of an element only depend on the
+   * type they are checked for through its kind
+   */
+  private enum TypedefKind {
+    NONE, INT, STRING, OTHER
+  }
+
+  @NotNull
+  private static TypedefKind getTypedefKind(@Nullable PsiType type, @NotNull PsiManager manager) {
+    if (type == null) {
+      return TypedefKind.NONE;
+    }
+    // Extract the actual type of the declaration. For examples, for int[], extract the int
+    if (type instanceof PsiEllipsisType) {
+      type = ((PsiEllipsisType)type).getComponentType();
+    } else if (type instanceof PsiArrayType) {
+      type = ((PsiArrayType)type).getComponentType();
+    }
+    if (TypeConversionUtil.getTypeRank(type) <= TypeConversionUtil.LONG_RANK) {
+      return TypedefKind.INT;
+    }
+    if (type.equals(PsiType.getJavaLangString(manager, GlobalSearchScope.allScope(manager.getProject())))) {
+      return TypedefKind.STRING;
+    }
+    return TypedefKind.OTHER;
+  }
+
   @Nullable
   public static ResourceType getResourceTypeFromAnnotation(@NotNull String qualifiedName) {
     String resourceTypeName =
@@ -1613,8 +1661,118 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
     return tail;
   }
 
+  private static final Key<SimpleModificationTracker> EXTERNAL_ANNOTATIONS_TRACKER_KEY = Key.create("resource.type.external.annotations");
+
+  /** Marks elements without constraints in the constraint caches, which can't hold null values */
+  private static final Constraints NO_CONSTRAINTS = new Constraints();
+
+  /**
+   * Returns the constraints of the parameters of the given method, indexed like its parameters. The summary is computed once per method
+   * and shared by all the calls to it, until the structure of any Java file or any external annotation changes.
+   */
+  @NotNull
+  private static Constraints[] getParameterConstraints(@NotNull PsiMethod method) {
+    Constraints[] summary = CachedValuesManager.getCachedValue(method, () -> CachedValueProvider.Result
+      .create(computeParameterConstraints(method), PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT,
+              getExternalAnnotationsTracker(method.getProject())));
+    if (summary.length != method.getParameterList().getParametersCount()) {
+      return computeParameterConstraints(method);
+    }
+    for (Constraints constraints : summary) {
+      if (constraints != null && !isValid(constraints)) {
+        return computeParameterConstraints(method);
+      }
+    }
+    return summary;
+  }
+
+  @NotNull
+  private static Constraints[] computeParameterConstraints(@NotNull PsiMethod method) {
+    PsiParameter[] parameters = method.getParameterList().getParameters();
+    Constraints[] summary = new Constraints[parameters.length];
+    for (int i = 0; i < parameters.length; i++) {
+      summary[i] = getAllowedValues(parameters[i], parameters[i].getType(), null);
+    }
+    return summary;
+  }
+
+  /**
+   * Returns the constraints the annotations of the given element put on its values, when checked for the given type.
+   * <p>
+   * The constraints of an element are cached on it per {@link TypedefKind} of the type, until the structure of any Java file or any
+   * external annotation changes; they only depend on annotations, which are not part of code blocks. The returned constraints are
+   * shared, and must not be modified.
+   */
   @Nullable
   public static Constraints getAllowedValues(@NotNull PsiModifierListOwner element, @Nullable PsiType type, @Nullable Set<PsiClass> visited) {
+    if (visited != null) {
+      return computeAllowedValues(element, type, visited);
+    }
+
+    ConcurrentMap<TypedefKind, Constraints> cache = CachedValuesManager.getCachedValue(element, () -> CachedValueProvider.Result
+      .create(new ConcurrentHashMap<TypedefKind, Constraints>(), PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT,
+              getExternalAnnotationsTracker(element.getProject())));
+    TypedefKind kind = getTypedefKind(type, element.getManager());
+    Constraints constraints = cache.get(kind);
+    if (constraints == null || !isValid(constraints)) {
+      constraints = computeAllowedValues(element, type, null);
+      if (constraints == null) {
+        constraints = NO_CONSTRAINTS;
+      }
+      cache.put(kind, constraints);
+    }
+    return constraints == NO_CONSTRAINTS ? null : constraints;
+  }
+
+  /**
+   * Returns a tracker that is incremented whenever an external annotation in the given project changes. Edits of external annotations
+   * don't change the Java structure modification count, so the cached constraints above depend on this as well.
+   */
+  @NotNull
+  private static SimpleModificationTracker getExternalAnnotationsTracker(@NotNull Project project) {
+    SimpleModificationTracker tracker = project.getUserData(EXTERNAL_ANNOTATIONS_TRACKER_KEY);
+    if (tracker != null) {
+      return tracker;
+    }
+    SimpleModificationTracker newTracker = new SimpleModificationTracker();
+    tracker = ((UserDataHolderEx)project).putUserDataIfAbsent(EXTERNAL_ANNOTATIONS_TRACKER_KEY, newTracker);
+    if (tracker == newTracker) {
+      project.getMessageBus().connect(project).subscribe(ExternalAnnotationsManager.TOPIC, new ExternalAnnotationsListener.Adapter() {
+        @Override
+        public void afterExternalAnnotationChanging(@NotNull PsiModifierListOwner owner, @NotNull String annotationFQName,
+                                                    boolean successful) {
+          newTracker.incModificationCount();
+        }
+
+        @Override
+        public void externalAnnotationsChangedExternally() {
+          newTracker.incModificationCount();
+        }
+      });
+    }
+    return tracker;
+  }
+
+  /**
+   * Returns false if the typedef constants referenced by the given constraints have been invalidated, e.g. by a reparse of the file
+   * defining the typedef
+   */
+  private static boolean isValid(@NotNull Constraints constraints) {
+    for (Constraints c = constraints; c != null; c = c.next) {
+      if (c instanceof AllowedValues) {
+        for (PsiAnnotationMemberValue value : ((AllowedValues)c).values) {
+          if (!value.isValid()) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  @Nullable
+  private static Constraints computeAllowedValues(@NotNull PsiModifierListOwner element, @Nullable PsiType type,
+                                                  @Nullable Set<PsiClass> visited) {
     PsiAnnotation[] annotations = getAllAnnotations(element);
     PsiManager manager = element.getManager();
     List<ResourceType> resourceTypes = null;
@@ -1706,13 +1864,14 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
     return element instanceof PsiVariable ? ((PsiVariable)element).getType() : element instanceof PsiMethod ? ((PsiMethod)element).getReturnType() : null;
   }
 
-  private static void registerProblem(@NotNull PsiExpression argument, @NotNull Constraints constraint,
+  private static void registerProblem(@NotNull InspectionResult result, @NotNull Constraints constraint,
                                       @NotNull ProblemsHolder holder) {
+    PsiExpression argument = result.getErrorNode();
     if (constraint instanceof IndirectPermission) {
       PsiMethodCallExpression call = PsiTreeUtil.getParentOfType(argument, PsiMethodCallExpression.class);
-      IndirectPermission ip = (IndirectPermission)constraint;
-      if (call != null && ip.result != null) {
-        checkPermissionRequirement(call, holder, null, ip.result, ip.result.requirement);
+      PermissionFinder.Result permissionResult = result.getPermissionResult();
+      if (call != null && permissionResult != null) {
+        checkPermissionRequirement(call, holder, null, permissionResult, permissionResult.requirement);
       }
     }
     else if (constraint instanceof ResourceTypeAllowedValues) {
@@ -2299,10 +2458,10 @@ public class ResourceTypeInspection extends BaseJavaLocalInspectionTool {
         }
         operation = ACTION;
       }
-      permission.result = search(argument, operation);
-      if (permission.result != null) {
+      PermissionFinder.Result result = search(argument, operation);
+      if (result != null) {
         // Finish check in registerProblem
-        return InspectionResult.invalid(argument);
+        return InspectionResult.missingPermission(argument, result);
       }
     }
     // No unsatisfied permission requirement found
@@ -6,7 +6,6 @@ import com.android.tools.idea.project.AndroidProjectInfo;
 import com.android.tools.idea.res.PsiProjectListener;
 import com.android.tools.lint.checks.DeprecationDetector;
 import com.android.tools.lint.checks.GradleDetector;
-import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.LintDriver;
 import com.android.tools.lint.client.api.LintRequest;
 import com.android.tools.lint.detector.api.Issue;
@@ -38,7 +37,6 @@ import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.util.IncorrectOperationException;
@@ -53,7 +51,6 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.plugins.groovy.GroovyFileType;
 
 import javax.swing.*;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -119,7 +116,7 @@ public class AndroidLintExternalAnnotator extends ExternalAnnotator<State, State
       return null;
     }
 
-    final List<Issue> issues = getIssuesFromInspections(file.getProject(), file);
+    final List<Issue> issues = getIssuesFromInspections(file.getProject(), file, getLintScope(vFile));
     if (issues.size() == 0) {
       return null;
     }
@@ -130,27 +127,11 @@ public class AndroidLintExternalAnnotator extends ExternalAnnotator<State, State
   public State doAnnotate(final State state) {
     final LintIdeClient client = LintIdeClient.forEditor(state);
     try {
-      final LintDriver lint = new LintDriver(new LintIdeIssueRegistry(), client);
+      final LintDriver lint = new LintDriver(LintIdeIssueRegistry.get(), client);
 
-      EnumSet<Scope> scope;
       VirtualFile mainFile = state.getMainFile();
-      final FileType fileType = mainFile.getFileType();
-      String name = mainFile.getName();
-      if (fileType == StdFileTypes.XML) {
-        if (name.equals(ANDROID_MANIFEST_XML)) {
-          scope = Scope.MANIFEST_SCOPE;
-        } else {
-          scope = Scope.RESOURCE_FILE_SCOPE;
-        }
-      } else if (fileType == StdFileTypes.JAVA) {
-        scope = Scope.JAVA_FILE_SCOPE;
-      } else if (name.equals(OLD_PROGUARD_FILE) || name.equals(FN_PROJECT_PROGUARD_FILE)) {
-        scope = EnumSet.of(Scope.PROGUARD_FILE);
-      } else if (fileType == GroovyFileType.GROOVY_FILE_TYPE) {
-        scope = Scope.GRADLE_SCOPE;
-      } else if (fileType == StdFileTypes.PROPERTIES) {
-        scope = Scope.PROPERTY_SCOPE;
-      } else {
+      EnumSet<Scope> scope = getLintScope(mainFile);
+      if (scope == null) {
         // #collectionInformation above should have prevented this
         assert false;
         return state;
@@ -174,35 +155,51 @@ public class AndroidLintExternalAnnotator extends ExternalAnnotator<State, State
     return state;
   }
 
-  @NotNull
-  static List<Issue> getIssuesFromInspections(@NotNull Project project, @Nullable PsiElement context) {
-    final List<Issue> result = new ArrayList<>();
-    final IssueRegistry fullRegistry = new LintIdeIssueRegistry();
-
-    for (Issue issue : fullRegistry.getIssues()) {
-      final String inspectionShortName = AndroidLintInspectionBase.getInspectionShortNameByIssue(project, issue);
-      if (inspectionShortName == null) {
-        continue;
-      }
-
-      final HighlightDisplayKey key = HighlightDisplayKey.find(inspectionShortName);
-      if (key == null) {
-        continue;
+  /**
+   * Returns the lint scope to analyze the given file in, or null if lint doesn't analyze it on the fly
+   */
+  @Nullable
+  static EnumSet<Scope> getLintScope(@NotNull VirtualFile file) {
+    final FileType fileType = file.getFileType();
+    String name = file.getName();
+    if (fileType == StdFileTypes.XML) {
+      if (name.equals(ANDROID_MANIFEST_XML)) {
+        return Scope.MANIFEST_SCOPE;
+      } else {
+        return Scope.RESOURCE_FILE_SCOPE;
       }
+    } else if (fileType == StdFileTypes.JAVA) {
+      return Scope.JAVA_FILE_SCOPE;
+    } else if (name.equals(OLD_PROGUARD_FILE) || name.equals(FN_PROJECT_PROGUARD_FILE)) {
+      return EnumSet.of(Scope.PROGUARD_FILE);
+    } else if (fileType == GroovyFileType.GROOVY_FILE_TYPE) {
+      return Scope.GRADLE_SCOPE;
+    } else if (fileType == StdFileTypes.PROPERTIES) {
+      return Scope.PROPERTY_SCOPE;
+    }
+    return null;
+  }
 
-      final InspectionProfile profile = InspectionProjectProfileManager.getInstance(project).getCurrentProfile();
-      final boolean enabled = context != null ? profile.isToolEnabled(key, context) : profile.isToolEnabled(key);
+  @NotNull
+  static List<Issue> getIssuesFromInspections(@NotNull Project project, @Nullable PsiElement context) {
+    return getIssuesFromInspections(project, context, null);
+  }
 
-      if (!enabled) {
-        continue;
-      } else if (!issue.isEnabledByDefault()) {
+  /**
+   * Returns the issues enabled by the inspection profile for the given context, or for the whole project if it is null. If the lint
+   * scope is not null, only issues which look at files of that scope are returned.
+   */
+  @NotNull
+  static List<Issue> getIssuesFromInspections(@NotNull Project project, @Nullable PsiElement context, @Nullable EnumSet<Scope> scope) {
+    final List<Issue> result = AndroidLintIssueIndex.getInstance(project).getEnabledIssues(context, scope);
+    for (Issue issue : result) {
+      if (!issue.isEnabledByDefault()) {
         // If an issue is marked as not enabled by default, lint won't run it, even if it's in the set
         // of issues provided by an issue registry. Since in the IDE we're enforcing the enabled-state via
         // inspection profiles, mark the issue as enabled to allow users to turn on a lint check directly
         // via the inspections UI.
         issue.setEnabledByDefault(true);
       }
-      result.add(issue);
     }
     return result;
   }
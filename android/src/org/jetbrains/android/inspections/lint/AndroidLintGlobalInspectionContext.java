@@ -272,6 +272,21 @@ class AndroidLintGlobalInspectionContext implements GlobalInspectionContextExten
       }
     }
 
+    if (AndroidLintResultCache.ENABLED && files == null && myBaseline == null) {
+      // Reuse the results of the files which did not change since the previous run; not with a baseline, which needs to see
+      // every problem, for example to find the fixed ones
+      myResults = new AndroidLintResultCache(project, scope, lintScope).analyze(modules, issues);
+      AndroidLintLintBaselineInspection.clearNextRunState();
+      return;
+    }
+
+    if (AndroidLintShardedAnalysis.ENABLED && files == null && modules.size() > 1 && myBaseline == null) {
+      // Check the modules concurrently; the baseline is not thread safe, so runs with a baseline are not split up
+      myResults = new AndroidLintShardedAnalysis(project, scope, lintScope).analyze(modules, issues);
+      AndroidLintLintBaselineInspection.clearNextRunState();
+      return;
+    }
+
     lint.analyze(request);
 
     AndroidLintLintBaselineInspection.clearNextRunState();
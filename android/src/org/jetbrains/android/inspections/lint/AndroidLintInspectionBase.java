@@ -251,12 +251,19 @@ public abstract class AndroidLintInspectionBase extends GlobalInspectionTool {
   @TestOnly
   public static void invalidateInspectionShortName2IssueMap() {
     ourIssue2InspectionShortName = null;
+    AndroidLintIssueIndex.invalidateAll();
   }
 
   public static String getInspectionShortNameByIssue(@NotNull Project project, @NotNull Issue issue) {
+    // The map is never modified once published, so it can be read without the lock
+    Map<Issue, String> issue2InspectionShortName = ourIssue2InspectionShortName;
+    if (issue2InspectionShortName != null) {
+      return issue2InspectionShortName.get(issue);
+    }
+
     synchronized (ISSUE_MAP_LOCK) {
       if (ourIssue2InspectionShortName == null) {
-        ourIssue2InspectionShortName = new HashMap<>();
+        Map<Issue, String> map = new HashMap<>();
 
         final InspectionProfile profile = InspectionProjectProfileManager.getInstance(project).getCurrentProfile();
 
@@ -267,10 +274,11 @@ public abstract class AndroidLintInspectionBase extends GlobalInspectionTool {
             final InspectionProfileEntry entry = e.getTool();
             if (entry instanceof AndroidLintInspectionBase) {
               final Issue s = ((AndroidLintInspectionBase)entry).getIssue();
-              ourIssue2InspectionShortName.put(s, shortName);
+              map.put(s, shortName);
             }
           }
         }
+        ourIssue2InspectionShortName = map;
       }
       return ourIssue2InspectionShortName.get(issue);
     }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.tools.idea.lint.LintIdeIssueRegistry;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.google.common.collect.Lists;
+import com.intellij.codeInsight.daemon.HighlightDisplayKey;
+import com.intellij.codeInspection.InspectionProfile;
+import com.intellij.codeInspection.ex.InspectionProfileImpl;
+import com.intellij.codeInspection.ex.ToolsImpl;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.profile.Profile;
+import com.intellij.profile.ProfileChangeAdapter;
+import com.intellij.profile.codeInspection.InspectionProfileManager;
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
+import com.intellij.psi.PsiElement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index of the lint issues enabled by the current inspection profile of a project, so that setting up lint for a file does not
+ * look up the inspection and the profile state of every registered issue.
+ * <p>
+ * For each issue with an enabled inspection, the index records whether it is enabled for all files or whether the profile has scope
+ * specific settings for it; only the latter are checked against the file. The enabled issues are further indexed by the lint scope of
+ * the file, as issues which don't look at that kind of file can't report anything in it.
+ * <p>
+ * The index is rebuilt when the inspection profiles change, or when the current profile is replaced.
+ */
+class AndroidLintIssueIndex {
+  private static final Key<AndroidLintIssueIndex> KEY = Key.create("AndroidLintIssueIndex");
+
+  /** Incremented to discard the indices of all projects, see {@link #invalidateAll()} */
+  private static final AtomicInteger ourGeneration = new AtomicInteger();
+
+  @NotNull private final Project myProject;
+  /**
+   * Incremented whenever the profile changes. Snapshots record the count they were built for, so a snapshot built while the profile
+   * changed is not used even if it was published after the invalidation.
+   */
+  @NotNull private final AtomicInteger myInvalidations = new AtomicInteger();
+  @Nullable private volatile Snapshot mySnapshot;
+
+  private AndroidLintIssueIndex(@NotNull Project project) {
+    myProject = project;
+  }
+
+  @NotNull
+  static AndroidLintIssueIndex getInstance(@NotNull Project project) {
+    synchronized (KEY) {
+      AndroidLintIssueIndex index = project.getUserData(KEY);
+      if (index == null) {
+        index = new AndroidLintIssueIndex(project);
+        ProfileChangeAdapter listener = new ProfileChangeAdapter() {
+          @Override
+          public void profileChanged(Profile profile) {
+            invalidate();
+          }
+
+          @Override
+          public void profileActivated(@Nullable Profile oldProfile, @Nullable Profile profile) {
+            invalidate();
+          }
+        };
+        InspectionProfileManager.getInstance().addProfileChangeListener(listener, project);
+        InspectionProjectProfileManager.getInstance(project).addProfilesListener(listener, project);
+        project.putUserData(KEY, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Discards the indices of all projects, e.g. when tests change the inspection profile without notifying its listeners
+   */
+  static void invalidateAll() {
+    ourGeneration.incrementAndGet();
+  }
+
+  private void invalidate() {
+    myInvalidations.incrementAndGet();
+    mySnapshot = null;
+  }
+
+  /**
+   * Returns the issues enabled for the given file, or in the whole profile if the context is null, in registry order. Only
+   * issues which look at files of the given lint scope are returned, unless the scope is null.
+   */
+  @NotNull
+  List<Issue> getEnabledIssues(@Nullable PsiElement context, @Nullable EnumSet<Scope> scope) {
+    Snapshot snapshot = getSnapshot();
+    ScopeIssues issues = snapshot.getScopeIssues(scope);
+    if (context == null) {
+      return Collections.unmodifiableList(issues.myAllIssues);
+    }
+    if (issues.myScopedIssues.isEmpty()) {
+      return Collections.unmodifiableList(issues.myIssuesEnabledEverywhere);
+    }
+
+    List<Issue> result = new ArrayList<>(issues.myAllIssues.size());
+    for (IssueState state : issues.myScopedIssues) {
+      if (state.myFileState == Boolean.TRUE ||
+          state.myFileState == null && snapshot.myProfile.isToolEnabled(state.myKey, context)) {
+        result.add(state.myIssue);
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private Snapshot getSnapshot() {
+    // Read the counters before the profile, so that a change made while the snapshot is built invalidates it
+    int invalidations = myInvalidations.get();
+    int generation = ourGeneration.get();
+    InspectionProfile profile = InspectionProjectProfileManager.getInstance(myProject).getCurrentProfile();
+    Snapshot snapshot = mySnapshot;
+    if (snapshot == null || snapshot.myProfile != profile || snapshot.myGeneration != generation ||
+        snapshot.myInvalidations != invalidations) {
+      snapshot = new Snapshot(myProject, profile, generation, invalidations);
+      mySnapshot = snapshot;
+    }
+    return snapshot;
+  }
+
+  /** The enabled state of one issue in the profile */
+  private static class IssueState {
+    @NotNull final Issue myIssue;
+    @NotNull final HighlightDisplayKey myKey;
+    /**
+     * Whether the inspection is enabled for files when it has no scope specific settings, or null if it has some and must be checked
+     * per file
+     */
+    @Nullable final Boolean myFileState;
+
+    private IssueState(@NotNull Issue issue, @NotNull HighlightDisplayKey key, @Nullable Boolean fileState) {
+      myIssue = issue;
+      myKey = key;
+      myFileState = fileState;
+    }
+  }
+
+  /** The enabled issues which look at files of one lint scope */
+  private static class ScopeIssues {
+    /** Issues whose inspection is enabled in any scope of the profile */
+    @NotNull final List<Issue> myAllIssues = Lists.newArrayList();
+    /** Issues whose inspection is enabled for all files, without scope specific settings */
+    @NotNull final List<Issue> myIssuesEnabledEverywhere = Lists.newArrayList();
+    /** The states of all the issues, in registry order, if any of them must be checked per file; otherwise empty */
+    @NotNull final List<IssueState> myScopedIssues = Lists.newArrayList();
+  }
+
+  /** The index of one version of a profile */
+  private static class Snapshot {
+    @NotNull final InspectionProfile myProfile;
+    final int myGeneration;
+    final int myInvalidations;
+    @NotNull private final List<IssueState> myStates = Lists.newArrayList();
+    @NotNull private final ConcurrentMap<EnumSet<Scope>, ScopeIssues> myScopeIssues = new ConcurrentHashMap<>();
+    @NotNull private final ScopeIssues myAllScopeIssues;
+
+    private Snapshot(@NotNull Project project, @NotNull InspectionProfile profile, int generation, int invalidations) {
+      myProfile = profile;
+      myGeneration = generation;
+      myInvalidations = invalidations;
+
+      for (Issue issue : LintIdeIssueRegistry.get().getIssues()) {
+        String inspectionShortName = AndroidLintInspectionBase.getInspectionShortNameByIssue(project, issue);
+        if (inspectionShortName == null) {
+          continue;
+        }
+
+        HighlightDisplayKey key = HighlightDisplayKey.find(inspectionShortName);
+        if (key == null || !profile.isToolEnabled(key)) {
+          continue;
+        }
+
+        Boolean fileState = null;
+        if (profile instanceof InspectionProfileImpl) {
+          ToolsImpl tools = ((InspectionProfileImpl)profile).getTools(inspectionShortName, project);
+          if (tools != null && (tools.getNonDefaultTools() == null || tools.getNonDefaultTools().isEmpty())) {
+            fileState = tools.getDefaultState().isEnabled();
+          }
+        }
+        myStates.add(new IssueState(issue, key, fileState));
+      }
+      myAllScopeIssues = computeScopeIssues(null);
+    }
+
+    @NotNull
+    ScopeIssues getScopeIssues(@Nullable EnumSet<Scope> scope) {
+      if (scope == null) {
+        return myAllScopeIssues;
+      }
+      return myScopeIssues.computeIfAbsent(scope, this::computeScopeIssues);
+    }
+
+    @NotNull
+    private ScopeIssues computeScopeIssues(@Nullable EnumSet<Scope> scope) {
+      ScopeIssues issues = new ScopeIssues();
+      boolean hasScopedIssues = false;
+      for (IssueState state : myStates) {
+        // Like LintDriver, accept issues whose analysis scopes fit the scope even if their full scope does not
+        if (scope != null && !state.myIssue.getImplementation().isAdequate(scope)) {
+          continue;
+        }
+        issues.myAllIssues.add(state.myIssue);
+        if (state.myFileState == Boolean.TRUE) {
+          issues.myIssuesEnabledEverywhere.add(state.myIssue);
+        }
+        else if (state.myFileState == null) {
+          hasScopedIssues = true;
+        }
+        issues.myScopedIssues.add(state);
+      }
+      if (!hasScopedIssues) {
+        issues.myScopedIssues.clear();
+      }
+      return issues;
+    }
+  }
+}
@@ -0,0 +1,652 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.idea.gradle.project.model.AndroidModuleModel;
+import com.android.tools.idea.lint.LintIdeClient;
+import com.android.tools.idea.lint.LintIdeIssueRegistry;
+import com.android.tools.idea.lint.LintIdeProject;
+import com.android.tools.idea.lint.LintIdeRequest;
+import com.android.tools.idea.model.AndroidModuleInfo;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.client.api.LintRequest;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.application.ApplicationInfo;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileVisitor;
+import com.intellij.util.PathUtil;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.io.IOUtil;
+import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.android.facet.AndroidRootUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * On-disk cache of the batch lint results of individual files, such that running the inspections again only checks the files
+ * which changed since the previous run.
+ * <p>
+ * Only issues which look at one Java, resource or manifest file at a time are cached, since their results only depend on the
+ * file itself and on a few things around it, which are all part of the key of the cached results:
+ * <ul>
+ *   <li>the contents of the file</li>
+ *   <li>the lint version and the set of enabled issues</li>
+ *   <li>the configuration of the module: min and target SDK, library dependencies, severity overrides and lint.xml</li>
+ *   <li>the resources and manifests of the module and of the modules it depends on, since for example a layout may refer to
+ *   resources defined elsewhere; for Java files also the Java sources, since their checks resolve other classes</li>
+ * </ul>
+ * The remaining issues, which look at a whole project at once, are checked on every run as before.
+ */
+class AndroidLintResultCache {
+  private static final Logger LOG = Logger.getInstance(AndroidLintResultCache.class);
+
+  /** Whether batch runs reuse the cached results of unchanged files; off unless enabled with -Dandroid.lint.result.cache=true */
+  static final boolean ENABLED = SystemProperties.getBooleanProperty("android.lint.result.cache", false);
+
+  @VisibleForTesting static final int CACHE_VERSION = 1;
+  private static final String CACHE_DIRECTORY = "lint_result_cache";
+  private static final String CACHE_FILE_NAME = "results.dat";
+  private static final String LINT_XML = "lint.xml";
+
+  /** Scopes of the issues whose results are cached; these are the ones whose files can be enumerated up front */
+  private static final EnumSet<Scope> CACHED_SCOPES = EnumSet.of(Scope.JAVA_FILE, Scope.RESOURCE_FILE, Scope.BINARY_RESOURCE_FILE,
+                                                                 Scope.MANIFEST);
+
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  /** Guards the cache files, in case several inspection runs are going on at once */
+  private static final Object CACHE_LOCK = new Object();
+
+  @NotNull private final Project myProject;
+  @NotNull private final AnalysisScope myScope;
+  @Nullable private final EnumSet<Scope> myLintScope;
+  @Nullable private final File myCacheFile;
+
+  AndroidLintResultCache(@NotNull Project project, @NotNull AnalysisScope scope, @Nullable EnumSet<Scope> lintScope) {
+    this(project, scope, lintScope, getCacheFile(project));
+  }
+
+  @VisibleForTesting
+  AndroidLintResultCache(@NotNull Project project, @NotNull AnalysisScope scope, @Nullable EnumSet<Scope> lintScope,
+                         @Nullable File cacheFile) {
+    myProject = project;
+    myScope = scope;
+    myLintScope = lintScope;
+    myCacheFile = cacheFile;
+  }
+
+  @Nullable
+  private static File getCacheFile(@NotNull Project project) {
+    try {
+      File root = new File(PathManager.getSystemPath(), CACHE_DIRECTORY);
+      return new File(ProjectUtil.getProjectCachePath(project, root.toPath()).toFile(), CACHE_FILE_NAME);
+    }
+    catch (Exception e) {
+      LOG.warn(e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns true if the results of the given issue are cached per file
+   */
+  @VisibleForTesting
+  static boolean isCacheable(@NotNull Issue issue) {
+    return AndroidLintShardedAnalysis.isFileLocal(issue) && CACHED_SCOPES.containsAll(issue.getImplementation().getScope());
+  }
+
+  /**
+   * Checks the given modules for the given issues, reusing the cached results of the files which did not change since they
+   * were last checked, and returns the problems found
+   */
+  @NotNull
+  Map<Issue, Map<File, List<ProblemData>>> analyze(@NotNull List<Module> modules, @NotNull List<Issue> issues) {
+    List<Issue> cachedIssues = Lists.newArrayList();
+    List<Issue> otherIssues = Lists.newArrayList();
+    for (Issue issue : issues) {
+      (isCacheable(issue) ? cachedIssues : otherIssues).add(issue);
+    }
+
+    List<Map<Issue, Map<File, List<ProblemData>>>> results = Lists.newArrayList();
+    if (!cachedIssues.isEmpty()) {
+      results.add(analyzeCached(modules, cachedIssues));
+    }
+
+    if (!otherIssues.isEmpty()) {
+      if (AndroidLintShardedAnalysis.ENABLED && modules.size() > 1) {
+        results.add(new AndroidLintShardedAnalysis(myProject, myScope, myLintScope).analyze(modules, otherIssues));
+      }
+      else {
+        Map<Issue, Map<File, List<ProblemData>>> problemMap = Maps.newHashMap();
+        LintIdeClient client = LintIdeClient.forBatch(myProject, problemMap, myScope, otherIssues);
+        LintRequest request = new LintIdeRequest(client, myProject, null, modules, false);
+        request.setScope(myLintScope);
+        new LintDriver(LintIdeIssueRegistry.get(), client).analyze(request);
+        results.add(problemMap);
+      }
+    }
+
+    return AndroidLintShardedAnalysis.merge(results);
+  }
+
+  @NotNull
+  private Map<Issue, Map<File, List<ProblemData>>> analyzeCached(@NotNull List<Module> modules, @NotNull List<Issue> issues) {
+    Map<String, Entry> entries;
+    synchronized (CACHE_LOCK) {
+      entries = myCacheFile != null ? read(myCacheFile) : Maps.newHashMap();
+    }
+
+    // Find the files whose cached results are out of date
+    Map<String, Issue> issuesById = Maps.newHashMap();
+    for (Issue issue : issues) {
+      issuesById.put(issue.getId(), issue);
+    }
+    Map<Issue, Map<File, List<ProblemData>>> results = Maps.newHashMap();
+    Map<Module, List<VirtualFile>> staleFiles = Maps.newLinkedHashMap();
+    Map<String, Entry> staleEntries = Maps.newHashMap();
+    int reused = 0;
+    // Fingerprint the files in short read actions, so the analysis does not hold off write actions for long
+    Fingerprints fingerprints = new Fingerprints(entries, issuesById.keySet());
+    for (Module module : runReadAction(() -> getModulesWithDependencies(modules))) {
+      for (FileState state : fingerprints.getFiles(module)) {
+        ProgressManager.checkCanceled();
+        if (!runReadAction(() -> myScope.contains(state.myFile))) {
+          continue;
+        }
+        long dependencyHash = fingerprints.getDependencyHash(module, state.myJava);
+        Entry entry = entries.get(state.myPath);
+        if (entry != null && entry.myContentHash == state.myContentHash && entry.myDependencyHash == dependencyHash
+            && replay(entry, issuesById, results)) {
+          reused++;
+          continue;
+        }
+        staleFiles.computeIfAbsent(module, m -> Lists.newArrayList()).add(state.myFile);
+        staleEntries.put(state.myPath, new Entry(state.myPath, state.myTimeStamp, state.myLength, state.myContentHash, dependencyHash));
+      }
+    }
+
+    // Check them, one driver per module. If a module fails to be checked, this throws and the cache is not written: its stale
+    // files would otherwise be cached without any problems, and replayed as clean until they change.
+    Map<Issue, Map<File, List<ProblemData>>> problemMap = Collections.emptyMap();
+    if (!staleFiles.isEmpty()) {
+      problemMap = analyzeFiles(staleFiles, issues);
+    }
+    // Don't cache the partial results of a cancelled run
+    ProgressManager.checkCanceled();
+
+    Set<String> uncacheable = Sets.newHashSet();
+    for (Map.Entry<Issue, Map<File, List<ProblemData>>> entry : problemMap.entrySet()) {
+      Issue issue = entry.getKey();
+      for (Map.Entry<File, List<ProblemData>> fileEntry : entry.getValue().entrySet()) {
+        String path = fileEntry.getKey().getPath();
+        Entry staleEntry = staleEntries.get(path);
+        List<ProblemData> problems =
+          results.computeIfAbsent(issue, i -> Maps.newHashMap()).computeIfAbsent(fileEntry.getKey(), f -> Lists.newArrayList());
+        if (staleEntry == null) {
+          // Reported against a file which was not checked in this run, for example one whose results were replayed from the
+          // cache. Keep the problems the replayed results don't already have, but don't cache them under that file, since
+          // they come from checking another one.
+          addMissing(problems, fileEntry.getValue());
+          continue;
+        }
+        problems.addAll(fileEntry.getValue());
+        if (issuesById.get(issue.getId()) != issue) {
+          // For example custom issues, which are reported under a shared placeholder issue
+          uncacheable.add(path);
+          continue;
+        }
+        for (ProblemData problem : fileEntry.getValue()) {
+          staleEntry.myProblems.add(new CachedProblem(issue.getId(), problem.getMessage(), problem.getTextRange().getStartOffset(),
+                                                      problem.getTextRange().getEndOffset(), problem.getConfiguredSeverity()));
+        }
+      }
+    }
+
+    if (myCacheFile != null) {
+      entries.putAll(staleEntries);
+      entries.keySet().removeAll(uncacheable);
+      entries.keySet().removeIf(path -> !new File(path).exists());
+      synchronized (CACHE_LOCK) {
+        write(myCacheFile, entries);
+      }
+    }
+    LOG.info(String.format("Lint result cache: %1$d files checked, %2$d reused", staleEntries.size(), reused));
+
+    return results;
+  }
+
+  /**
+   * Checks the given files of each module for the given issues, and returns the problems found
+   */
+  @VisibleForTesting
+  @NotNull
+  Map<Issue, Map<File, List<ProblemData>>> analyzeFiles(@NotNull Map<Module, List<VirtualFile>> moduleFiles,
+                                                        @NotNull List<Issue> issues) {
+    return new AndroidLintShardedAnalysis(myProject, myScope, myLintScope).analyzeFiles(moduleFiles, issues);
+  }
+
+  /**
+   * Adds the cached problems of the given entry to the given problem map, and returns true, or returns false if a problem
+   * refers to an issue which is not enabled
+   */
+  private static boolean replay(@NotNull Entry entry,
+                                @NotNull Map<String, Issue> issuesById,
+                                @NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap) {
+    for (CachedProblem problem : entry.myProblems) {
+      if (!issuesById.containsKey(problem.myIssueId)) {
+        return false;
+      }
+    }
+    File file = new File(entry.myPath);
+    for (CachedProblem problem : entry.myProblems) {
+      Issue issue = issuesById.get(problem.myIssueId);
+      problemMap.computeIfAbsent(issue, i -> Maps.newHashMap()).computeIfAbsent(file, f -> Lists.newArrayList())
+        .add(new ProblemData(issue, problem.myMessage, new TextRange(problem.myStart, problem.myEnd), problem.mySeverity));
+    }
+    return true;
+  }
+
+  /**
+   * Adds the given problems to the given list, except the ones which are already in it
+   */
+  @VisibleForTesting
+  static void addMissing(@NotNull List<ProblemData> problems, @NotNull List<ProblemData> newProblems) {
+    List<ProblemData> existing = Lists.newArrayList(problems);
+    for (ProblemData problem : newProblems) {
+      boolean found = false;
+      for (ProblemData other : existing) {
+        if (other.getIssue() == problem.getIssue() && other.getTextRange().equals(problem.getTextRange())
+            && other.getMessage().equals(problem.getMessage())) {
+          found = true;
+          break;
+        }
+      }
+      if (!found) {
+        problems.add(problem);
+      }
+    }
+  }
+
+  @NotNull
+  private static <T> T runReadAction(@NotNull Computable<T> computable) {
+    return ApplicationManager.getApplication().runReadAction(computable);
+  }
+
+  /** Returns the given modules and all the modules they depend on, ordered by name */
+  @NotNull
+  private static Collection<Module> getModulesWithDependencies(@NotNull Collection<Module> modules) {
+    Set<Module> result = Sets.newTreeSet(Comparator.comparing(Module::getName));
+    Deque<Module> queue = new ArrayDeque<>(modules);
+    while (!queue.isEmpty()) {
+      Module module = queue.removeFirst();
+      if (result.add(module)) {
+        Collections.addAll(queue, ModuleRootManager.getInstance(module).getDependencies());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Computes the hashes of the files of modules and of what their lint results depend on, reusing the content hashes of the
+   * previous run for the files whose time stamp and size are unchanged
+   */
+  private static class Fingerprints {
+    private final Map<String, Entry> myPreviousEntries;
+    private final Collection<String> myIssueIds;
+    private final Map<Module, List<FileState>> myFiles = Maps.newHashMap();
+    private final Map<Module, Long> myConfigurationHashes = Maps.newHashMap();
+    private final Map<Module, Long> myResourceHashes = Maps.newHashMap();
+    private final Map<Module, Long> myJavaHashes = Maps.newHashMap();
+    private final Map<Module, Long> myResourceDependencyHashes = Maps.newHashMap();
+    private final Map<Module, Long> myJavaDependencyHashes = Maps.newHashMap();
+
+    private Fingerprints(@NotNull Map<String, Entry> previousEntries, @NotNull Collection<String> issueIds) {
+      myPreviousEntries = previousEntries;
+      myIssueIds = Sets.newTreeSet(issueIds);
+    }
+
+    /** Returns the Java, resource and manifest files of the given module */
+    @NotNull
+    List<FileState> getFiles(@NotNull Module module) {
+      List<FileState> files = myFiles.get(module);
+      if (files == null) {
+        List<VirtualFile> javaFiles = Lists.newArrayList();
+        List<VirtualFile> otherFiles = Lists.newArrayList();
+        ApplicationManager.getApplication().runReadAction(() -> {
+          for (VirtualFile root : ModuleRootManager.getInstance(module).getSourceRoots(false)) {
+            collectFiles(root, true, javaFiles);
+          }
+          AndroidFacet facet = AndroidFacet.getInstance(module);
+          if (facet != null) {
+            for (VirtualFile folder : facet.getResourceFolderManager().getFolders()) {
+              collectFiles(folder, false, otherFiles);
+            }
+            VirtualFile manifest = AndroidRootUtil.getPrimaryManifestFile(facet);
+            if (manifest != null) {
+              otherFiles.add(manifest);
+            }
+          }
+        });
+        files = Lists.newArrayListWithCapacity(javaFiles.size() + otherFiles.size());
+        for (VirtualFile file : javaFiles) {
+          ProgressManager.checkCanceled();
+          files.add(runReadAction(() -> getState(file, true)));
+        }
+        for (VirtualFile file : otherFiles) {
+          ProgressManager.checkCanceled();
+          files.add(runReadAction(() -> getState(file, false)));
+        }
+        files.sort(Comparator.comparing(state -> state.myPath));
+        myFiles.put(module, files);
+      }
+      return files;
+    }
+
+    private static void collectFiles(@NotNull VirtualFile root, boolean java, @NotNull List<VirtualFile> files) {
+      FileTypeManager fileTypeManager = FileTypeManager.getInstance();
+      VfsUtilCore.visitChildrenRecursively(root, new VirtualFileVisitor() {
+        @Override
+        public boolean visitFile(@NotNull VirtualFile file) {
+          if (fileTypeManager.isFileIgnored(file)) {
+            return false;
+          }
+          if (!file.isDirectory() && (!java || file.getName().endsWith(".java"))) {
+            files.add(file);
+          }
+          return true;
+        }
+      });
+    }
+
+    @NotNull
+    private FileState getState(@NotNull VirtualFile file, boolean java) {
+      String path = PathUtil.getCanonicalPath(VfsUtilCore.virtualToIoFile(file).getPath());
+      long timeStamp = file.getTimeStamp();
+      long length = file.getLength();
+      FileDocumentManager documentManager = FileDocumentManager.getInstance();
+      Document document = documentManager.getCachedDocument(file);
+      long contentHash;
+      try {
+        if (document != null && documentManager.isDocumentUnsaved(document)) {
+          contentHash = HASH.hashString(document.getImmutableCharSequence(), UTF_8).asLong();
+          // Don't trust the time stamp of the file next time
+          timeStamp = -1;
+        }
+        else {
+          Entry previous = myPreviousEntries.get(path);
+          if (previous != null && previous.myTimeStamp == timeStamp && previous.myLength == length && timeStamp != -1) {
+            contentHash = previous.myContentHash;
+          }
+          else {
+            contentHash = HASH.hashBytes(file.contentsToByteArray()).asLong();
+          }
+        }
+      }
+      catch (IOException e) {
+        // Not cacheable; check it on every run
+        contentHash = HASH.hashLong(System.nanoTime()).asLong();
+        timeStamp = -1;
+      }
+      return new FileState(file, path, java, timeStamp, length, contentHash);
+    }
+
+    /**
+     * Returns a hash of everything the results of a file of the given module depend on, other than the file itself
+     */
+    long getDependencyHash(@NotNull Module module, boolean java) {
+      Map<Module, Long> hashes = java ? myJavaDependencyHashes : myResourceDependencyHashes;
+      Long hash = hashes.get(module);
+      if (hash == null) {
+        Hasher hasher = HASH.newHasher();
+        hasher.putLong(getConfigurationHash(module));
+        for (Module dependency : runReadAction(() -> getModulesWithDependencies(Collections.singletonList(module)))) {
+          hasher.putLong(getContentHash(dependency, false));
+          if (java) {
+            hasher.putLong(getContentHash(dependency, true));
+          }
+        }
+        hash = hasher.hash().asLong();
+        hashes.put(module, hash);
+      }
+      return hash;
+    }
+
+    /** Returns a hash of the Java files or the resource and manifest files of the given module */
+    private long getContentHash(@NotNull Module module, boolean java) {
+      Map<Module, Long> hashes = java ? myJavaHashes : myResourceHashes;
+      Long hash = hashes.get(module);
+      if (hash == null) {
+        Hasher hasher = HASH.newHasher();
+        for (FileState state : getFiles(module)) {
+          if (state.myJava == java) {
+            hasher.putString(state.myPath, UTF_8).putLong(state.myContentHash);
+          }
+        }
+        hash = hasher.hash().asLong();
+        hashes.put(module, hash);
+      }
+      return hash;
+    }
+
+    /** Returns a hash of the lint version, the enabled issues and the configuration of the given module */
+    private long getConfigurationHash(@NotNull Module module) {
+      Long hash = myConfigurationHashes.get(module);
+      if (hash == null) {
+        hash = runReadAction(() -> computeConfigurationHash(module));
+        myConfigurationHashes.put(module, hash);
+      }
+      return hash;
+    }
+
+    private long computeConfigurationHash(@NotNull Module module) {
+      Hasher hasher = HASH.newHasher();
+      hasher.putInt(CACHE_VERSION).putString(ApplicationInfo.getInstance().getFullVersion(), UTF_8);
+      for (String id : myIssueIds) {
+        hasher.putString(id, UTF_8);
+      }
+      AndroidFacet facet = AndroidFacet.getInstance(module);
+      if (facet != null) {
+        AndroidModuleInfo moduleInfo = AndroidModuleInfo.get(facet);
+        hasher.putString(moduleInfo.getMinSdkVersion().getApiString(), UTF_8);
+        hasher.putString(moduleInfo.getTargetSdkVersion().getApiString(), UTF_8);
+        AndroidModuleModel model = AndroidModuleModel.get(facet);
+        if (model != null) {
+          try {
+            Map<String, Integer> overrides = model.getAndroidProject().getLintOptions().getSeverityOverrides();
+            if (overrides != null) {
+              hasher.putString(new TreeMap<>(overrides).toString(), UTF_8);
+            }
+          }
+          catch (Throwable unsupported) {
+            // Older models may not support lint options
+          }
+        }
+      }
+      File dir = LintIdeProject.getLintProjectDirectory(module, facet);
+      File lintXml = dir != null ? new File(dir, LINT_XML) : null;
+      if (lintXml != null && lintXml.isFile()) {
+        try {
+          hasher.putBytes(FileUtil.loadFileBytes(lintXml));
+        }
+        catch (IOException e) {
+          hasher.putLong(System.nanoTime());
+        }
+      }
+      for (String path : OrderEnumerator.orderEntries(module).recursively().librariesOnly().getPathsList().getPathList()) {
+        hasher.putString(path, UTF_8);
+      }
+      return hasher.hash().asLong();
+    }
+  }
+
+  /** A Java, resource or manifest file of a module, as of this run */
+  private static class FileState {
+    @NotNull private final VirtualFile myFile;
+    @NotNull private final String myPath;
+    private final boolean myJava;
+    private final long myTimeStamp;
+    private final long myLength;
+    private final long myContentHash;
+
+    private FileState(@NotNull VirtualFile file, @NotNull String path, boolean java, long timeStamp, long length, long contentHash) {
+      myFile = file;
+      myPath = path;
+      myJava = java;
+      myTimeStamp = timeStamp;
+      myLength = length;
+      myContentHash = contentHash;
+    }
+  }
+
+  /** The cached results of a file, and the state of the file and of its dependencies they were computed for */
+  @VisibleForTesting
+  static class Entry {
+    @NotNull final String myPath;
+    final long myTimeStamp;
+    final long myLength;
+    final long myContentHash;
+    final long myDependencyHash;
+    @NotNull final List<CachedProblem> myProblems = Lists.newArrayList();
+
+    Entry(@NotNull String path, long timeStamp, long length, long contentHash, long dependencyHash) {
+      myPath = path;
+      myTimeStamp = timeStamp;
+      myLength = length;
+      myContentHash = contentHash;
+      myDependencyHash = dependencyHash;
+    }
+  }
+
+  @VisibleForTesting
+  static class CachedProblem {
+    @NotNull final String myIssueId;
+    @NotNull final String myMessage;
+    final int myStart;
+    final int myEnd;
+    @Nullable final Severity mySeverity;
+
+    CachedProblem(@NotNull String issueId, @NotNull String message, int start, int end, @Nullable Severity severity) {
+      myIssueId = issueId;
+      myMessage = message;
+      myStart = start;
+      myEnd = end;
+      mySeverity = severity;
+    }
+  }
+
+  /**
+   * Reads the cache entries from the given file; returns an empty map if there is no cache, or it is unreadable or from another
+   * version
+   */
+  @VisibleForTesting
+  @NotNull
+  static Map<String, Entry> read(@NotNull File file) {
+    Map<String, Entry> entries = Maps.newHashMap();
+    if (!file.isFile()) {
+      return entries;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != CACHE_VERSION) {
+        return entries;
+      }
+      int entryCount = in.readInt();
+      for (int i = 0; i < entryCount; i++) {
+        Entry entry = new Entry(IOUtil.readUTF(in), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+        int problemCount = in.readInt();
+        for (int j = 0; j < problemCount; j++) {
+          String issueId = IOUtil.readUTF(in);
+          String message = IOUtil.readUTF(in);
+          int start = in.readInt();
+          int end = in.readInt();
+          String severity = IOUtil.readUTF(in);
+          entry.myProblems.add(new CachedProblem(issueId, message, start, end, severity.isEmpty() ? null : Severity.valueOf(severity)));
+        }
+        entries.put(entry.myPath, entry);
+      }
+    }
+    catch (IOException | IllegalArgumentException e) {
+      LOG.info("Discarding unreadable lint result cache " + file, e);
+      entries.clear();
+    }
+    return entries;
+  }
+
+  /**
+   * Writes the given cache entries to the given file
+   */
+  @VisibleForTesting
+  static void write(@NotNull File file, @NotNull Map<String, Entry> entries) {
+    File temp = new File(file.getPath() + ".tmp");
+    try {
+      FileUtil.createParentDirs(temp);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(CACHE_VERSION);
+        out.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+          IOUtil.writeUTF(out, entry.myPath);
+          out.writeLong(entry.myTimeStamp);
+          out.writeLong(entry.myLength);
+          out.writeLong(entry.myContentHash);
+          out.writeLong(entry.myDependencyHash);
+          out.writeInt(entry.myProblems.size());
+          for (CachedProblem problem : entry.myProblems) {
+            IOUtil.writeUTF(out, problem.myIssueId);
+            IOUtil.writeUTF(out, problem.myMessage);
+            out.writeInt(problem.myStart);
+            out.writeInt(problem.myEnd);
+            IOUtil.writeUTF(out, problem.mySeverity != null ? problem.mySeverity.name() : "");
+          }
+        }
+      }
+      FileUtil.rename(temp, file);
+    }
+    catch (IOException e) {
+      LOG.warn("Could not write lint result cache " + file, e);
+      FileUtil.delete(temp);
+    }
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.tools.idea.lint.LintIdeClient;
+import com.android.tools.idea.lint.LintIdeIssueRegistry;
+import com.android.tools.idea.lint.LintIdeRequest;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.client.api.LintRequest;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Runs a batch lint analysis of several modules with one lint driver per module, concurrently.
+ * <p>
+ * Only issues which look at one file at a time (see {@link #isFileLocal(Issue)}) are checked per module; those cannot be
+ * affected by other modules. The remaining issues, which for example look for unused resources or duplicate definitions
+ * across modules, are checked afterwards by a single driver over all the modules, like a regular batch run.
+ * <p>
+ * Each driver reports into its own problem map; the maps are merged in module order once all drivers are done, and the
+ * problems of each file are sorted, so the results do not depend on which driver finished first. If any driver fails, the
+ * others are cancelled and the failure is rethrown.
+ */
+class AndroidLintShardedAnalysis {
+  private static final Logger LOG = Logger.getInstance(AndroidLintShardedAnalysis.class);
+
+  /** Whether batch runs over several modules are split into concurrent per module analyses */
+  static final boolean ENABLED = SystemProperties.getBooleanProperty("android.lint.parallel.batch", false);
+
+  /** Scopes of the issues that can be checked one file at a time */
+  private static final EnumSet<Scope> FILE_SCOPES = EnumSet.of(Scope.JAVA_FILE, Scope.RESOURCE_FILE, Scope.BINARY_RESOURCE_FILE,
+                                                               Scope.MANIFEST, Scope.PROGUARD_FILE, Scope.PROPERTY_FILE,
+                                                               Scope.GRADLE_FILE);
+
+  private static final Comparator<ProblemData> PROBLEM_ORDER = (p1, p2) -> {
+    int delta = Integer.compare(p1.getTextRange().getStartOffset(), p2.getTextRange().getStartOffset());
+    if (delta == 0) {
+      delta = Integer.compare(p1.getTextRange().getEndOffset(), p2.getTextRange().getEndOffset());
+    }
+    if (delta == 0) {
+      delta = p1.getIssue().getId().compareTo(p2.getIssue().getId());
+    }
+    if (delta == 0) {
+      delta = p1.getMessage().compareTo(p2.getMessage());
+    }
+    return delta;
+  };
+
+  @NotNull private final Project myProject;
+  @NotNull private final AnalysisScope myScope;
+  @Nullable private final EnumSet<Scope> myLintScope;
+
+  AndroidLintShardedAnalysis(@NotNull Project project, @NotNull AnalysisScope scope, @Nullable EnumSet<Scope> lintScope) {
+    myProject = project;
+    myScope = scope;
+    myLintScope = lintScope;
+  }
+
+  /**
+   * Checks the given modules for the given issues, and returns the problems found
+   */
+  @NotNull
+  Map<Issue, Map<File, List<ProblemData>>> analyze(@NotNull List<Module> modules, @NotNull List<Issue> issues) {
+    List<Issue> localIssues = Lists.newArrayList();
+    List<Issue> globalIssues = Lists.newArrayList();
+    for (Issue issue : issues) {
+      (isFileLocal(issue) ? localIssues : globalIssues).add(issue);
+    }
+
+    List<Module> sortedModules = Lists.newArrayList(modules);
+    sortedModules.sort(Comparator.comparing(Module::getName));
+
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    List<Shard> shards = Lists.newArrayList();
+    if (!localIssues.isEmpty()) {
+      Map<Module, List<VirtualFile>> moduleFiles = Maps.newLinkedHashMap();
+      for (Module module : sortedModules) {
+        moduleFiles.put(module, null);
+      }
+      shards.addAll(runModuleShards(moduleFiles, localIssues, indicator));
+    }
+
+    // Cross module checks, once the per module ones are done
+    if (!globalIssues.isEmpty()) {
+      Shard global =
+        new Shard("<all modules>", globalIssues, client -> new LintIdeRequest(client, myProject, null, sortedModules, false));
+      global.run();
+      shards.add(global);
+    }
+
+    logTimings(shards);
+    return merge(shards);
+  }
+
+  /**
+   * Checks the given files of each module for the given issues, which must all be {@linkplain #isFileLocal(Issue) file local},
+   * with one driver per module, and returns the problems found
+   */
+  @NotNull
+  Map<Issue, Map<File, List<ProblemData>>> analyzeFiles(@NotNull Map<Module, List<VirtualFile>> moduleFiles,
+                                                        @NotNull List<Issue> issues) {
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    List<Shard> shards = runModuleShards(moduleFiles, issues, indicator);
+    logTimings(shards);
+    return merge(shards);
+  }
+
+  /**
+   * Runs one driver per module for the given issues, concurrently, over the given files of the module or over all its files
+   * if the files are null, and waits for them to finish
+   */
+  @NotNull
+  private List<Shard> runModuleShards(@NotNull Map<Module, List<VirtualFile>> moduleFiles,
+                                      @NotNull List<Issue> issues,
+                                      @Nullable ProgressIndicator indicator) {
+    // The drivers share the issue tables of the registry; set them up before the drivers start
+    LintIdeIssueRegistry.get().initializeCaches();
+
+    int maxThreads = Math.max(1, Math.min(moduleFiles.size(), Runtime.getRuntime().availableProcessors() - 1));
+    BoundedTaskExecutor executor = new BoundedTaskExecutor(PooledThreadExecutor.INSTANCE, maxThreads);
+    List<Shard> shards = Lists.newArrayList();
+    for (Map.Entry<Module, List<VirtualFile>> entry : moduleFiles.entrySet()) {
+      Module module = entry.getKey();
+      List<VirtualFile> files = entry.getValue();
+      Shard shard = new Shard(module.getName(), issues, client -> LintIdeRequest.forModule(client, myProject, module, files));
+      shard.myFuture = executor.submit(() -> {
+        if (indicator != null) {
+          ProgressManager.getInstance().executeProcessUnderProgress(shard::run, indicator);
+        }
+        else {
+          shard.run();
+        }
+      });
+      shards.add(shard);
+    }
+    awaitShards(shards, indicator);
+    return shards;
+  }
+
+  private static void awaitShards(@NotNull List<Shard> shards, @Nullable ProgressIndicator indicator) {
+    int done = 0;
+    for (Shard shard : shards) {
+      try {
+        while (true) {
+          if (indicator != null && indicator.isCanceled()) {
+            shards.forEach(s -> s.myDriver.cancel());
+            throw new ProcessCanceledException();
+          }
+          try {
+            shard.myFuture.get(100, TimeUnit.MILLISECONDS);
+            break;
+          }
+          catch (TimeoutException ignore) {
+            // Check for cancellation again
+          }
+        }
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof ProcessCanceledException) {
+          shards.forEach(s -> s.myDriver.cancel());
+          throw (ProcessCanceledException)cause;
+        }
+        // Fail the whole run, like the exceptions escaping LintDriver.analyze in a serial run, rather than report partial results
+        shards.forEach(s -> s.myDriver.cancel());
+        throw new RuntimeException("Lint analysis of module " + shard.myName + " failed", cause);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        shards.forEach(s -> s.myDriver.cancel());
+        throw new ProcessCanceledException();
+      }
+      if (indicator != null) {
+        indicator.setFraction((double)++done / shards.size());
+      }
+    }
+  }
+
+  /**
+   * Returns true if the given issue only looks at one file at a time, so checking it per module gives the same results as
+   * checking it over all the modules at once
+   */
+  static boolean isFileLocal(@NotNull Issue issue) {
+    EnumSet<Scope> scope = issue.getImplementation().getScope();
+    return scope.size() == 1 && FILE_SCOPES.containsAll(scope);
+  }
+
+  /**
+   * Merges the given problem maps into one, with the problems of each file in a stable order
+   */
+  @NotNull
+  static Map<Issue, Map<File, List<ProblemData>>> merge(@NotNull List<Map<Issue, Map<File, List<ProblemData>>>> problemMaps) {
+    Map<Issue, Map<File, List<ProblemData>>> merged = Maps.newHashMap();
+    for (Map<Issue, Map<File, List<ProblemData>>> problemMap : problemMaps) {
+      for (Map.Entry<Issue, Map<File, List<ProblemData>>> entry : problemMap.entrySet()) {
+        Map<File, List<ProblemData>> fileMap = merged.computeIfAbsent(entry.getKey(), issue -> Maps.newHashMap());
+        for (Map.Entry<File, List<ProblemData>> fileEntry : entry.getValue().entrySet()) {
+          fileMap.computeIfAbsent(fileEntry.getKey(), file -> Lists.newArrayList()).addAll(fileEntry.getValue());
+        }
+      }
+    }
+    for (Map<File, List<ProblemData>> fileMap : merged.values()) {
+      for (List<ProblemData> problems : fileMap.values()) {
+        problems.sort(PROBLEM_ORDER);
+      }
+    }
+    return merged;
+  }
+
+  @NotNull
+  private static Map<Issue, Map<File, List<ProblemData>>> merge(@NotNull Collection<Shard> shards) {
+    List<Map<Issue, Map<File, List<ProblemData>>>> problemMaps = Lists.newArrayListWithCapacity(shards.size());
+    for (Shard shard : shards) {
+      problemMaps.add(shard.myProblems);
+    }
+    return merge(problemMaps);
+  }
+
+  private static void logTimings(@NotNull List<Shard> shards) {
+    List<Shard> sorted = Lists.newArrayList(shards);
+    sorted.sort(Comparator.comparingLong((Shard shard) -> shard.myNanos).reversed());
+    StringBuilder sb = new StringBuilder("Lint batch analysis timings:");
+    for (Shard shard : sorted) {
+      sb.append(String.format("\n  %1$s: %2$d ms, %3$d issues", shard.myName, TimeUnit.NANOSECONDS.toMillis(shard.myNanos),
+                              shard.myIssueCount));
+    }
+    LOG.info(sb.toString());
+  }
+
+  /** One lint driver, with its own client and problem map */
+  private class Shard {
+    @NotNull private final String myName;
+    @NotNull private final Map<Issue, Map<File, List<ProblemData>>> myProblems = Maps.newHashMap();
+    @NotNull private final LintDriver myDriver;
+    @NotNull private final LintRequest myRequest;
+    private final int myIssueCount;
+    private Future<?> myFuture;
+    private volatile long myNanos;
+
+    private Shard(@NotNull String name, @NotNull List<Issue> issues, @NotNull Function<LintIdeClient, LintRequest> requestFactory) {
+      myName = name;
+      myIssueCount = issues.size();
+      LintIdeClient client = LintIdeClient.forBatch(myProject, myProblems, myScope, issues);
+      myDriver = new LintDriver(LintIdeIssueRegistry.get(), client);
+      myRequest = requestFactory.apply(client);
+    }
+
+    private void run() {
+      long start = System.nanoTime();
+      try {
+        myRequest.setScope(myLintScope);
+        myDriver.analyze(myRequest);
+      }
+      finally {
+        myNanos = System.nanoTime() - start;
+      }
+    }
+  }
+}
@@ -496,7 +496,7 @@ public final class ModuleClassLoader extends RenderClassLoader {
    * Returns a project class loader to use for rendering. May cache instances across render sessions.
    */
   @NotNull
-  public static ModuleClassLoader get(@NotNull LayoutLibrary library, @NotNull Module module) {
+  public static synchronized ModuleClassLoader get(@NotNull LayoutLibrary library, @NotNull Module module) {
     if (LOG.isDebugEnabled()) {
       LOG.debug(String.format("ModuleClassLoader.get(%s)", anonymize(module)));
     }
@@ -548,12 +548,12 @@ public final class ModuleClassLoader extends RenderClassLoader {
   }
 
   /** Flush any cached class loaders */
-  public static void clearCache() {
+  public static synchronized void clearCache() {
     ourCache.clear();
   }
 
   /** Remove the cached class loader for the module. */
-  public static void clearCache(Module module) {
+  public static synchronized void clearCache(Module module) {
     if (ourCache.containsKey(module)) {
       ourCache.remove(module);
     }
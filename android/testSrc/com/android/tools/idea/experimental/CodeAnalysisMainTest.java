@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental;
+
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.android.tools.idea.experimental.codeanalysis.callgraph.Callgraph;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.android.tools.idea.experimental.codeanalysis.utils.PsiCFGAnalysisUtil;
+import com.google.common.collect.Lists;
+import com.intellij.analysis.AnalysisScope;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+public class CodeAnalysisMainTest extends AndroidTestCase {
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myFixture.addFileToProject("src/test/Shape.java",
+                               "package test;\n" +
+                               "public interface Shape {\n" +
+                               "  double area();\n" +
+                               "}\n");
+    myFixture.addFileToProject("src/test/Circle.java",
+                               "package test;\n" +
+                               "public class Circle implements Shape {\n" +
+                               "  private final double r;\n" +
+                               "  public Circle(double r) { this.r = r; }\n" +
+                               "  @Override\n" +
+                               "  public double area() { return Math.PI * r * r; }\n" +
+                               "}\n");
+    myFixture.addFileToProject("src/test/Square.java",
+                               "package test;\n" +
+                               "public class Square implements Shape {\n" +
+                               "  private final double size;\n" +
+                               "  public Square(double size) { this.size = size; }\n" +
+                               "  @Override\n" +
+                               "  public double area() { return size * size; }\n" +
+                               "  public static class Builder {\n" +
+                               "    private double size;\n" +
+                               "    public Builder setSize(double size) { this.size = size; return this; }\n" +
+                               "    public Square build() { return new Square(size); }\n" +
+                               "  }\n" +
+                               "}\n");
+    myFixture.addFileToProject("src/test/Main.java",
+                               "package test;\n" +
+                               "public class Main {\n" +
+                               "  public double total(Shape[] shapes) {\n" +
+                               "    double sum = 0;\n" +
+                               "    for (Shape shape : shapes) {\n" +
+                               "      sum += shape.area();\n" +
+                               "    }\n" +
+                               "    return sum;\n" +
+                               "  }\n" +
+                               "  public double single() {\n" +
+                               "    Shape square = new Square.Builder().setSize(2).build();\n" +
+                               "    return total(new Shape[] { new Circle(1), square });\n" +
+                               "  }\n" +
+                               "  public Runnable printer(final Shape shape) {\n" +
+                               "    return new Runnable() {\n" +
+                               "      @Override\n" +
+                               "      public void run() { System.out.println(shape.area()); }\n" +
+                               "    };\n" +
+                               "  }\n" +
+                               "}\n");
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    try {
+      PsiCFGAnalysisUtil.setParallelCFGConstruction(true);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testParallelBuildMatchesSerialBuild() {
+    PsiCFGAnalysisUtil.setParallelCFGConstruction(false);
+    List<String> serial = analyze();
+    PsiCFGAnalysisUtil.setParallelCFGConstruction(true);
+    List<String> parallel = analyze();
+
+    assertFalse(serial.isEmpty());
+    assertEquals(serial, parallel);
+    // The invocation nodes are in the same order on every run
+    assertEquals(parallel, analyze());
+  }
+
+  public void testVirtualCallResolvesToImplementations() {
+    List<String> invocations = analyze();
+
+    boolean found = false;
+    for (String invocation : invocations) {
+      if (invocation.startsWith("test.Main.total:") && invocation.endsWith("[test.Circle.area, test.Square.area]")) {
+        found = true;
+      }
+    }
+    assertTrue(invocations.toString(), found);
+  }
+
+  public void testReuseUnchangedAnalysis() {
+    analyze();
+    PsiCFGScene scene = PsiCFGScene.getInstance(getProject());
+
+    CodeAnalysisMain.getInstance(getProject()).analyze(new AnalysisScope(getProject()));
+    assertSame(scene, PsiCFGScene.getInstance(getProject()));
+
+    myFixture.addFileToProject("src/test/Triangle.java",
+                               "package test;\n" +
+                               "public class Triangle implements Shape {\n" +
+                               "  @Override\n" +
+                               "  public double area() { return 0; }\n" +
+                               "}\n");
+    CodeAnalysisMain.getInstance(getProject()).analyze(new AnalysisScope(getProject()));
+    assertNotSame(scene, PsiCFGScene.getInstance(getProject()));
+  }
+
+  /**
+   * Run the analysis from scratch, and return the invocation nodes of
+   * the scene in order, each with its method and its sorted targets
+   */
+  @NotNull
+  private List<String> analyze() {
+    // Discard the previous results, which the analysis would reuse
+    PsiCFGScene.createFreshInstance(getProject());
+    CodeAnalysisMain.getInstance(getProject()).analyze(new AnalysisScope(getProject()));
+
+    PsiCFGScene scene = PsiCFGScene.getInstance(getProject());
+    Callgraph callgraph = scene.getCallGraph();
+    List<String> invocations = Lists.newArrayList();
+    for (GraphNode node : scene.getAllInvocationNode()) {
+      List<String> targets = Lists.newArrayList();
+      for (PsiCFGMethod target : callgraph.findCalleeMethodForGraphNode(node)) {
+        targets.add(describe(target));
+      }
+      Collections.sort(targets);
+      invocations.add(describe(callgraph.getNodesParentMethod(node)) + ": " + node.getSimpleName() + " -> " + targets);
+    }
+    return invocations;
+  }
+
+  @NotNull
+  private static String describe(@Nullable PsiCFGMethod method) {
+    if (method == null) {
+      return "null";
+    }
+    return method.getDeclaringClass().getQualifiedClassName() + "." + method.getName();
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.experimental.codeanalysis.callgraph;
+
+import com.android.tools.idea.experimental.CodeAnalysisMain;
+import com.android.tools.idea.experimental.codeanalysis.PsiCFGScene;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.PsiCFGMethod;
+import com.android.tools.idea.experimental.codeanalysis.datastructs.graph.node.GraphNode;
+import com.google.common.collect.Sets;
+import com.intellij.analysis.AnalysisScope;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+
+public class CompactCallgraphTest extends AndroidTestCase {
+  private Callgraph mCallgraph;
+  private CompactCallgraph mCompactGraph;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myFixture.addFileToProject("src/test/Source.java",
+                               "package test;\n" +
+                               "public interface Source {\n" +
+                               "  String read();\n" +
+                               "}\n");
+    myFixture.addFileToProject("src/test/FileSource.java",
+                               "package test;\n" +
+                               "public class FileSource implements Source {\n" +
+                               "  @Override\n" +
+                               "  public String read() { return open() + close(); }\n" +
+                               "  private String open() { return \"open\"; }\n" +
+                               "  private String close() { return \"close\"; }\n" +
+                               "}\n");
+    myFixture.addFileToProject("src/test/CachedSource.java",
+                               "package test;\n" +
+                               "public class CachedSource implements Source {\n" +
+                               "  private final Source mSource;\n" +
+                               "  private String mValue;\n" +
+                               "  public CachedSource(Source source) { mSource = source; }\n" +
+                               "  @Override\n" +
+                               "  public String read() {\n" +
+                               "    if (mValue == null) {\n" +
+                               "      mValue = mSource.read();\n" +
+                               "    }\n" +
+                               "    return mValue;\n" +
+                               "  }\n" +
+                               "}\n");
+    myFixture.addFileToProject("src/test/Reader.java",
+                               "package test;\n" +
+                               "public class Reader {\n" +
+                               "  public String readTwice(Source source) {\n" +
+                               "    return source.read() + source.read();\n" +
+                               "  }\n" +
+                               "  public String readAll() {\n" +
+                               "    return readTwice(new CachedSource(new FileSource()));\n" +
+                               "  }\n" +
+                               "  public String unused() { return \"\"; }\n" +
+                               "}\n");
+
+    PsiCFGScene.createFreshInstance(getProject());
+    CodeAnalysisMain.getInstance(getProject()).analyze(new AnalysisScope(getProject()));
+    mCallgraph = PsiCFGScene.getInstance(getProject()).getCallGraph();
+    mCompactGraph = mCallgraph.getCompactGraph();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    try {
+      mCallgraph = null;
+      mCompactGraph = null;
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testMethodsMatch() {
+    Set<PsiCFGMethod> methods = Sets.newHashSet(mCallgraph.allMethodsInGraph);
+    methods.addAll(mCallgraph.calleeMethodToCallerGraphNodeMap.keySet());
+    assertFalse(methods.isEmpty());
+    assertEquals(methods.size(), mCompactGraph.getMethodCount());
+    for (PsiCFGMethod method : methods) {
+      int methodId = mCompactGraph.getMethodId(method);
+      assertTrue(methodId != CompactCallgraph.NO_METHOD);
+      assertSame(method, mCompactGraph.getMethod(methodId));
+    }
+  }
+
+  public void testEdgesMatch() {
+    for (int methodId = 0; methodId < mCompactGraph.getMethodCount(); methodId++) {
+      PsiCFGMethod method = mCompactGraph.getMethod(methodId);
+
+      Set<PsiCFGMethod> callees = Sets.newHashSet();
+      for (int i = 0; i < mCompactGraph.getCalleeCount(methodId); i++) {
+        callees.add(mCompactGraph.getMethod(mCompactGraph.getCallee(methodId, i)));
+      }
+      assertEquals(method.toString(), Sets.newHashSet(mCallgraph.callerMethodToCalleeMethodMap.get(method)), callees);
+
+      Set<PsiCFGMethod> callers = Sets.newHashSet();
+      for (int i = 0; i < mCompactGraph.getCallerCount(methodId); i++) {
+        callers.add(mCompactGraph.getMethod(mCompactGraph.getCaller(methodId, i)));
+      }
+      assertEquals(method.toString(), Sets.newHashSet(mCallgraph.calleeMethodToCallerMethodReturnMap.get(method)), callers);
+
+      Set<GraphNode> callerSites = Sets.newHashSet();
+      for (int i = 0; i < mCompactGraph.getCallerSiteCount(methodId); i++) {
+        int callSiteId = mCompactGraph.getCallerSite(methodId, i);
+        GraphNode callSite = mCompactGraph.getCallSite(callSiteId);
+        assertSame(mCallgraph.getNodesParentMethod(callSite), mCompactGraph.getCallSiteMethod(callSiteId));
+        callerSites.add(callSite);
+      }
+      assertEquals(method.toString(), Sets.newHashSet(mCallgraph.calleeMethodToCallerGraphNodeMap.get(method)), callerSites);
+    }
+  }
+
+  public void testTraversalsMatch() {
+    boolean foundCallees = false;
+    for (int methodId = 0; methodId < mCompactGraph.getMethodCount(); methodId++) {
+      PsiCFGMethod method = mCompactGraph.getMethod(methodId);
+      Set<PsiCFGMethod> reachable = findReachableMethods(method);
+      assertEquals(method.toString(), reachable, findReachableMethods(methodId));
+      assertEquals(method.toString(), findCallingMethods(method), findCallingMethods(methodId));
+      foundCallees |= reachable.size() > 1;
+    }
+    // The fixture has call chains, so some traversals go past the first method
+    assertTrue(foundCallees);
+  }
+
+  @NotNull
+  private Set<PsiCFGMethod> findReachableMethods(@NotNull PsiCFGMethod start) {
+    Set<PsiCFGMethod> visited = Sets.newHashSet(start);
+    Deque<PsiCFGMethod> queue = new ArrayDeque<>();
+    queue.add(start);
+    while (!queue.isEmpty()) {
+      for (PsiCFGMethod callee : mCallgraph.callerMethodToCalleeMethodMap.get(queue.removeFirst())) {
+        if (visited.add(callee)) {
+          queue.add(callee);
+        }
+      }
+    }
+    return visited;
+  }
+
+  @NotNull
+  private Set<PsiCFGMethod> findReachableMethods(int start) {
+    Set<PsiCFGMethod> visited = Sets.newHashSet(mCompactGraph.getMethod(start));
+    Deque<Integer> queue = new ArrayDeque<>();
+    queue.add(start);
+    while (!queue.isEmpty()) {
+      int methodId = queue.removeFirst();
+      for (int i = 0; i < mCompactGraph.getCalleeCount(methodId); i++) {
+        int calleeId = mCompactGraph.getCallee(methodId, i);
+        if (visited.add(mCompactGraph.getMethod(calleeId))) {
+          queue.add(calleeId);
+        }
+      }
+    }
+    return visited;
+  }
+
+  @NotNull
+  private Set<PsiCFGMethod> findCallingMethods(@NotNull PsiCFGMethod start) {
+    Set<PsiCFGMethod> visited = Sets.newHashSet(start);
+    Deque<PsiCFGMethod> queue = new ArrayDeque<>();
+    queue.add(start);
+    while (!queue.isEmpty()) {
+      for (GraphNode callSite : mCallgraph.calleeMethodToCallerGraphNodeMap.get(queue.removeFirst())) {
+        PsiCFGMethod caller = mCallgraph.getNodesParentMethod(callSite);
+        if (caller != null && visited.add(caller)) {
+          queue.add(caller);
+        }
+      }
+    }
+    return visited;
+  }
+
+  @NotNull
+  private Set<PsiCFGMethod> findCallingMethods(int start) {
+    Set<PsiCFGMethod> visited = Sets.newHashSet(mCompactGraph.getMethod(start));
+    Deque<Integer> queue = new ArrayDeque<>();
+    queue.add(start);
+    while (!queue.isEmpty()) {
+      int methodId = queue.removeFirst();
+      for (int i = 0; i < mCompactGraph.getCallerSiteCount(methodId); i++) {
+        int callerId = mCompactGraph.getCallSiteMethodId(mCompactGraph.getCallerSite(methodId, i));
+        if (callerId != CompactCallgraph.NO_METHOD && visited.add(mCompactGraph.getMethod(callerId))) {
+          queue.add(callerId);
+        }
+      }
+    }
+    return visited;
+  }
+}
@@ -16,16 +16,31 @@
 
 package com.android.tools.idea.javadoc;
 
+import com.android.ide.common.resources.ResourceUrl;
+import com.android.resources.ResourceType;
+import com.android.tools.idea.res.AppResourceRepository;
 import com.intellij.codeInsight.documentation.DocumentationManager;
 import com.intellij.lang.documentation.DocumentationProvider;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
 import com.intellij.util.Consumer;
 import org.jetbrains.android.AndroidTestCase;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class AndroidJavaDocRendererTest extends AndroidTestCase {
   private static final String VERTICAL_ALIGN = "valign=\"top\"";
 
@@ -88,6 +103,68 @@ public class AndroidJavaDocRendererTest extends AndroidTestCase {
     checkStrings("/javadoc/strings/Activity3.java", null);
   }
 
+  public void testStringRenderedAgainAfterEdit() {
+    VirtualFile file = myFixture.copyFileToProject(getTestDataPath() + "/javadoc/strings/strings.xml", "res/values/strings.xml");
+    ResourceUrl url = ResourceUrl.create(ResourceType.STRING, "app_name", false, false);
+    assertEquals("<html><body>Application Name</body></html>", AndroidJavaDocRenderer.render(myModule, url));
+    // Served from the cache while the resources are unchanged
+    assertEquals("<html><body>Application Name</body></html>", AndroidJavaDocRenderer.render(myModule, url));
+
+    PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(file);
+    assertNotNull(psiFile);
+    PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+    Document document = documentManager.getDocument(psiFile);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      String string = "Application Name";
+      int offset = document.getText().indexOf(string);
+      document.replaceString(offset, offset + string.length(), "Renamed Application");
+      documentManager.commitDocument(document);
+    });
+    AppResourceRepository appResources = AppResourceRepository.getAppResources(myModule, true);
+    assertNotNull(appResources);
+    appResources.sync();
+
+    assertEquals("<html><body>Renamed Application</body></html>", AndroidJavaDocRenderer.render(myModule, url));
+  }
+
+  public void testFailedPreviewRenderedAgain() throws Exception {
+    ConcurrentMap<String, Future<URL>> previews = new ConcurrentHashMap<>();
+    AtomicInteger renders = new AtomicInteger();
+
+    assertNull(AndroidJavaDocRenderer.computePreview(previews, "icon", () -> {
+      renders.incrementAndGet();
+      return null;
+    }).get());
+    assertFalse(previews.containsKey("icon"));
+
+    try {
+      AndroidJavaDocRenderer.computePreview(previews, "icon", () -> {
+        renders.incrementAndGet();
+        throw new IllegalStateException("No layoutlib");
+      }).get();
+      fail("Expected the render failure to be reported");
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertFalse(previews.containsKey("icon"));
+
+    URL url = new URL("file:/tmp/icon.png");
+    assertEquals(url, AndroidJavaDocRenderer.computePreview(previews, "icon", () -> {
+      renders.incrementAndGet();
+      return url;
+    }).get());
+    assertTrue(previews.containsKey("icon"));
+
+    // Successful previews are kept
+    assertEquals(url, AndroidJavaDocRenderer.computePreview(previews, "icon", () -> {
+      renders.incrementAndGet();
+      return null;
+    }).get());
+    assertEquals(3, renders.get());
+  }
+
   public void testDimensions1() {
     myFixture.copyFileToProject(getTestDataPath() + "/javadoc/dimens/dimens.xml", "res/values/dimens.xml");
     myFixture.copyFileToProject(getTestDataPath() + "/javadoc/dimens/dimens-sw720dp.xml", "res/values-sw720dp/dimens.xml");
@@ -18,14 +18,17 @@ package com.android.tools.idea.lint;
 import com.android.ide.common.xml.XmlPrettyPrinter;
 import com.android.utils.XmlUtils;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.psi.xml.XmlFile;
 import org.jetbrains.android.AndroidTestCase;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import java.util.concurrent.atomic.AtomicReference;
@@ -107,4 +110,52 @@ public class DomPsiConverterTest extends AndroidTestCase {
     assertEquals(1, elementsByTagName.getLength());
     assertEquals("@drawable/icon", elementsByTagName.item(0).getAttributes().getNamedItemNS(ANDROID_URI, "icon").getNodeValue());
   }
+
+  public void testAttributes() {
+    VirtualFile file = myFixture.copyFileToProject("AndroidManifest.xml", "AndroidManifest.xml");
+    PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(file);
+    assertTrue(psiFile instanceof XmlFile);
+    Document domDocument = DomPsiConverter.convert((XmlFile)psiFile);
+    assertNotNull(domDocument);
+
+    Element manifest = domDocument.getDocumentElement();
+    assertEquals("p1.p2", manifest.getAttribute("package"));
+    assertTrue(manifest.hasAttribute("package"));
+    assertFalse(manifest.hasAttribute("versionCode"));
+    // Attributes without a namespace are not found by namespace, and the other way around
+    assertNull(manifest.getAttributeNodeNS("", "package"));
+    Element application = (Element)domDocument.getElementsByTagName("application").item(0);
+    assertEquals("@drawable/icon", application.getAttributeNS(ANDROID_URI, "icon"));
+    assertEquals("", application.getAttribute("icon"));
+    assertEquals("", application.getAttributeNS(ANDROID_URI, "label"));
+    assertEquals(1, application.getAttributes().getLength());
+    assertSame(application.getAttributeNodeNS(ANDROID_URI, "icon"), application.getAttributes().item(0));
+  }
+
+  public void testConversionCache() {
+    VirtualFile file = myFixture.copyFileToProject("AndroidManifest.xml", "AndroidManifest.xml");
+    PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(file);
+    assertTrue(psiFile instanceof XmlFile);
+    XmlFile xmlFile = (XmlFile)psiFile;
+
+    // An unchanged file is only converted once
+    Document domDocument = DomPsiConverter.convert(xmlFile);
+    assertNotNull(domDocument);
+    assertSame(domDocument, DomPsiConverter.convert(xmlFile));
+
+    // Editing the file converts it again
+    PsiDocumentManager manager = PsiDocumentManager.getInstance(getProject());
+    com.intellij.openapi.editor.Document document = manager.getDocument(xmlFile);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      String text = document.getText();
+      int offset = text.indexOf("package=");
+      document.insertString(offset, "android:versionCode=\"2\" ");
+      manager.commitDocument(document);
+    });
+    Document updated = DomPsiConverter.convert(xmlFile);
+    assertNotNull(updated);
+    assertNotSame(domDocument, updated);
+    assertEquals("2", updated.getDocumentElement().getAttributeNS(ANDROID_URI, "versionCode"));
+  }
 }
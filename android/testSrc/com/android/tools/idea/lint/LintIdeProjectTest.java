@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.lint;
+
+import com.intellij.facet.FacetManager;
+import com.intellij.facet.ModifiableFacetModel;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.testFramework.IdeaTestCase;
+import org.jetbrains.android.facet.AndroidFacet;
+
+public class LintIdeProjectTest extends IdeaTestCase {
+  public void testHasAndroidModuleTracksFacetChanges() {
+    assertFalse(LintIdeProject.hasAndroidModule(myProject));
+
+    ApplicationManager.getApplication().runWriteAction(() -> {
+      FacetManager.getInstance(myModule).addFacet(AndroidFacet.getFacetType(), AndroidFacet.NAME, null);
+    });
+    assertNotNull(AndroidFacet.getInstance(myModule));
+    assertTrue(LintIdeProject.hasAndroidModule(myProject));
+
+    ApplicationManager.getApplication().runWriteAction(() -> {
+      ModifiableFacetModel model = FacetManager.getInstance(myModule).createModifiableModel();
+      model.removeFacet(AndroidFacet.getInstance(myModule));
+      model.commit();
+    });
+    assertNull(AndroidFacet.getInstance(myModule));
+    assertFalse(LintIdeProject.hasAndroidModule(myProject));
+  }
+}
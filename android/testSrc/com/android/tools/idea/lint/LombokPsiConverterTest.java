@@ -69,6 +69,31 @@ public class LombokPsiConverterTest extends AndroidTestCase {
     check(file);
   }
 
+  public void testConversionCache() {
+    VirtualFile file = myFixture.copyFileToProject("intentions/R.java", "src/p1/p2/R.java");
+    PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(file);
+    assertTrue(psiFile instanceof PsiJavaFile);
+    PsiJavaFile psiJavaFile = (PsiJavaFile)psiFile;
+
+    // An unchanged file is only converted once
+    CompilationUnit unit = LombokPsiConverter.convert(psiJavaFile);
+    assertNotNull(unit);
+    assertSame(unit, LombokPsiConverter.convert(psiJavaFile));
+
+    // Editing the file converts it again
+    PsiDocumentManager manager = PsiDocumentManager.getInstance(getProject());
+    Document document = manager.getDocument(psiJavaFile);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      document.insertString(document.getTextLength(), "\nclass Extra {}\n");
+      manager.commitDocument(document);
+    });
+    CompilationUnit updated = LombokPsiConverter.convert(psiJavaFile);
+    assertNotNull(updated);
+    assertNotSame(unit, updated);
+    assertEquals(unit.astTypeDeclarations().size() + 1, updated.astTypeDeclarations().size());
+  }
+
   public void testPsiToLombokConversion2() {
     VirtualFile file = myFixture.copyFileToProject("intentions/R.java", "src/p1/p2/R.java");
     check(file);
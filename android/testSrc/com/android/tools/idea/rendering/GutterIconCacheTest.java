@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.android.AndroidTestCase;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+public class GutterIconCacheTest extends AndroidTestCase {
+  private File myImageFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myImageFile = FileUtil.createTempFile("icon", ".png");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myImageFile);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testInvalidateModifiedFile() throws Exception {
+    GutterIconCache cache = new GutterIconCache();
+    writeImage(8);
+    refresh();
+
+    Icon icon = cache.getIcon(myImageFile.getPath(), null);
+    assertNotNull(icon);
+    assertEquals(8, icon.getIconWidth());
+    assertSame(icon, cache.getIcon(myImageFile.getPath(), null));
+
+    // Modifying the file replaces its thumbnail
+    writeImage(12);
+    assertTrue(myImageFile.setLastModified(myImageFile.lastModified() + 2000));
+    // The cache only looks at the VFS state of the file
+    assertSame(icon, cache.getIcon(myImageFile.getPath(), null));
+    refresh();
+    Icon updated = cache.getIcon(myImageFile.getPath(), null);
+    assertNotNull(updated);
+    assertNotSame(icon, updated);
+    assertEquals(12, updated.getIconWidth());
+    assertSame(updated, cache.getIcon(myImageFile.getPath(), null));
+  }
+
+  public void testMissingFile() throws Exception {
+    GutterIconCache cache = new GutterIconCache();
+    FileUtil.delete(myImageFile);
+    assertNull(cache.getIcon(myImageFile.getPath(), null));
+  }
+
+  private void writeImage(int size) throws IOException {
+    @SuppressWarnings("UndesirableClassUsage")
+    BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    ImageIO.write(image, "PNG", myImageFile);
+  }
+
+  private void refresh() {
+    VirtualFile file = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(myImageFile);
+    assertNotNull(file);
+    VfsUtil.markDirtyAndRefresh(false, false, false, file);
+  }
+}
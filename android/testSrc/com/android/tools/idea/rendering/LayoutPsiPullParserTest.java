@@ -16,6 +16,7 @@
 package com.android.tools.idea.rendering;
 
 import com.android.resources.ResourceFolderType;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
@@ -225,6 +226,44 @@ public class LayoutPsiPullParserTest extends AndroidTestCase {
     assertEmptyParser(new LayoutPsiPullParser(mock(XmlTag.class), logger));
   }
 
+  public void testSnapshotCache() throws Exception {
+    XmlFile file = (XmlFile)myFixture.addFileToProject("res/layout/cached.xml",
+                                                       "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                                                       "    android:layout_width=\"match_parent\"\n" +
+                                                       "    android:layout_height=\"match_parent\">\n" +
+                                                       "  <TextView android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" />\n" +
+                                                       "</LinearLayout>\n");
+    RenderLogger logger = new RenderLogger("test", myModule);
+    LayoutPsiPullParser parser = LayoutPsiPullParser.create(file, logger);
+
+    // Parsers of an unmodified file get their own copies of the same cached snapshot
+    TagSnapshot cached = LayoutPsiPullParser.getRootSnapshot(file);
+    assertSame(cached, LayoutPsiPullParser.getRootSnapshot(file));
+    LayoutPsiPullParser other = LayoutPsiPullParser.create(file, logger);
+    assertNotNull(parser.myRoot);
+    assertNotNull(other.myRoot);
+    assertNotSame(parser.myRoot, other.myRoot);
+    assertNotSame(cached, parser.myRoot);
+    assertNotSame(parser.myRoot.children.get(0), other.myRoot.children.get(0));
+    assertSame(parser.myRoot.tag, other.myRoot.tag);
+    assertEquals(parser.myRoot.getSignature(), cached.getSignature());
+
+    // Updating the snapshot of one render, as the property sheet does, doesn't affect the others
+    parser.myRoot.children.get(0).setAttribute(ATTR_TEXT, ANDROID_URI, ANDROID_NS_NAME, "Pending");
+    assertNull(cached.children.get(0).getAttribute(ATTR_TEXT, ANDROID_URI));
+    assertNull(other.myRoot.children.get(0).getAttribute(ATTR_TEXT, ANDROID_URI));
+    assertNull(LayoutPsiPullParser.create(file, logger).myRoot.children.get(0).getAttribute(ATTR_TEXT, ANDROID_URI));
+
+    XmlTag textView = file.getRootTag().getSubTags()[0];
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> textView.setAttribute(ATTR_TEXT, ANDROID_URI, "Edited"));
+    LayoutPsiPullParser edited = LayoutPsiPullParser.create(file, logger);
+    assertNotSame(parser.myRoot, edited.myRoot);
+    assertNotNull(edited.myRoot);
+    assertEquals("Edited", edited.myRoot.children.get(0).getAttribute(ATTR_TEXT, ANDROID_URI));
+    assertNull(cached.children.get(0).getAttribute(ATTR_TEXT, ANDROID_URI));
+    assertNotSame(cached, LayoutPsiPullParser.getRootSnapshot(file));
+  }
+
   enum NextEventType { NEXT, NEXT_TOKEN, NEXT_TAG }
 
   private void compareParsers(PsiFile file, NextEventType nextEventType) throws Exception {
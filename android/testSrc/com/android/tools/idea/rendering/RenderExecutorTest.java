@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import com.google.common.collect.Lists;
+import com.intellij.testFramework.PlatformTestUtil;
+import junit.framework.TestCase;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.android.tools.idea.rendering.RenderService.Priority.*;
+
+public class RenderExecutorTest extends TestCase {
+  private RenderExecutor myExecutor;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myExecutor = new RenderExecutor("Test Render Thread", 3, 1000);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myExecutor.shutdownNow();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testOwnerAffinity() throws Exception {
+    Object owner1 = new Object();
+    Object owner2 = new Object();
+
+    Thread thread1 = myExecutor.submit(owner1, FOREGROUND, Thread::currentThread, false).get(5, TimeUnit.SECONDS);
+    Thread thread2 = myExecutor.submit(owner2, FOREGROUND, Thread::currentThread, false).get(5, TimeUnit.SECONDS);
+    assertNotSame(thread1, thread2);
+
+    // Later requests of an owner run on the same thread as its earlier requests
+    for (int i = 0; i < 5; i++) {
+      assertSame(thread1, myExecutor.submit(owner1, FOREGROUND, Thread::currentThread, false).get(5, TimeUnit.SECONDS));
+      assertSame(thread2, myExecutor.submit(owner2, FOREGROUND, Thread::currentThread, false).get(5, TimeUnit.SECONDS));
+    }
+    assertSame(thread1, myExecutor.getRenderingThread(owner1));
+  }
+
+  public void testSupersede() throws Exception {
+    Object owner = new Object();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<Boolean> running = myExecutor.submit(owner, FOREGROUND, () -> {
+      started.countDown();
+      return release.await(5, TimeUnit.SECONDS);
+    }, false);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    Future<String> stale = myExecutor.submit(owner, FOREGROUND, () -> "stale", true);
+    Future<String> inflate = myExecutor.submit(owner, FOREGROUND, () -> "inflate", false);
+    Future<String> latest = myExecutor.submit(owner, FOREGROUND, () -> "latest", true);
+    release.countDown();
+
+    // The running request is never cancelled, and only the pending superseding request is superseded by the latest one
+    assertTrue(running.get(5, TimeUnit.SECONDS));
+    assertEquals("inflate", inflate.get(5, TimeUnit.SECONDS));
+    assertEquals("latest", latest.get(5, TimeUnit.SECONDS));
+    assertTrue(stale.isCancelled());
+  }
+
+  public void testRelease() throws Exception {
+    Object owner = new Object();
+    CountDownLatch release = new CountDownLatch(1);
+
+    myExecutor.submit(owner, FOREGROUND, () -> release.await(5, TimeUnit.SECONDS), false);
+    Future<String> pending = myExecutor.submit(owner, FOREGROUND, () -> "pending", true);
+    myExecutor.release(owner);
+    release.countDown();
+
+    assertTrue(pending.isCancelled());
+  }
+
+  public void testCollectedOwners() throws Exception {
+    Object owner = new Object();
+    myExecutor.submit(owner, FOREGROUND, () -> null, false).get(5, TimeUnit.SECONDS);
+    Object released = new Object();
+    myExecutor.submit(released, FOREGROUND, () -> null, false).get(5, TimeUnit.SECONDS);
+    myExecutor.release(released);
+    assertEquals(1, getOwnerCount());
+
+    // An owner which is collected without being released no longer counts towards the load of its thread
+    WeakReference<Object> ownerReference = new WeakReference<>(owner);
+    //noinspection UnusedAssignment
+    owner = null;
+    PlatformTestUtil.tryGcSoftlyReachableObjects();
+    assertNull(ownerReference.get());
+    assertEquals(0, getOwnerCount());
+  }
+
+  private int getOwnerCount() {
+    int count = 0;
+    for (int i = 0; i < myExecutor.getThreadCount(); i++) {
+      count += myExecutor.getOwnerCount(i);
+    }
+    return count;
+  }
+
+  public void testQueueTimeout() throws Exception {
+    Object owner = new Object();
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<Boolean> running = myExecutor.submit(owner, FOREGROUND, () -> release.await(5, TimeUnit.SECONDS), false);
+    RenderExecutor.RenderRequest<String> queued = myExecutor.submit(owner, FOREGROUND, () -> "queued", false);
+    try {
+      // A request which never got to run is reported as a queue timeout, not as a render timeout
+      queued.await(5000, 10);
+      fail("Expected a queue timeout");
+    }
+    catch (RenderExecutor.QueueTimeoutException expected) {
+    }
+    finally {
+      release.countDown();
+    }
+    assertTrue(running.get(5, TimeUnit.SECONDS));
+    assertTrue(queued.isCancelled());
+  }
+
+  public void testCancelFuture() throws Exception {
+    Object owner = new Object();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<Boolean> running = myExecutor.submit(owner, FOREGROUND, () -> {
+      started.countDown();
+      return release.await(5, TimeUnit.SECONDS);
+    }, false);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    Future<String> pending = myExecutor.submit(owner, FOREGROUND, () -> "pending", false);
+
+    // A running request is never interrupted, while a pending one can be cancelled through its future
+    assertFalse(running.cancel(true));
+    assertTrue(pending.cancel(true));
+    release.countDown();
+    assertTrue(running.get(5, TimeUnit.SECONDS));
+    assertTrue(pending.isCancelled());
+    assertEquals(1, myExecutor.getStatistics().getCancelledCount(FOREGROUND));
+  }
+
+  public void testPriority() throws Exception {
+    Object editor = new Object();
+    Object thumbnail = new Object();
+    Object preview = new Object();
+    RenderExecutor executor = new RenderExecutor("Test Render Thread", 1, 1000);
+    try {
+      CountDownLatch started = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+      executor.submit(null, FOREGROUND, () -> {
+        started.countDown();
+        return release.await(5, TimeUnit.SECONDS);
+      }, false);
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+
+      // Pending requests run by priority, and in submission order within the same priority
+      List<String> order = Collections.synchronizedList(Lists.newArrayList());
+      Future<?> last = executor.submit(thumbnail, THUMBNAIL, () -> order.add("thumbnail"), false);
+      executor.submit(preview, BACKGROUND, () -> order.add("preview"), false);
+      executor.submit(editor, FOREGROUND, () -> order.add("editor 1"), false);
+      executor.submit(editor, FOREGROUND, () -> order.add("editor 2"), false);
+      release.countDown();
+      last.get(5, TimeUnit.SECONDS);
+
+      assertEquals(Lists.newArrayList("editor 1", "editor 2", "preview", "thumbnail"), order);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void testStatistics() throws Exception {
+    Object owner = new Object();
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<Boolean> running = myExecutor.submit(owner, BACKGROUND, () -> release.await(5, TimeUnit.SECONDS), false);
+    Future<String> stale = myExecutor.submit(owner, BACKGROUND, () -> "stale", true);
+    Future<String> latest = myExecutor.submit(owner, BACKGROUND, () -> "latest", true);
+    assertEquals(3, myExecutor.getStatistics().getSubmittedCount(BACKGROUND));
+    release.countDown();
+    assertTrue(running.get(5, TimeUnit.SECONDS));
+    assertEquals("latest", latest.get(5, TimeUnit.SECONDS));
+    assertTrue(stale.isCancelled());
+    // Requests of an owner run in sequence, so once this one ran, the statistics of the earlier ones are up to date
+    myExecutor.submit(owner, FOREGROUND, () -> null, false).get(5, TimeUnit.SECONDS);
+
+    RenderService.QueueStatistics statistics = myExecutor.getStatistics();
+    assertEquals(0, statistics.getQueueDepth());
+    assertEquals(1, statistics.getSubmittedCount(FOREGROUND));
+    assertEquals(2, statistics.getCompletedCount(BACKGROUND));
+    assertEquals(1, statistics.getCancelledCount(BACKGROUND));
+    assertTrue(statistics.getAverageRenderTimeMs(BACKGROUND) >= 0);
+  }
+}
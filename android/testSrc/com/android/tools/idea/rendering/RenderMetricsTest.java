@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.rendering;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.android.tools.idea.rendering.RenderMetrics.Phase.*;
+
+public class RenderMetricsTest extends TestCase {
+  public void testRecord() {
+    RenderMetrics metrics = new RenderMetrics();
+    assertEquals(0, metrics.getCount(RENDER));
+    assertEquals(0.0, metrics.getAverageTimeMs(RENDER));
+    assertEquals(0.0, metrics.getRecentCycleTimeMs());
+
+    metrics.record(RENDER, TimeUnit.MILLISECONDS.toNanos(10));
+    metrics.record(RENDER, TimeUnit.MILLISECONDS.toNanos(30));
+    assertEquals(2, metrics.getCount(RENDER));
+    assertEquals(20.0, metrics.getAverageTimeMs(RENDER), 1e-9);
+    assertEquals(30.0, metrics.getLastTimeMs(RENDER), 1e-9);
+    // The moving average favors the latest samples
+    double recent = metrics.getRecentTimeMs(RENDER);
+    assertTrue(recent > 10 && recent < 30);
+    assertEquals(0, metrics.getCount(INFLATE));
+  }
+
+  public void testRenderThreadTime() {
+    RenderMetrics metrics = new RenderMetrics();
+    metrics.record(QUEUE_WAIT, TimeUnit.MILLISECONDS.toNanos(100));
+    metrics.record(INFLATE, TimeUnit.MILLISECONDS.toNanos(40));
+    metrics.record(RENDER, TimeUnit.MILLISECONDS.toNanos(20));
+    metrics.record(IMAGE_COPY, TimeUnit.MILLISECONDS.toNanos(2));
+
+    // The time spent waiting for the render thread is not part of the render thread time
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(62), metrics.getRenderThreadNanos());
+  }
+
+  public void testRecentCycleTime() {
+    RenderMetrics metrics = new RenderMetrics();
+    // A slow first cycle, e.g. the first inflate, does not stick once cheaper cycles follow
+    metrics.recordCycle(TimeUnit.MILLISECONDS.toNanos(1000));
+    assertEquals(1000.0, metrics.getRecentCycleTimeMs(), 1e-9);
+    for (int i = 0; i < 20; i++) {
+      metrics.recordCycle(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    assertEquals(10.0, metrics.getRecentCycleTimeMs(), 1.0);
+  }
+}
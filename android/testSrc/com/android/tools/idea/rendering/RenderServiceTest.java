@@ -16,8 +16,14 @@
 package com.android.tools.idea.rendering;
 
 import com.android.ide.common.rendering.api.ViewInfo;
+import com.google.common.util.concurrent.ListenableFuture;
 import junit.framework.TestCase;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 public class RenderServiceTest extends TestCase {
   public void testGetSafeBounds() {
     ViewInfo valid;
@@ -58,4 +64,30 @@ public class RenderServiceTest extends TestCase {
     invalid = new ViewInfo("", "", 0, 0, 0, +(1 << 27));
     assertNotSame(invalid, RenderService.getSafeBounds(invalid));
   }
-}
\ No newline at end of file
+
+  public void testAsyncRenderActionTimesOut() throws Exception {
+    Object owner = new Object();
+    CountDownLatch hung = new CountDownLatch(1);
+    long timeout = RenderService.setRenderThreadTimeout(100);
+    try {
+      ListenableFuture<Void> future = RenderService.runAsyncRenderAction(owner, RenderService.Priority.FOREGROUND, false, () -> {
+        // Stands in for a custom view stuck in an infinite loop
+        hung.await();
+        return null;
+      });
+      try {
+        future.get(10, TimeUnit.SECONDS);
+        fail("The render action should have timed out");
+      }
+      catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof TimeoutException);
+        assertTrue(e.getCause().getMessage().startsWith("Preview timed out while rendering the layout."));
+      }
+    }
+    finally {
+      hung.countDown();
+      RenderService.setRenderThreadTimeout(timeout);
+      RenderService.releaseRenderActions(owner);
+    }
+  }
+}
@@ -15,11 +15,25 @@
  */
 package com.android.tools.idea.rendering;
 
+import com.android.ide.common.rendering.api.Result;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.diagnostics.crash.CrashReport;
 import com.android.tools.idea.diagnostics.crash.CrashReporter;
+import com.google.common.collect.Lists;
+import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
 
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.android.SdkConstants.ANDROID_URI;
 import static org.mockito.Mockito.*;
 
 public class RenderTaskTest extends RenderTestBase {
@@ -38,5 +52,141 @@ public class RenderTaskTest extends RenderTestBase {
     verify(mockCrashReporter, times(1)).submit(isNotNull(CrashReport.class));
   }
 
+  public void testRenderAsync() throws Exception {
+    VirtualFile layoutFile = myFixture.copyFileToProject("xmlpull/simple.xml", "res/layout/foo.xml");
+    Configuration configuration = getConfiguration(layoutFile, DEFAULT_DEVICE_ID);
+    RenderTask task = createRenderTask(layoutFile, configuration);
+    try {
+      // The first render inflates the layout, the next ones reuse the session
+      RenderResult first = task.renderAsync().get(1, TimeUnit.MINUTES);
+      checkResult(first);
+      assertTrue(first.hasImage());
+      checkResult(task.renderAsync().get(1, TimeUnit.MINUTES));
+
+      CountDownLatch listenerCalled = new CountDownLatch(1);
+      task.renderAsync().addListener(listenerCalled::countDown, Runnable::run);
+      assertTrue(listenerCalled.await(1, TimeUnit.MINUTES));
+    }
+    finally {
+      task.dispose();
+    }
+  }
+
+  /**
+   * Renders one layout in 12 configurations concurrently, first on a single render thread and then on a pool of render threads, and
+   * checks that the pool renders every configuration like the single render thread does
+   */
+  public void testRenderMultipleConfigurations() throws Exception {
+    VirtualFile layoutFile = myFixture.copyFileToProject("xmlpull/layout.xml", "res/layout/foo.xml");
+    Configuration base = getConfiguration(layoutFile, DEFAULT_DEVICE_ID);
+    List<Configuration> configurations = Lists.newArrayList();
+    for (String theme : new String[]{"@android:style/Theme.Holo", "@android:style/Theme.Holo.Light", "@android:style/Theme.Material"}) {
+      for (String locale : new String[]{"en", "fr"}) {
+        for (String state : new String[]{"Portrait", "Landscape"}) {
+          Configuration configuration = Configuration.copy(base);
+          configuration.setTheme(theme);
+          configuration.setLocale(Locale.create(locale));
+          configuration.setDeviceStateName(state);
+          configurations.add(configuration);
+        }
+      }
+    }
+    assertEquals(12, configurations.size());
+
+    try {
+      RenderService.setRenderThreadCount(1);
+      List<Dimension> serial = renderAll(layoutFile, configurations);
+      RenderService.setRenderThreadCount(4);
+      assertEquals(serial, renderAll(layoutFile, configurations));
+    }
+    finally {
+      RenderService.setRenderThreadCount(1);
+    }
+  }
+
+  /**
+   * Edits an attribute of a layout with 500 views a few times, and checks that inflating the same render task again, as
+   * {@code NlModel} does for attribute-only edits, renders each edit like a new render task does.
+   */
+  public void testReinflate() throws Exception {
+    StringBuilder xml = new StringBuilder();
+    xml.append("<RelativeLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+               "    android:layout_width=\"match_parent\"\n" +
+               "    android:layout_height=\"match_parent\">\n");
+    for (int i = 0; i < 500; i++) {
+      xml.append("  <TextView android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\"")
+        .append(" android:layout_marginLeft=\"").append(i % 50).append("dp\"")
+        .append(" android:layout_marginTop=\"").append(i / 50 * 20).append("dp\"")
+        .append(" android:text=\"Text ").append(i).append("\" />\n");
+    }
+    xml.append("</RelativeLayout>\n");
+    XmlFile psiFile = (XmlFile)myFixture.addFileToProject("res/layout/benchmark.xml", xml.toString());
+    VirtualFile layoutFile = psiFile.getVirtualFile();
+    Configuration configuration = getConfiguration(layoutFile, DEFAULT_DEVICE_ID);
+    XmlTag firstView = psiFile.getRootTag().getSubTags()[0];
+    int edits = 3;
+
+    RenderTask task = createRenderTask(layoutFile, configuration);
+    try {
+      checkResult(task.inflate());
+      for (int i = 0; i < edits; i++) {
+        setText(firstView, "Same task " + i);
+        checkResult(task.inflate());
+        RenderResult reused = task.render();
+        checkResult(reused);
 
+        RenderTask newTask = createRenderTask(layoutFile, configuration);
+        try {
+          checkResult(newTask.inflate());
+          RenderResult fresh = newTask.render();
+          checkResult(fresh);
+          assertEquals(fresh.getRootViews().size(), reused.getRootViews().size());
+          assertEquals(fresh.getRootViews().get(0).getChildren().size(), reused.getRootViews().get(0).getChildren().size());
+        }
+        finally {
+          newTask.dispose();
+        }
+      }
+    }
+    finally {
+      task.dispose();
+    }
+  }
+
+  private void setText(XmlTag tag, String text) {
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> tag.setAttribute("text", ANDROID_URI, text));
+  }
+
+  private static void checkResult(RenderResult result) {
+    assertNotNull(result);
+    assertEquals(Result.Status.SUCCESS, result.getRenderResult().getStatus());
+  }
+
+  /**
+   * Renders the layout in all the given configurations concurrently, and returns the sizes of the rendered images in the same order
+   */
+  private List<Dimension> renderAll(VirtualFile layoutFile, List<Configuration> configurations) throws Exception {
+    List<RenderTask> tasks = Lists.newArrayList();
+    for (Configuration configuration : configurations) {
+      tasks.add(createRenderTask(layoutFile, configuration));
+    }
+    ExecutorService requesters = Executors.newFixedThreadPool(tasks.size());
+    try {
+      List<Future<RenderResult>> results = Lists.newArrayList();
+      for (RenderTask task : tasks) {
+        results.add(requesters.submit(() -> task.render()));
+      }
+      List<Dimension> sizes = Lists.newArrayList();
+      for (Future<RenderResult> result : results) {
+        RenderResult renderResult = result.get();
+        checkResult(renderResult);
+        sizes.add(new Dimension(renderResult.getRenderedImage().getWidth(), renderResult.getRenderedImage().getHeight()));
+      }
+      return sizes;
+    }
+    finally {
+      requesters.shutdown();
+      tasks.forEach(RenderTask::dispose);
+    }
+  }
 }
@@ -51,6 +51,71 @@ public class TagSnapshotTest extends TestCase {
                  synthetic.toString());
   }
 
+  public void testDiff() {
+    TagSnapshot before = TagSnapshot.createTagSnapshot(createLayout("wrap_content", "Button"));
+
+    TagSnapshotDiff diff = TagSnapshotDiff.compare(before, TagSnapshot.createTagSnapshot(createLayout("wrap_content", "Button")));
+    assertEquals(TagSnapshotDiff.Kind.NONE, diff.getKind());
+    assertTrue(diff.getChangedTags().isEmpty());
+
+    TagSnapshot after = TagSnapshot.createTagSnapshot(createLayout("match_parent", "Button"));
+    diff = TagSnapshotDiff.compare(before, after);
+    assertEquals(TagSnapshotDiff.Kind.ATTRIBUTES, diff.getKind());
+    assertEquals(1, diff.getChangedTags().size());
+    assertSame(after.children.get(0), diff.getChangedTags().get(0));
+    assertTrue(diff.hasChangedValueWithPrefix("match"));
+    assertFalse(diff.hasChangedValueWithPrefix("wrap"));
+
+    diff = TagSnapshotDiff.compare(before, TagSnapshot.createTagSnapshot(createLayout("wrap_content", "ImageButton")));
+    assertEquals(TagSnapshotDiff.Kind.STRUCTURE, diff.getKind());
+    diff = TagSnapshotDiff.compare(before, TagSnapshot.createTagSnapshot(setAttributes(createTag("LinearLayout"))));
+    assertEquals(TagSnapshotDiff.Kind.STRUCTURE, diff.getKind());
+    assertEquals(TagSnapshotDiff.Kind.STRUCTURE, TagSnapshotDiff.compare(null, before).getKind());
+  }
+
+  /**
+   * Moves a constraint of one view in a 500-view ConstraintLayout, which must be an attribute-only change of that view
+   */
+  public void testDiffConstraintLayout() {
+    TagSnapshot before = TagSnapshot.createTagSnapshot(createConstraintLayout(500, 42, "parent"));
+    TagSnapshot after = TagSnapshot.createTagSnapshot(createConstraintLayout(500, 42, "@+id/view0"));
+
+    TagSnapshotDiff diff = TagSnapshotDiff.compare(before, after);
+    assertEquals(TagSnapshotDiff.Kind.ATTRIBUTES, diff.getKind());
+    assertEquals(1, diff.getChangedTags().size());
+    assertSame(after.children.get(42), diff.getChangedTags().get(0));
+    // Declares an id, which forces a new render task
+    assertTrue(diff.hasChangedValueWithPrefix(NEW_ID_PREFIX));
+
+    after = TagSnapshot.createTagSnapshot(createConstraintLayout(500, 42, "@id/view0"));
+    diff = TagSnapshotDiff.compare(before, after);
+    assertEquals(TagSnapshotDiff.Kind.ATTRIBUTES, diff.getKind());
+    assertFalse(diff.hasChangedValueWithPrefix(NEW_ID_PREFIX));
+
+    assertEquals(TagSnapshotDiff.Kind.STRUCTURE,
+                 TagSnapshotDiff.compare(before, TagSnapshot.createTagSnapshot(createConstraintLayout(499, 42, "parent"))).getKind());
+  }
+
+  private static XmlTag createConstraintLayout(int viewCount, int editedView, String editedConstraint) {
+    XmlTag[] views = new XmlTag[viewCount];
+    for (int i = 0; i < viewCount; i++) {
+      views[i] = setAttributes(createTag("TextView"), androidAttribute(ATTR_ID, "@+id/view" + i),
+                               androidAttribute(ATTR_LAYOUT_WIDTH, VALUE_WRAP_CONTENT),
+                               androidAttribute(ATTR_LAYOUT_HEIGHT, VALUE_WRAP_CONTENT),
+                               createAttribute(AUTO_URI, APP_PREFIX, "layout_constraintLeft_toLeftOf",
+                                               i == editedView ? editedConstraint : "parent"),
+                               createAttribute(AUTO_URI, APP_PREFIX, "layout_constraintTop_toTopOf", "parent"));
+    }
+    return setAttributes(createTag(CONSTRAINT_LAYOUT, views), androidAttribute(ATTR_LAYOUT_WIDTH, VALUE_MATCH_PARENT));
+  }
+
+  private static XmlTag createLayout(String buttonWidth, String buttonTag) {
+    XmlTag button = setAttributes(createTag(buttonTag), androidAttribute(ATTR_LAYOUT_WIDTH, buttonWidth),
+                                  androidAttribute(ATTR_LAYOUT_HEIGHT, VALUE_WRAP_CONTENT));
+    XmlTag textView = setAttributes(createTag("TextView"), androidAttribute(ATTR_LAYOUT_WIDTH, VALUE_WRAP_CONTENT));
+    return setAttributes(createTag("LinearLayout", button, textView), androidAttribute(ATTR_ORIENTATION, VALUE_VERTICAL));
+  }
+
   private static XmlAttribute androidAttribute(String localName, String value) {
     return createAttribute(ANDROID_URI, PREFIX_ANDROID, localName, value);
   }
@@ -149,6 +149,12 @@ public class ResourceClassGeneratorTest extends AndroidTestCase {
     assertEquals(clz.getField("menu_wallpaper").get(null), appResources.getResourceId(ResourceType.STRING, "menu_wallpaper"));
     assertEquals(clz.getField("show_all_apps").get(null), appResources.getResourceId(ResourceType.STRING, "show_all_apps"));
 
+    // Unchanged classes are not regenerated, neither by this generator nor by a new generator for the same resources
+    byte[] stringClass = generator.generate("my.test.pkg.R$string");
+    assertNotNull(stringClass);
+    assertSame(stringClass, generator.generate("my.test.pkg.R$string"));
+    assertSame(stringClass, ResourceClassGenerator.create(appResources).generate("my.test.pkg.R$string"));
+
     // Test attr class!
     name = "my.test.pkg.R$attr";
     clz = generateClass(generator, name);
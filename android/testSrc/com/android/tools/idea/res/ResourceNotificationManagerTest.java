@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.res;
 
+import com.android.resources.ResourceFolderType;
 import com.android.resources.ResourceType;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.res.ResourceNotificationManager.Reason;
@@ -38,6 +39,7 @@ import org.jetbrains.annotations.Nullable;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ResourceNotificationManagerTest extends AndroidTestCase {
   public void test() {
@@ -180,6 +182,8 @@ public class ResourceNotificationManagerTest extends AndroidTestCase {
     assertEquals("Hello", configuration1.getResourceResolver().findResValue("@string/hello_world", false).getValue());
     addText(values1, "Hello^</string>", " World");
     ensureCalled(called1, calledValue1, called2, calledValue2, Reason.RESOURCE_EDIT);
+    assertTrue(manager.getEventCount() >= manager.getBatchCount());
+    assertTrue(manager.getListenerNotificationCount() > 0);
 
     // Check that recreating AppResourceRepository object doesn't affect the ResourceNotificationManager
     clear(called1, calledValue1, called2, calledValue2);
@@ -200,6 +204,93 @@ public class ResourceNotificationManagerTest extends AndroidTestCase {
     // TODO: Test that remove and replace editing also works as expected
   }
 
+  public void testBackgroundEventsCoalesced() throws Exception {
+    XmlFile layout = (XmlFile)myFixture.addFileToProject("res/layout/my_layout.xml",
+                                                        "<FrameLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                                                        "    android:layout_width=\"match_parent\" />");
+    myFixture.addFileToProject("res/values/colors.xml", "<resources>\n</resources>");
+    @SuppressWarnings("ConstantConditions")
+    VirtualFile resourceDir = layout.getParent().getParent().getVirtualFile();
+    Configuration configuration = myFacet.getConfigurationManager().getConfiguration(layout.getVirtualFile());
+    ResourceNotificationManager manager = ResourceNotificationManager.getInstance(getProject());
+
+    AtomicInteger calls = new AtomicInteger();
+    Set<Reason> reasons = EnumSet.noneOf(Reason.class);
+    ResourceChangeListener listener = new ResourceChangeListener() {
+      @Override
+      public void resourcesChanged(@NotNull Set<Reason> reason) {
+        calls.incrementAndGet();
+        reasons.addAll(reason);
+      }
+    };
+    manager.addListener(listener, myFacet, layout, configuration);
+    manager.setBackgroundDelay(300);
+    try {
+      long batches = manager.getBatchCount();
+      AndroidResourceUtil.createValueResource(getProject(), resourceDir, "color1", ResourceType.COLOR, "colors.xml",
+                                              Collections.singletonList("values"), "#ff0000");
+      AndroidResourceUtil.createValueResource(getProject(), resourceDir, "color2", ResourceType.COLOR, "colors.xml",
+                                              Collections.singletonList("values"), "#00ff00");
+      AndroidResourceUtil.createValueResource(getProject(), resourceDir, "color3", ResourceType.COLOR, "colors.xml",
+                                              Collections.singletonList("values"), "#0000ff");
+
+      // Background events are held back while the delay hasn't elapsed
+      UIUtil.dispatchAllInvocationEvents();
+      assertEquals(0, calls.get());
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (calls.get() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(20);
+        UIUtil.dispatchAllInvocationEvents();
+      }
+      UIUtil.dispatchAllInvocationEvents();
+
+      // All the edits are delivered as one batch
+      assertEquals(1, calls.get());
+      assertEquals(batches + 1, manager.getBatchCount());
+      assertEquals(EnumSet.of(Reason.RESOURCE_EDIT), reasons);
+
+      // Edits of the observed file are foreground events, and are not delayed
+      calls.set(0);
+      reasons.clear();
+      addText(layout, "match_parent^", "2");
+      UIUtil.dispatchAllInvocationEvents();
+      assertEquals(1, calls.get());
+      assertEquals(EnumSet.of(Reason.EDIT), reasons);
+    }
+    finally {
+      manager.setBackgroundDelay(0);
+      manager.removeListener(listener, myFacet, layout, configuration);
+    }
+  }
+
+  public void testChangeSet() {
+    XmlFile layout = (XmlFile)myFixture.addFileToProject("res/layout/my_layout.xml", "<FrameLayout/>");
+    XmlFile values = (XmlFile)myFixture.addFileToProject("res/values/my_values.xml", "<resources/>");
+
+    ResourceNotificationManager.ChangeSet changes = new ResourceNotificationManager.ChangeSet();
+    assertTrue(changes.isEmpty());
+
+    changes.add(Reason.RESOURCE_EDIT, layout.getVirtualFile());
+    assertTrue(changes.isOnly(Reason.RESOURCE_EDIT));
+    assertTrue(changes.isFileSetComplete());
+    assertEquals(EnumSet.of(ResourceFolderType.LAYOUT), changes.getFolderTypes());
+
+    changes.add(Reason.RESOURCE_EDIT, values.getVirtualFile());
+    changes.add(Reason.CONFIGURATION_CHANGED, null);
+    assertFalse(changes.isOnly(Reason.RESOURCE_EDIT));
+    assertTrue(changes.isFileSetComplete());
+    assertEquals(EnumSet.of(ResourceFolderType.LAYOUT, ResourceFolderType.VALUES), changes.getFolderTypes());
+    assertEquals(2, changes.getFiles().size());
+    assertEquals(EnumSet.of(Reason.RESOURCE_EDIT, Reason.CONFIGURATION_CHANGED), changes.getReasons());
+
+    changes.add(Reason.EDIT, null);
+    assertFalse(changes.isFileSetComplete());
+
+    assertEquals(ResourceNotificationManager.Lane.FOREGROUND, Reason.EDIT.getLane());
+    assertEquals(ResourceNotificationManager.Lane.BACKGROUND, Reason.RESOURCE_EDIT.getLane());
+  }
+
   private static void ensureCalled(final Ref<Boolean> called1,
                                    final Ref<Set<Reason>> calledValue1,
                                    final Ref<Boolean> called2,
@@ -20,11 +20,15 @@ import com.android.resources.ResourceType;
 import com.android.tools.idea.startup.ExternalAnnotationsSupport;
 import com.google.common.collect.Lists;
 import com.intellij.codeInspection.InspectionProfileEntry;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.projectRoots.Sdk;
 import com.intellij.openapi.projectRoots.SdkModificator;
 import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.encoding.EncodingProjectManager;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
 import com.intellij.util.ArrayUtil;
 import com.siyeh.ig.LightInspectionTestCase;
 import org.intellij.lang.annotations.Language;
@@ -276,6 +280,44 @@ public class ResourceTypeInspectionTest extends LightInspectionTestCase {
             "}");
   }
 
+  /**
+   * Test that edits of an @IntDef value list are picked up, even though the constraints of annotated elements are cached.
+   */
+  public void testIntDefEdited() {
+    myFixture.addFileToProject("Values.java",
+                               "public class Values {\n" +
+                               "    public static final int VALUE_A = 0;\n" +
+                               "    public static final int VALUE_B = 1;\n" +
+                               "    public static final int VALUE_C = 2;\n" +
+                               "}\n");
+    PsiFile typedef = myFixture.addFileToProject("MyIntDef.java",
+                                                 "import android.support.annotation.IntDef;\n" +
+                                                 "\n" +
+                                                 "@IntDef({Values.VALUE_A, Values.VALUE_B})\n" +
+                                                 "public @interface MyIntDef {}\n");
+    doCheck("public class X {\n" +
+            "    public void testCall() {\n" +
+            "        restricted(Values.VALUE_A); // OK\n" +
+            "        restricted(/*Must be one of: Values.VALUE_A, Values.VALUE_B*/Values.VALUE_C/**/); // ERROR\n" +
+            "    }\n" +
+            "\n" +
+            "    private void restricted(@MyIntDef int test) {}\n" +
+            "}");
+
+    PsiDocumentManager documentManager = PsiDocumentManager.getInstance(getProject());
+    Document document = documentManager.getDocument(typedef);
+    assertNotNull(document);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      String values = "Values.VALUE_B";
+      int offset = document.getText().indexOf(values) + values.length();
+      document.insertString(offset, ", Values.VALUE_C");
+      documentManager.commitDocument(document);
+    });
+
+    // VALUE_C is allowed now
+    myFixture.checkHighlighting();
+  }
+
   public void testFlow() {
     doCheck("import android.content.res.Resources;\n" +
             "import android.support.annotation.DrawableRes;\n" +
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.tools.idea.lint.AndroidLintHardcodedTextInspection;
+import com.android.tools.idea.lint.AndroidLintSetTextI18nInspection;
+import com.android.tools.idea.lint.AndroidLintStringFormatCountInspection;
+import com.android.tools.lint.detector.api.Implementation;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.intellij.codeHighlighting.HighlightDisplayLevel;
+import com.intellij.codeInspection.ex.InspectionProfileImpl;
+import com.intellij.codeInspection.ex.InspectionToolWrapper;
+import com.intellij.profile.codeInspection.InspectionProfileManager;
+import com.intellij.profile.codeInspection.InspectionProjectProfileManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.scope.packageSet.FilePatternPackageSet;
+import com.intellij.psi.search.scope.packageSet.NamedScope;
+import org.jetbrains.android.AndroidTestCase;
+
+import java.util.List;
+
+public class AndroidLintIssueIndexTest extends AndroidTestCase {
+  public void testProfileChanges() throws Exception {
+    AndroidLintSetTextI18nInspection javaInspection = new AndroidLintSetTextI18nInspection();
+    AndroidLintHardcodedTextInspection xmlInspection = new AndroidLintHardcodedTextInspection();
+    myFixture.enableInspections(javaInspection, xmlInspection);
+    AndroidLintInspectionBase.invalidateInspectionShortName2IssueMap();
+    Issue javaIssue = javaInspection.getIssue();
+    Issue xmlIssue = xmlInspection.getIssue();
+
+    PsiFile javaFile = myFixture.addFileToProject("src/p1/p2/MyActivity.java",
+                                                  "package p1.p2;\n" +
+                                                  "\n" +
+                                                  "public class MyActivity {\n" +
+                                                  "}\n");
+    PsiFile xmlFile = myFixture.addFileToProject("res/layout/layout.xml",
+                                                 "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                                                 "    android:layout_width=\"match_parent\"\n" +
+                                                 "    android:layout_height=\"match_parent\" />\n");
+
+    List<Issue> javaIssues = AndroidLintExternalAnnotator.getIssuesFromInspections(getProject(), javaFile, Scope.JAVA_FILE_SCOPE);
+    List<Issue> xmlIssues = AndroidLintExternalAnnotator.getIssuesFromInspections(getProject(), xmlFile, Scope.RESOURCE_FILE_SCOPE);
+    assertTrue(javaIssues.contains(javaIssue));
+    assertFalse(javaIssues.contains(xmlIssue));
+    assertTrue(xmlIssues.contains(xmlIssue));
+    assertFalse(xmlIssues.contains(javaIssue));
+
+    // Turn the Java inspection off and on again
+    InspectionProfileImpl profile = (InspectionProfileImpl)InspectionProjectProfileManager.getInstance(getProject()).getCurrentProfile();
+    String javaShortName = javaInspection.getShortName();
+    profile.disableTool(javaShortName, getProject());
+    InspectionProfileManager.getInstance().fireProfileChanged(profile);
+    assertFalse(AndroidLintExternalAnnotator.getIssuesFromInspections(getProject(), javaFile, Scope.JAVA_FILE_SCOPE).contains(javaIssue));
+
+    profile.enableTool(javaShortName, getProject());
+    InspectionProfileManager.getInstance().fireProfileChanged(profile);
+    assertTrue(AndroidLintExternalAnnotator.getIssuesFromInspections(getProject(), javaFile, Scope.JAVA_FILE_SCOPE).contains(javaIssue));
+
+    // Turn the XML inspection off for XML files only; it is then checked per file
+    InspectionToolWrapper xmlTool = profile.getInspectionTool(xmlInspection.getShortName(), getProject());
+    assertNotNull(xmlTool);
+    NamedScope xmlScope = new NamedScope("XML files", new FilePatternPackageSet(null, "*.xml"));
+    profile.addScope(xmlTool, xmlScope, HighlightDisplayLevel.WARNING, false, getProject());
+    InspectionProfileManager.getInstance().fireProfileChanged(profile);
+
+    assertFalse(AndroidLintExternalAnnotator.getIssuesFromInspections(getProject(), xmlFile, Scope.RESOURCE_FILE_SCOPE).contains(xmlIssue));
+    assertTrue(AndroidLintExternalAnnotator.getIssuesFromInspections(getProject(), javaFile, Scope.JAVA_FILE_SCOPE).contains(javaIssue));
+    // The inspection is still enabled in other files
+    assertTrue(AndroidLintExternalAnnotator.getIssuesFromInspections(getProject(), null, null).contains(xmlIssue));
+  }
+
+  public void testIssueWithNarrowerAnalysisScope() throws Exception {
+    AndroidLintStringFormatCountInspection inspection = new AndroidLintStringFormatCountInspection();
+    myFixture.enableInspections(inspection);
+    AndroidLintInspectionBase.invalidateInspectionShortName2IssueMap();
+    Issue issue = inspection.getIssue();
+    // The issue needs all resource files and Java files for a full check, but can also analyze a single resource file
+    Implementation implementation = issue.getImplementation();
+    assertFalse(implementation.getScope().contains(Scope.RESOURCE_FILE));
+    assertTrue(implementation.isAdequate(Scope.RESOURCE_FILE_SCOPE));
+
+    PsiFile xmlFile = myFixture.addFileToProject("res/values/strings.xml",
+                                                 "<resources>\n" +
+                                                 "    <string name=\"hello\">Hello %1$s</string>\n" +
+                                                 "</resources>\n");
+    assertTrue(AndroidLintExternalAnnotator.getIssuesFromInspections(getProject(), xmlFile, Scope.RESOURCE_FILE_SCOPE).contains(issue));
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.tools.lint.checks.HardcodedValuesDetector;
+import com.android.tools.lint.checks.UnusedResourceDetector;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
+import com.intellij.testFramework.fixtures.TestFixtureBuilder;
+import com.intellij.util.PathUtil;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.android.inspections.lint.AndroidLintResultCache.CachedProblem;
+import org.jetbrains.android.inspections.lint.AndroidLintResultCache.Entry;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.android.builder.model.AndroidProject.PROJECT_TYPE_LIBRARY;
+
+public class AndroidLintResultCacheTest extends AndroidTestCase {
+  private static final String HARDCODED_LAYOUT = "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                                                 "    android:layout_width=\"match_parent\"\n" +
+                                                 "    android:layout_height=\"match_parent\">\n" +
+                                                 "    <Button\n" +
+                                                 "        android:layout_width=\"wrap_content\"\n" +
+                                                 "        android:layout_height=\"wrap_content\"\n" +
+                                                 "        android:text=\"%1$s\" />\n" +
+                                                 "</LinearLayout>\n";
+  private static final List<Issue> ISSUES = ImmutableList.of(HardcodedValuesDetector.ISSUE);
+
+  private File myDir;
+
+  @Override
+  protected void configureAdditionalModules(@NotNull TestFixtureBuilder<IdeaProjectTestFixture> projectBuilder,
+                                            @NotNull List<MyAdditionalModuleData> modules) {
+    addModuleWithAndroidFacet(projectBuilder, modules, "lib", PROJECT_TYPE_LIBRARY);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("lint_result_cache", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testIsCacheable() {
+    assertTrue(AndroidLintResultCache.isCacheable(HardcodedValuesDetector.ISSUE));
+    assertFalse(AndroidLintResultCache.isCacheable(UnusedResourceDetector.ISSUE));
+  }
+
+  public void testReadWrite() {
+    Entry layout = new Entry("/project/app/src/main/res/layout/main.xml", 1234L, 567L, 42L, -7L);
+    layout.myProblems.add(new CachedProblem(HardcodedValuesDetector.ISSUE.getId(), "Hardcoded string \"Hello\"", 10, 20, null));
+    layout.myProblems.add(new CachedProblem(HardcodedValuesDetector.ISSUE.getId(), "Hardcoded string \"World\"", 30, 40, Severity.ERROR));
+    Entry clean = new Entry("/project/app/src/main/java/Main.java", -1L, 0L, 1L, 2L);
+    Map<String, Entry> entries = new HashMap<>();
+    entries.put(layout.myPath, layout);
+    entries.put(clean.myPath, clean);
+
+    File file = new File(myDir, "project/results.dat");
+    AndroidLintResultCache.write(file, entries);
+    Map<String, Entry> read = AndroidLintResultCache.read(file);
+
+    assertEquals(2, read.size());
+    Entry readLayout = read.get(layout.myPath);
+    assertEquals(1234L, readLayout.myTimeStamp);
+    assertEquals(567L, readLayout.myLength);
+    assertEquals(42L, readLayout.myContentHash);
+    assertEquals(-7L, readLayout.myDependencyHash);
+    assertEquals(2, readLayout.myProblems.size());
+    CachedProblem second = readLayout.myProblems.get(1);
+    assertEquals(HardcodedValuesDetector.ISSUE.getId(), second.myIssueId);
+    assertEquals("Hardcoded string \"World\"", second.myMessage);
+    assertEquals(30, second.myStart);
+    assertEquals(40, second.myEnd);
+    assertEquals(Severity.ERROR, second.mySeverity);
+    assertNull(readLayout.myProblems.get(0).mySeverity);
+    assertTrue(read.get(clean.myPath).myProblems.isEmpty());
+  }
+
+  public void testReadOtherVersion() throws Exception {
+    File file = new File(myDir, "results.dat");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      out.writeInt(AndroidLintResultCache.CACHE_VERSION + 1);
+      out.writeInt(0);
+    }
+    assertTrue(AndroidLintResultCache.read(file).isEmpty());
+  }
+
+  public void testReadCorrupt() throws Exception {
+    File file = new File(myDir, "results.dat");
+    FileUtil.writeToFile(file, new byte[]{0, 0, 0, (byte)AndroidLintResultCache.CACHE_VERSION, 0, 0, 0, 5, 1});
+    assertTrue(AndroidLintResultCache.read(file).isEmpty());
+    assertTrue(AndroidLintResultCache.read(new File(myDir, "missing.dat")).isEmpty());
+  }
+
+  public void testAddMissing() {
+    ProblemData replayed = new ProblemData(HardcodedValuesDetector.ISSUE, "Hardcoded string \"Hello\"", new TextRange(10, 20), null);
+    List<ProblemData> problems = new ArrayList<>();
+    problems.add(replayed);
+
+    ProblemData same = new ProblemData(HardcodedValuesDetector.ISSUE, "Hardcoded string \"Hello\"", new TextRange(10, 20), null);
+    ProblemData other = new ProblemData(HardcodedValuesDetector.ISSUE, "Hardcoded string \"World\"", new TextRange(30, 40), null);
+    AndroidLintResultCache.addMissing(problems, Arrays.asList(same, other));
+
+    assertEquals(2, problems.size());
+    assertSame(replayed, problems.get(0));
+    assertSame(other, problems.get(1));
+  }
+
+  public void testReplayUnchangedFiles() {
+    myFixture.addFileToProject("res/layout/app.xml", String.format(HARDCODED_LAYOUT, "Hello"));
+    RecordingCache cache = new RecordingCache();
+
+    List<String> problems = describe(cache.analyze(Collections.singletonList(myModule), ISSUES));
+    assertTrue(problems.toString(), problems.stream().anyMatch(problem -> problem.startsWith("app.xml")));
+    assertTrue(cache.myCheckedFiles.contains("app.xml"));
+
+    // Nothing changed: every file is replayed from the cache, with the same problems
+    cache = new RecordingCache();
+    assertEquals(problems, describe(cache.analyze(Collections.singletonList(myModule), ISSUES)));
+    assertEmpty(cache.myCheckedFiles);
+  }
+
+  public void testFileEditInvalidates() {
+    VirtualFile layout = myFixture.addFileToProject("res/layout/app.xml", String.format(HARDCODED_LAYOUT, "Hello")).getVirtualFile();
+    new RecordingCache().analyze(Collections.singletonList(myModule), ISSUES);
+
+    myFixture.saveText(layout, String.format(HARDCODED_LAYOUT, "Hello again"));
+    RecordingCache cache = new RecordingCache();
+    List<String> problems = describe(cache.analyze(Collections.singletonList(myModule), ISSUES));
+    // The edited file is checked again, and its problem has the new text
+    assertTrue(cache.myCheckedFiles.toString(), cache.myCheckedFiles.contains("app.xml"));
+    assertTrue(problems.toString(),
+               problems.stream().anyMatch(problem -> problem.startsWith("app.xml") && problem.contains("Hello again")));
+  }
+
+  public void testDependencyEditInvalidates() {
+    myFixture.addFileToProject("res/layout/app.xml", String.format(HARDCODED_LAYOUT, "Hello"));
+    VirtualFile libLayout =
+      myFixture.addFileToProject("additionalModules/lib/res/layout/lib.xml", String.format(HARDCODED_LAYOUT, "Lib")).getVirtualFile();
+    new RecordingCache().analyze(Collections.singletonList(myModule), ISSUES);
+
+    // The app module depends on the library, so editing a library resource invalidates the resource files of both
+    myFixture.saveText(libLayout, String.format(HARDCODED_LAYOUT, "Lib edited"));
+    RecordingCache cache = new RecordingCache();
+    cache.analyze(Collections.singletonList(myModule), ISSUES);
+    assertTrue(cache.myCheckedFiles.toString(), cache.myCheckedFiles.contains("lib.xml"));
+    assertTrue(cache.myCheckedFiles.toString(), cache.myCheckedFiles.contains("app.xml"));
+  }
+
+  public void testFailedShardNotCached() {
+    VirtualFile layout = myFixture.addFileToProject("res/layout/app.xml", String.format(HARDCODED_LAYOUT, "Hello")).getVirtualFile();
+    new RecordingCache().analyze(Collections.singletonList(myModule), ISSUES);
+    Entry previous = AndroidLintResultCache.read(getCacheFile()).get(getCachePath(layout));
+    assertNotNull(previous);
+
+    myFixture.saveText(layout, String.format(HARDCODED_LAYOUT, "Hello again"));
+    RecordingCache failing = new RecordingCache();
+    failing.myFail = true;
+    try {
+      failing.analyze(Collections.singletonList(myModule), ISSUES);
+      fail("The failure of the shard should have been rethrown");
+    }
+    catch (RuntimeException expected) {
+    }
+    // The cache still has the results of the previous run, not an empty problem list for the edited file
+    Entry entry = AndroidLintResultCache.read(getCacheFile()).get(getCachePath(layout));
+    assertNotNull(entry);
+    assertEquals(previous.myContentHash, entry.myContentHash);
+    assertEquals(previous.myProblems.size(), entry.myProblems.size());
+
+    // So the next run checks the file again
+    RecordingCache cache = new RecordingCache();
+    List<String> problems = describe(cache.analyze(Collections.singletonList(myModule), ISSUES));
+    assertTrue(cache.myCheckedFiles.toString(), cache.myCheckedFiles.contains("app.xml"));
+    assertTrue(problems.toString(),
+               problems.stream().anyMatch(problem -> problem.startsWith("app.xml") && problem.contains("Hello again")));
+  }
+
+  @NotNull
+  private File getCacheFile() {
+    return new File(myDir, "results.dat");
+  }
+
+  @NotNull
+  private static String getCachePath(@NotNull VirtualFile file) {
+    return PathUtil.getCanonicalPath(VfsUtilCore.virtualToIoFile(file).getPath());
+  }
+
+  /** Problems described by file name, issue and message, in a stable order */
+  @NotNull
+  private static List<String> describe(@NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap) {
+    List<String> problems = Lists.newArrayList();
+    for (Map.Entry<Issue, Map<File, List<ProblemData>>> entry : problemMap.entrySet()) {
+      for (Map.Entry<File, List<ProblemData>> fileEntry : entry.getValue().entrySet()) {
+        for (ProblemData problem : fileEntry.getValue()) {
+          problems.add(fileEntry.getKey().getName() + " " + entry.getKey().getId() + " " + problem.getTextRange() + ": " +
+                       problem.getMessage());
+        }
+      }
+    }
+    Collections.sort(problems);
+    return problems;
+  }
+
+  /** A cache in the test directory which records the names of the files it checks, and can fail to check them */
+  private class RecordingCache extends AndroidLintResultCache {
+    private final Set<String> myCheckedFiles = new TreeSet<>();
+    private boolean myFail;
+
+    private RecordingCache() {
+      super(getProject(), new AnalysisScope(getProject()), null, getCacheFile());
+    }
+
+    @NotNull
+    @Override
+    Map<Issue, Map<File, List<ProblemData>>> analyzeFiles(@NotNull Map<Module, List<VirtualFile>> moduleFiles,
+                                                          @NotNull List<Issue> issues) {
+      for (List<VirtualFile> files : moduleFiles.values()) {
+        for (VirtualFile file : files) {
+          myCheckedFiles.add(file.getName());
+        }
+      }
+      if (myFail) {
+        throw new RuntimeException("Lint analysis of module " + myModule.getName() + " failed");
+      }
+      return super.analyzeFiles(moduleFiles, issues);
+    }
+  }
+}
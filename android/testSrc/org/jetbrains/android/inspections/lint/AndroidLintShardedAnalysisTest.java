@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.android.inspections.lint;
+
+import com.android.tools.idea.lint.LintIdeClient;
+import com.android.tools.idea.lint.LintIdeIssueRegistry;
+import com.android.tools.idea.lint.LintIdeRequest;
+import com.android.tools.lint.checks.HardcodedValuesDetector;
+import com.android.tools.lint.checks.UnusedResourceDetector;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.detector.api.Issue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
+import com.intellij.testFramework.fixtures.TestFixtureBuilder;
+import org.jetbrains.android.AndroidTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.android.builder.model.AndroidProject.PROJECT_TYPE_LIBRARY;
+
+public class AndroidLintShardedAnalysisTest extends AndroidTestCase {
+  private static final String HARDCODED_LAYOUT = "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                                                 "    android:layout_width=\"match_parent\"\n" +
+                                                 "    android:layout_height=\"match_parent\">\n" +
+                                                 "    <Button\n" +
+                                                 "        android:layout_width=\"wrap_content\"\n" +
+                                                 "        android:layout_height=\"wrap_content\"\n" +
+                                                 "        android:text=\"%1$s\" />\n" +
+                                                 "</LinearLayout>\n";
+
+  @Override
+  protected void configureAdditionalModules(@NotNull TestFixtureBuilder<IdeaProjectTestFixture> projectBuilder,
+                                            @NotNull List<MyAdditionalModuleData> modules) {
+    addModuleWithAndroidFacet(projectBuilder, modules, "lib", PROJECT_TYPE_LIBRARY);
+  }
+
+  public void testIsFileLocal() {
+    assertTrue(AndroidLintShardedAnalysis.isFileLocal(HardcodedValuesDetector.ISSUE));
+    // Unused resources can only be found by looking at all the modules
+    assertFalse(AndroidLintShardedAnalysis.isFileLocal(UnusedResourceDetector.ISSUE));
+  }
+
+  public void testMergeIsDeterministic() {
+    Issue issue = HardcodedValuesDetector.ISSUE;
+    File file = new File("layout.xml");
+    ProblemData first = new ProblemData(issue, "first", new TextRange(10, 20), null);
+    ProblemData second = new ProblemData(issue, "second", new TextRange(30, 40), null);
+    ProblemData other = new ProblemData(issue, "other", new TextRange(0, 5), null);
+    Map<Issue, Map<File, List<ProblemData>>> shard1 = ImmutableMap.of(issue, ImmutableMap.of(file, ImmutableList.of(second)));
+    Map<Issue, Map<File, List<ProblemData>>> shard2 = ImmutableMap.of(issue, ImmutableMap.of(file, ImmutableList.of(first, other)));
+
+    List<ProblemData> merged = AndroidLintShardedAnalysis.merge(ImmutableList.of(shard1, shard2)).get(issue).get(file);
+    assertEquals(ImmutableList.of(other, first, second), merged);
+    assertEquals(merged, AndroidLintShardedAnalysis.merge(ImmutableList.of(shard2, shard1)).get(issue).get(file));
+  }
+
+  public void testSameProblemsAsSerialRun() {
+    myFixture.addFileToProject("res/layout/app.xml", String.format(HARDCODED_LAYOUT, "App"));
+    myFixture.addFileToProject("additionalModules/lib/res/layout/lib.xml", String.format(HARDCODED_LAYOUT, "Lib"));
+    List<Module> modules = Lists.newArrayList(myModule);
+    modules.addAll(myAdditionalModules);
+    List<Issue> issues = ImmutableList.of(HardcodedValuesDetector.ISSUE, UnusedResourceDetector.ISSUE);
+    AnalysisScope scope = new AnalysisScope(getProject());
+
+    Map<Issue, Map<File, List<ProblemData>>> serial = Maps.newHashMap();
+    LintIdeClient client = LintIdeClient.forBatch(getProject(), serial, scope, issues);
+    new LintDriver(LintIdeIssueRegistry.get(), client).analyze(new LintIdeRequest(client, getProject(), null, modules, false));
+    Map<Issue, Map<File, List<ProblemData>>> sharded = new AndroidLintShardedAnalysis(getProject(), scope, null).analyze(modules, issues);
+
+    List<String> serialProblems = describe(serial);
+    assertTrue(serialProblems.toString(), serialProblems.stream().anyMatch(problem -> problem.contains("app.xml")));
+    assertTrue(serialProblems.toString(), serialProblems.stream().anyMatch(problem -> problem.contains("lib.xml")));
+    // Dependencies are part of the projects of their dependents, but only report their problems once, from their own shard
+    assertEquals(serialProblems, describe(sharded));
+  }
+
+  @NotNull
+  private static List<String> describe(@NotNull Map<Issue, Map<File, List<ProblemData>>> problemMap) {
+    List<String> problems = Lists.newArrayList();
+    for (Map.Entry<Issue, Map<File, List<ProblemData>>> entry : problemMap.entrySet()) {
+      for (Map.Entry<File, List<ProblemData>> fileEntry : entry.getValue().entrySet()) {
+        for (ProblemData problem : fileEntry.getValue()) {
+          problems.add(entry.getKey().getId() + " " + fileEntry.getKey().getPath() + " " + problem.getTextRange() + ": " +
+                       problem.getMessage());
+        }
+      }
+    }
+    Collections.sort(problems);
+    return problems;
+  }
+}
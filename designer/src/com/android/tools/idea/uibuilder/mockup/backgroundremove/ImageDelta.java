@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.mockup.backgroundremove;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+
+/**
+ * The pixels of the smallest rectangle containing all the changes between two versions of an image,
+ * used to undo and redo changes without keeping copies of the whole image.
+ */
+final class ImageDelta {
+  /**
+   * Delta of an unchanged image
+   */
+  static final ImageDelta EMPTY = new ImageDelta(new Rectangle(), new int[0], new int[0]);
+
+  @NotNull private final Rectangle myBounds;
+  @NotNull private final int[] myBefore;
+  @NotNull private final int[] myAfter;
+
+  private ImageDelta(@NotNull Rectangle bounds, @NotNull int[] before, @NotNull int[] after) {
+    myBounds = bounds;
+    myBefore = before;
+    myAfter = after;
+  }
+
+  /**
+   * Creates the delta between two versions of an image.
+   *
+   * @param before The pixels of the image before the change, row by row
+   * @param after  The pixels of the image after the change, row by row
+   * @param width  The width of the image
+   * @param height The height of the image
+   * @param hint   Rectangle known to contain all the changed pixels, or null to compare the whole images
+   * @return the delta, or {@link #EMPTY} if the images are the same
+   */
+  @NotNull
+  static ImageDelta create(@NotNull int[] before, @NotNull int[] after, int width, int height, @Nullable Rectangle hint) {
+    Rectangle area = hint != null ? hint.intersection(new Rectangle(width, height)) : new Rectangle(width, height);
+    int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+    for (int y = area.y; y < area.y + area.height; y++) {
+      int row = y * width;
+      int first = -1;
+      int last = -1;
+      for (int x = area.x; x < area.x + area.width; x++) {
+        if (before[row + x] != after[row + x]) {
+          if (first < 0) {
+            first = x;
+          }
+          last = x;
+        }
+      }
+      if (first >= 0) {
+        minX = Math.min(minX, first);
+        maxX = Math.max(maxX, last);
+        minY = Math.min(minY, y);
+        maxY = y;
+      }
+    }
+    if (maxX < 0) {
+      return EMPTY;
+    }
+
+    Rectangle bounds = new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    return new ImageDelta(bounds, copy(before, width, bounds), copy(after, width, bounds));
+  }
+
+  @NotNull
+  private static int[] copy(@NotNull int[] pixels, int width, @NotNull Rectangle bounds) {
+    int[] copy = new int[bounds.width * bounds.height];
+    for (int y = 0; y < bounds.height; y++) {
+      System.arraycopy(pixels, (bounds.y + y) * width + bounds.x, copy, y * bounds.width, bounds.width);
+    }
+    return copy;
+  }
+
+  private static void paste(@NotNull int[] source, @NotNull int[] pixels, int width, @NotNull Rectangle bounds) {
+    for (int y = 0; y < bounds.height; y++) {
+      System.arraycopy(source, y * bounds.width, pixels, (bounds.y + y) * width + bounds.x, bounds.width);
+    }
+  }
+
+  /**
+   * Restores the pixels of the image before the change
+   *
+   * @param pixels The pixels of the image after the change, row by row, modified in place
+   * @param width  The width of the image
+   */
+  void undo(@NotNull int[] pixels, int width) {
+    paste(myBefore, pixels, width, myBounds);
+  }
+
+  /**
+   * Applies the change again
+   *
+   * @param pixels The pixels of the image before the change, row by row, modified in place
+   * @param width  The width of the image
+   */
+  void redo(@NotNull int[] pixels, int width) {
+    paste(myAfter, pixels, width, myBounds);
+  }
+
+  /**
+   * @return The bounds of the changed pixels, empty for {@link #EMPTY}
+   */
+  @NotNull
+  Rectangle getBounds() {
+    return new Rectangle(myBounds);
+  }
+}
@@ -16,11 +16,14 @@
 package com.android.tools.idea.uibuilder.mockup.backgroundremove;
 
 import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
 import java.awt.image.Raster;
 import java.awt.image.RasterFormatException;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * Algorithms to parse the raster and remove the provided color
@@ -39,11 +42,17 @@ public final class RemoveAlgorithms {
    */
   static final int B = 2;
 
+  /**
+   * Minimum number of pixels processed by each parallel task of {@link #whole(int[], int[], int, int, int[], double)}
+   */
+  private static final int MIN_PIXELS_PER_CHUNK = 16384;
+
   /**
    * The color are removed using a flood fill algorithm from the point defined by (ox,oy) .
    * If the point is outside the raster area, nothing happens and an error is logged.
    *
-   * The flood fill algorithm is implemented using the scanline version to improve performances.
+   * The pixels of the rasters are copied in int arrays and processed by
+   * {@link #floodFill(int[], int[], int, int, int, int, int[], double)}.
    *
    * @param src         The source Raster given by {@link CompositeContext#compose(Raster, Raster, WritableRaster)}
    * @param dstIn       The destination Raster given by {@link CompositeContext#compose(Raster, Raster, WritableRaster)}
@@ -57,27 +66,52 @@ public final class RemoveAlgorithms {
   static void floodFill(Raster src, Raster dstIn, WritableRaster dstOut, int ox, int oy, int[] removeColor, double threshold) {
     int height = Math.min(src.getHeight(), dstIn.getHeight());
     int width = Math.min(src.getWidth(), dstIn.getWidth());
-    int[] dstPixels = new int[width];
-    int[] srcDownPixels = new int[width];
-    int[] srcUpPixels = new int[width];
-    int[] srcPixels = new int[width];
-    int[] stack = new int[(width * height)];
-    boolean[] visited = new boolean[width * height];
-    int size = 0;
-    boolean spanUp, spanDown;
+    int[] srcPixels = (int[])src.getDataElements(0, 0, width, height, null);
+    int[] dstPixels = new int[width * height];
+    floodFill(srcPixels, dstPixels, width, height, ox, oy, removeColor, threshold);
+    dstOut.setDataElements(0, 0, width, height, dstPixels);
+  }
 
-    // Check if the origin point is inside the rater
-    if (oy > height || ox > width) {
+  /**
+   * The color are removed using a flood fill algorithm from the point defined by (ox,oy) .
+   * If the point is outside the image area, the source is copied as is and an error is logged.
+   *
+   * The flood fill algorithm is implemented using the scanline version to improve performances.
+   *
+   * @param src         The ARGB pixels of the source image, row by row
+   * @param dst         The array receiving the ARGB pixels of the result. It can be the same array as src.
+   * @param width       The width of the image
+   * @param height      The height of the image
+   * @param ox          X coordinate of the flood-fill origin point
+   * @param oy          Y coordinate of the flood-fill origin point
+   * @param removeColor The color to set transparent in the image
+   * @param threshold   The threshold such as every color whose distance from
+   *                    removeColor <= threshold will be set to transparent
+   * @return the bounds of the pixels set transparent, or null if there is none
+   */
+  @Nullable
+  static Rectangle floodFill(int[] src, int[] dst, int width, int height, int ox, int oy, int[] removeColor, double threshold) {
+    // Copy all src pixel in the output since
+    // the flood fill won't go through all the pixel
+    if (src != dst) {
+      System.arraycopy(src, 0, dst, 0, width * height);
+    }
+
+    // Check if the origin point is inside the image
+    if (ox < 0 || oy < 0 || ox >= width || oy >= height) {
       Logger.getInstance(RemoveColorComposite.class).error(
         new RasterFormatException("The origin point is outside the raster area"));
+      return null;
     }
 
-    // Put the origin point index in the stack
-    stack[size++] = oy * width + ox % width;
+    boolean[] visited = new boolean[width * height];
+    int[] stack = new int[64];
+    int size = 0;
+    boolean spanUp, spanDown;
+    int minX = width, minY = height, maxX = -1, maxY = -1;
 
-    // Copy all src pixel in the output Raster since
-    // the flood fill won't go through all the pixel
-    dstOut.setDataElements(0, 0, src);
+    // Put the origin point index in the stack
+    stack[size++] = oy * width + ox;
 
     // Begin the flood fill
     int nx;
@@ -86,87 +120,94 @@ public final class RemoveAlgorithms {
       int seed = stack[--size];
       int y = seed / width;
       int x = seed % width;
-
-      // Load the current line inside the buffers
-      dstIn.getDataElements(0, y, width, 1, dstPixels);
-      src.getDataElements(0, y, width, 1, srcPixels);
-
-      // load the lines over and below
-      if (y > 0) {
-        src.getDataElements(0, y - 1, width, 1, srcUpPixels);
-      }
-      if (y < height - 1) {
-        src.getDataElements(0, y + 1, width, 1, srcDownPixels);
-      }
+      int row = y * width;
 
       nx = x;
       // "Rewind" to the first pixel of the region
-      while (nx >= 0 && dist(srcPixels[nx], removeColor) <= threshold) nx--;
+      while (nx >= 0 && dist(src[row + nx], removeColor) <= threshold) nx--;
       nx++;
 
       // Reset the span up and down flags
       spanUp = spanDown = false;
 
       // Loop on the whole line until wwe "hit" a different color
-      double dist;
-      while (nx < width && (dist = dist(srcPixels[nx], removeColor)) <= threshold) {
-
-        if (!visited[y * width + nx % width]) {
-          visited[y * width + nx % width] = true;
-          // Set this pixel to be transparent
-          double alpha;
-          if (((dstPixels[nx] >> 24) & 0xFF) == 0xFF
-              && dist > threshold / 2.0) {
-            alpha = 0xFF * (dist / threshold);
-          }
-          else {
-            alpha = 0;
-          }
-          dstPixels[nx] = (srcPixels[nx] & 0x00FFFFFF) |
-                          (Math.round((float)alpha) << 24);
-        }
-        else {
+      int dist;
+      while (nx < width && (dist = dist(src[row + nx], removeColor)) <= threshold) {
+        int index = row + nx;
+        if (visited[index]) {
           // If the pixel is already transparent, skip to the next
           nx++;
           continue;
         }
+        visited[index] = true;
 
-        // Find the distance between the current pixel an the one over it
-        double distUp = dist(srcUpPixels[nx], removeColor);
-        if (!spanUp && y > 0 && distUp <= threshold) {
-          // If the two color are close enough and
-          // If we have not already added a seed for this span
-          // add the seed to the stack and set the flag to stop looking for a seed in this span
-          stack[size++] = (y - 1) * width + nx % width;
-          spanUp = true;
+        // Set this pixel to be transparent. Only the visited pixels are modified,
+        // so the alpha of the source pixel is still the one in dst.
+        int pixel = src[index];
+        double alpha;
+        if (((pixel >> 24) & 0xFF) == 0xFF && dist > threshold / 2.0) {
+          alpha = 0xFF * (dist / threshold);
         }
-        else if (spanUp && y > 0 && distUp > threshold) {
-          // If the two colors are different, reset the flag
-          spanUp = false;
+        else {
+          alpha = 0;
         }
+        dst[index] = (pixel & 0x00FFFFFF) | (Math.round((float)alpha) << 24);
+        minX = Math.min(minX, nx);
+        maxX = Math.max(maxX, nx);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
 
-        // Find the distance between the current pixel an the one below it
-        double distDown = dist(srcDownPixels[nx], removeColor);
-        if (!spanDown && y < height - 1 && distDown <= threshold) {
-          // If the two color are close enough and
-          // If we have not already added a seed for this span
-          // add the seed to the stack and set the flag to stop looking for a seed in this span
-          stack[size++] = (y + 1) * width + nx % width;
-          spanDown = true;
+        if (y > 0) {
+          // Find the distance between the current pixel an the one over it
+          int distUp = dist(src[index - width], removeColor);
+          if (!spanUp && distUp <= threshold) {
+            // If the two color are close enough and
+            // If we have not already added a seed for this span
+            // add the seed to the stack and set the flag to stop looking for a seed in this span
+            stack = push(stack, size++, index - width);
+            spanUp = true;
+          }
+          else if (spanUp && distUp > threshold) {
+            // If the two colors are different, reset the flag
+            spanUp = false;
+          }
         }
-        else if (spanDown && y < height - 1 && distDown > threshold) {
-          // If the two colors are different, reset the flag
-          spanDown = false;
+
+        if (y < height - 1) {
+          // Find the distance between the current pixel an the one below it
+          int distDown = dist(src[index + width], removeColor);
+          if (!spanDown && distDown <= threshold) {
+            // If the two color are close enough and
+            // If we have not already added a seed for this span
+            // add the seed to the stack and set the flag to stop looking for a seed in this span
+            stack = push(stack, size++, index + width);
+            spanDown = true;
+          }
+          else if (spanDown && distDown > threshold) {
+            // If the two colors are different, reset the flag
+            spanDown = false;
+          }
         }
         nx++;
       }
-      dstOut.setDataElements(0, y, width, 1, dstPixels);
     }
+    return maxX < 0 ? null : new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+  }
+
+  private static int[] push(int[] stack, int size, int value) {
+    if (size == stack.length) {
+      stack = Arrays.copyOf(stack, size * 2);
+    }
+    stack[size] = value;
+    return stack;
   }
 
   /**
    * The color are removed in the whole image.
    *
+   * The pixels of the rasters are copied in int arrays and processed by
+   * {@link #whole(int[], int[], int, int, int[], double)}.
+   *
    * @param src         The source Raster given by {@link CompositeContext#compose(Raster, Raster, WritableRaster)}
    * @param dstIn       The destination Raster given by {@link CompositeContext#compose(Raster, Raster, WritableRaster)}
    * @param dstOut      The destination  {@link WritableRaster} given by {@link CompositeContext#compose(Raster, Raster, WritableRaster)}
@@ -176,37 +217,56 @@ public final class RemoveAlgorithms {
    */
   static void whole(Raster src, Raster dstIn, WritableRaster dstOut, int[] removeColor, double threshold) {
     int width = Math.min(src.getWidth(), dstIn.getWidth());
-    int[] dstPixels = new int[width];
-    int[] srcPixels = new int[width];
-    for (int y = 0; y < Math.min(src.getHeight(), dstIn.getHeight()); ++y) {
-
-      // Fill the buffer of the scanline
-      dstIn.getDataElements(0, y, width, 1, dstPixels);
-      src.getDataElements(0, y, width, 1, srcPixels);
-
-      // For each pixel in the scanline
-      for (int x = 0; x < width; ++x) {
-        int pixel = srcPixels[x];
-
-        // If the distance is below the threshold, make the pixel transparent
-        double dist = dist(pixel, removeColor);
-        int alpha;
-        if (dist <= threshold) {
-          if (dist > threshold / 2.0) {
-            alpha = (int)Math.round(0xFF * (dist / threshold));
-          }
-          else {
-            alpha = 0;
-          }
-        }
-        else {
-          alpha = 0xFF;
-        }
-        // Copy the pixel in the line buffer
-        dstPixels[x] = (pixel & 0xFFFFFF) | ((alpha & 0xFF) << 24);
+    int height = Math.min(src.getHeight(), dstIn.getHeight());
+    int[] pixels = (int[])src.getDataElements(0, 0, width, height, null);
+    whole(pixels, pixels, width, height, removeColor, threshold);
+    dstOut.setDataElements(0, 0, width, height, pixels);
+  }
+
+  /**
+   * The color are removed in the whole image.
+   *
+   * The rows of the image are processed in parallel.
+   *
+   * @param src         The ARGB pixels of the source image, row by row
+   * @param dst         The array receiving the ARGB pixels of the result. It can be the same array as src.
+   * @param width       The width of the image
+   * @param height      The height of the image
+   * @param removeColor The color to set transparent in the image
+   * @param threshold   The threshold such as every color whose distance from
+   *                    removeColor <= threshold will be set to transparent
+   */
+  static void whole(int[] src, int[] dst, int width, int height, int[] removeColor, double threshold) {
+    int rowsPerChunk = Math.max(1, MIN_PIXELS_PER_CHUNK / Math.max(1, width));
+    int chunks = (height + rowsPerChunk - 1) / rowsPerChunk;
+    IntStream.range(0, chunks).parallel().forEach(chunk -> {
+      int start = chunk * rowsPerChunk * width;
+      int end = Math.min(height, (chunk + 1) * rowsPerChunk) * width;
+      wholeRows(src, dst, start, end, removeColor, threshold);
+    });
+  }
+
+  private static void wholeRows(int[] src, int[] dst, int start, int end, int[] removeColor, double threshold) {
+    int r = removeColor[R];
+    int g = removeColor[G];
+    int b = removeColor[B];
+    double halfThreshold = threshold / 2.0;
+    for (int i = start; i < end; i++) {
+      int pixel = src[i];
+
+      // If the distance is below the threshold, make the pixel transparent
+      int dist = Math.abs(r - ((pixel >> 16) & 0xFF)) + Math.abs(g - ((pixel >> 8) & 0xFF)) + Math.abs(b - (pixel & 0xFF));
+      int alpha;
+      if (dist > threshold) {
+        alpha = 0xFF;
+      }
+      else if (dist > halfThreshold) {
+        alpha = (int)Math.round(0xFF * (dist / threshold));
+      }
+      else {
+        alpha = 0;
       }
-      // Copy the new value on the output
-      dstOut.setDataElements(0, y, width, 1, dstPixels);
+      dst[i] = (pixel & 0xFFFFFF) | ((alpha & 0xFF) << 24);
     }
   }
 
@@ -218,7 +278,7 @@ public final class RemoveAlgorithms {
    *               the color index as defined by {@link #R}, {@link #G}, {@link #B}
    * @return the euclidean distance in the RGB space between colorA and colorB
    */
-  private static double dist(int colorA, int[] colorB) {
+  private static int dist(int colorA, int[] colorB) {
     return Math.abs(colorB[R] - ((colorA >> 16) & 0xFF))
            + Math.abs(colorB[G] - ((colorA >> 8) & 0xFF))
            + Math.abs(colorB[B] - (colorA & 0xFF));
@@ -15,10 +15,13 @@
  */
 package com.android.tools.idea.uibuilder.mockup.backgroundremove;
 
+import com.android.annotations.concurrency.GuardedBy;
 import com.android.tools.idea.ui.resourcechooser.ResourceChooserIcon;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.ui.UIUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 import javax.annotation.Nullable;
 import javax.swing.*;
@@ -27,6 +30,9 @@ import java.awt.event.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Panel to remove colors from a given {@link BufferedImage}.
@@ -40,6 +46,10 @@ import java.awt.image.BufferedImage;
  *
  * To adjust the threshold for the similar color ({@link RemoveColorComposite#setThreshold(double)},
  * drag the mouse while holding the left button.
+ *
+ * The removal runs on a background thread directly on the pixels of the image. While the mouse is dragged,
+ * the preview shows the result of the latest finished removal and outdated requests are skipped.
+ * The undo history only keeps the pixels of the area changed by each removal.
  */
 public class RemoveBackgroundPanel extends JPanel implements MouseMotionListener, MouseListener {
 
@@ -49,22 +59,50 @@ public class RemoveBackgroundPanel extends JPanel implements MouseMotionListener
   private static final int MAX_DRAG_DIST = 300;
   public static final ResourceChooserIcon.CheckerboardPaint CHECKERBOARD_PAINT
     = new ResourceChooserIcon.CheckerboardPaint(10);
-  private final HistoryManager<BufferedImage> myImageHistoryManager;
+  private final HistoryManager<ImageDelta> myImageHistoryManager;
   AffineTransform myAffineTransform;
   @Nullable private BufferedImage myImage;
-  private BufferedImage myNewImage;
   private Point myPointHolder = new Point();
   private Point myMouseOrigin = new Point();
   private Point myCurrentMouse = new Point();
-  private RemoveColorComposite myExtractComposite;
   private boolean myIsExtracting;
 
+  /**
+   * True between the mouse release and the moment the final result of the removal is applied to {@link #myImage}
+   */
+  private boolean myIsCommitting;
+
+  // Parameters of the current removal
+  private int myRemoveColor;
+  private final Point myOrigin = new Point();
+  private boolean myIsAreaOnly;
+  private double myThreshold;
+
+  /**
+   * Runs the removals, one at a time
+   */
+  private final Executor myRemoveExecutor = new BoundedTaskExecutor(PooledThreadExecutor.INSTANCE, 1);
+
+  /**
+   * Incremented for each removal request and when the image changes, so outdated requests can be skipped
+   */
+  private final AtomicInteger myGeneration = new AtomicInteger();
+
+  /**
+   * Preview of the current removal. The removal is computed in {@link #myBackImage} which is then swapped with
+   * {@link #myPreviewImage}, so the preview is never painted while it is being written.
+   */
+  private final Object myPreviewLock = new Object();
+  @GuardedBy("myPreviewLock")
+  private BufferedImage myPreviewImage;
+  @GuardedBy("myPreviewLock")
+  private BufferedImage myBackImage;
+
   public RemoveBackgroundPanel() {
     myAffineTransform = new AffineTransform();
     addMouseListener(this);
     addMouseMotionListener(this);
     setFocusable(false);
-    myExtractComposite = new RemoveColorComposite();
     setBackground(UIUtil.getPanelBackground());
     myImageHistoryManager = new HistoryManager<>();
   }
@@ -83,8 +121,10 @@ public class RemoveBackgroundPanel extends JPanel implements MouseMotionListener
     g2d.fillRect(0, 0, getWidth(), getHeight());
     g2d.setPaint(paint);
 
-    if (myIsExtracting) {
-      g2d.drawImage(myNewImage, myAffineTransform, null);
+    if (myIsExtracting || myIsCommitting) {
+      synchronized (myPreviewLock) {
+        g2d.drawImage(myPreviewImage, myAffineTransform, null);
+      }
 
       double dragDist = myMouseOrigin.distance(myCurrentMouse);
       if (dragDist > 0) {
@@ -98,15 +138,22 @@ public class RemoveBackgroundPanel extends JPanel implements MouseMotionListener
   }
 
   public void setImage(@Nullable BufferedImage image) {
+    // Drop the pending removals of the previous image
+    myGeneration.incrementAndGet();
+    myIsExtracting = false;
+    myIsCommitting = false;
     if (image == null) {
       myImage = null;
       return;
     }
     myImage = createNewImage(image);
-    myImageHistoryManager.setOriginalImage(myImage);
-    myNewImage = createNewImage(image);
-    repaintImage();
+    myImageHistoryManager.setOriginalImage(ImageDelta.EMPTY);
+    synchronized (myPreviewLock) {
+      myPreviewImage = createNewImage(image);
+      myBackImage = createNewImage(image);
+    }
     updateTransform();
+    repaint();
   }
 
   private void updateTransform() {
@@ -120,15 +167,102 @@ public class RemoveBackgroundPanel extends JPanel implements MouseMotionListener
     myAffineTransform.scale(scale, scale);
   }
 
-  private void repaintImage() {
-    if (myImage == null) {
+  /**
+   * Runs the removal with the current parameters on a background thread, and shows its result as the preview.
+   *
+   * @param commit if true, the result is applied to {@link #myImage} and added to the undo history
+   */
+  private void scheduleRemoval(boolean commit) {
+    BufferedImage image = myImage;
+    if (image == null) {
       return;
     }
-    Graphics2D g2d = myNewImage.createGraphics();
-    g2d.setComposite(myExtractComposite);
-    g2d.drawImage(myImage, 0, 0, myImage.getWidth(), myImage.getHeight(), null);
-    g2d.dispose();
-    repaint();
+    RemoveColorComposite composite = new RemoveColorComposite();
+    composite.setRemoveColor(myRemoveColor);
+    composite.setOriginPixel(myOrigin.x, myOrigin.y);
+    composite.setThreshold(myThreshold);
+    composite.setAreaOnly(myIsAreaOnly);
+
+    int generation = myGeneration.incrementAndGet();
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] pixels = getPixels(image);
+    myRemoveExecutor.execute(() -> {
+      boolean completed = false;
+      try {
+        BufferedImage result;
+        synchronized (myPreviewLock) {
+          if (myGeneration.get() != generation) {
+            // A newer request will update the preview
+            return;
+          }
+          result = myBackImage;
+        }
+        int[] resultPixels = getPixels(result);
+        Rectangle changed = composite.compose(pixels, resultPixels, width, height);
+        ImageDelta delta = commit ? ImageDelta.create(pixels, resultPixels, width, height, changed) : null;
+        synchronized (myPreviewLock) {
+          if (myGeneration.get() != generation) {
+            return;
+          }
+          myBackImage = myPreviewImage;
+          myPreviewImage = result;
+        }
+        completed = true;
+        UIUtil.invokeLaterIfNeeded(() -> {
+          if (myGeneration.get() != generation) {
+            return;
+          }
+          if (delta != null) {
+            applyRemoval(image, delta);
+          }
+          repaint();
+        });
+      }
+      finally {
+        if (!completed && commit) {
+          // The removal failed, or was superseded; unless a newer request took over, go back to showing the image
+          UIUtil.invokeLaterIfNeeded(() -> {
+            if (myGeneration.get() == generation) {
+              myIsExtracting = false;
+              myIsCommitting = false;
+              repaint();
+            }
+          });
+        }
+      }
+    });
+  }
+
+  /**
+   * Applies the final result of a removal to the image and adds it to the undo history
+   */
+  private void applyRemoval(@NotNull BufferedImage image, @NotNull ImageDelta delta) {
+    if (delta != ImageDelta.EMPTY) {
+      delta.redo(getPixels(image), image.getWidth());
+      myImageHistoryManager.pushUndo(delta);
+    }
+    myIsExtracting = false;
+    myIsCommitting = false;
+  }
+
+  /**
+   * Copies the image in the preview, so the preview shows the image until the first removal is done
+   */
+  private void resetPreview(@NotNull BufferedImage image) {
+    int[] pixels = getPixels(image);
+    synchronized (myPreviewLock) {
+      int[] previewPixels = getPixels(myPreviewImage);
+      System.arraycopy(pixels, 0, previewPixels, 0, pixels.length);
+    }
+  }
+
+  /**
+   * @return the data array of an image created by {@link #createNewImage(BufferedImage)}
+   */
+  @NotNull
+  private static int[] getPixels(@NotNull BufferedImage image) {
+    return ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
   }
 
   @NotNull
@@ -142,26 +276,32 @@ public class RemoveBackgroundPanel extends JPanel implements MouseMotionListener
   }
 
   public boolean canUndo() {
-    return myImageHistoryManager.canUndo();
+    return !myIsExtracting && !myIsCommitting && myImageHistoryManager.canUndo();
   }
 
   public boolean canRedo() {
-    return myImageHistoryManager.canRedo();
+    return !myIsExtracting && !myIsCommitting && myImageHistoryManager.canRedo();
   }
 
   public void undo() {
-    if(myImageHistoryManager.canUndo()) {
-      myNewImage = myImage;
-      myImage = myImageHistoryManager.undo();
-      repaintImage();
+    if (myImage != null && canUndo()) {
+      ImageDelta delta = myImageHistoryManager.getCurrentObject();
+      myImageHistoryManager.undo();
+      if (delta != null) {
+        delta.undo(getPixels(myImage), myImage.getWidth());
+      }
       repaint();
     }
   }
 
   public void redo() {
-    myImage = myImageHistoryManager.redo();
-    repaintImage();
-    repaint();
+    if (myImage != null && canRedo()) {
+      ImageDelta delta = myImageHistoryManager.redo();
+      if (delta != null) {
+        delta.redo(getPixels(myImage), myImage.getWidth());
+      }
+      repaint();
+    }
   }
 
   /*/////////////////////////
@@ -174,13 +314,14 @@ public class RemoveBackgroundPanel extends JPanel implements MouseMotionListener
       return;
     }
     myCurrentMouse.setLocation(e.getPoint());
-    myExtractComposite.setThreshold(e.getPoint().distance(myMouseOrigin) / MAX_DRAG_DIST);
-    repaintImage();
+    myThreshold = e.getPoint().distance(myMouseOrigin) / MAX_DRAG_DIST;
+    scheduleRemoval(false);
+    repaint();
   }
 
   @Override
   public void mousePressed(MouseEvent e) {
-    if (myImage == null) {
+    if (myImage == null || myIsCommitting) {
       return;
     }
     updateTransform();
@@ -206,18 +347,19 @@ public class RemoveBackgroundPanel extends JPanel implements MouseMotionListener
         return;
       }
 
-      // Init the RemoveComposite
+      // Init the removal parameters
       myIsExtracting = true;
-      myExtractComposite.setRemoveColor(removeColor);
-      myExtractComposite.setOriginPixel(myPointHolder.x, myPointHolder.y);
-      myExtractComposite.setThreshold(0);
+      myRemoveColor = removeColor;
+      myOrigin.setLocation(myPointHolder);
+      myThreshold = 0;
 
       // If ShiftKey pressed remove all the similar color in the image
       // otherwise remove only the similar color in the selected region
-      myExtractComposite.setAreaOnly(!((e.getModifiers() & InputEvent.SHIFT_MASK) == InputEvent.SHIFT_MASK));
+      myIsAreaOnly = !((e.getModifiers() & InputEvent.SHIFT_MASK) == InputEvent.SHIFT_MASK);
 
-      myNewImage = createNewImage(myImage);
-      repaintImage();
+      resetPreview(myImage);
+      scheduleRemoval(false);
+      repaint();
     }
     catch (NoninvertibleTransformException e1) {
       Logger.getInstance(RemoveBackgroundPanel.class).warn("Could not invert transform");
@@ -231,10 +373,9 @@ public class RemoveBackgroundPanel extends JPanel implements MouseMotionListener
     if (myImage == null || !myIsExtracting) {
       return;
     }
-    myIsExtracting = false;
-    myImage = myNewImage;
-    myImageHistoryManager.pushUndo(myImage);
-    repaintImage();
+    // The preview is shown until the final removal is applied to the image
+    myIsCommitting = true;
+    scheduleRemoval(true);
   }
 
   @Nullable
@@ -15,6 +15,8 @@
  */
 package com.android.tools.idea.uibuilder.mockup.backgroundremove;
 
+import org.jetbrains.annotations.NotNull;
+
 import java.awt.*;
 import java.awt.image.*;
 
@@ -124,4 +126,29 @@ public class RemoveColorComposite implements Composite, CompositeContext {
       }
     }
   }
+
+  /**
+   * Remove the color from the ARGB pixels of an image, the same way {@link #compose(Raster, Raster, WritableRaster)}
+   * does for rasters.
+   *
+   * @param src    The ARGB pixels of the source image, row by row
+   * @param dst    The array receiving the ARGB pixels of the result
+   * @param width  The width of the image
+   * @param height The height of the image
+   * @return A rectangle containing all the pixels of dst which differ from src
+   */
+  @NotNull
+  public Rectangle compose(@NotNull int[] src, @NotNull int[] dst, int width, int height) {
+    if (myThreshold < 0) {
+      System.arraycopy(src, 0, dst, 0, width * height);
+      return new Rectangle();
+    }
+
+    if (myIsAreaOnly) {
+      Rectangle bounds = RemoveAlgorithms.floodFill(src, dst, width, height, ox, oy, myRemoveColor, myThreshold);
+      return bounds != null ? bounds : new Rectangle();
+    }
+    RemoveAlgorithms.whole(src, dst, width, height, myRemoveColor, myThreshold);
+    return new Rectangle(width, height);
+  }
 }
\ No newline at end of file
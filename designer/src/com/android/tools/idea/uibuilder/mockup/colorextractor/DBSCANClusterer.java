@@ -15,7 +15,10 @@
  */
 package com.android.tools.idea.uibuilder.mockup.colorextractor;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -29,10 +32,24 @@ import java.util.List;
  * by:  Martin Ester, Hans-Peter Kriegel, Jörg Sander, Xiaowei Xu
  *
  * http://www2.cs.uh.edu/~ceick/7363/Papers/dbscan.pdf
+ *
+ * The neighborhood queries use a uniform grid over the (up to) first three coordinates of the points,
+ * with cells at least eps wide, so only the points of the 27 cells around a point are tested.
  */
 @SuppressWarnings("ForLoopReplaceableByForEach")
 public class DBSCANClusterer implements Clusterer{
 
+  /**
+   * Maximum number of grid cells per input point. If the bounding box of the points would need
+   * more cells of size eps, the cells are made larger.
+   */
+  private static final int MAX_CELLS_PER_POINT = 4;
+
+  /**
+   * Number of coordinates used to index the points
+   */
+  private static final int GRID_DIMENSION = 3;
+
   private int myVisited = 0;
 
   private enum PointType {
@@ -49,6 +66,20 @@ public class DBSCANClusterer implements Clusterer{
   private PointType[] myPointTypes;
   ProgressListener listener;
 
+  private boolean myIndexEnabled = true;
+
+  // Grid index of the current input. The points of cell c are myCellPoints[myCellStart[c]..myCellStart[c + 1]),
+  // in increasing index order.
+  private int myIndexDimension;
+  private double[] myGridOrigin;
+  private double myCellSize;
+  private int[] myGridSize;
+  private int[] myCellStart;
+  private int[] myCellPoints;
+
+  // Reused buffer for the results of regionQuery
+  private int[] myNeighbors = new int[16];
+
   /**
    * Create a new DBSCAN clusterer
    *
@@ -72,10 +103,19 @@ public class DBSCANClusterer implements Clusterer{
     this.listener = listener;
   }
 
+  /**
+   * Enables or disables the grid index; when disabled, the neighbors of a point are found by testing all the points.
+   */
+  @VisibleForTesting
+  void setIndexEnabled(boolean enabled) {
+    myIndexEnabled = enabled;
+  }
+
   @Override
   public List<List<double[]>> cluster(double[][] input) {
     List<double[]> cluster = new ArrayList<>();
     myPointTypes = new PointType[input.length];
+    buildIndex(input);
 
     for (int i = 0; i < input.length; i++) {
       if (myPointTypes[i] == null) { // If point is unclassified
@@ -89,6 +129,8 @@ public class DBSCANClusterer implements Clusterer{
         }
       }
     }
+    myCellStart = null;
+    myCellPoints = null;
     return myClusters;
   }
 
@@ -101,13 +143,13 @@ public class DBSCANClusterer implements Clusterer{
    * @return True if the cluster has been expanded
    */
   private boolean expandCluster(double[][] input, int pointIndex, List<double[]> cluster) {
-    List<Integer> seeds = regionQuery(input, pointIndex);
+    int seedCount = regionQuery(input, pointIndex);
 
-    if (seeds.size() < myMinPts) {
+    if (seedCount < myMinPts) {
       // Points are considered ad noise, we do not add them to the cluster
       myPointTypes[pointIndex] = PointType.NOISE;
-      for (int i = 0; i < seeds.size(); i++) {
-        myPointTypes[seeds.get(i)] = PointType.NOISE;
+      for (int i = 0; i < seedCount; i++) {
+        myPointTypes[myNeighbors[i]] = PointType.NOISE;
       }
       return false;
     }
@@ -116,33 +158,42 @@ public class DBSCANClusterer implements Clusterer{
       // all its neighbors are border points
       cluster.add(input[pointIndex]);
       myPointTypes[pointIndex] = PointType.CORE;
-      for (int i = 0; i < seeds.size(); i++) {
-        cluster.add(input[seeds.get(i)]);
-        myPointTypes[seeds.get(i)] = PointType.BORDER;
+
+      // Queue of the points left to expand, myPointTypes ensures that a point is queued at most once
+      // after the initial seeds
+      int[] seeds = new int[Math.max(16, seedCount)];
+      int seedsEnd = 0;
+      for (int i = 0; i < seedCount; i++) {
+        int seed = myNeighbors[i];
+        cluster.add(input[seed]);
+        myPointTypes[seed] = PointType.BORDER;
+        seeds[seedsEnd++] = seed;
       }
 
       // We now expand the search to all the neighbors,
       // if they have also have neighbors, they become core point
-      while (!seeds.isEmpty()) {
-        int currentP = seeds.get(0);
-        List<Integer> result = regionQuery(input, currentP);
+      for (int seedsStart = 0; seedsStart < seedsEnd; seedsStart++) {
+        int currentP = seeds[seedsStart];
+        int resultCount = regionQuery(input, currentP);
 
-        if (result.size() >= myMinPts) {
+        if (resultCount >= myMinPts) {
           myPointTypes[currentP] = PointType.CORE;
-          for (int i = 0; i < result.size(); i++) {
-            Integer resultP = result.get(i);
+          for (int i = 0; i < resultCount; i++) {
+            int resultP = myNeighbors[i];
             if (myPointTypes[resultP] == null || myPointTypes[resultP] == PointType.NOISE) {
               // if the point is not in a cluster yet
               if (myPointTypes[resultP] == null) {
                 // if the point has never been visited, we add it to the neighborhood
-                seeds.add(resultP);
+                if (seedsEnd == seeds.length) {
+                  seeds = Arrays.copyOf(seeds, seeds.length * 2);
+                }
+                seeds[seedsEnd++] = resultP;
               }
               myPointTypes[resultP] = PointType.BORDER;
               cluster.add(input[resultP]);
             }
           }
         }
-        seeds.remove(0);
       }
       return true;
     }
@@ -154,24 +205,142 @@ public class DBSCANClusterer implements Clusterer{
     }
   }
 
+  /**
+   * Index the points of input in a uniform grid. The cells are at least eps wide so that all the neighbors
+   * of a point are in its cell or in the cells directly around it.
+   */
+  private void buildIndex(double[][] input) {
+    myCellStart = null;
+    myCellPoints = null;
+    if (!myIndexEnabled || input.length == 0) {
+      return;
+    }
+
+    // Only the coordinates present in all the points can be used for indexing
+    int dimension = GRID_DIMENSION;
+    for (int i = 0; i < input.length; i++) {
+      dimension = Math.min(dimension, input[i].length);
+    }
+    double[] min = new double[dimension];
+    double[] max = new double[dimension];
+    Arrays.fill(min, Double.POSITIVE_INFINITY);
+    Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    for (int i = 0; i < input.length; i++) {
+      for (int d = 0; d < dimension; d++) {
+        double value = input[i][d];
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+          // Such points cannot be placed in the grid, keep the linear scan
+          return;
+        }
+        min[d] = Math.min(min[d], value);
+        max[d] = Math.max(max[d], value);
+      }
+    }
+
+    // Grow the cells until the grid has a reasonable number of cells for the number of points.
+    // The squared eps is computed in float precision by regionQuery, keep a small margin over it.
+    double cellSize = Math.max(Math.sqrt(myEps * myEps) * 1.0001, Double.MIN_NORMAL);
+    long maxCells = (long)input.length * MAX_CELLS_PER_POINT;
+    int[] gridSize = new int[GRID_DIMENSION];
+    while (true) {
+      long cells = 1;
+      for (int d = 0; d < GRID_DIMENSION; d++) {
+        gridSize[d] = d < dimension ? (int)Math.min(Integer.MAX_VALUE - 1, Math.floor((max[d] - min[d]) / cellSize) + 1) : 1;
+        cells = Math.min(Long.MAX_VALUE / Integer.MAX_VALUE, cells * gridSize[d]);
+      }
+      if (cells <= maxCells) {
+        break;
+      }
+      cellSize *= Math.max(2, Math.cbrt(cells / (double)maxCells));
+    }
+
+    myIndexDimension = dimension;
+    myGridOrigin = min;
+    myCellSize = cellSize;
+    myGridSize = gridSize;
+
+    // Counting sort of the points by cell, which keeps the points of a cell in index order
+    int cellCount = gridSize[0] * gridSize[1] * gridSize[2];
+    int[] cellOfPoint = new int[input.length];
+    int[] cellStart = new int[cellCount + 1];
+    for (int i = 0; i < input.length; i++) {
+      int cell = getCell(input[i]);
+      cellOfPoint[i] = cell;
+      cellStart[cell + 1]++;
+    }
+    for (int c = 0; c < cellCount; c++) {
+      cellStart[c + 1] += cellStart[c];
+    }
+    int[] next = Arrays.copyOf(cellStart, cellCount);
+    int[] cellPoints = new int[input.length];
+    for (int i = 0; i < input.length; i++) {
+      cellPoints[next[cellOfPoint[i]]++] = i;
+    }
+    myCellStart = cellStart;
+    myCellPoints = cellPoints;
+  }
+
+  private int getCellCoordinate(double[] point, int d) {
+    if (d >= myIndexDimension) {
+      return 0;
+    }
+    int coordinate = (int)((point[d] - myGridOrigin[d]) / myCellSize);
+    return Math.max(0, Math.min(myGridSize[d] - 1, coordinate));
+  }
+
+  private int getCell(double[] point) {
+    return (getCellCoordinate(point, 0) * myGridSize[1] + getCellCoordinate(point, 1)) * myGridSize[2] + getCellCoordinate(point, 2);
+  }
+
   /**
    * Find all the point at a distance less or equal to eps.
    *
    * The distance measure is the euclidean distance.
+   * The indices of the neighbors are stored, in increasing order, at the start of myNeighbors.
    * @param input The input data.
    * @param pointIndex The index of the point in input that we have to find the neighbors of.
-   * @return A list of index of the point that are neighbor of input[pointIndex]
+   * @return The number of neighbors of input[pointIndex]
    */
-  private List<Integer> regionQuery(double[][] input, int pointIndex) {
-    List<Integer> seeds = new ArrayList<>();
+  private int regionQuery(double[][] input, int pointIndex) {
     double[] current = input[pointIndex];
-    for (int i = 0; i < input.length; i++) {
-      float epsSquare = myEps * myEps;
-      if (input[i] != current && distance(input[i], current) <= epsSquare) {
-        seeds.add(i);
+    float epsSquare = myEps * myEps;
+    int count = 0;
+    if (myCellStart == null) {
+      for (int i = 0; i < input.length; i++) {
+        if (input[i] != current && distance(input[i], current) <= epsSquare) {
+          count = addNeighbor(count, i);
+        }
       }
+      return count;
+    }
+
+    int x = getCellCoordinate(current, 0);
+    int y = getCellCoordinate(current, 1);
+    int z = getCellCoordinate(current, 2);
+    for (int cx = Math.max(0, x - 1); cx <= Math.min(myGridSize[0] - 1, x + 1); cx++) {
+      for (int cy = Math.max(0, y - 1); cy <= Math.min(myGridSize[1] - 1, y + 1); cy++) {
+        int row = (cx * myGridSize[1] + cy) * myGridSize[2];
+        int start = myCellStart[row + Math.max(0, z - 1)];
+        int end = myCellStart[row + Math.min(myGridSize[2] - 1, z + 1) + 1];
+        for (int j = start; j < end; j++) {
+          int i = myCellPoints[j];
+          if (input[i] != current && distance(input[i], current) <= epsSquare) {
+            count = addNeighbor(count, i);
+          }
+        }
+      }
+    }
+    // Keep the order of a linear scan, the clusters and their order do not depend on the index
+    Arrays.sort(myNeighbors, 0, count);
+    return count;
+  }
+
+  private int addNeighbor(int count, int pointIndex) {
+    if (count == myNeighbors.length) {
+      myNeighbors = Arrays.copyOf(myNeighbors, count * 2);
     }
-    return seeds;
+    myNeighbors[count] = pointIndex;
+    return count + 1;
   }
 
   /**
@@ -183,7 +352,8 @@ public class DBSCANClusterer implements Clusterer{
   private static double distance(double[] neighbor, double[] point) {
     double squares = 0;
     for (int i = 0; i < Math.min(neighbor.length, point.length); i++) {
-      squares += Math.pow(neighbor[i] - point[i], 2);
+      double delta = neighbor[i] - point[i];
+      squares += delta * delta;
     }
     return squares;
   }
@@ -15,36 +15,66 @@
  */
 package com.android.tools.idea.uibuilder.mockup.colorextractor;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Use tge KMeans to clusterize a set of points into k clusters
+ *
+ * The points are packed in a float array, and each pass assigns the points to their closest
+ * color in parallel chunks on the common {@link ForkJoinPool}.
  */
 @SuppressWarnings("ForLoopReplaceableByForEach")
 public final class KMeansClusterer implements Clusterer {
 
   public static final int PASS_NUMBER = 100;
+
+  /**
+   * Number of coordinates of a point
+   */
+  private static final int DIMENSION = 3;
+
+  /**
+   * Number of points below which a chunk of a pass is not split anymore
+   */
+  private static final int CHUNK_SIZE = 16384;
+
   private final int myK;
   private int myInputDataSize;
   private double[][] myData;
+  private float[] myPackedData;
   private double[][] myOutputColors;
+  private boolean myParallel = true;
 
   public KMeansClusterer(int k) {
     myK = k;
     myOutputColors = new double[myK][3];
   }
 
+  /**
+   * Enables or disables the parallel passes; when disabled, each pass runs on the calling thread.
+   */
+  @VisibleForTesting
+  void setParallel(boolean parallel) {
+    myParallel = parallel;
+  }
+
   @Override
   public List<List<double[]>> cluster(double[][] points) {
     myData = points;
     myInputDataSize = points.length;
+    myPackedData = pack(points);
     getInitialColors();
     for (int i = 0; i < PASS_NUMBER; i++) {
       int dist = pass();
       if (dist == 0) break;
     }
+    myPackedData = null;
     List<List<double[]>> clusters = new ArrayList<>(myOutputColors.length);
     for (int i = 0; i < myOutputColors.length; i++) {
       ArrayList<double[]> cluster = new ArrayList<>(1);
@@ -54,39 +84,39 @@ public final class KMeansClusterer implements Clusterer {
     return clusters;
   }
 
-  int pass() {
-    // Reset center and count
-    double[][] centers = new double[myK][3];
-    int[] count = new int[myK];
-
-    for (int pointIndex = 0; pointIndex < myInputDataSize; pointIndex++) {
-      double minDist = Double.MAX_VALUE;
-      int closestColor = 0;
-
-      // Foreach point in the input data, find the output color which is the closest
-      for (int outputIndex = 0; outputIndex < myOutputColors.length; outputIndex++) {
-        double distance = distance(myOutputColors[outputIndex], myData[pointIndex]);
-        if (distance < minDist) {
-          minDist = distance;
-          closestColor = outputIndex;
-        }
+  private static float[] pack(double[][] points) {
+    float[] packed = new float[points.length * DIMENSION];
+    for (int i = 0; i < points.length; i++) {
+      double[] point = points[i];
+      for (int d = 0; d < Math.min(DIMENSION, point.length); d++) {
+        packed[i * DIMENSION + d] = (float)point[d];
       }
+    }
+    return packed;
+  }
 
-      // Add the value to compute the new center (find the average)
-      centers[closestColor][0] += myData[pointIndex][0];
-      centers[closestColor][1] += myData[pointIndex][1];
-      centers[closestColor][2] += myData[pointIndex][2];
-      count[closestColor]++;
+  int pass() {
+    int colorCount = myOutputColors.length;
+    float[] colors = new float[colorCount * DIMENSION];
+    for (int j = 0; j < colorCount; j++) {
+      for (int d = 0; d < DIMENSION; d++) {
+        colors[j * DIMENSION + d] = (float)myOutputColors[j][d];
+      }
     }
 
+    // Sums of the coordinates of the points closest to each output color, followed by their count
+    PassTask task = new PassTask(myPackedData, colors, 0, myInputDataSize);
+    double[] sums = myParallel && myInputDataSize > CHUNK_SIZE ? ForkJoinPool.commonPool().invoke(task) : task.compute();
+
     int dist = 0;
 
     // Update each output color to the new center
-    for (int j = 0; j < myOutputColors.length; j++) {
-      if (count[j] == 0) continue;
-      int l = (int)centers[j][0] / count[j];
-      int a = (int)centers[j][1] / count[j];
-      int b = (int)centers[j][2] / count[j];
+    for (int j = 0; j < colorCount; j++) {
+      int count = (int)sums[colorCount * DIMENSION + j];
+      if (count == 0) continue;
+      int l = (int)sums[j * DIMENSION] / count;
+      int a = (int)sums[j * DIMENSION + 1] / count;
+      int b = (int)sums[j * DIMENSION + 2] / count;
       double[] oldColor = new double[3];
       System.arraycopy(myOutputColors[j], 0, oldColor, 0, 3);
 
@@ -98,6 +128,71 @@ public final class KMeansClusterer implements Clusterer {
     return dist;
   }
 
+  /**
+   * Assigns the points in [start, end) to their closest color, and returns the sums of the coordinates of the points
+   * assigned to each color followed by the number of points assigned to each color.
+   */
+  private static final class PassTask extends RecursiveTask<double[]> {
+    private final float[] myPoints;
+    private final float[] myColors;
+    private final int myStart;
+    private final int myEnd;
+
+    private PassTask(float[] points, float[] colors, int start, int end) {
+      myPoints = points;
+      myColors = colors;
+      myStart = start;
+      myEnd = end;
+    }
+
+    @Override
+    protected double[] compute() {
+      if (myEnd - myStart > CHUNK_SIZE && getPool() != null) {
+        int middle = (myStart + myEnd) >>> 1;
+        PassTask first = new PassTask(myPoints, myColors, myStart, middle);
+        PassTask second = new PassTask(myPoints, myColors, middle, myEnd);
+        first.fork();
+        double[] sums = second.compute();
+        double[] firstSums = first.join();
+        for (int i = 0; i < sums.length; i++) {
+          sums[i] += firstSums[i];
+        }
+        return sums;
+      }
+
+      float[] points = myPoints;
+      float[] colors = myColors;
+      int colorCount = colors.length / DIMENSION;
+      double[] sums = new double[colorCount * (DIMENSION + 1)];
+      for (int p = myStart * DIMENSION, end = myEnd * DIMENSION; p < end; p += DIMENSION) {
+        float l = points[p];
+        float a = points[p + 1];
+        float b = points[p + 2];
+
+        // Foreach point in the input data, find the output color which is the closest
+        float minDist = Float.MAX_VALUE;
+        int closestColor = 0;
+        for (int c = 0, j = 0; j < colorCount; c += DIMENSION, j++) {
+          float dl = colors[c] - l;
+          float da = colors[c + 1] - a;
+          float db = colors[c + 2] - b;
+          float distance = dl * dl + da * da + db * db;
+          if (distance < minDist) {
+            minDist = distance;
+            closestColor = j;
+          }
+        }
+
+        // Add the value to compute the new center (find the average)
+        sums[closestColor * DIMENSION] += l;
+        sums[closestColor * DIMENSION + 1] += a;
+        sums[closestColor * DIMENSION + 2] += b;
+        sums[colorCount * DIMENSION + closestColor]++;
+      }
+      return sums;
+    }
+  }
+
   private static double distance(double[] neighbor, double[] point) {
     double squares = 0;
     for (int i = 0; i < Math.min(neighbor.length, point.length); i++) {
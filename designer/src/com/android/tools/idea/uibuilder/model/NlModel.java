@@ -17,7 +17,10 @@ package com.android.tools.idea.uibuilder.model;
 
 import com.android.ide.common.rendering.api.MergeCookie;
 import com.android.ide.common.rendering.api.ViewInfo;
+import com.android.ide.common.res2.ResourceItem;
 import com.android.ide.common.repository.GradleVersion;
+import com.android.resources.ResourceFolderType;
+import com.android.resources.ResourceType;
 import com.android.sdklib.devices.Device;
 import com.android.sdklib.devices.Screen;
 import com.android.sdklib.devices.State;
@@ -30,7 +33,9 @@ import com.android.tools.idea.gradle.project.model.AndroidModuleModel;
 import com.android.tools.idea.gradle.util.GradleUtil;
 import com.android.tools.idea.rendering.*;
 import com.android.tools.idea.rendering.Locale;
+import com.android.tools.idea.res.LocalResourceRepository;
 import com.android.tools.idea.res.ProjectResourceRepository;
+import com.android.tools.idea.res.ResourceHelper;
 import com.android.tools.idea.res.ResourceNotificationManager;
 import com.android.tools.idea.res.ResourceNotificationManager.ResourceChangeListener;
 import com.android.tools.idea.res.ResourceNotificationManager.ResourceVersion;
@@ -48,7 +53,12 @@ import com.android.tools.idea.uibuilder.surface.ZoomType;
 import com.android.util.PropertiesMap;
 import com.android.utils.XmlUtils;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.collect.*;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.wireless.android.sdk.stats.LayoutEditorEvent;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
@@ -69,6 +79,7 @@ import com.intellij.openapi.util.ModificationTracker;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
 import com.intellij.psi.XmlElementFactory;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.XmlAttribute;
@@ -84,6 +95,7 @@ import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.android.util.AndroidResourceUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 import javax.annotation.concurrent.GuardedBy;
 import javax.swing.Timer;
@@ -95,6 +107,10 @@ import java.awt.dnd.InvalidDnDOperationException;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Stream;
@@ -110,7 +126,12 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
   private static final Logger LOG = Logger.getInstance(NlModel.class);
   @AndroidCoordinate private static final int VISUAL_EMPTY_COMPONENT_SIZE = 1;
   private static final boolean CHECK_MODEL_INTEGRITY = false;
+  /** Minimum delay before rendering after a change, to merge changes made in quick succession (for example when typing) */
   private static final int RENDER_DELAY_MS = 10;
+  /** Maximum delay before rendering after a change, however expensive the renders of the layout are */
+  private static final int MAX_RENDER_DELAY_MS = 250;
+  /** Fraction of the recent render cycle time of the layout to wait for more changes before rendering */
+  private static final double RENDER_DELAY_FACTOR = 0.5;
   private final Set<String> myPendingIds = Sets.newHashSet();
 
   @NotNull private final DesignSurface mySurface;
@@ -142,6 +163,21 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
   private AndroidPreviewProgressIndicator myCurrentIndicator;
   private static final Object PROGRESS_LOCK = new Object();
   private RenderTask myRenderTask;
+  /** Snapshot of the layout tags at the time {@link #myRenderTask} was last inflated */
+  private TagSnapshot myInflatedSnapshot;
+  /** Configuration modification count at the time {@link #myRenderTask} was last inflated */
+  private long myInflatedConfigurationCount;
+  /** Set when resources or the build changed, in which case the next model update has to create a new render task */
+  private final AtomicBoolean myRequiresNewRenderTask = new AtomicBoolean(true);
+  /** Timings of the renders of this model, across all the render tasks created for it */
+  private final RenderMetrics myRenderMetrics = new RenderMetrics();
+  /** Render thread time of the model updates since the last render, which counts towards the next render cycle */
+  private final AtomicLong myPendingCycleNanos = new AtomicLong();
+  /** Futures returned by {@link #renderAsync()} which will be completed by the next queued render */
+  @GuardedBy("myPendingRenders")
+  private final List<SettableFuture<RenderResult>> myPendingRenders = Lists.newArrayList();
+  /** Set by {@link #requestRender()}, for which a queued render always runs */
+  private final AtomicBoolean myRenderRequested = new AtomicBoolean();
   private final NlLayoutType myType;
   private long myConfigurationModificationCount;
 
@@ -185,6 +221,10 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
   public void activate() {
     if (!myActive) {
       myActive = true;
+      RenderTask renderTask = myRenderTask;
+      if (renderTask != null) {
+        renderTask.setPriority(RenderService.Priority.FOREGROUND);
+      }
 
       myConfiguration.addListener(myConfigurationListener);
       ResourceNotificationManager manager = ResourceNotificationManager.getInstance(getProject());
@@ -196,6 +236,7 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
         if (theme != null && !theme.startsWith(ANDROID_STYLE_RESOURCE_PREFIX) && !myProjectResourceRepository.hasResourceItem(theme)) {
           myConfiguration.setTheme(myConfiguration.getConfigurationManager().computePreferredTheme(myConfiguration));
         }
+        myRequiresNewRenderTask.set(true);
         requestModelUpdate();
         myModelVersion.myResourceVersion.incrementAndGet();
       }
@@ -208,11 +249,16 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
   public void deactivate() {
     if (myActive) {
       getRenderingQueue().cancelAllUpdates();
+      cancelPendingRenders();
       ResourceNotificationManager manager = ResourceNotificationManager.getInstance(getProject());
       manager.removeListener(this, myFacet, null, null);
       myConfigurationModificationCount = myConfiguration.getModificationCount();
       myConfiguration.removeListener(myConfigurationListener);
       myActive = false;
+      RenderTask renderTask = myRenderTask;
+      if (renderTask != null) {
+        renderTask.setPriority(RenderService.Priority.BACKGROUND);
+      }
     }
   }
 
@@ -328,6 +374,16 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
 
   /**
    * Synchronously inflates the model and updates the view hierarchy
+   * <p/>
+   * Re-inflation after an edit of the layout is incremental where possible: the tags of the layout are compared with the ones
+   * of the previous inflation, and
+   * <ul>
+   *   <li>if nothing changed (for example only whitespace or comments were edited), the layout is not inflated again;</li>
+   *   <li>if only attribute values changed, the existing render task is inflated again (unless it reported problems), which
+   *   skips setting up a new render task (resource resolution, class loading, layout library state);</li>
+   *   <li>otherwise, and whenever the resources or the configuration changed, a new render task is created.</li>
+   * </ul>
+   * Layoutlib itself always inflates the full view hierarchy since it has no API to update views in place.
    *
    * @param force forces the model to be re-inflated even if a previous version was already inflated
    * @returns whether the model was inflated in this call or not
@@ -353,21 +409,44 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
         return false;
       }
 
+      boolean requiresNewRenderTask = myRequiresNewRenderTask.getAndSet(false);
+      // The cached snapshot of the file is only read here; renders work on their own copies of it
+      TagSnapshot snapshot = LayoutPsiPullParser.getRootSnapshot(file);
+      boolean reuseRenderTask = false;
+      if (myRenderTask != null && !requiresNewRenderTask && myInflatedConfigurationCount == configuration.getModificationCount()) {
+        // Even if no tag or attribute changed, the file may have been reparsed into new XmlTags which the components
+        // must be bound to, so the layout is always inflated again; it's only the render task that can be reused.
+        // New ids have to be registered with the resource repositories, which a new render task picks up. The render logger
+        // of a task accumulates its messages, so only reuse tasks without problems to avoid reporting stale errors.
+        TagSnapshotDiff diff = TagSnapshotDiff.compare(myInflatedSnapshot, snapshot);
+        reuseRenderTask = diff.getKind() != TagSnapshotDiff.Kind.STRUCTURE &&
+                          !diff.hasChangedValueWithPrefix(NEW_ID_PREFIX) &&
+                          !myRenderTask.getLogger().hasProblems();
+      }
+
       // Record the current version we're rendering from; we'll use that in #activate to make sure we're picking up any
       // external changes
       myRenderedVersion = resourceNotificationManager.getCurrentVersion(myFacet, file, myConfiguration);
+      myInflatedSnapshot = snapshot;
+      myInflatedConfigurationCount = configuration.getModificationCount();
 
-      RenderService renderService = RenderService.get(myFacet);
-      RenderLogger logger = renderService.createLogger();
-      if (myRenderTask != null) {
-        myRenderTask.dispose();
+      if (!reuseRenderTask) {
+        RenderService renderService = RenderService.get(myFacet);
+        RenderLogger logger = renderService.createLogger();
+        if (myRenderTask != null) {
+          myRenderTask.dispose();
+        }
+        myRenderTask = renderService.createTask(file, configuration, logger, mySurface);
+        setupRenderTask(myRenderTask);
+        if (myRenderTask != null) {
+          myRenderTask.setPriority(myActive ? RenderService.Priority.FOREGROUND : RenderService.Priority.BACKGROUND);
+          myRenderTask.setMetrics(myRenderMetrics);
+          if (!isRenderViewPort()) {
+            myRenderTask.useDesignMode(file);
+          }
+        }
       }
-      myRenderTask = renderService.createTask(file, configuration, logger, mySurface);
-      setupRenderTask(myRenderTask);
       if (myRenderTask != null) {
-        if (!isRenderViewPort()) {
-          myRenderTask.useDesignMode(file);
-        }
         result = myRenderTask.inflate();
         if (result == null || !result.getRenderResult().isSuccess()) {
           myRenderTask.dispose();
@@ -425,10 +504,34 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
    * {@link ModelListener#modelChanged(NlModel)}.
    */
   protected void updateModel() {
+    long renderThreadNanos = myRenderMetrics.getRenderThreadNanos();
     inflate(true);
+    myPendingCycleNanos.addAndGet(myRenderMetrics.getRenderThreadNanos() - renderThreadNanos);
     notifyListenersModelUpdateComplete();
   }
 
+  /**
+   * Records a render cycle, made of the model updates since the last render and of the render which started when the
+   * render thread time of this model was {@code renderThreadNanos}, and adapts the delay of the rendering queue to how
+   * expensive the recent cycles were. Cheap layouts are rendered almost immediately after each change; for expensive ones,
+   * rendering after every keystroke would keep the render thread busy with renders that are outdated by the time they
+   * complete, so more changes are merged instead.
+   */
+  private void finishRenderCycle(long renderThreadNanos) {
+    long cycleNanos = myRenderMetrics.getRenderThreadNanos() - renderThreadNanos + myPendingCycleNanos.getAndSet(0);
+    myRenderMetrics.recordCycle(cycleNanos);
+    int delay = (int)Math.round(myRenderMetrics.getRecentCycleTimeMs() * RENDER_DELAY_FACTOR);
+    getRenderingQueue().setMergingTimeSpan(Math.max(RENDER_DELAY_MS, Math.min(MAX_RENDER_DELAY_MS, delay)));
+  }
+
+  /**
+   * Returns the timings of the renders of this model
+   */
+  @NotNull
+  public RenderMetrics getRenderMetrics() {
+    return myRenderMetrics;
+  }
+
   private void checkStructure() {
     if (CHECK_MODEL_INTEGRITY) {
       ApplicationManager.getApplication().runReadAction(() -> {
@@ -522,67 +625,137 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
   }
 
   /**
-   * Renders the current model synchronously. Once the render is complete, the listeners {@link ModelListener#modelRendered(NlModel)}
-   * method will be called.
+   * Renders the current model and waits for the render to complete. Once the render is complete, the listeners
+   * {@link ModelListener#modelRendered(NlModel)} method will be called.
    * <p/>
-   * If the layout hasn't been inflated before, this call will inflate the layout before rendering.
+   * If the layout hasn't been inflated before, this call will inflate the layout before rendering. A render which does not
+   * finish within the render timeout is reported as a render error, like any other render failure.
    * <p/>
    * <b>Do not call this method from the dispatch thread!</b>
    */
   public void render() {
-    if (myConfigurationModificationCount != myConfiguration.getModificationCount()) {
-      // usage tracking (we only pay attention to individual changes where only one item is affected since those are likely to be triggered
-      // by the user
-      if (!StringUtil.equals(myConfiguration.getTheme(), myPreviousTheme)) {
-        myPreviousTheme = myConfiguration.getTheme();
-        NlUsageTrackerManager.getInstance(mySurface).logAction(LayoutEditorEvent.LayoutEditorEventType.THEME_CHANGE);
-      }
-      else if (myConfiguration.getTarget() != null && !StringUtil.equals(myConfiguration.getTarget().getVersionName(), myPreviousVersion)) {
-        myPreviousVersion = myConfiguration.getTarget().getVersionName();
-        NlUsageTrackerManager.getInstance(mySurface).logAction(LayoutEditorEvent.LayoutEditorEventType.API_LEVEL_CHANGE);
-      }
-      else if (!myConfiguration.getLocale().equals(myPreviousLocale)) {
-        myPreviousLocale = myConfiguration.getLocale();
-        NlUsageTrackerManager.getInstance(mySurface).logAction(LayoutEditorEvent.LayoutEditorEventType.LANGUAGE_CHANGE);
-      }
-      else if (myConfiguration.getDevice() != null && !StringUtil.equals(myConfiguration.getDevice().getDisplayName(), myPreviousDeviceName)) {
-        myPreviousDeviceName = myConfiguration.getDevice().getDisplayName();
-        NlUsageTrackerManager.getInstance(mySurface).logAction(LayoutEditorEvent.LayoutEditorEventType.DEVICE_CHANGE);
-      }
+    try {
+      startRender().get();
+    }
+    catch (CancellationException e) {
+      // Superseded by a newer render of the same layout before it started
     }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Starts rendering the current model without waiting for the render thread, inflating the layout first if it hasn't been
+   * inflated before. The returned future completes once the result has been applied to the model and the listeners
+   * {@link ModelListener#modelRendered(NlModel)} method has been called. It is cancelled if a newer render of the layout
+   * superseded this one before it started, or if the render task was replaced in the meantime.
+   */
+  @NotNull
+  private ListenableFuture<RenderResult> startRender() {
+    logConfigurationChanges();
 
     ChangeType changeType = myModificationTrigger;
     myModificationTrigger = null;
     long renderStartTimeMs = System.currentTimeMillis();
+    long renderThreadNanos = myRenderMetrics.getRenderThreadNanos();
     boolean inflated = inflate(false);
 
+    RenderTask renderTask;
     synchronized (RENDERING_LOCK) {
-      if (myRenderTask != null) {
-        RenderResult result = myRenderTask.render();
-        // When the layout was inflated in this same call, we do not have to update the hierarchy again
-        if (!inflated) {
-          updateHierarchy(result);
-        }
-        myRenderResultLock.writeLock().lock();
+      renderTask = myRenderTask;
+    }
+    if (renderTask == null) {
+      finishRenderCycle(renderThreadNanos);
+      notifyListenersRenderComplete();
+      return Futures.immediateFuture(getRenderResult());
+    }
+
+    SettableFuture<RenderResult> rendered = SettableFuture.create();
+    Futures.addCallback(renderTask.renderAsync(), new FutureCallback<RenderResult>() {
+      @Override
+      public void onSuccess(@Nullable RenderResult result) {
         try {
-          myRenderResult = result;
-          // Downgrade the write lock to read lock
-          myRenderResultLock.readLock().lock();
+          synchronized (RENDERING_LOCK) {
+            if (renderTask != myRenderTask) {
+              // The layout was inflated into a new render task, whose own render supersedes this one
+              rendered.cancel(false);
+              return;
+            }
+            // When the layout was inflated for this same render, we do not have to update the hierarchy again
+            if (!inflated) {
+              updateHierarchy(result);
+            }
+            setRenderResult(result, changeType, renderStartTimeMs);
+          }
+          finishRenderCycle(renderThreadNanos);
+          notifyListenersRenderComplete();
+          rendered.set(result);
         }
-        finally {
-          myRenderResultLock.writeLock().unlock();
+        catch (RuntimeException e) {
+          rendered.setException(e);
         }
-        try {
-          NlUsageTrackerManager.getInstance(mySurface).logRenderResult(changeType,
-                                                                       myRenderResult,
-                                                                       System.currentTimeMillis() - renderStartTimeMs);
-        } finally {
-          myRenderResultLock.readLock().unlock();
+      }
+
+      @Override
+      public void onFailure(@NotNull Throwable t) {
+        if (t instanceof CancellationException) {
+          rendered.cancel(false);
+        }
+        else {
+          rendered.setException(t);
         }
       }
+    }, PooledThreadExecutor.INSTANCE);
+    return rendered;
+  }
+
+  private void setRenderResult(@Nullable RenderResult result, @Nullable ChangeType changeType, long renderStartTimeMs) {
+    myRenderResultLock.writeLock().lock();
+    try {
+      myRenderResult = result;
+      // Downgrade the write lock to read lock
+      myRenderResultLock.readLock().lock();
+    }
+    finally {
+      myRenderResultLock.writeLock().unlock();
+    }
+    try {
+      NlUsageTrackerManager.getInstance(mySurface).logRenderResult(changeType,
+                                                                   myRenderResult,
+                                                                   System.currentTimeMillis() - renderStartTimeMs);
+    } finally {
+      myRenderResultLock.readLock().unlock();
     }
+  }
 
-    notifyListenersRenderComplete();
+  /**
+   * Logs the configuration changes made since the last render for usage tracking. We only pay attention to individual
+   * changes where only one item is affected since those are likely to be triggered by the user.
+   */
+  private void logConfigurationChanges() {
+    if (myConfigurationModificationCount == myConfiguration.getModificationCount()) {
+      return;
+    }
+    if (!StringUtil.equals(myConfiguration.getTheme(), myPreviousTheme)) {
+      myPreviousTheme = myConfiguration.getTheme();
+      NlUsageTrackerManager.getInstance(mySurface).logAction(LayoutEditorEvent.LayoutEditorEventType.THEME_CHANGE);
+    }
+    else if (myConfiguration.getTarget() != null && !StringUtil.equals(myConfiguration.getTarget().getVersionName(), myPreviousVersion)) {
+      myPreviousVersion = myConfiguration.getTarget().getVersionName();
+      NlUsageTrackerManager.getInstance(mySurface).logAction(LayoutEditorEvent.LayoutEditorEventType.API_LEVEL_CHANGE);
+    }
+    else if (!myConfiguration.getLocale().equals(myPreviousLocale)) {
+      myPreviousLocale = myConfiguration.getLocale();
+      NlUsageTrackerManager.getInstance(mySurface).logAction(LayoutEditorEvent.LayoutEditorEventType.LANGUAGE_CHANGE);
+    }
+    else if (myConfiguration.getDevice() != null && !StringUtil.equals(myConfiguration.getDevice().getDisplayName(), myPreviousDeviceName)) {
+      myPreviousDeviceName = myConfiguration.getDevice().getDisplayName();
+      NlUsageTrackerManager.getInstance(mySurface).logAction(LayoutEditorEvent.LayoutEditorEventType.DEVICE_CHANGE);
+    }
   }
 
   /**
@@ -590,16 +763,87 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
    * method will be called.
    */
   public void requestRender() {
+    myRenderRequested.set(true);
+    queueRender();
+  }
+
+  /**
+   * Renders the current model asynchronously, like {@link #requestRender()}, and returns a future for the result.
+   * <p/>
+   * Renders requested in quick succession are merged, in which case their futures all complete with the result of the same
+   * render. Cancelling the future of a render which has not started yet skips that render, unless other callers still
+   * wait for it; a render which has started always runs to completion.
+   */
+  @NotNull
+  public ListenableFuture<RenderResult> renderAsync() {
+    SettableFuture<RenderResult> future = SettableFuture.create();
+    synchronized (myPendingRenders) {
+      myPendingRenders.add(future);
+    }
+    queueRender();
+    return future;
+  }
+
+  private void cancelPendingRenders() {
+    List<SettableFuture<RenderResult>> futures;
+    synchronized (myPendingRenders) {
+      futures = ImmutableList.copyOf(myPendingRenders);
+      myPendingRenders.clear();
+    }
+    futures.forEach(future -> future.cancel(false));
+  }
+
+  private void queueRender() {
     // This method will be removed once we only do direct rendering (see RenderTask.render(Graphics2D))
     // This update is low priority so the model updates take precedence
     getRenderingQueue().queue(new Update("model.render", LOW_PRIORITY) {
       @Override
       public void run() {
+        List<SettableFuture<RenderResult>> futures;
+        synchronized (myPendingRenders) {
+          futures = ImmutableList.copyOf(myPendingRenders);
+          myPendingRenders.clear();
+        }
+        boolean requested = myRenderRequested.getAndSet(false);
         if (myFacet.isDisposed()) {
+          futures.forEach(future -> future.cancel(false));
+          return;
+        }
+        if (!requested && futures.stream().allMatch(Future::isCancelled)) {
+          // Nobody is waiting for this render anymore
           return;
         }
 
-        render();
+        // The queue only waits for the render to be submitted to the render thread, so the next changes can be
+        // merged while it renders; a newer render supersedes this one if it has not started by then
+        ListenableFuture<RenderResult> render;
+        try {
+          render = startRender();
+        }
+        catch (RuntimeException e) {
+          futures.forEach(future -> future.setException(e));
+          throw e;
+        }
+        Futures.addCallback(render, new FutureCallback<RenderResult>() {
+          @Override
+          public void onSuccess(@Nullable RenderResult result) {
+            futures.forEach(future -> future.set(result));
+          }
+
+          @Override
+          public void onFailure(@NotNull Throwable t) {
+            if (!(t instanceof CancellationException)) {
+              futures.forEach(future -> future.setException(t));
+            }
+            else if (!futures.isEmpty()) {
+              // Superseded: the callers get the result of the next render instead
+              synchronized (myPendingRenders) {
+                myPendingRenders.addAll(futures);
+              }
+              queueRender();
+            }
+          }
+        }, PooledThreadExecutor.INSTANCE);
       }
 
       @Override
@@ -1852,6 +2096,7 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
   @Override
   public void dispose() {
     deactivate(); // ensure listeners are unregistered if necessary
+    cancelPendingRenders();
 
     synchronized (myListeners) {
       myListeners.clear();
@@ -1881,6 +2126,89 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
 
   // ---- Implements ResourceNotificationManager.ResourceChangeListener ----
 
+  @Override
+  public void resourcesChanged(@NotNull ResourceNotificationManager.ChangeSet changes) {
+    if (changes.isOnly(ResourceNotificationManager.Reason.RESOURCE_EDIT) && !isAffectedBy(changes)) {
+      return;
+    }
+    resourcesChanged(changes.getReasons());
+  }
+
+  /**
+   * Returns false if the given resource edits only touched layout files that this layout does not reference
+   * (and therefore cannot change the rendering of this model)
+   */
+  private boolean isAffectedBy(@NotNull ResourceNotificationManager.ChangeSet changes) {
+    if (!changes.isFileSetComplete() || changes.getFiles().isEmpty() ||
+        changes.getFolderTypes().size() != 1 || !changes.getFolderTypes().contains(ResourceFolderType.LAYOUT)) {
+      return true;
+    }
+    return isAffectedByLayoutEdits(changes.getFiles());
+  }
+
+  /**
+   * Returns true if any of the given layout files is this layout, or a layout it includes directly or through other
+   * layouts. Layouts referenced through theme attributes or aliases can't be followed, so those count as affected.
+   */
+  @VisibleForTesting
+  boolean isAffectedByLayoutEdits(@NotNull Collection<VirtualFile> files) {
+    if (files.contains(myFile)) {
+      return true;
+    }
+    Set<String> names = Sets.newHashSet();
+    for (VirtualFile file : files) {
+      names.add(file.getNameWithoutExtension());
+    }
+    return ApplicationManager.getApplication().runReadAction((Computable<Boolean>)() -> referencesLayouts(names));
+  }
+
+  private boolean referencesLayouts(@NotNull Set<String> names) {
+    Project project = getProject();
+    Set<String> visited = Sets.newHashSet();
+    Deque<XmlFile> queue = new ArrayDeque<>();
+    queue.add(getFile());
+    while (!queue.isEmpty()) {
+      XmlFile file = queue.removeFirst();
+      for (XmlTag tag : PsiTreeUtil.findChildrenOfType(file, XmlTag.class)) {
+        for (XmlAttribute attribute : tag.getAttributes()) {
+          String value = attribute.getValue();
+          if (value == null) {
+            continue;
+          }
+          if (value.startsWith(LAYOUT_RESOURCE_PREFIX)) {
+            String name = value.substring(LAYOUT_RESOURCE_PREFIX.length());
+            if (names.contains(name)) {
+              return true;
+            }
+            if (!visited.add(name)) {
+              continue;
+            }
+            List<ResourceItem> items = myProjectResourceRepository.getResourceItem(ResourceType.LAYOUT, name);
+            if (items == null) {
+              continue;
+            }
+            for (ResourceItem item : items) {
+              PsiFile included = LocalResourceRepository.getItemPsiFile(project, item);
+              if (!(included instanceof XmlFile) || ResourceHelper.getFolderType(included) != ResourceFolderType.LAYOUT) {
+                // Layout alias defined in a values file
+                return true;
+              }
+              queue.add((XmlFile)included);
+            }
+          }
+          else if (value.startsWith(PREFIX_THEME_REF) && isLayoutAttribute(attribute.getLocalName())) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isLayoutAttribute(@NotNull String name) {
+    return ATTR_LAYOUT.equals(name) || ATTR_LISTITEM.equals(name) || ATTR_LISTHEADER.equals(name) || ATTR_LISTFOOTER.equals(name);
+  }
+
   @Override
   public void resourcesChanged(@NotNull Set<ResourceNotificationManager.Reason> reason) {
     for (ResourceNotificationManager.Reason r : reason) {
@@ -1978,6 +2306,16 @@ public class NlModel implements Disposable, ResourceChangeListener, Modification
     }
     myModelVersion.increase(reason);
     myModificationTrigger = reason;
+    switch (reason) {
+      case RESOURCE_EDIT:
+      case RESOURCE_CHANGED:
+      case BUILD:
+      case CONFIGURATION_CHANGE:
+        myRequiresNewRenderTask.set(true);
+        break;
+      default:
+        break;
+    }
     requestModelUpdate();
   }
 
@@ -30,10 +30,14 @@ import com.android.tools.idea.rendering.*;
 import com.android.tools.idea.uibuilder.api.InsertType;
 import com.android.tools.idea.uibuilder.model.*;
 import com.android.tools.idea.uibuilder.surface.ScreenView;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.intellij.ide.highlighter.XmlFileType;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Computable;
@@ -45,10 +49,12 @@ import com.intellij.psi.XmlElementFactory;
 import com.intellij.psi.xml.XmlTag;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.PathUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.ui.UIUtil;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
@@ -56,6 +62,7 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 
 import static com.android.SdkConstants.*;
@@ -67,6 +74,11 @@ import static com.android.tools.idea.uibuilder.palette.NlPaletteModel.PALETTE_VE
  * IconPreviewFactory generates a preview of certain palette components.
  * The images are rendered from preview.xml and are used as an alternate representation on
  * the palette i.e. a button is rendered as the SDK button would look like on the target device.
+ * <p/>
+ * The images are stored on disk, with a folder for each combination of theme, screen, density and API level, and
+ * the images read back are kept in memory. A folder is only considered complete once its marker file has been written
+ * after the last image. Missing images can be rendered in the background, see
+ * {@link #loadInBackground(Configuration, Palette, Runnable)}.
  */
 public class IconPreviewFactory implements Disposable {
   private static final Logger LOG = Logger.getInstance(IconPreviewFactory.class);
@@ -76,6 +88,10 @@ public class IconPreviewFactory implements Disposable {
   private static final int DEFAULT_X_DIMENSION = 1080;
   private static final int DEFAULT_Y_DIMENSION = 1920;
   private static final String DEFAULT_THEME = "AppTheme";
+  /** File written in a cache folder once all its preview images have been generated */
+  private static final String COMPLETE_MARKER_FILE = ".complete";
+  private static final long BACKGROUND_RENDER_TIMEOUT_SECONDS = 30L;
+  private static final int MAX_CACHED_IMAGES = 200;
   private static final String PREVIEW_PLACEHOLDER_FILE = "preview.xml";
   private static final String CONTAINER_ID = "TopLevelContainer";
   private static final String LINEAR_LAYOUT = "<LinearLayout\n" +
@@ -99,17 +115,49 @@ public class IconPreviewFactory implements Disposable {
   @VisibleForTesting
   long myRenderTimeoutSeconds = 1L;
 
+  /** Runs the background loads, one at a time */
+  @VisibleForTesting
+  final Executor myLoadExecutor = new BoundedTaskExecutor(PooledThreadExecutor.INSTANCE, 1);
+
+  /** The cache folders being generated by a background load; only accessed on the event dispatch thread */
+  private final Set<File> myPendingLoads = Sets.newHashSet();
+
+  /**
+   * The cache folders known to be complete, so that {@link #loadInBackground} does not check the disk on every paint. Folders
+   * are added once a load finished them, or once a background load found them complete on disk.
+   */
+  private final Set<File> myCompleteDirs = ConcurrentHashMap.newKeySet();
+
+  /** Guards the writes to the disk cache against {@link #dropCache()} */
+  private final Object myCacheLock = new Object();
+
+  /** Incremented when the disk cache is dropped, so loads started before do not write stale images */
+  private volatile int myCacheGeneration;
+
+  /** Preview images read from the disk cache, by file and scale */
+  private final Cache<String, BufferedImage> myImageCache = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_IMAGES).build();
+
+  private volatile boolean myDisposed;
+
   private RenderTask myRenderTask;
 
   @Nullable
   public BufferedImage getImage(@NotNull Palette.Item item, @NotNull Configuration configuration, double scale) {
-    BufferedImage image = readImage(item.getId(), configuration);
+    File file = new File(getPreviewCacheDirForConfiguration(configuration), item.getId() + DOT_PNG);
+    String key = file.getPath() + '@' + scale;
+    BufferedImage image = myImageCache.getIfPresent(key);
+    if (image != null) {
+      return image;
+    }
+    // Missing images are not cached, since they may be generated by a background load
+    image = readImage(file);
     if (image == null) {
       return null;
     }
     if (scale != 1.0) {
       image = ImageUtils.scale(image, scale);
     }
+    myImageCache.put(key, image);
     return image;
   }
 
@@ -119,19 +167,27 @@ public class IconPreviewFactory implements Disposable {
       if (myRenderTask != null) {
         myRenderTask.dispose();
       }
-
-      AndroidFacet facet = AndroidFacet.getInstance(configuration.getModule());
-      if (facet == null) {
-        return null;
-      }
-      RenderService renderService = RenderService.get(facet);
-      RenderLogger logger = renderService.createLogger();
-      myRenderTask = renderService.createTask(null, configuration, logger, null);
+      myRenderTask = createRenderTask(configuration);
     }
 
     return myRenderTask;
   }
 
+  @Nullable
+  private static RenderTask createRenderTask(@NotNull Configuration configuration) {
+    AndroidFacet facet = AndroidFacet.getInstance(configuration.getModule());
+    if (facet == null) {
+      return null;
+    }
+    RenderService renderService = RenderService.get(facet);
+    RenderLogger logger = renderService.createLogger();
+    RenderTask task = renderService.createTask(null, configuration, logger, null);
+    if (task != null) {
+      task.setPriority(RenderService.Priority.THUMBNAIL);
+    }
+    return task;
+  }
+
   /**
    * Return a component image to display while dragging a component from the palette.
    * Return null if such an image cannot be rendered. The palette must provide a fallback in this case.
@@ -200,8 +256,8 @@ public class IconPreviewFactory implements Disposable {
                              Math.min(view.getBottom() + shadowIncrement, image.getHeight()));
   }
 
-  private static BufferedImage readImage(@NotNull String id, @NotNull Configuration configuration) {
-    File file = new File(getPreviewCacheDirForConfiguration(configuration), id + DOT_PNG);
+  @Nullable
+  private static BufferedImage readImage(@NotNull File file) {
     if (!file.exists()) {
       return null;
     }
@@ -220,10 +276,134 @@ public class IconPreviewFactory implements Disposable {
   }
 
   /**
-   * Drop the preview cache for this configuration.
+   * Drop the preview cache. Even the previews of framework themes are dropped, since the palette also contains widgets
+   * from library modules. Background loads in progress stop without writing any more images.
+   * <p/>
+   * Must be called on the event dispatch thread.
    */
   public void dropCache() {
-    FileUtil.delete(getPreviewCacheDir());
+    ApplicationManager.getApplication().assertIsDispatchThread();
+    synchronized (myCacheLock) {
+      myCacheGeneration++;
+      FileUtil.delete(getPreviewCacheDir());
+    }
+    myPendingLoads.clear();
+    myCompleteDirs.clear();
+    myImageCache.invalidateAll();
+  }
+
+  private static boolean isComplete(@NotNull File cacheDir) {
+    return new File(cacheDir, COMPLETE_MARKER_FILE).exists();
+  }
+
+  private void markComplete(@NotNull File cacheDir) {
+    FileUtil.createIfDoesntExist(new File(cacheDir, COMPLETE_MARKER_FILE));
+    myCompleteDirs.add(cacheDir);
+  }
+
+  /**
+   * Generates the missing preview images of a palette in the background, with a low render priority, if they have not
+   * been generated yet for the given configuration. The components are rendered in batches; the images of each batch
+   * are available from {@link #getImage(Palette.Item, Configuration, double)} as soon as the batch has been rendered,
+   * after which {@code onImagesAvailable} is called on the event dispatch thread.
+   * <p/>
+   * Must be called on the event dispatch thread. Whether the images were generated already is only checked on disk in the
+   * background, so this can be called on every paint.
+   *
+   * @param configuration     a hardware configuration to generate previews for
+   * @param palette           a palette with the components to generate previews of
+   * @param onImagesAvailable called after each batch of images has been written
+   * @return true if the images are being generated
+   */
+  public boolean loadInBackground(@NotNull Configuration configuration,
+                                  @NotNull Palette palette,
+                                  @NotNull Runnable onImagesAvailable) {
+    ApplicationManager.getApplication().assertIsDispatchThread();
+    File cacheDir = getPreviewCacheDirForConfiguration(configuration);
+    if (myPendingLoads.contains(cacheDir)) {
+      return true;
+    }
+    if (myCompleteDirs.contains(cacheDir)) {
+      // The previews have already been generated.
+      return false;
+    }
+    List<StringBuilder> sources = Lists.newArrayList();
+    loadSources(sources, null, palette.getItems());
+    if (sources.isEmpty()) {
+      return false;
+    }
+    int generation = myCacheGeneration;
+    myPendingLoads.add(cacheDir);
+    myLoadExecutor.execute(() -> {
+      if (isComplete(cacheDir)) {
+        // Generated by an earlier session; nothing to render
+        synchronized (myCacheLock) {
+          if (generation == myCacheGeneration) {
+            myCompleteDirs.add(cacheDir);
+          }
+        }
+        ApplicationManager.getApplication().invokeLater(() -> {
+          if (generation == myCacheGeneration) {
+            myPendingLoads.remove(cacheDir);
+          }
+          if (!myDisposed) {
+            onImagesAvailable.run();
+          }
+        }, ModalityState.any());
+        return;
+      }
+      RenderTask renderTask = ApplicationManager.getApplication().runReadAction((Computable<RenderTask>)() -> createRenderTask(configuration));
+      try {
+        synchronized (myCacheLock) {
+          if (generation != myCacheGeneration) {
+            return;
+          }
+          // Start over from the images of an interrupted load
+          FileUtil.delete(cacheDir);
+        }
+        for (StringBuilder source : sources) {
+          if (myDisposed || renderTask == null) {
+            return;
+          }
+          String preview = String.format(LINEAR_LAYOUT, CONTAINER_ID, source);
+          RenderResult result = renderImage(myExecutorService, BACKGROUND_RENDER_TIMEOUT_SECONDS, renderTask, preview);
+          boolean written = ApplicationManager.getApplication().runReadAction((Computable<Boolean>)() -> {
+            synchronized (myCacheLock) {
+              if (generation != myCacheGeneration) {
+                return false;
+              }
+              addResultToCache(result, null, configuration);
+              return true;
+            }
+          });
+          if (!written) {
+            return;
+          }
+          ApplicationManager.getApplication().invokeLater(() -> {
+            if (!myDisposed) {
+              onImagesAvailable.run();
+            }
+          }, ModalityState.any());
+        }
+        synchronized (myCacheLock) {
+          if (generation == myCacheGeneration && !myDisposed) {
+            markComplete(cacheDir);
+          }
+        }
+      }
+      finally {
+        if (renderTask != null) {
+          renderTask.dispose();
+        }
+        ApplicationManager.getApplication().invokeLater(() -> {
+          // After a dropCache, another load of the same folder may be pending already
+          if (generation == myCacheGeneration) {
+            myPendingLoads.remove(cacheDir);
+          }
+        }, ModalityState.any());
+      }
+    });
+    return true;
   }
 
   /**
@@ -259,14 +439,15 @@ public class IconPreviewFactory implements Disposable {
                @Nullable final List<String> requestedIds,
                @Nullable final List<String> generatedIds) {
     File cacheDir = getPreviewCacheDirForConfiguration(configuration);
-    String[] files = cacheDir.list();
-    if (files != null && files.length > 0) {
+    if (isComplete(cacheDir) && !reload) {
       // The previews have already been generated.
-      if (!reload) {
-        return false;
-      }
-      FileUtil.delete(cacheDir);
+      return false;
     }
+    // Either reloading, or only some of the images were written before an earlier load was interrupted
+    FileUtil.delete(cacheDir);
+    myCompleteDirs.remove(cacheDir);
+    myImageCache.invalidateAll();
+    int generation = myCacheGeneration;
     ApplicationManager.getApplication().runReadAction(new Computable<Void>() {
       @Override
       public Void compute() {
@@ -277,6 +458,11 @@ public class IconPreviewFactory implements Disposable {
           addResultToCache(renderImage(myExecutorService, myRenderTimeoutSeconds, getRenderTask(configuration), preview), generatedIds,
                            configuration);
         }
+        synchronized (myCacheLock) {
+          if (generation == myCacheGeneration) {
+            markComplete(cacheDir);
+          }
+        }
         return null;
       }
     });
@@ -320,8 +506,9 @@ public class IconPreviewFactory implements Disposable {
       "image-cache");
   }
 
+  @VisibleForTesting
   @NotNull
-  private static File getPreviewCacheDirForConfiguration(@NotNull Configuration configuration) {
+  static File getPreviewCacheDirForConfiguration(@NotNull Configuration configuration) {
     int density = configuration.getDensity().getDpiValue();
     State state = configuration.getDeviceState();
     Screen screen = state != null ? state.getHardware().getScreen() : null;
@@ -383,7 +570,8 @@ public class IconPreviewFactory implements Disposable {
     if (renderTask == null) {
       return null;
     }
-    PsiFile file = PsiFileFactory.getInstance(renderTask.getModule().getProject()).createFileFromText(PREVIEW_PLACEHOLDER_FILE, XmlFileType.INSTANCE, xml);
+    PsiFile file = ApplicationManager.getApplication().runReadAction((Computable<PsiFile>)() -> PsiFileFactory
+      .getInstance(renderTask.getModule().getProject()).createFileFromText(PREVIEW_PLACEHOLDER_FILE, XmlFileType.INSTANCE, xml));
 
     renderTask.setPsiFile(file);
     renderTask.setOverrideBgColor(UIUtil.TRANSPARENT_COLOR.getRGB());
@@ -398,7 +586,7 @@ public class IconPreviewFactory implements Disposable {
         return renderTask.render();
       }).get(timeoutSeconds, TimeUnit.SECONDS);
     }
-    catch (InterruptedException | ExecutionException | TimeoutException e) {
+    catch (InterruptedException | ExecutionException | TimeoutException | RejectedExecutionException e) {
       LOG.debug(e);
     }
 
@@ -407,6 +595,7 @@ public class IconPreviewFactory implements Disposable {
 
   @Override
   public void dispose() {
+    myDisposed = true;
     if (myRenderTask != null) {
       myRenderTask.dispose();
       myRenderTask = null;
@@ -16,9 +16,11 @@
 package com.android.tools.idea.uibuilder.property;
 
 import com.android.annotations.VisibleForTesting;
+import com.android.resources.ResourceFolderType;
 import com.android.tools.idea.configurations.Configuration;
 import com.android.tools.idea.gradle.dependencies.GradleDependencyManager;
 import com.android.tools.idea.model.MergedManifest;
+import com.android.tools.idea.res.ResourceHelper;
 import com.android.tools.idea.uibuilder.api.ViewHandler;
 import com.android.tools.idea.uibuilder.handlers.ImageViewHandler;
 import com.android.tools.idea.uibuilder.handlers.ViewHandlerManager;
@@ -26,16 +28,25 @@ import com.android.tools.idea.uibuilder.model.NlComponent;
 import com.android.utils.Pair;
 import com.google.common.base.Splitter;
 import com.android.tools.idea.uibuilder.model.NlModel;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.Table;
 import com.intellij.ide.util.PropertiesComponent;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiClass;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.psi.xml.XmlAttribute;
 import com.intellij.psi.xml.XmlTag;
 import com.intellij.xml.NamespaceAwareXmlAttributeDescriptor;
 import com.intellij.xml.XmlAttributeDescriptor;
@@ -50,14 +61,28 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import static com.android.SdkConstants.*;
 
 public class NlProperties {
   public static final String STARRED_PROP = "ANDROID.STARRED_PROPERTIES";
 
+  /**
+   * Maximum number of different kinds of tags whose attribute descriptors are kept per module
+   */
+  private static final int MAX_CACHED_DESCRIPTORS = 200;
+
+  /**
+   * The attribute descriptors of the tags of a module, by {@link DescriptorKey}. The descriptors of custom views depend
+   * on their classes, so the cache is dropped when the Java structure of the project changes.
+   */
+  private static final Key<CachedValue<Cache<DescriptorKey, List<CachedDescriptor>>>> DESCRIPTOR_CACHE_KEY =
+    Key.create("android.nl.properties.descriptors");
+
   private static NlProperties ourInstance = null;
   private final AndroidDomElementDescriptorProvider myDescriptorProvider = new AndroidDomElementDescriptorProvider();
 
@@ -101,6 +126,7 @@ public class NlProperties {
     AttributeDefinitions systemAttrDefs = systemResourceManager.getAttributeDefinitions();
 
     Table<String, String, NlPropertyItem> combinedProperties = null;
+    Cache<DescriptorKey, List<CachedDescriptor>> descriptorCache = getDescriptorCache(facet);
 
     for (NlComponent component : components) {
       XmlTag tag = component.getTag();
@@ -108,20 +134,16 @@ public class NlProperties {
         return ImmutableTable.of();
       }
 
-      XmlElementDescriptor elementDescriptor = myDescriptorProvider.getDescriptor(tag);
-      if (elementDescriptor == null) {
+      List<CachedDescriptor> descriptors = getDescriptors(descriptorCache, tag, localAttrDefs, systemAttrDefs);
+      if (descriptors == null) {
         return ImmutableTable.of();
       }
 
-      XmlAttributeDescriptor[] descriptors = elementDescriptor.getAttributesDescriptors(tag);
-      Table<String, String, NlPropertyItem> properties = HashBasedTable.create(3, descriptors.length);
+      Table<String, String, NlPropertyItem> properties = HashBasedTable.create(3, descriptors.size());
 
-      for (XmlAttributeDescriptor desc : descriptors) {
-        String namespace = getNamespace(desc, tag);
-        AttributeDefinitions attrDefs = NS_RESOURCES.equals(namespace) ? systemAttrDefs : localAttrDefs;
-        AttributeDefinition attrDef = attrDefs == null ? null : attrDefs.getAttrDefByName(desc.getName());
-        NlPropertyItem property = NlPropertyItem.create(components, desc, namespace, attrDef);
-        properties.put(StringUtil.notNullize(namespace), property.getName(), property);
+      for (CachedDescriptor desc : descriptors) {
+        NlPropertyItem property = NlPropertyItem.create(components, desc.descriptor, desc.namespace, desc.definition);
+        properties.put(StringUtil.notNullize(desc.namespace), property.getName(), property);
       }
 
       // Exceptions:
@@ -155,6 +177,46 @@ public class NlProperties {
     return combinedProperties;
   }
 
+  @NotNull
+  private static Cache<DescriptorKey, List<CachedDescriptor>> getDescriptorCache(@NotNull AndroidFacet facet) {
+    return CachedValuesManager.getManager(facet.getModule().getProject()).getCachedValue(facet.getModule(), DESCRIPTOR_CACHE_KEY, () -> {
+      Cache<DescriptorKey, List<CachedDescriptor>> cache = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_DESCRIPTORS).build();
+      return CachedValueProvider.Result.create(cache, PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT);
+    }, false);
+  }
+
+  /**
+   * Returns the attribute descriptors of a tag, from the cache if a tag of the same kind was seen before, or null if the
+   * tag has no descriptor.
+   */
+  @Nullable
+  private List<CachedDescriptor> getDescriptors(@NotNull Cache<DescriptorKey, List<CachedDescriptor>> cache,
+                                                @NotNull XmlTag tag,
+                                                @Nullable AttributeDefinitions localAttrDefs,
+                                                @Nullable AttributeDefinitions systemAttrDefs) {
+    DescriptorKey key = new DescriptorKey(tag, localAttrDefs, systemAttrDefs);
+    List<CachedDescriptor> descriptors = cache.getIfPresent(key);
+    if (descriptors != null) {
+      return descriptors;
+    }
+
+    XmlElementDescriptor elementDescriptor = myDescriptorProvider.getDescriptor(tag);
+    if (elementDescriptor == null) {
+      return null;
+    }
+    XmlAttributeDescriptor[] attributeDescriptors = elementDescriptor.getAttributesDescriptors(tag);
+    ImmutableList.Builder<CachedDescriptor> builder = ImmutableList.builder();
+    for (XmlAttributeDescriptor desc : attributeDescriptors) {
+      String namespace = getNamespace(desc, tag);
+      AttributeDefinitions attrDefs = NS_RESOURCES.equals(namespace) ? systemAttrDefs : localAttrDefs;
+      AttributeDefinition attrDef = attrDefs == null ? null : attrDefs.getAttrDefByName(desc.getName());
+      builder.add(new CachedDescriptor(desc, namespace, attrDef));
+    }
+    descriptors = builder.build();
+    cache.put(key, descriptors);
+    return descriptors;
+  }
+
   @Nullable
   private static AndroidFacet getFacet(@NotNull List<NlComponent> components) {
     if (components.isEmpty()) {
@@ -340,4 +402,85 @@ public class NlProperties {
     }
     return activityClass != null;
   }
+
+  /**
+   * An attribute descriptor of a tag with its namespace and attribute definition
+   */
+  private static class CachedDescriptor {
+    @NotNull private final XmlAttributeDescriptor descriptor;
+    @Nullable private final String namespace;
+    @Nullable private final AttributeDefinition definition;
+
+    private CachedDescriptor(@NotNull XmlAttributeDescriptor descriptor,
+                             @Nullable String namespace,
+                             @Nullable AttributeDefinition definition) {
+      this.descriptor = descriptor;
+      this.namespace = namespace;
+      this.definition = definition;
+    }
+  }
+
+  /**
+   * What the attribute descriptors of a layout tag depend on: the tag name, the type of its parent (which provides
+   * the layout params), the attributes already set on the tag and the attribute definitions of the module and of the
+   * platform (which identify the API level).
+   */
+  private static class DescriptorKey {
+    @NotNull private final String myTagName;
+    @Nullable private final String myParentType;
+    private final boolean myIsRoot;
+    @Nullable private final ResourceFolderType myFolderType;
+    @NotNull private final List<String> myAttributes;
+    @Nullable private final AttributeDefinitions myLocalAttrDefs;
+    @Nullable private final AttributeDefinitions mySystemAttrDefs;
+
+    private DescriptorKey(@NotNull XmlTag tag, @Nullable AttributeDefinitions localAttrDefs, @Nullable AttributeDefinitions systemAttrDefs) {
+      myTagName = tag.getName();
+      XmlTag parent = tag.getParentTag();
+      myIsRoot = parent == null;
+      if (parent == null) {
+        myParentType = tag.getAttributeValue(ATTR_PARENT_TAG, TOOLS_URI);
+      }
+      else if (VIEW_MERGE.equals(parent.getName())) {
+        myParentType = VIEW_MERGE + ":" + parent.getAttributeValue(ATTR_PARENT_TAG, TOOLS_URI);
+      }
+      else {
+        myParentType = parent.getName();
+      }
+      myFolderType = ResourceHelper.getFolderType(tag.getContainingFile());
+      XmlAttribute[] attributes = tag.getAttributes();
+      List<String> names = new ArrayList<>(attributes.length);
+      for (XmlAttribute attribute : attributes) {
+        names.add(attribute.getNamespace() + ":" + attribute.getLocalName());
+      }
+      Collections.sort(names);
+      myAttributes = names;
+      myLocalAttrDefs = localAttrDefs;
+      mySystemAttrDefs = systemAttrDefs;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof DescriptorKey)) {
+        return false;
+      }
+      DescriptorKey key = (DescriptorKey)other;
+      return myIsRoot == key.myIsRoot &&
+             myLocalAttrDefs == key.myLocalAttrDefs &&
+             mySystemAttrDefs == key.mySystemAttrDefs &&
+             myTagName.equals(key.myTagName) &&
+             Objects.equals(myParentType, key.myParentType) &&
+             myFolderType == key.myFolderType &&
+             myAttributes.equals(key.myAttributes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(myTagName, myParentType, myIsRoot, myFolderType, myAttributes,
+                          System.identityHashCode(myLocalAttrDefs), System.identityHashCode(mySystemAttrDefs));
+    }
+  }
 }
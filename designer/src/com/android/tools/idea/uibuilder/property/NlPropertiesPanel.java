@@ -17,7 +17,10 @@ package com.android.tools.idea.uibuilder.property;
 
 import com.android.SdkConstants;
 import com.android.annotations.VisibleForTesting;
+import com.android.tools.idea.configurations.Configuration;
+import com.android.tools.idea.res.AppResourceRepository;
 import com.android.tools.idea.uibuilder.model.NlComponent;
+import com.android.tools.idea.uibuilder.model.NlModel;
 import com.android.tools.idea.uibuilder.property.editors.NlPropertyEditors;
 import com.android.tools.idea.uibuilder.property.inspector.InspectorPanel;
 import com.android.tools.idea.uibuilder.property.ptable.PTable;
@@ -52,8 +55,12 @@ import java.awt.*;
 import java.beans.PropertyChangeEvent;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import static com.android.SdkConstants.TOOLS_URI;
 
@@ -78,6 +85,13 @@ public class NlPropertiesPanel extends JPanel implements ViewAllPropertiesAction
   private List<NlPropertyItem> myProperties;
   private boolean myAllPropertiesPanelVisible;
 
+  // The default values, the attribute values and the versions of the configuration and the app resources,
+  // when the properties were last updated
+  @Nullable private PropertiesMap myUpdatedDefaultValues;
+  private final Map<NlPropertyItem, String> myUpdatedValues = new HashMap<>();
+  private long myUpdatedConfigurationVersion = -1;
+  private long myUpdatedResourceVersion = -1;
+
   public NlPropertiesPanel(@NotNull NlPropertiesManager propertiesManager, @NotNull Disposable parentDisposable) {
     super(new BorderLayout());
     setOpaque(true);
@@ -182,7 +196,9 @@ public class NlPropertiesPanel extends JPanel implements ViewAllPropertiesAction
       myTable.restoreSelection(selectedRow, selectedItem);
     }
 
-    updateDefaultProperties(propertiesManager);
+    myUpdatedDefaultValues = null;
+    myUpdatedValues.clear();
+    updateProperties(propertiesManager);
     myInspectorPanel.setComponent(components, properties, propertiesManager);
     myTablePanel.setVisible(!groupedProperties.isEmpty());
   }
@@ -209,23 +225,65 @@ public class NlPropertiesPanel extends JPanel implements ViewAllPropertiesAction
 
   public void modelRendered(@NotNull NlPropertiesManager propertiesManager) {
     UIUtil.invokeLaterIfNeeded(() -> {
-      // Bug:219552 : Make sure updateDefaultProperties is always called from the same thread (the UI thread)
-      updateDefaultProperties(propertiesManager);
-      myInspectorPanel.refresh();
+      // Bug:219552 : Make sure updateProperties is always called from the same thread (the UI thread)
+      Set<NlPropertyItem> changed = updateProperties(propertiesManager);
+      if (changed == null) {
+        myInspectorPanel.refresh();
+      }
+      else if (!changed.isEmpty()) {
+        // Properties not tracked here, such as flag values and design properties, may depend on the changed ones
+        myInspectorPanel.refresh(property -> changed.contains(property) || !myUpdatedValues.containsKey(property));
+      }
     });
   }
 
-  private void updateDefaultProperties(@NotNull NlPropertiesManager propertiesManager) {
+  /**
+   * Updates the default values of the properties from the latest render, and finds the properties whose attribute
+   * value or default value changed since the last update.
+   *
+   * @return the properties which changed, or null if the value shown for any property may have changed
+   */
+  @VisibleForTesting
+  @Nullable
+  Set<NlPropertyItem> updateProperties(@NotNull NlPropertiesManager propertiesManager) {
     if (myComponents.isEmpty() || myProperties.isEmpty()) {
-      return;
+      return null;
     }
+    NlModel model = myComponents.get(0).getModel();
+    Configuration configuration = model.getConfiguration();
+    //noinspection ConstantConditions
+    long configurationVersion = configuration != null ? configuration.getModificationCount() : -1; // null in unit tests
+    AppResourceRepository resources = AppResourceRepository.getAppResources(model.getFacet(), false);
+    long resourceVersion = resources != null ? resources.getModificationCount() : -1;
+    // A configuration or resource change may change the resolved value of every property
+    boolean updateAll = myUpdatedValues.isEmpty() ||
+                        configurationVersion != myUpdatedConfigurationVersion ||
+                        resourceVersion != myUpdatedResourceVersion;
     PropertiesMap defaultValues = propertiesManager.getDefaultProperties(myComponents);
-    if (defaultValues.isEmpty()) {
-      return;
-    }
+    boolean updateDefaults = !defaultValues.isEmpty() && (updateAll || !defaultValues.equals(myUpdatedDefaultValues));
+
+    Set<NlPropertyItem> changed = new HashSet<>();
     for (NlPropertyItem property : myProperties) {
-      property.setDefaultValue(getDefaultProperty(defaultValues, property));
+      if (updateDefaults) {
+        PropertiesMap.Property defaultValue = getDefaultProperty(defaultValues, property);
+        if (updateAll ||
+            myUpdatedDefaultValues == null ||
+            !Objects.equals(defaultValue, getDefaultProperty(myUpdatedDefaultValues, property))) {
+          property.setDefaultValue(defaultValue);
+          changed.add(property);
+        }
+      }
+      String value = property.getValue();
+      if (!Objects.equals(value, myUpdatedValues.put(property, value))) {
+        changed.add(property);
+      }
+    }
+    if (updateDefaults) {
+      myUpdatedDefaultValues = defaultValues;
     }
+    myUpdatedConfigurationVersion = configurationVersion;
+    myUpdatedResourceVersion = resourceVersion;
+    return updateAll ? null : changed;
   }
 
   @Nullable
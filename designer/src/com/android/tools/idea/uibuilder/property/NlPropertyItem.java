@@ -67,6 +67,15 @@ public class NlPropertyItem extends PTableItem implements NlProperty {
   @NotNull
   private StarState myStarState;
 
+  // The last value resolved by resolveValueUsingResolver, valid as long as the resolver is the same.
+  // The resolver is replaced by its configuration whenever the resources change.
+  @Nullable
+  private String myLastResolvedInput;
+  @Nullable
+  private String myLastResolvedValue;
+  @Nullable
+  private ResourceResolver myLastResolver;
+
   public static NlPropertyItem create(@NotNull List<NlComponent> components,
                                       @NotNull XmlAttributeDescriptor descriptor,
                                       @Nullable String namespace,
@@ -243,6 +252,11 @@ public class NlPropertyItem extends PTableItem implements NlProperty {
     if (value.startsWith("?") || value.startsWith("@") && !isId(value)) {
       ResourceResolver resolver = getResolver();
       if (resolver != null) {
+        if (resolver == myLastResolver && value.equals(myLastResolvedInput)) {
+          assert myLastResolvedValue != null;
+          return myLastResolvedValue;
+        }
+        String input = value;
         ResourceValue resource = resolver.findResValue(value, false);
         if (resource == null) {
           resource = resolver.findResValue(value, true);
@@ -262,6 +276,9 @@ public class NlPropertyItem extends PTableItem implements NlProperty {
             }
           }
         }
+        myLastResolver = resolver;
+        myLastResolvedInput = input;
+        myLastResolvedValue = value;
       }
     }
     return value;
@@ -45,6 +45,7 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.*;
 import java.util.List;
+import java.util.function.Predicate;
 
 import static com.android.SdkConstants.*;
 import static com.intellij.uiDesigner.core.GridConstraints.*;
@@ -244,6 +245,22 @@ public class InspectorPanel extends JPanel implements KeyEventDispatcher {
     ApplicationManager.getApplication().invokeLater(() -> myInspectors.forEach(InspectorComponent::refresh));
   }
 
+  /**
+   * Refreshes the inspectors with an editor for a property accepted by {@code isChanged}. Inspectors without editors
+   * are always refreshed, since what they show cannot be traced back to properties.
+   */
+  public void refresh(@NotNull Predicate<NlProperty> isChanged) {
+    ApplicationManager.getApplication().invokeLater(() -> {
+      for (InspectorComponent inspector : myInspectors) {
+        List<NlComponentEditor> editors = inspector.getEditors();
+        if (editors.isEmpty() ||
+            editors.stream().map(NlComponentEditor::getProperty).anyMatch(property -> property == null || isChanged.test(property))) {
+          inspector.refresh();
+        }
+      }
+    });
+  }
+
   public boolean activatePreferredEditor(@NotNull String propertyName, boolean activateAfterLoading) {
     if (activateAfterLoading) {
       myActivateEditorAfterLoad = true;
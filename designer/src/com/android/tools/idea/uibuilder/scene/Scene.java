@@ -69,6 +69,8 @@ public class Scene implements ModelListener, SelectionListener {
   private int myLastMouseY;
   private boolean myDidPreviousRepaint = true;
 
+  /** Incremented whenever the hit regions of the scene may have changed, see {@link #invalidateHits()} */
+  private int myHitsVersion;
   private HitListener myHoverListener = new HitListener();
   private HitListener myHitListener = new HitListener();
   private Target myHitTarget = null;
@@ -348,6 +350,7 @@ public class Scene implements ModelListener, SelectionListener {
    * @param model the NlModel to udpate from
    */
   public void updateFrom(@NotNull NlModel model) {
+    invalidateHits();
     List<NlComponent> components = model.getComponents();
     if (components.size() == 0) {
       mySceneComponents.clear();
@@ -457,6 +460,7 @@ public class Scene implements ModelListener, SelectionListener {
   }
 
   public void selectionChanged(@NotNull List<NlComponent> selection, boolean updateTargets) {
+    invalidateHits();
     if (myRoot != null) {
       if (updateTargets) {
         clearChildTargets(myRoot);
@@ -546,6 +550,8 @@ public class Scene implements ModelListener, SelectionListener {
    * @return true if we need to repaint the screen
    */
   public boolean buildDisplayList(@NotNull DisplayList displayList, long time, SceneContext sceneContext) {
+    // Laying out the components may move them
+    invalidateHits();
     boolean needsRepaint = false;
     if (myRoot != null) {
       needsRepaint = myRoot.layout(sceneContext, time);
@@ -672,6 +678,13 @@ public class Scene implements ModelListener, SelectionListener {
    */
   class HitListener implements ScenePicker.HitElementListener {
     private ScenePicker myPicker = new ScenePicker();
+    // The state the hit regions in myPicker were collected for
+    private int myPickerVersion = -1;
+    private SceneComponent myPickerRoot;
+    private SceneContext myPickerContext;
+    private int myPickerOriginX;
+    private int myPickerOriginY;
+    private int myPickerUnit;
     double myClosestComponentDistance = Double.MAX_VALUE;
     double myClosestTargetDistance = Double.MAX_VALUE;
     ArrayList<SceneComponent> myHitComponents = new ArrayList<>();
@@ -689,8 +702,26 @@ public class Scene implements ModelListener, SelectionListener {
       myHitTargets.clear();
       myClosestComponentDistance = Double.MAX_VALUE;
       myClosestTargetDistance = Double.MAX_VALUE;
-      myPicker.reset();
-      root.addHit(transform, myPicker);
+      int originX = transform.getSwingX(0);
+      int originY = transform.getSwingY(0);
+      int unit = transform.getSwingDimension(1000);
+      if (myPickerVersion == myHitsVersion && myPickerRoot == root && myPickerContext == transform
+          && myPickerOriginX == originX && myPickerOriginY == originY && myPickerUnit == unit) {
+        // Nothing moved since the hit regions were collected, so only reset the hover state as collecting them does
+        if (myCurrentComponent != null) {
+          myCurrentComponent.clearHoverState();
+        }
+      }
+      else {
+        myPicker.reset();
+        root.addHit(transform, myPicker);
+        myPickerVersion = myHitsVersion;
+        myPickerRoot = root;
+        myPickerContext = transform;
+        myPickerOriginX = originX;
+        myPickerOriginY = originY;
+        myPickerUnit = unit;
+      }
       myPicker.find(transform.getSwingX(x), transform.getSwingY(y));
     }
 
@@ -954,6 +985,7 @@ public class Scene implements ModelListener, SelectionListener {
   }
 
   public void mouseDown(@NotNull SceneContext transform, @AndroidDpCoordinate int x, @AndroidDpCoordinate int y) {
+    invalidateHits();
     mNeedsLayout = NO_LAYOUT;
     myLastMouseX = x;
     myLastMouseY = y;
@@ -982,6 +1014,8 @@ public class Scene implements ModelListener, SelectionListener {
       if (myHitTarget instanceof DragTarget) {
         delegateMouseDownToSelection(x, y, myHitTarget.getComponent());
       }
+      // The target filter changed
+      invalidateHits();
     }
   }
 
@@ -991,6 +1025,7 @@ public class Scene implements ModelListener, SelectionListener {
     }
     myLastMouseX = x;
     myLastMouseY = y;
+    invalidateHits();
     if (myHitTarget != null) {
       myHitListener.find(transform, myRoot, x, y);
       myHitTarget.mouseDrag(x, y, myHitListener.getClosestTarget());
@@ -998,6 +1033,7 @@ public class Scene implements ModelListener, SelectionListener {
       if (myHitTarget instanceof DragTarget) {
         delegateMouseDragToSelection(x, y, myHitListener.getClosestTarget(), myHitTarget.getComponent());
       }
+      invalidateHits();
     }
     mouseHover(transform, x, y);
     checkRequestLayoutStatus();
@@ -1012,6 +1048,7 @@ public class Scene implements ModelListener, SelectionListener {
   public void mouseRelease(@NotNull SceneContext transform, @AndroidDpCoordinate int x, @AndroidDpCoordinate int y) {
     myLastMouseX = x;
     myLastMouseY = y;
+    invalidateHits();
     if (myHitTarget != null) {
       myHitTarget.getComponent().setDragging(false);
       myHitListener.find(transform, myRoot, x, y);
@@ -1050,6 +1087,7 @@ public class Scene implements ModelListener, SelectionListener {
     if (canChangeSelection && !sameSelection()) {
       select(myNewSelectedComponents);
     }
+    invalidateHits();
     checkRequestLayoutStatus();
   }
 
@@ -1085,6 +1123,16 @@ public class Scene implements ModelListener, SelectionListener {
 
   public void needsRebuildList() {
     myNeedsDisplayListRebuilt = true;
+    invalidateHits();
+  }
+
+  /**
+   * Marks the hit regions collected by the hit listeners as stale: components or targets may have moved, or the targets
+   * allowed by {@link #allowsTarget(Target)} may have changed. Consecutive hover events in an unchanged scene reuse the
+   * collected regions.
+   */
+  public void invalidateHits() {
+    myHitsVersion++;
   }
   //endregion
   /////////////////////////////////////////////////////////////////////////////
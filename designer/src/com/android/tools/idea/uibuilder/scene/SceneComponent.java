@@ -26,6 +26,7 @@ import com.android.tools.idea.uibuilder.scene.target.ResizeTarget;
 import com.android.tools.idea.uibuilder.scene.target.Target;
 import com.android.tools.idea.uibuilder.scene.decorator.SceneDecorator;
 import com.android.tools.idea.uibuilder.scene.draw.DisplayList;
+import com.android.tools.sherpa.drawing.ColorSet;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -33,6 +34,7 @@ import org.jetbrains.annotations.Nullable;
 import java.awt.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -81,6 +83,16 @@ public class SceneComponent {
 
   private Notch.Provider myNotchProvider;
 
+  // Draw commands of the component itself (background, content and frame), see getCachedCommands().
+  // myCommandsKey holds the state the commands were built for; myCurrentKey is scratch space for the current state.
+  private DisplayList myCommands;
+  private SceneContext myCommandsContext;
+  private ColorSet myCommandsColorSet;
+  private int[] myCommandsKey = new int[COMMANDS_KEY_SIZE];
+  private int[] myCurrentKey = new int[COMMANDS_KEY_SIZE];
+  private int myContentVersion;
+  private static final int COMMANDS_KEY_SIZE = 15;
+
   public int getCenterX() {
     return myCurrentLeft + (myCurrentRight - myCurrentLeft) / 2;
   }
@@ -515,6 +527,8 @@ public class SceneComponent {
    * @param component the NlComponent to update from
    */
   public void updateFrom(@NotNull NlComponent component) {
+    // The attributes of the component may have changed
+    myContentVersion++;
     if (myScene.getAnimate()) {
       long time = System.currentTimeMillis();
       myAnimatedDrawX.setTarget(myScene.pxToDp(component.x), time);
@@ -588,10 +602,17 @@ public class SceneComponent {
     rectangle.height = myCurrentBottom - myCurrentTop;
   }
 
-  public void addHit(@NotNull SceneContext sceneTransform, @NotNull ScenePicker picker) {
+  /**
+   * Resets the hover state; the hovered component is determined again by every hit detection
+   */
+  public void clearHoverState() {
     if (myDrawState == DrawState.HOVER) {
       myDrawState = DrawState.NORMAL;
     }
+  }
+
+  public void addHit(@NotNull SceneContext sceneTransform, @NotNull ScenePicker picker) {
+    clearHoverState();
     picker.addRect(this, 0, sceneTransform.getSwingX(myCurrentLeft),
                    sceneTransform.getSwingY(myCurrentTop),
                    sceneTransform.getSwingX(myCurrentRight),
@@ -612,6 +633,49 @@ public class SceneComponent {
     myDecorator.buildList(list, time, sceneContext, this);
   }
 
+  /**
+   * Returns the draw commands previously built for this component itself (without its targets and children), or null
+   * if they have to be rebuilt because the component moved, its draw state changed, it was updated from its NlComponent,
+   * or the scene context changed. Rebuilt commands are handed back with {@link #setCachedCommands(DisplayList)}.
+   */
+  @Nullable
+  public DisplayList getCachedCommands(@NotNull SceneContext sceneContext, long time) {
+    int[] key = myCurrentKey;
+    int i = 0;
+    key[i++] = myCurrentLeft;
+    key[i++] = myCurrentTop;
+    key[i++] = myCurrentRight;
+    key[i++] = myCurrentBottom;
+    key[i++] = getDrawX(time);
+    key[i++] = getDrawY(time);
+    key[i++] = getDrawWidth(time);
+    key[i++] = getDrawHeight(time);
+    key[i++] = myDrawState.ordinal();
+    key[i++] = myContentVersion;
+    key[i++] = myNlComponent.getBaseline();
+    key[i++] = sceneContext.getSwingX(0);
+    key[i++] = sceneContext.getSwingY(0);
+    key[i++] = sceneContext.getSwingDimension(1000);
+    key[i] = myShowBaseline ? 1 : 0;
+    if (myCommands != null && myCommandsContext == sceneContext && myCommandsColorSet == sceneContext.getColorSet()
+        && Arrays.equals(myCommandsKey, key)) {
+      return myCommands;
+    }
+    myCommandsContext = sceneContext;
+    myCommandsColorSet = sceneContext.getColorSet();
+    return null;
+  }
+
+  /**
+   * Caches the draw commands built after {@link #getCachedCommands(SceneContext, long)} returned null
+   */
+  public void setCachedCommands(@NotNull DisplayList commands) {
+    myCommands = commands;
+    int[] key = myCommandsKey;
+    myCommandsKey = myCurrentKey;
+    myCurrentKey = key;
+  }
+
   //endregion
   /////////////////////////////////////////////////////////////////////////////
 
@@ -15,15 +15,23 @@
  */
 package com.android.tools.idea.uibuilder.scene;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import java.util.Arrays;
 
 /**
  * This class provides efficient detection of many objects
+ * <p/>
+ * Once enough objects have been added, the bounds of the objects are indexed in a uniform grid, so that a search only
+ * looks at the objects near the searched location. The grid is rebuilt on the first search after objects are added.
  */
 public class ScenePicker {
   private final static int MAX_DATA_SIZE = 10;
   private final static int INITAL_OBJECT_STORE = 30;
   private final static double EPSILON = 0.00001;
+  private final static int MIN_INDEXED_OBJECTS = 32;
+  private final static int MIN_CELL_SIZE = 16;
+  private final static int MAX_CELLS_PER_OBJECT = 64;
   private double[] mObjectData = new double[100];
   private int mObjectDataUsed = 0;
   private int[] mObjectOffset = new int[INITAL_OBJECT_STORE];
@@ -33,6 +41,21 @@ public class ScenePicker {
   HitElementListener mHitElementListener;
 
   private int mObjectCount = 0;
+
+  // Uniform grid index of the object bounds: the objects of cell i are mCellObjects[mCellStart[i]..mCellStart[i + 1]),
+  // in the order they were added. Objects covering too many cells are kept in mLargeObjects and always tested.
+  private boolean mIndexEnabled = true;
+  private boolean mIndexValid = false;
+  private int mGridX;
+  private int mGridY;
+  private int mCellSize;
+  private int mColumns;
+  private int mRows;
+  private int[] mCellStart = new int[1];
+  private int[] mCellObjects = new int[INITAL_OBJECT_STORE];
+  private int[] mLargeObjects = new int[INITAL_OBJECT_STORE];
+  private int mLargeObjectCount;
+
   private final static int OBJECT_LINE = 0;
   private final static int OBJECT_POINT = 1;
   private final static int OBJECT_CURVE = 2;
@@ -57,19 +80,136 @@ public class ScenePicker {
    * @param y location y
    */
   public void find(int x, int y) {
+    if (!mIndexEnabled || mObjectCount < MIN_INDEXED_OBJECTS) {
+      for (int i = 0; i < mObjectCount; i++) {
+        check(i, x, y);
+      }
+      return;
+    }
+    if (!mIndexValid) {
+      buildIndex();
+    }
+    int column = x < mGridX ? -1 : (x - mGridX) / mCellSize;
+    int row = y < mGridY ? -1 : (y - mGridY) / mCellSize;
+    if (column < 0 || column >= mColumns || row < 0 || row >= mRows) {
+      // The grid covers the bounds of all the objects
+      return;
+    }
+    int cell = row * mColumns + column;
+    int cellIndex = mCellStart[cell];
+    int cellEnd = mCellStart[cell + 1];
+    int largeIndex = 0;
+    // Merge the objects of the cell with the large objects, to report the objects in the order they were added
+    while (cellIndex < cellEnd || largeIndex < mLargeObjectCount) {
+      if (largeIndex == mLargeObjectCount || (cellIndex < cellEnd && mCellObjects[cellIndex] < mLargeObjects[largeIndex])) {
+        check(mCellObjects[cellIndex++], x, y);
+      }
+      else {
+        check(mLargeObjects[largeIndex++], x, y);
+      }
+    }
+  }
+
+  private void check(int i, int x, int y) {
+    int p = i * 4;
+    int x1 = mRect[p++];
+    int y1 = mRect[p++];
+    int x2 = mRect[p++];
+    int y2 = mRect[p];
+    if (inRect(x, y, x1, y1, x2, y2)) {
+      SelectionEngine selector = myEngines[mTypes[i]];
+      if (selector.inRange(i, x, y)) {
+        mHitElementListener.over(mObjects[i], selector.distance());
+      }
+    }
+  }
+
+  /**
+   * Builds the grid index of the object bounds. The cell size is picked so that there are about as many cells as objects.
+   */
+  private void buildIndex() {
+    mIndexValid = true;
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int maxY = Integer.MIN_VALUE;
     for (int i = 0; i < mObjectCount; i++) {
       int p = i * 4;
-      int x1 = mRect[p++];
-      int y1 = mRect[p++];
-      int x2 = mRect[p++];
-      int y2 = mRect[p];
-      if (inRect(x, y, x1, y1, x2, y2)) {
-        SelectionEngine selector = myEngines[mTypes[i]];
-        if (selector.inRange(i, x, y)) {
-          mHitElementListener.over(mObjects[i], selector.distance());
+      minX = Math.min(minX, mRect[p]);
+      minY = Math.min(minY, mRect[p + 1]);
+      maxX = Math.max(maxX, mRect[p + 2]);
+      maxY = Math.max(maxY, mRect[p + 3]);
+    }
+    long width = (long)maxX - minX + 1;
+    long height = (long)maxY - minY + 1;
+    mCellSize = (int)Math.max(MIN_CELL_SIZE, Math.ceil(Math.sqrt((double)width * height / mObjectCount)));
+    mColumns = (int)((width + mCellSize - 1) / mCellSize);
+    mRows = (int)((height + mCellSize - 1) / mCellSize);
+    mGridX = minX;
+    mGridY = minY;
+
+    int cellCount = mColumns * mRows;
+    if (mCellStart.length < cellCount + 1) {
+      mCellStart = new int[cellCount + 1];
+    }
+    else {
+      Arrays.fill(mCellStart, 0, cellCount + 1, 0);
+    }
+    if (mLargeObjects.length < mObjectCount) {
+      mLargeObjects = new int[mObjects.length];
+    }
+
+    // Count the objects of each cell, then turn the counts into start offsets
+    mLargeObjectCount = 0;
+    for (int i = 0; i < mObjectCount; i++) {
+      int p = i * 4;
+      int column1 = (mRect[p] - mGridX) / mCellSize;
+      int row1 = (mRect[p + 1] - mGridY) / mCellSize;
+      int column2 = (mRect[p + 2] - mGridX) / mCellSize;
+      int row2 = (mRect[p + 3] - mGridY) / mCellSize;
+      if ((column2 - column1 + 1) * (row2 - row1 + 1) > MAX_CELLS_PER_OBJECT) {
+        mLargeObjects[mLargeObjectCount++] = i;
+        continue;
+      }
+      for (int row = row1; row <= row2; row++) {
+        for (int column = column1; column <= column2; column++) {
+          mCellStart[row * mColumns + column + 1]++;
         }
       }
     }
+    for (int cell = 0; cell < cellCount; cell++) {
+      mCellStart[cell + 1] += mCellStart[cell];
+    }
+    if (mCellObjects.length < mCellStart[cellCount]) {
+      mCellObjects = new int[mCellStart[cellCount]];
+    }
+
+    int[] next = Arrays.copyOf(mCellStart, cellCount);
+    int largeIndex = 0;
+    for (int i = 0; i < mObjectCount; i++) {
+      if (largeIndex < mLargeObjectCount && mLargeObjects[largeIndex] == i) {
+        largeIndex++;
+        continue;
+      }
+      int p = i * 4;
+      int column1 = (mRect[p] - mGridX) / mCellSize;
+      int row1 = (mRect[p + 1] - mGridY) / mCellSize;
+      int column2 = (mRect[p + 2] - mGridX) / mCellSize;
+      int row2 = (mRect[p + 3] - mGridY) / mCellSize;
+      for (int row = row1; row <= row2; row++) {
+        for (int column = column1; column <= column2; column++) {
+          mCellObjects[next[row * mColumns + column]++] = i;
+        }
+      }
+    }
+  }
+
+  /**
+   * Enables or disables the grid index; without it, every search tests all the objects
+   */
+  @VisibleForTesting
+  void setIndexEnabled(boolean enabled) {
+    mIndexEnabled = enabled;
   }
 
   /**
@@ -110,6 +250,7 @@ public class ScenePicker {
    */
   public void reset() {
     mObjectCount = 0;
+    mIndexValid = false;
     mObjectDataUsed = 0;
     Arrays.fill(mObjects, null);// delete references
   }
@@ -202,6 +343,7 @@ public class ScenePicker {
     protected int mDataOffset;
 
     protected void addRect(int x1, int y1, int x2, int y2) {
+      mIndexValid = false;
       int off = mObjectCount * 4;
       mRect[off++] = x1;
       mRect[off++] = y1;
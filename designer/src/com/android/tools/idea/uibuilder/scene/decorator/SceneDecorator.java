@@ -107,13 +107,28 @@ public class SceneDecorator {
     buildListChildren(list, time, sceneContext, component);
   }
 
+  /**
+   * Adds the commands drawing the component itself. They are reused from the previous display list if the component
+   * did not change since.
+   *
+   * @param list         the display list to add the commands to
+   * @param time         the time of the frame being built
+   * @param sceneContext the context the component is drawn in
+   * @param component    the component to draw
+   */
   public void buildListComponent(@NotNull DisplayList list,
                                  long time,
                                  @NotNull SceneContext sceneContext,
                                  @NotNull SceneComponent component) {
-    addBackground(list, sceneContext, component);
-    addContent(list, time, sceneContext, component);
-    addFrame(list, sceneContext, component);
+    DisplayList commands = component.getCachedCommands(sceneContext, time);
+    if (commands == null) {
+      commands = new DisplayList();
+      addBackground(commands, sceneContext, component);
+      addContent(commands, time, sceneContext, component);
+      addFrame(commands, sceneContext, component);
+      component.setCachedCommands(commands);
+    }
+    list.addAll(commands);
   }
 
   protected void addContent(@NotNull DisplayList list,
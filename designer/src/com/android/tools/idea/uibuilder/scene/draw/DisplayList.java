@@ -24,19 +24,26 @@ import java.awt.*;
 import java.awt.geom.GeneralPath;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 
 /**
  * DisplayList implementation for Scene
  * Also contains some primitive display elements.
+ * <p/>
+ * The list is retained: the clip structure and drawing order computed for painting are kept until commands are added or
+ * the list is cleared, so repainting an unchanged list does not rebuild them.
  */
 public class DisplayList {
   private final static boolean DEBUG = false;
   private ArrayList<DrawCommand> myCommands = new ArrayList<DrawCommand>();
+  /** The commands in drawing order, or null if they have to be computed again */
+  private CommandSet mySortedCommands;
 
   public void clear() {
     myCommands.clear();
+    mySortedCommands = null;
   }
 
   public ArrayList<DrawCommand> getCommands() {
@@ -316,10 +323,20 @@ public class DisplayList {
   // Public methods to add elements to the display list
   /////////////////////////////////////////////////////////////////////////////
   public void add(DrawCommand cmd) {
+    mySortedCommands = null;
     myCommands.add(cmd);
   }
 
+  /**
+   * Adds all the commands of another list, for example commands cached from a previous display list
+   */
+  public void addAll(@NotNull DisplayList list) {
+    mySortedCommands = null;
+    myCommands.addAll(list.myCommands);
+  }
+
   public UNClip addClip(SceneContext transform, Rectangle r) {
+    mySortedCommands = null;
     int l = transform.getSwingX(r.x);
     int t = transform.getSwingY(r.y);
     int w = transform.getSwingDimension(r.width);
@@ -334,7 +351,7 @@ public class DisplayList {
     int t = transform.getSwingY(r.y);
     int w = transform.getSwingDimension(r.width);
     int h = transform.getSwingDimension(r.height);
-    myCommands.add(new Rect(l, t, w, h, color));
+    add(new Rect(l, t, w, h, color));
   }
 
   public void addRect(SceneContext transform, float left, float top, float right, float bottom, Color color) {
@@ -433,11 +450,42 @@ public class DisplayList {
       return -1;
     }
 
+    /**
+     * Orders the commands by level, keeping the order of the commands of the same level. There are only a handful of
+     * levels, so the commands are merged level by level rather than sorted.
+     */
     public void sort() {
-      myCommands.sort((o1, o2) -> Integer.compare(o1.getLevel(), o2.getLevel()));
-      myCommands.forEach(command -> {
-        if (command instanceof CommandSet) ((CommandSet)command).sort();
-      });
+      int count = myCommands.size();
+      int[] levels = new int[count];
+      int levelCount = 0;
+      for (DrawCommand command : myCommands) {
+        int level = command.getLevel();
+        boolean known = false;
+        for (int i = 0; i < levelCount; i++) {
+          if (levels[i] == level) {
+            known = true;
+            break;
+          }
+        }
+        if (!known) {
+          levels[levelCount++] = level;
+        }
+        if (command instanceof CommandSet) {
+          ((CommandSet)command).sort();
+        }
+      }
+      if (levelCount > 1) {
+        Arrays.sort(levels, 0, levelCount);
+        ArrayList<DrawCommand> sorted = new ArrayList<>(count);
+        for (int i = 0; i < levelCount; i++) {
+          for (DrawCommand command : myCommands) {
+            if (command.getLevel() == levels[i]) {
+              sorted.add(command);
+            }
+          }
+        }
+        myCommands = sorted;
+      }
     }
 
     @Override
@@ -489,9 +537,13 @@ public class DisplayList {
       System.out.println("<");
     }
     Graphics2D g = (Graphics2D)g2.create();
-    DrawCommand[] array = myCommands.toArray(new DrawCommand[myCommands.size()]);
-    CommandSet set = new CommandSet(array, 0, array.length - 1);
-    set.sort();
+    CommandSet set = mySortedCommands;
+    if (set == null) {
+      DrawCommand[] array = myCommands.toArray(new DrawCommand[myCommands.size()]);
+      set = new CommandSet(array, 0, array.length - 1);
+      set.sort();
+      mySortedCommands = set;
+    }
     if (DEBUG) {
       set.print(">");
       System.out.println("-end-");
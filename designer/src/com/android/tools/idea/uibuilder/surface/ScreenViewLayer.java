@@ -18,6 +18,10 @@ package com.android.tools.idea.uibuilder.surface;
 import com.android.tools.idea.rendering.ImagePool;
 import com.android.tools.idea.rendering.ImageUtils;
 import com.android.tools.idea.rendering.RenderResult;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.util.ui.UIUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -25,18 +29,42 @@ import org.jetbrains.annotations.Nullable;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-/** Responsible for painting a screen view */
+/**
+ * Responsible for painting a screen view.
+ * <p/>
+ * The layer keeps scaled copies of the rendered image for the last few zoom levels, so zooming back and forth does not
+ * rescale the whole image each time. When a new render result arrives, the new image is copied and compared tile by tile
+ * with the previous one on a pooled thread, and only the tiles which changed are rescaled into the scaled copies, the next
+ * time each copy is painted. Until the comparison is done, the previous image keeps being painted.
+ */
 public class ScreenViewLayer extends Layer {
+  /** Size in source image pixels of the tiles compared between consecutive render results */
+  @VisibleForTesting
+  static final int TILE_SIZE = 256;
+  /** Number of zoom levels for which a scaled image is kept */
+  private static final int MAX_CACHED_SCALES = 3;
+  /** Maximum number of pixels of all the scaled images kept for the zoom levels which are not currently painted */
+  private static final long MAX_CACHED_SCALED_PIXELS = 8 * 1024 * 1024;
+
   private final ScreenView myScreenView;
-  /** The source image we scaled from */
-  @Nullable private ImagePool.Image myImage;
-  /** Cached scaled image */
-  @Nullable private BufferedImage myScaledImage;
-  /** Cached last render result */
+  /** Copy of the source image we scale from */
+  @Nullable private BufferedImage mySourceImage;
+  /** Last render result seen by the layer; its image may still be being compared with {@link #mySourceImage} */
   @Nullable private RenderResult myLastRenderResult;
-  /** The scale at which we cached the scaled image  */
-  private double myCachedScale;
+  /** Scaled images of {@link #mySourceImage}, by scale, with the most recently used last */
+  private final Map<Double, ScaledImage> myScaledImages = new LinkedHashMap<Double, ScaledImage>(MAX_CACHED_SCALES + 1, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Double, ScaledImage> eldest) {
+      return size() > MAX_CACHED_SCALES;
+    }
+  };
 
   private Rectangle mySizeRectangle = new Rectangle();
   private Dimension myScreenViewSize = new Dimension();
@@ -45,8 +73,118 @@ public class ScreenViewLayer extends Layer {
     myScreenView = screenView;
   }
 
+  /**
+   * A scaled copy of the source image. The pixels are scaled by {@link #myPixelScale}, which is twice the view scale when the
+   * image is painted as a Retina image. Regions of the source image which changed since the copy was scaled are kept in
+   * {@link #myDirtyRegions} and only rescaled when the image is painted again.
+   */
+  @VisibleForTesting
+  static class ScaledImage {
+    @NotNull private final BufferedImage myPixels;
+    /** The image to paint: either {@link #myPixels} or a Retina image backed by it */
+    @NotNull private final BufferedImage myImage;
+    private final double myPixelScale;
+    private final boolean myFastScaling;
+    @NotNull private final List<Rectangle> myDirtyRegions = Lists.newArrayList();
+
+    @VisibleForTesting
+    ScaledImage(@NotNull BufferedImage pixels, @NotNull BufferedImage image, double pixelScale, boolean fastScaling) {
+      myPixels = pixels;
+      myImage = image;
+      myPixelScale = pixelScale;
+      myFastScaling = fastScaling;
+    }
+
+    /**
+     * Rescales the dirty regions of the source image into this image
+     */
+    @VisibleForTesting
+    void update(@NotNull BufferedImage source) {
+      if (myDirtyRegions.isEmpty()) {
+        return;
+      }
+      Graphics2D g = myPixels.createGraphics();
+      try {
+        g.setComposite(AlphaComposite.Src);
+        // Include a few neighbouring pixels in each scaled region so the filtering along the tile edges matches
+        // the filtering of a full image scale
+        int margin = Math.max(2, (int)Math.ceil(2 / myPixelScale));
+        for (Rectangle region : myDirtyRegions) {
+          // The edges of a region are rounded the same way as the edges of its neighbours, and the region is padded by a
+          // pixel, so no seam is left between the rescaled pixels and the reused ones
+          int x1 = Math.max(0, toScaledX(region.x, source) - 1);
+          int y1 = Math.max(0, toScaledY(region.y, source) - 1);
+          int x2 = Math.min(myPixels.getWidth(), toScaledX(region.x + region.width, source) + 1);
+          int y2 = Math.min(myPixels.getHeight(), toScaledY(region.y + region.height, source) + 1);
+          if (x2 <= x1 || y2 <= y1) {
+            continue;
+          }
+          int sourceX = Math.max(0, region.x - margin);
+          int sourceY = Math.max(0, region.y - margin);
+          int sourceWidth = Math.min(source.getWidth(), region.x + region.width + margin) - sourceX;
+          int sourceHeight = Math.min(source.getHeight(), region.y + region.height + margin) - sourceY;
+          int destX = toScaledX(sourceX, source);
+          int destY = toScaledY(sourceY, source);
+          int destWidth = toScaledX(sourceX + sourceWidth, source) - destX;
+          int destHeight = toScaledY(sourceY + sourceHeight, source) - destY;
+          if (destWidth <= 0 || destHeight <= 0) {
+            continue;
+          }
+          // Scale the region to exactly the pixels it covers in the scaled image, so the tiles do not drift from the edges
+          BufferedImage scaled = scale(source.getSubimage(sourceX, sourceY, sourceWidth, sourceHeight),
+                                       (destWidth + 0.5) / sourceWidth, (destHeight + 0.5) / sourceHeight, myFastScaling);
+          g.setClip(x1, y1, x2 - x1, y2 - y1);
+          g.drawImage(scaled, destX, destY, destWidth, destHeight, null);
+        }
+      }
+      finally {
+        g.dispose();
+      }
+      myDirtyRegions.clear();
+    }
+
+    private int toScaledX(int sourceX, @NotNull BufferedImage source) {
+      return sourceX >= source.getWidth() ? myPixels.getWidth() : (int)Math.floor(sourceX * myPixelScale);
+    }
+
+    private int toScaledY(int sourceY, @NotNull BufferedImage source) {
+      return sourceY >= source.getHeight() ? myPixels.getHeight() : (int)Math.floor(sourceY * myPixelScale);
+    }
+
+    /**
+     * Marks the given source image regions as changed. If most of the image changed, returns false: the image is better
+     * scaled again from scratch.
+     */
+    @VisibleForTesting
+    boolean invalidate(@NotNull List<Rectangle> regions, @NotNull BufferedImage source) {
+      myDirtyRegions.addAll(regions);
+      long dirtyArea = 0;
+      for (Rectangle region : myDirtyRegions) {
+        dirtyArea += (long)region.width * region.height;
+      }
+      return dirtyArea * 2 < (long)source.getWidth() * source.getHeight();
+    }
+
+    private long getPixelCount() {
+      return (long)myPixels.getWidth() * myPixels.getHeight();
+    }
+  }
+
+  @NotNull
+  private static BufferedImage scale(@NotNull BufferedImage source, double scale, boolean fastScaling) {
+    return scale(source, scale, scale, fastScaling);
+  }
+
+  @NotNull
+  private static BufferedImage scale(@NotNull BufferedImage source, double xScale, double yScale, boolean fastScaling) {
+    if (Math.abs(xScale - 1) < 0.001 && Math.abs(yScale - 1) < 0.001) {
+      return source;
+    }
+    return fastScaling ? ImageUtils.lowQualityFastScale(source, xScale, yScale) : ImageUtils.scale(source, xScale, yScale);
+  }
+
   @Nullable
-  private static BufferedImage getRetinaScaledImage(@NotNull BufferedImage original, double scale, boolean fastScaling) {
+  private static ScaledImage getRetinaScaledImage(@NotNull BufferedImage original, double scale, boolean fastScaling) {
     if (scale > 1.01) {
       // When scaling up significantly, use normal painting logic; no need to pixel double into a
       // double res image buffer!
@@ -54,39 +192,170 @@ public class ScreenViewLayer extends Layer {
     }
 
     // No scaling if very close to 1.0 (we check for 0.5 since we're doubling the output)
-    if (Math.abs(scale - 0.5) > 0.001) {
-      double retinaScale = 2 * scale;
-      if (fastScaling) {
-        original = ImageUtils.lowQualityFastScale(original, retinaScale, retinaScale);
-      }
-      else {
-        original = ImageUtils.scale(original, retinaScale, retinaScale);
-      }
-    }
+    double retinaScale = Math.abs(scale - 0.5) > 0.001 ? 2 * scale : 1;
+    BufferedImage pixels = retinaScale != 1 ? scale(original, retinaScale, fastScaling) : copy(original);
+    BufferedImage retina = ImageUtils.convertToRetina(pixels);
+    return retina != null ? new ScaledImage(pixels, retina, retinaScale, fastScaling) : null;
+  }
 
-    return ImageUtils.convertToRetina(original);
+  @NotNull
+  private static BufferedImage copy(@NotNull BufferedImage image) {
+    //noinspection UndesirableClassUsage
+    return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
   }
 
-  private void setNewImage(@NotNull ImagePool.Image newImage, double newScale) {
-    myCachedScale = newScale;
-    myImage = newImage;
-    myScaledImage = null;
+  @NotNull
+  private ScaledImage createScaledImage(@NotNull BufferedImage source, double newScale) {
     boolean fastScaling = myScreenView.getSurface().isCanvasResizing(); // Fast scaling if in the middle of resizing
 
     if (UIUtil.isRetina() && ImageUtils.supportsRetina()) {
-      myScaledImage = getRetinaScaledImage(newImage.getCopy(), newScale, fastScaling);
+      ScaledImage retina = getRetinaScaledImage(source, newScale, fastScaling);
+      if (retina != null) {
+        return retina;
+      }
     }
-    if (myScaledImage == null) {
-      // Fallback to normal scaling
-      if (fastScaling) {
-        myScaledImage = ImageUtils.lowQualityFastScale(newImage.getCopy(), newScale, newScale);
+    // Fallback to normal scaling. The scaled pixels are updated in place later on, so never share the source image itself.
+    BufferedImage scaled = Math.abs(newScale - 1) < 0.001 ? copy(source) : scale(source, newScale, fastScaling);
+    return new ScaledImage(scaled, scaled, newScale, fastScaling);
+  }
+
+  /**
+   * Copies the image of a new render result and compares it with the current source image on a pooled thread, then
+   * replaces the source image on the UI thread, unless a newer render result arrived in the meantime. The first image
+   * is copied right away, since there is nothing to show until then. If the image can't be copied, the previous one is
+   * kept.
+   */
+  private void updateSourceImage(@NotNull RenderResult renderResult) {
+    BufferedImage previous = mySourceImage;
+    ImagePool.Image newImage = renderResult.getRenderedImage();
+    if (previous == null) {
+      BufferedImage copy = newImage.getCopy();
+      if (copy != null) {
+        setNewImage(copy, null);
+      }
+      return;
+    }
+    ApplicationManager.getApplication().executeOnPooledThread(() -> {
+      BufferedImage copy = newImage.getCopy();
+      if (copy == null) {
+        return;
+      }
+      List<Rectangle> dirtyTiles = findDirtyTiles(previous, copy, TILE_SIZE);
+      ApplicationManager.getApplication().invokeLater(() -> {
+        if (renderResult != myLastRenderResult) {
+          return;
+        }
+        // The scaled images were computed from the previous image; if it was replaced meanwhile, start over
+        setNewImage(copy, mySourceImage == previous ? dirtyTiles : null);
+        myScreenView.getSurface().repaint();
+      }, ModalityState.any());
+    });
+  }
+
+  /**
+   * Replaces the source image, and invalidates the regions of the scaled images that changed, or all the scaled images
+   * if {@code dirtyTiles} is null
+   */
+  private void setNewImage(@NotNull BufferedImage newImage, @Nullable List<Rectangle> dirtyTiles) {
+    mySourceImage = newImage;
+    if (dirtyTiles == null) {
+      myScaledImages.clear();
+      return;
+    }
+    Iterator<ScaledImage> iterator = myScaledImages.values().iterator();
+    while (iterator.hasNext()) {
+      if (!iterator.next().invalidate(dirtyTiles, newImage)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Drops the least recently used scaled images, other than the one for the current scale, while the scaled images
+   * kept for the other scales use more than {@link #MAX_CACHED_SCALED_PIXELS} pixels
+   */
+  private void trimScaledImages(double currentScale) {
+    long pixels = 0;
+    for (Map.Entry<Double, ScaledImage> entry : myScaledImages.entrySet()) {
+      if (entry.getKey() != currentScale) {
+        pixels += entry.getValue().getPixelCount();
       }
-      else {
-        myScaledImage = ImageUtils.scale(newImage.getCopy(), newScale, newScale);
+    }
+    Iterator<Map.Entry<Double, ScaledImage>> iterator = myScaledImages.entrySet().iterator();
+    while (pixels > MAX_CACHED_SCALED_PIXELS && iterator.hasNext()) {
+      Map.Entry<Double, ScaledImage> entry = iterator.next();
+      if (entry.getKey() != currentScale) {
+        pixels -= entry.getValue().getPixelCount();
+        iterator.remove();
       }
     }
   }
 
+  /**
+   * Compares two images tile by tile and returns the bounds of the tiles of {@code after} that differ from {@code before},
+   * or null if the images do not have the same size.
+   */
+  @VisibleForTesting
+  @Nullable
+  static List<Rectangle> findDirtyTiles(@NotNull BufferedImage before, @NotNull BufferedImage after, int tileSize) {
+    int width = after.getWidth();
+    int height = after.getHeight();
+    if (before.getWidth() != width || before.getHeight() != height) {
+      return null;
+    }
+    int[] beforePixels = getPixels(before);
+    int[] afterPixels = beforePixels != null ? getPixels(after) : null;
+    int[] beforeRow = afterPixels == null ? new int[tileSize] : null;
+    int[] afterRow = afterPixels == null ? new int[tileSize] : null;
+
+    List<Rectangle> dirty = Lists.newArrayList();
+    for (int tileY = 0; tileY < height; tileY += tileSize) {
+      int tileHeight = Math.min(tileSize, height - tileY);
+      for (int tileX = 0; tileX < width; tileX += tileSize) {
+        int tileWidth = Math.min(tileSize, width - tileX);
+        for (int y = tileY; y < tileY + tileHeight; y++) {
+          boolean equal;
+          if (afterPixels != null) {
+            int offset = y * width + tileX;
+            equal = true;
+            for (int i = offset, end = offset + tileWidth; i < end; i++) {
+              if (beforePixels[i] != afterPixels[i]) {
+                equal = false;
+                break;
+              }
+            }
+          }
+          else {
+            before.getRGB(tileX, y, tileWidth, 1, beforeRow, 0, tileWidth);
+            after.getRGB(tileX, y, tileWidth, 1, afterRow, 0, tileWidth);
+            equal = Arrays.equals(beforeRow, afterRow);
+          }
+          if (!equal) {
+            dirty.add(new Rectangle(tileX, tileY, tileWidth, tileHeight));
+            break;
+          }
+        }
+      }
+    }
+    return dirty;
+  }
+
+  /**
+   * Returns the pixels of an image stored as one int per pixel without any padding, or null for other image layouts
+   */
+  @Nullable
+  private static int[] getPixels(@NotNull BufferedImage image) {
+    if (image.getType() != BufferedImage.TYPE_INT_ARGB && image.getType() != BufferedImage.TYPE_INT_ARGB_PRE &&
+        image.getType() != BufferedImage.TYPE_INT_RGB) {
+      return null;
+    }
+    if (!(image.getRaster().getDataBuffer() instanceof DataBufferInt) || image.getRaster().getParent() != null) {
+      return null;
+    }
+    int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+    return pixels.length == image.getWidth() * image.getHeight() ? pixels : null;
+  }
+
   @Override
   public void paint(@NotNull Graphics2D g) {
     myScreenViewSize = myScreenView.getSize(myScreenViewSize);
@@ -100,17 +369,23 @@ public class ScreenViewLayer extends Layer {
     RenderResult renderResult = myScreenView.getModel().getRenderResult();
     if (renderResult != null && renderResult.hasImage() && renderResult != myLastRenderResult) {
       myLastRenderResult = renderResult;
-      myImage = renderResult.getRenderedImage();
-      myScaledImage = null;
+      updateSourceImage(renderResult);
     }
 
-    if (myImage == null) {
+    BufferedImage source = mySourceImage;
+    if (source == null) {
       return;
     }
 
     double scale = myScreenView.getScale();
-    if (myScaledImage == null || myCachedScale != scale) {
-      setNewImage(myImage, scale);
+    ScaledImage scaledImage = myScaledImages.get(scale);
+    if (scaledImage == null) {
+      scaledImage = createScaledImage(source, scale);
+      myScaledImages.put(scale, scaledImage);
+      trimScaledImages(scale);
+    }
+    else {
+      scaledImage.update(source);
     }
 
     Shape prevClip = null;
@@ -120,7 +395,7 @@ public class ScreenViewLayer extends Layer {
       g.clip(screenShape);
     }
 
-    UIUtil.drawImage(g, myScaledImage, myScreenView.getX(), myScreenView.getY(), null);
+    UIUtil.drawImage(g, scaledImage.myImage, myScreenView.getX(), myScreenView.getY(), null);
 
     if (prevClip != null) {
       g.setClip(prevClip);
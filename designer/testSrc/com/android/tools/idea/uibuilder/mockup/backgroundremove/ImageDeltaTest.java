@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.mockup.backgroundremove;
+
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.util.Arrays;
+
+public class ImageDeltaTest extends TestCase {
+
+  public void testCreate() throws Exception {
+    int[] before = new int[6 * 4];
+    int[] after = before.clone();
+    assertSame(ImageDelta.EMPTY, ImageDelta.create(before, after, 6, 4, null));
+
+    after[6 + 2] = 1;
+    after[2 * 6 + 4] = 2;
+    ImageDelta delta = ImageDelta.create(before, after, 6, 4, null);
+    assertEquals(new Rectangle(2, 1, 3, 2), delta.getBounds());
+
+    // The hint limits the compared area
+    assertEquals(new Rectangle(2, 1, 1, 1), ImageDelta.create(before, after, 6, 4, new Rectangle(0, 0, 3, 4)).getBounds());
+  }
+
+  public void testUndoRedo() throws Exception {
+    int[] before = new int[5 * 5];
+    Arrays.fill(before, 0xFF000000);
+    int[] after = before.clone();
+    after[5 + 1] = 0x00FFFFFF;
+    after[3 * 5 + 3] = 0x00FFFFFF;
+    ImageDelta delta = ImageDelta.create(before, after, 5, 5, null);
+
+    int[] pixels = after.clone();
+    delta.undo(pixels, 5);
+    assertTrue(Arrays.equals(before, pixels));
+    delta.redo(pixels, 5);
+    assertTrue(Arrays.equals(after, pixels));
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.mockup.backgroundremove;
+
+import junit.framework.TestCase;
+
+import java.awt.*;
+
+public class RemoveAlgorithmsTest extends TestCase {
+  private static final int WHITE = 0xFFFFFFFF;
+  private static final int BLACK = 0xFF000000;
+  private static final int[] REMOVE_WHITE = {0xFF, 0xFF, 0xFF};
+
+  /**
+   * 5x3 image with two white areas separated by a black column
+   */
+  private static final int[] IMAGE = {
+    WHITE, WHITE, BLACK, WHITE, WHITE,
+    WHITE, WHITE, BLACK, WHITE, WHITE,
+    WHITE, WHITE, BLACK, WHITE, WHITE,
+  };
+
+  public void testFloodFill() throws Exception {
+    int[] dst = new int[IMAGE.length];
+    Rectangle bounds = RemoveAlgorithms.floodFill(IMAGE, dst, 5, 3, 0, 0, REMOVE_WHITE, 0);
+    assertEquals(new Rectangle(0, 0, 2, 3), bounds);
+    for (int i = 0; i < IMAGE.length; i++) {
+      // Only the white area containing the origin is removed
+      int expected = i % 5 < 2 ? IMAGE[i] & 0xFFFFFF : IMAGE[i];
+      assertEquals(expected, dst[i]);
+    }
+  }
+
+  public void testFloodFillInPlace() throws Exception {
+    int[] pixels = IMAGE.clone();
+    int[] expected = new int[IMAGE.length];
+    RemoveAlgorithms.floodFill(IMAGE, expected, 5, 3, 4, 2, REMOVE_WHITE, 10);
+    RemoveAlgorithms.floodFill(pixels, pixels, 5, 3, 4, 2, REMOVE_WHITE, 10);
+    assertEquals(expected.length, pixels.length);
+    for (int i = 0; i < IMAGE.length; i++) {
+      assertEquals(expected[i], pixels[i]);
+    }
+  }
+
+  public void testWhole() throws Exception {
+    int[] dst = new int[IMAGE.length];
+    RemoveAlgorithms.whole(IMAGE, dst, 5, 3, REMOVE_WHITE, 0);
+    for (int i = 0; i < IMAGE.length; i++) {
+      // All the white pixels are removed
+      int expected = IMAGE[i] == WHITE ? IMAGE[i] & 0xFFFFFF : IMAGE[i];
+      assertEquals(expected, dst[i]);
+    }
+  }
+}
@@ -18,6 +18,7 @@ package com.android.tools.idea.uibuilder.mockup.colorextractor;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -65,4 +66,41 @@ public class DBSCANClustererTest {
     assertNotNull(cluster3);
     assertEquals(4, cluster3.size());
   }
+
+  @Test
+  public void testIndexMatchesLinearScan() throws Exception {
+    double[][] data = createColors(3000, 1);
+    for (float eps : new float[]{0f, 1f, 1.3f, 4f}) {
+      DBSCANClusterer linear = new DBSCANClusterer(eps, 3);
+      linear.setIndexEnabled(false);
+      List<List<double[]>> expected = linear.cluster(data);
+      List<List<double[]>> actual = new DBSCANClusterer(eps, 3).cluster(data);
+
+      // Same clusters, with the same points in the same order
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals(expected.get(i), actual.get(i));
+      }
+    }
+  }
+
+  /**
+   * Creates {@code count} CIELab like colors spread around a few random colors
+   */
+  static double[][] createColors(int count, long seed) {
+    Random random = new Random(seed);
+    double[][] centers = new double[12][];
+    for (int i = 0; i < centers.length; i++) {
+      centers[i] = new double[]{random.nextInt(100), random.nextInt(200) - 100, random.nextInt(200) - 100};
+    }
+    double[][] colors = new double[count][];
+    for (int i = 0; i < count; i++) {
+      double[] center = centers[random.nextInt(centers.length)];
+      colors[i] = new double[]{
+        (float)(center[0] + random.nextGaussian() * 3),
+        (float)(center[1] + random.nextGaussian() * 3),
+        (float)(center[2] + random.nextGaussian() * 3)};
+    }
+    return colors;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.mockup.colorextractor;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class KMeansClustererTest {
+
+  @Test
+  public void testCluster() throws Exception {
+    List<List<double[]>> clusters = new KMeansClusterer(2).cluster(DBSCANClustererTest.DATA_2);
+    assertEquals(2, clusters.size());
+    for (List<double[]> cluster : clusters) {
+      assertEquals(1, cluster.size());
+    }
+  }
+
+  @Test
+  public void testParallelMatchesSequential() throws Exception {
+    double[][] data = DBSCANClustererTest.createColors(100000, 1);
+    KMeansClusterer sequential = new KMeansClusterer(10);
+    sequential.setParallel(false);
+    List<List<double[]>> expected = sequential.cluster(data);
+    List<List<double[]>> actual = new KMeansClusterer(10).cluster(data);
+
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertArrayEquals(expected.get(i).get(0), actual.get(i).get(0), 0);
+    }
+  }
+}
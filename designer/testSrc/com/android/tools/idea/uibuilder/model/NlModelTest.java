@@ -25,6 +25,7 @@ import com.google.common.collect.Lists;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.xml.XmlTag;
 
@@ -442,6 +443,30 @@ public class NlModelTest extends LayoutTestCase {
                  myTreeDumper.toTree(model.getComponents()));
   }
 
+  public void testLayoutEditsOfIncludedLayouts() throws Exception {
+    VirtualFile inner = myFixture.addFileToProject("res/layout/inner.xml", "<TextView/>").getVirtualFile();
+    VirtualFile middle = myFixture.addFileToProject("res/layout/middle.xml",
+                                                    "<FrameLayout xmlns:android=\"http://schemas.android.com/apk/res/android\">\n" +
+                                                    "  <include layout=\"@layout/inner\"/>\n" +
+                                                    "</FrameLayout>").getVirtualFile();
+    VirtualFile unrelated = myFixture.addFileToProject("res/layout/unrelated.xml", "<Button/>").getVirtualFile();
+    NlModel model = model("outer.xml", component(LINEAR_LAYOUT)
+      .withBounds(0, 0, 1000, 1000)
+      .matchParentWidth()
+      .matchParentHeight()
+      .children(
+        component(VIEW_INCLUDE)
+          .withBounds(0, 0, 1000, 500)
+          .withAttribute(ATTR_LAYOUT, "@layout/middle")
+      )).build();
+
+    assertTrue(model.isAffectedByLayoutEdits(Collections.singletonList(model.getFile().getVirtualFile())));
+    assertTrue(model.isAffectedByLayoutEdits(Collections.singletonList(middle)));
+    // Only included through middle.xml, must still re-render
+    assertTrue(model.isAffectedByLayoutEdits(Collections.singletonList(inner)));
+    assertFalse(model.isAffectedByLayoutEdits(Collections.singletonList(unrelated)));
+  }
+
   @Override
   public void tearDown() throws Exception {
     super.tearDown();
@@ -28,6 +28,7 @@ import com.android.tools.idea.uibuilder.model.NlModel;
 import com.android.tools.idea.uibuilder.surface.ScreenView;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.psi.PsiFile;
+import com.intellij.util.ui.UIUtil;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -39,6 +40,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static com.android.SdkConstants.RELATIVE_LAYOUT;
@@ -46,6 +48,7 @@ import static java.io.File.separator;
 
 public class IconPreviewFactoryTest extends LayoutTestCase {
   private static final float MAX_PERCENT_DIFFERENT = 6.5f;
+  private Palette myPalette;
   private Palette.Item myItem;
   private ScreenView myScreenView;
   private IconPreviewFactory myFactory;
@@ -53,9 +56,9 @@ public class IconPreviewFactoryTest extends LayoutTestCase {
   @Override
   public void setUp() throws Exception {
     super.setUp();
-    Palette palette = loadPalette();
+    myPalette = loadPalette();
     List<Palette.Item> items = new ArrayList<>();
-    palette.accept(items::add);
+    myPalette.accept(items::add);
     myItem = items.get(0);
 
     NlModel model = createModel();
@@ -63,12 +66,15 @@ public class IconPreviewFactoryTest extends LayoutTestCase {
     myFactory = new IconPreviewFactory();
     myFacet.setRenderService(new MyRenderService(myFacet));
     myFactory.myRenderTimeoutSeconds = Long.MAX_VALUE;
+    myFactory.dropCache();
   }
 
   @Override
   public void tearDown() throws Exception {
     try {
       myFacet.setRenderService(null);
+      waitForBackgroundLoads();
+      myFactory.dropCache();
       myFactory.myExecutorService.awaitTermination(60L, TimeUnit.SECONDS);
       Disposer.dispose(myFactory);
     }
@@ -92,6 +98,86 @@ public class IconPreviewFactoryTest extends LayoutTestCase {
     assertNull(myFactory.renderDragImage(myItem, myScreenView));
   }
 
+  public void testLoadUsesCompleteCache() throws Exception {
+    Configuration configuration = myScreenView.getConfiguration();
+    List<String> generatedIds = new ArrayList<>();
+    assertTrue(myFactory.load(configuration, myPalette, false, null, generatedIds));
+    assertFalse(generatedIds.isEmpty());
+    assertTrue(new File(IconPreviewFactory.getPreviewCacheDirForConfiguration(configuration), ".complete").exists());
+
+    generatedIds.clear();
+    assertFalse(myFactory.load(configuration, myPalette, false, null, generatedIds));
+    assertTrue(generatedIds.isEmpty());
+    assertFalse(myFactory.loadInBackground(configuration, myPalette, () -> {}));
+  }
+
+  public void testBackgroundLoadChecksDiskCacheOnce() throws Exception {
+    Configuration configuration = myScreenView.getConfiguration();
+    assertTrue(myFactory.load(configuration, myPalette, false));
+
+    // A new factory, as in a new session, checks the complete cache on disk in the background and then remembers it
+    IconPreviewFactory factory = new IconPreviewFactory();
+    try {
+      List<String> available = new ArrayList<>();
+      assertTrue(factory.loadInBackground(configuration, myPalette, () -> available.add("available")));
+      CountDownLatch done = new CountDownLatch(1);
+      factory.myLoadExecutor.execute(done::countDown);
+      assertTrue(done.await(60L, TimeUnit.SECONDS));
+      UIUtil.dispatchAllInvocationEvents();
+
+      assertEquals(1, available.size());
+      assertFalse(factory.loadInBackground(configuration, myPalette, () -> available.add("available")));
+      assertNotNull(factory.getImage(myItem, configuration, 1.0));
+    }
+    finally {
+      Disposer.dispose(factory);
+    }
+  }
+
+  public void testLoadRegeneratesPartialCache() throws Exception {
+    Configuration configuration = myScreenView.getConfiguration();
+    assertTrue(myFactory.load(configuration, myPalette, false));
+    File cacheDir = IconPreviewFactory.getPreviewCacheDirForConfiguration(configuration);
+    File image = new File(cacheDir, myItem.getId() + ".png");
+    assertTrue(image.exists());
+
+    // Simulate a load interrupted before the last image was written
+    assertTrue(new File(cacheDir, ".complete").delete());
+    assertTrue(image.delete());
+    assertNotNull(cacheDir.list());
+    assertTrue(cacheDir.list().length > 0);
+
+    assertTrue(myFactory.load(configuration, myPalette, false));
+    assertTrue(image.exists());
+    assertTrue(new File(cacheDir, ".complete").exists());
+  }
+
+  public void testDropCacheStopsBackgroundLoad() throws Exception {
+    Configuration configuration = myScreenView.getConfiguration();
+    File cacheDir = IconPreviewFactory.getPreviewCacheDirForConfiguration(configuration);
+    assertTrue(myFactory.loadInBackground(configuration, myPalette, () -> {}));
+    myFactory.dropCache();
+    waitForBackgroundLoads();
+
+    // The load started before the cache was dropped must not have written anything
+    assertFalse(cacheDir.exists());
+
+    // A new load is not mistaken for the stopped one
+    assertTrue(myFactory.loadInBackground(configuration, myPalette, () -> {}));
+    waitForBackgroundLoads();
+    assertTrue(new File(cacheDir, ".complete").exists());
+    assertNotNull(myFactory.getImage(myItem, configuration, 1.0));
+    assertFalse(myFactory.loadInBackground(configuration, myPalette, () -> {}));
+  }
+
+  private void waitForBackgroundLoads() throws InterruptedException {
+    // The loads run one at a time, so this runs after all the loads queued so far
+    CountDownLatch done = new CountDownLatch(1);
+    myFactory.myLoadExecutor.execute(done::countDown);
+    assertTrue(done.await(60L, TimeUnit.SECONDS));
+    UIUtil.dispatchAllInvocationEvents();
+  }
+
   private Palette loadPalette() throws Exception {
     NlPaletteModel model = NlPaletteModel.get(getProject());
 
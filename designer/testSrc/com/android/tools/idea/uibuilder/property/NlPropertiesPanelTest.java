@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.uibuilder.property;
 
+import com.android.tools.idea.res.AppResourceRepository;
 import com.android.tools.idea.uibuilder.model.NlComponent;
 import com.android.tools.idea.uibuilder.property.ptable.PTable;
 import com.android.tools.idea.uibuilder.property.ptable.PTableGroupItem;
@@ -23,7 +24,11 @@ import com.android.tools.idea.uibuilder.property.ptable.PTableModel;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Table;
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.util.Disposer;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
 import org.jetbrains.annotations.NotNull;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -35,6 +40,7 @@ import java.util.List;
 
 import static com.android.SdkConstants.ANDROID_URI;
 import static com.android.SdkConstants.ATTR_ELEVATION;
+import static com.android.SdkConstants.ATTR_TEXT_COLOR;
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -108,6 +114,48 @@ public class NlPropertiesPanelTest extends PropertyTestCase {
     assertThat(myTable.getSelectedItem()).isSameAs(elevation);
   }
 
+  public void testUpdatePropertiesSkipsUnchangedProperties() {
+    List<NlComponent> components = Collections.singletonList(myButton);
+    myPanel.setItems(components, getPropertyTable(components), myPropertiesManager);
+
+    assertThat(myPanel.updateProperties(myPropertiesManager)).isEmpty();
+  }
+
+  public void testUpdatePropertiesFindsChangedAttributes() {
+    List<NlComponent> components = Collections.singletonList(myButton);
+    Table<String, String, NlPropertyItem> properties = getPropertyTable(components);
+    NlPropertyItem elevation = properties.get(ANDROID_URI, ATTR_ELEVATION);
+    myPanel.setItems(components, properties, myPropertiesManager);
+
+    elevation.setValue("5dp");
+    assertThat(myPanel.updateProperties(myPropertiesManager)).containsExactly(elevation);
+    assertThat(myPanel.updateProperties(myPropertiesManager)).isEmpty();
+  }
+
+  public void testUpdatePropertiesAfterResourceEdit() {
+    PsiFile colors = myFixture.addFileToProject("res/values/colors.xml", getColorsSource("#FF0000"));
+    assertThat(AppResourceRepository.getAppResources(myFacet, true)).isNotNull();
+    List<NlComponent> components = Collections.singletonList(myButton);
+    Table<String, String, NlPropertyItem> properties = getPropertyTable(components);
+    NlPropertyItem textColor = properties.get(ANDROID_URI, ATTR_TEXT_COLOR);
+    textColor.setValue("@color/highlight");
+    myPanel.setItems(components, properties, myPropertiesManager);
+    assertThat(textColor.getResolvedValue()).isEqualTo("#FF0000");
+    assertThat(myPanel.updateProperties(myPropertiesManager)).isEmpty();
+
+    // The attribute value is unchanged, but the value it resolves to is not
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      PsiDocumentManager manager = PsiDocumentManager.getInstance(getProject());
+      Document document = manager.getDocument(colors);
+      assertThat(document).isNotNull();
+      document.setText(getColorsSource("#00FF00"));
+      manager.commitAllDocuments();
+    });
+    assertThat(myPanel.updateProperties(myPropertiesManager)).isNull();
+    assertThat(textColor.getResolvedValue()).isEqualTo("#00FF00");
+    assertThat(myPanel.updateProperties(myPropertiesManager)).isEmpty();
+  }
+
   public void testFilterSimpleMatch() {
     PTableItem item = mock(PTableItem.class);
     when(item.getName()).thenReturn("layout_bottom_of");
@@ -182,6 +230,13 @@ public class NlPropertiesPanelTest extends PropertyTestCase {
     assertFalse(filter.include(myEntry));
   }
 
+  @NotNull
+  private static String getColorsSource(@NotNull String highlight) {
+    return "<resources>\n" +
+           "    <color name=\"highlight\">" + highlight + "</color>\n" +
+           "</resources>\n";
+  }
+
   private int findRowOf(@NotNull String namespace, @NotNull String name) {
     TableModel model = myTable.getModel();
     for (int row = 0; row < model.getRowCount(); row++) {
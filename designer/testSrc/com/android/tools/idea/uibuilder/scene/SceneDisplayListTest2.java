@@ -79,4 +79,24 @@ public class SceneDisplayListTest2 extends SceneTest {
     assertEquals(10, disp.getCommands().size());
     disp.clear();
   }
-}
\ No newline at end of file
+
+  public void testRetainedComponentCommands() {
+    DisplayList first = new DisplayList();
+    myScene.buildDisplayList(first, 0);
+    DisplayList second = new DisplayList();
+    myScene.buildDisplayList(second, 0);
+    assertEquals(first.serialize(), second.serialize());
+    // The commands of unchanged components are reused: here the background, text and frame of the text view
+    assertSame(first.getCommands().get(2), second.getCommands().get(2));
+    assertSame(first.getCommands().get(3), second.getCommands().get(3));
+    assertSame(first.getCommands().get(4), second.getCommands().get(4));
+
+    // Selecting the text view changes how its frame is drawn
+    myScene.getSceneComponent("button").setSelected(true);
+    DisplayList third = new DisplayList();
+    myScene.buildDisplayList(third, 0);
+    assertNotSame(second.getCommands().get(4), third.getCommands().get(4));
+    assertTrue(third.getCommands().get(4).serialize().endsWith(",3"));
+    assertSame(second.getCommands().get(0), third.getCommands().get(0));
+  }
+}
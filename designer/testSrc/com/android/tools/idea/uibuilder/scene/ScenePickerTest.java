@@ -19,6 +19,9 @@ import junit.framework.TestCase;
 
 import java.awt.*;
 import java.awt.geom.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 /**
  * Test ScenePicker
@@ -308,4 +311,56 @@ public class ScenePickerTest extends TestCase {
       scenePicker.find((int)x, (int)y);
     }
   }
+
+  public void testIndexMatchesLinearScan() {
+    for (int count : new int[]{10, 100, 1000}) {
+      ScenePicker indexed = createScene(count);
+      ScenePicker linear = createScene(count);
+      linear.setIndexEnabled(false);
+      List<Object> indexedHits = new ArrayList<>();
+      List<Object> linearHits = new ArrayList<>();
+      indexed.setSelectListener((obj, dist) -> { indexedHits.add(obj); indexedHits.add(dist); });
+      linear.setSelectListener((obj, dist) -> { linearHits.add(obj); linearHits.add(dist); });
+
+      Random random = new Random(count);
+      int size = sceneSize(count);
+      for (int i = 0; i < 2000; i++) {
+        // Also search a little outside of the scene
+        int x = random.nextInt(size + 100) - 50;
+        int y = random.nextInt(size + 100) - 50;
+        indexedHits.clear();
+        linearHits.clear();
+        indexed.find(x, y);
+        linear.find(x, y);
+        assertEquals("Hits at " + x + "," + y, linearHits, indexedHits);
+      }
+    }
+  }
+
+  private static int sceneSize(int count) {
+    return (int)Math.ceil(Math.sqrt(count / 4.)) * 100;
+  }
+
+  /**
+   * Creates a picker for a scene of about {@code count} objects: a root rectangle, and a grid of widgets each made of a
+   * rectangle, an anchor point, a line and a connection curve to the next widget
+   */
+  private static ScenePicker createScene(int count) {
+    ScenePicker picker = new ScenePicker();
+    picker.reset();
+    int columns = (int)Math.ceil(Math.sqrt(count / 4.));
+    int size = sceneSize(count);
+    picker.addRect("root", 0, 0, 0, size, size);
+    int added = 1;
+    for (int i = 0; added < count; i++) {
+      int x = (i % columns) * 100 + 10;
+      int y = (i / columns) * 100 + 10;
+      picker.addRect("rect" + i, 0, x, y, x + 60, y + 40);
+      picker.addPoint("point" + i, 4, x + 30, y);
+      picker.addLine("line" + i, 4, x, y + 50, x + 60, y + 50);
+      picker.addCurveTo("curve" + i, 4, x + 60, y + 20, x + 80, y + 20, x + 90, y + 120, x + 110, y + 120);
+      added += 4;
+    }
+    return picker;
+  }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.uibuilder.surface;
+
+import com.android.tools.idea.rendering.ImageUtils;
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+
+public class ScreenViewLayerTest extends TestCase {
+  public void testFindDirtyTiles() {
+    BufferedImage before = createImage(BufferedImage.TYPE_INT_ARGB);
+    BufferedImage after = createImage(BufferedImage.TYPE_INT_ARGB);
+    assertEquals(Collections.emptyList(), ScreenViewLayer.findDirtyTiles(before, after, 10));
+
+    after.setRGB(15, 5, 0xFFFF0000);
+    after.setRGB(24, 24, 0xFF00FF00);
+    List<Rectangle> dirty = ScreenViewLayer.findDirtyTiles(before, after, 10);
+    // The last row and column of tiles are clipped to the image size
+    assertEquals(2, dirty.size());
+    assertEquals(new Rectangle(10, 0, 10, 10), dirty.get(0));
+    assertEquals(new Rectangle(20, 20, 5, 5), dirty.get(1));
+
+    // Different sizes can't be compared
+    //noinspection UndesirableClassUsage
+    assertNull(ScreenViewLayer.findDirtyTiles(before, new BufferedImage(20, 25, BufferedImage.TYPE_INT_ARGB), 10));
+  }
+
+  public void testFindDirtyTilesOtherImageType() {
+    BufferedImage before = createImage(BufferedImage.TYPE_3BYTE_BGR);
+    BufferedImage after = createImage(BufferedImage.TYPE_3BYTE_BGR);
+    after.setRGB(3, 12, 0xFF0000FF);
+    assertEquals(Collections.singletonList(new Rectangle(0, 10, 10, 10)), ScreenViewLayer.findDirtyTiles(before, after, 10));
+  }
+
+  public void testPartialUpdateLeavesNoSeams() {
+    BufferedImage source = createImage(BufferedImage.TYPE_INT_ARGB);
+    double scale = 0.3;
+    BufferedImage pixels = ImageUtils.lowQualityFastScale(source, scale, scale);
+    ScreenViewLayer.ScaledImage scaledImage = new ScreenViewLayer.ScaledImage(pixels, pixels, scale, true);
+
+    // Paint the middle tile red; every scaled pixel whose center falls in that tile must be rescaled
+    Graphics2D g = source.createGraphics();
+    //noinspection UseJBColor
+    g.setColor(Color.RED);
+    g.fillRect(10, 10, 10, 10);
+    g.dispose();
+    assertTrue(scaledImage.invalidate(Collections.singletonList(new Rectangle(10, 10, 10, 10)), source));
+    scaledImage.update(source);
+
+    for (int y = 0; y < pixels.getHeight(); y++) {
+      for (int x = 0; x < pixels.getWidth(); x++) {
+        double sourceX = (x + 0.5) / scale;
+        double sourceY = (y + 0.5) / scale;
+        boolean inTile = sourceX >= 11 && sourceX < 19 && sourceY >= 11 && sourceY < 19;
+        boolean outsideTile = sourceX < 9 || sourceX >= 21 || sourceY < 9 || sourceY >= 21;
+        if (inTile) {
+          assertEquals("Pixel " + x + "," + y, 0xFFFF0000, pixels.getRGB(x, y));
+        }
+        else if (outsideTile) {
+          assertEquals("Pixel " + x + "," + y, 0xFFFFFFFF, pixels.getRGB(x, y));
+        }
+      }
+    }
+  }
+
+  private static BufferedImage createImage(int type) {
+    //noinspection UndesirableClassUsage
+    BufferedImage image = new BufferedImage(25, 25, type);
+    Graphics2D g = image.createGraphics();
+    //noinspection UseJBColor
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, 25, 25);
+    g.dispose();
+    return image;
+  }
+}